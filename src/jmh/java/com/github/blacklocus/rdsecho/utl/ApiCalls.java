@@ -0,0 +1,66 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * API calls made by the benchmark, reported alongside its score. Divide by {@link #invocations} for calls per
+ * operation.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class ApiCalls {
+
+    public long invocations;
+    public long describeDBInstances;
+    public long listTagsForResource;
+    public long route53;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        invocations = 0;
+        describeDBInstances = 0;
+        listTagsForResource = 0;
+        route53 = 0;
+    }
+
+    /**
+     * Adds what the stubs counted since the given snapshot of their totals.
+     */
+    void record(SimulatedRds rds, long describeBefore, long tagsBefore) {
+        invocations++;
+        describeDBInstances += rds.calls("describeDBInstances") - describeBefore;
+        listTagsForResource += rds.calls("listTagsForResource") - tagsBefore;
+    }
+
+    void record(SimulatedRoute53 route53, long callsBefore) {
+        invocations++;
+        this.route53 += route53.calls.get() - callsBefore;
+    }
+}
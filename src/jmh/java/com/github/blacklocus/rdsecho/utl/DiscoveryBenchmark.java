@@ -0,0 +1,174 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Tag;
+import com.github.blacklocus.rdsecho.EchoCfg;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How finding echo instances scales with the number of instances in the account.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DiscoveryBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    int instances;
+
+    @Param({"100"})
+    int pageSize;
+
+    @Param({"5"})
+    int tagsPerInstance;
+
+    @Param({"0", "1"})
+    int prefetchDepth;
+
+    @Param({"0"})
+    long latencyMillis;
+
+    @Param({"0"})
+    int throttleEvery;
+
+    SimulatedRds rds;
+    RdsFind scanFind;
+    RdsFind tagIndexFind;
+    EchoCfg cfg;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        rds = new SimulatedRds(instances, pageSize, tagsPerInstance);
+        rds.latencyMillis = latencyMillis;
+        rds.throttleEvery = throttleEvery;
+
+        // The index answers from memory, as the real service would answer from its own index.
+        final ListMultimap<Map.Entry<String, String>, String> arnsByTag = ArrayListMultimap.create();
+        for (Map.Entry<String, List<Tag>> e : rds.tagsByArn.entrySet()) {
+            for (Tag tag : e.getValue()) {
+                arnsByTag.put(Maps.immutableEntry(tag.getKey(), tag.getValue()), e.getKey());
+            }
+        }
+        TagIndex tagIndex = new TagIndex() {
+            @Override
+            public Map<String, List<Tag>> resourcesWithTag(String tagKey, String tagValue) {
+                ImmutableMap.Builder<String, List<Tag>> tagged = ImmutableMap.builder();
+                for (String arn : arnsByTag.get(Maps.immutableEntry(tagKey, tagValue))) {
+                    tagged.put(arn, rds.tagsByArn.get(arn));
+                }
+                return tagged.build();
+            }
+        };
+
+        // Shared across invocations, as each holds a pool of tag lookup threads
+        scanFind = new RdsFind(rds.client(), RdsFind.DEFAULT_TAG_CONCURRENCY).withPrefetchDepth(prefetchDepth);
+        tagIndexFind = new RdsFind(rds.client(), RdsFind.DEFAULT_TAG_CONCURRENCY).withPrefetchDepth(prefetchDepth);
+        tagIndexFind.withDiscovery(new TagIndexInstanceDiscovery(tagIndexFind, tagIndex));
+
+        File dir = Files.createTempDir();
+        Files.write("rdsecho.interactive=false\n" +
+                "rdsecho.name=" + SimulatedRds.ECHO_NAME + "\n" +
+                "rdsecho.region=" + SimulatedRds.REGION + "\n" +
+                "rdsecho.accountNumber=" + SimulatedRds.ACCOUNT_NUMBER + "\n" +
+                "rdsecho.snapshot.dbInstanceIdentifier=source\n" +
+                "rdsecho.mod.applyImmediately=true\n" +
+                "rdsecho.promote.cname=bench.example.com\n" +
+                "rdsecho.promote.ttl=60\n", new File(dir, "bench.properties"), StandardCharsets.UTF_8);
+        cfg = EchoCfg.environments(dir).get(SimulatedRds.ECHO_NAME);
+    }
+
+    @Benchmark
+    public void pageInstances(ApiCalls calls, Blackhole blackhole) {
+        long describeBefore = rds.calls("describeDBInstances"), tagsBefore = rds.calls("listTagsForResource");
+        for (DBInstance instance : scanFind.instances(Predicates.<DBInstance>alwaysTrue())) {
+            blackhole.consume(instance);
+        }
+        calls.record(rds, describeBefore, tagsBefore);
+    }
+
+    @Benchmark
+    public void scanInstancesWithTag(ApiCalls calls, Blackhole blackhole) {
+        long describeBefore = rds.calls("describeDBInstances"), tagsBefore = rds.calls("listTagsForResource");
+        String tagKey = "rdsecho:" + SimulatedRds.ECHO_NAME + ":managed";
+        for (Map.Entry<DBInstance, List<Tag>> e : scanFind.getDiscovery().discover(SimulatedRds.REGION,
+                SimulatedRds.ACCOUNT_NUMBER, tagKey, "true").entrySet()) {
+            if (Iterables.any(e.getValue(), RdsFind.tagEquals(tagKey, "true"))) {
+                blackhole.consume(e.getKey());
+            }
+        }
+        calls.record(rds, describeBefore, tagsBefore);
+    }
+
+    /**
+     * The lookups a stage command makes, answered through a scan.
+     */
+    @Benchmark
+    public void echoLookupsByScan(ApiCalls calls, Blackhole blackhole) {
+        long describeBefore = rds.calls("describeDBInstances"), tagsBefore = rds.calls("listTagsForResource");
+        echoLookups(scanFind, blackhole);
+        calls.record(rds, describeBefore, tagsBefore);
+    }
+
+    /**
+     * The lookups a stage command makes, answered through the tag index.
+     */
+    @Benchmark
+    public void echoLookupsByTagIndex(ApiCalls calls, Blackhole blackhole) {
+        long describeBefore = rds.calls("describeDBInstances"), tagsBefore = rds.calls("listTagsForResource");
+        echoLookups(tagIndexFind, blackhole);
+        calls.record(rds, describeBefore, tagsBefore);
+    }
+
+    void echoLookups(RdsFind rdsFind, Blackhole blackhole) {
+        EchoUtil echo = new EchoUtil(cfg, new RdsInventory(rdsFind, SimulatedRds.REGION, SimulatedRds.ACCOUNT_NUMBER));
+        DBInstance instance = echo.lastEchoInstance().get();
+        blackhole.consume(echo.instanceStage(instance.getDBInstanceIdentifier()));
+        blackhole.consume(echo.promotedInstance());
+    }
+}
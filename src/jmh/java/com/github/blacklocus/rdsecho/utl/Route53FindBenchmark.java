@@ -0,0 +1,102 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.route53.model.RRType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * How finding the promoted CNAME scales with the number of hosted zones and records.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class Route53FindBenchmark {
+
+    @Param({"1", "100"})
+    int hostedZones;
+
+    @Param({"10", "1000", "10000"})
+    int records;
+
+    @Param({"100"})
+    int pageSize;
+
+    @Param({"0", "1"})
+    int prefetchDepth;
+
+    @Param({"0"})
+    long latencyMillis;
+
+    @Param({"0"})
+    int throttleEvery;
+
+    SimulatedRoute53 route53;
+    String zoneName;
+    String recordName;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        route53 = new SimulatedRoute53(hostedZones, records, pageSize);
+        route53.latencyMillis = latencyMillis;
+        route53.throttleEvery = throttleEvery;
+        // The last of everything, so that the whole listing is read
+        zoneName = SimulatedRoute53.zoneName(hostedZones - 1);
+        recordName = SimulatedRoute53.recordName(records - 1, hostedZones - 1);
+    }
+
+    /**
+     * By walking every zone and record.
+     */
+    @Benchmark
+    public void findPromotedRecord(ApiCalls calls, Blackhole blackhole) {
+        long before = route53.calls.get();
+        Route53Find route53Find = new Route53Find(route53.client(), prefetchDepth);
+        String hostedZoneId = route53Find.hostedZone(Route53Find.nameEquals(zoneName)).get().getId();
+        blackhole.consume(route53Find.resourceRecordSet(hostedZoneId, Route53Find.cnameEquals(recordName)).get());
+        calls.record(route53, before);
+    }
+
+    /**
+     * As promote finds it: the zone id from the cache, and the record by listing from its name.
+     */
+    @Benchmark
+    public void findPromotedRecordByName(ApiCalls calls, Blackhole blackhole) {
+        long before = route53.calls.get();
+        Route53Find route53Find = new Route53Find(route53.client(), prefetchDepth);
+        String hostedZoneId = route53Find.hostedZoneByName(zoneName).get().getId();
+        blackhole.consume(route53Find.resourceRecordSet(hostedZoneId, recordName, RRType.CNAME).get());
+        calls.record(route53, before);
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.AmazonServiceException;
+import com.google.common.collect.Maps;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base of the in-process AWS stubs that benchmarks run against. Counts calls by operation, and may delay or throttle
+ * each call as a real endpoint would.
+ */
+abstract class SimulatedAws implements InvocationHandler {
+
+    /**
+     * Added to every call.
+     */
+    volatile long latencyMillis = 0;
+
+    /**
+     * Every this many calls fails as throttled, or 0 for never.
+     */
+    volatile int throttleEvery = 0;
+
+    final AtomicLong calls = new AtomicLong();
+    final ConcurrentMap<String, AtomicLong> callsByOperation = Maps.newConcurrentMap();
+
+    long calls(String operation) {
+        AtomicLong count = callsByOperation.get(operation);
+        return count == null ? 0 : count.get();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String operation = method.getName();
+        long call = calls.incrementAndGet();
+        AtomicLong count = callsByOperation.get(operation);
+        if (count == null) {
+            callsByOperation.putIfAbsent(operation, new AtomicLong());
+            count = callsByOperation.get(operation);
+        }
+        count.incrementAndGet();
+
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+        if (throttleEvery > 0 && call % throttleEvery == 0) {
+            AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+            e.setErrorCode("Throttling");
+            e.setStatusCode(400);
+            e.setServiceName(getClass().getSimpleName());
+            throw e;
+        }
+
+        Method handler;
+        try {
+            handler = getClass().getDeclaredMethod(operation, method.getParameterTypes());
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException(operation);
+        }
+        try {
+            return handler.invoke(this, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.DBInstanceNotFoundException;
+import com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
+import com.amazonaws.services.rds.model.DescribeDBInstancesResult;
+import com.amazonaws.services.rds.model.ListTagsForResourceRequest;
+import com.amazonaws.services.rds.model.ListTagsForResourceResult;
+import com.amazonaws.services.rds.model.Tag;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An account of generated instances. One in {@link #ECHO_EVERY} belongs to the echo environment {@link #ECHO_NAME}; the
+ * newest of those is promoted and the rest forgotten. Every instance carries some further unrelated tags.
+ */
+class SimulatedRds extends SimulatedAws {
+
+    static final String REGION = "us-east-1";
+    static final String ACCOUNT_NUMBER = "123456789012";
+    static final String ECHO_NAME = "bench";
+    static final int ECHO_EVERY = 100;
+
+    final List<DBInstance> instances;
+    final Map<String, DBInstance> instancesById = Maps.newHashMap();
+    final Map<String, List<Tag>> tagsByArn = Maps.newHashMap();
+    final int pageSize;
+
+    SimulatedRds(int instanceCount, int pageSize, int tagsPerInstance) {
+        this.pageSize = pageSize;
+        List<DBInstance> instances = Lists.newArrayListWithCapacity(instanceCount);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < instanceCount; i++) {
+            String id = String.format("db-%05d", i);
+            DBInstance instance = new DBInstance()
+                    .withDBInstanceIdentifier(id)
+                    .withDBInstanceStatus("available")
+                    .withInstanceCreateTime(new Date(now - (instanceCount - i) * 60000L));
+            instances.add(instance);
+            instancesById.put(id, instance);
+
+            List<Tag> tags = Lists.newArrayList();
+            for (int t = 0; t < tagsPerInstance; t++) {
+                tags.add(new Tag().withKey("tag" + t).withValue("value" + i));
+            }
+            if (i % ECHO_EVERY == 0) {
+                boolean newest = i + ECHO_EVERY >= instanceCount;
+                tags.add(new Tag().withKey("rdsecho:" + ECHO_NAME + ":managed").withValue("true"));
+                tags.add(new Tag().withKey("rdsecho:" + ECHO_NAME + ":stage").withValue(newest ? "promoted" : "forgotten"));
+            }
+            tagsByArn.put(RdsFind.instanceArn(REGION, ACCOUNT_NUMBER, id), ImmutableList.copyOf(tags));
+        }
+        this.instances = ImmutableList.copyOf(instances);
+    }
+
+    AmazonRDS client() {
+        return (AmazonRDS) Proxy.newProxyInstance(AmazonRDS.class.getClassLoader(), new Class<?>[]{AmazonRDS.class}, this);
+    }
+
+    DescribeDBInstancesResult describeDBInstances(DescribeDBInstancesRequest request) {
+        if (request.getDBInstanceIdentifier() != null) {
+            DBInstance instance = instancesById.get(request.getDBInstanceIdentifier());
+            if (instance == null) {
+                throw new DBInstanceNotFoundException(request.getDBInstanceIdentifier());
+            }
+            return new DescribeDBInstancesResult().withDBInstances(instance);
+        }
+        int from = request.getMarker() == null ? 0 : Integer.parseInt(request.getMarker());
+        int to = Math.min(from + pageSize, instances.size());
+        return new DescribeDBInstancesResult()
+                .withDBInstances(instances.subList(from, to))
+                .withMarker(to < instances.size() ? String.valueOf(to) : null);
+    }
+
+    ListTagsForResourceResult listTagsForResource(ListTagsForResourceRequest request) {
+        List<Tag> tags = tagsByArn.get(request.getResourceName());
+        return new ListTagsForResourceResult().withTagList(tags == null ? Collections.<Tag>emptyList() : tags);
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.route53.AmazonRoute53;
+import com.amazonaws.services.route53.model.HostedZone;
+import com.amazonaws.services.route53.model.ListHostedZonesRequest;
+import com.amazonaws.services.route53.model.ListHostedZonesResult;
+import com.amazonaws.services.route53.model.ListResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.ListResourceRecordSetsResult;
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hosted zones named <code>zone-N.example.com.</code>, each holding CNAMEs <code>record-N.zone-N.example.com.</code> in
+ * Route53's lexicographic order.
+ */
+class SimulatedRoute53 extends SimulatedAws {
+
+    final List<HostedZone> hostedZones;
+    final List<ResourceRecordSet> recordSets;
+    final int pageSize;
+
+    SimulatedRoute53(int hostedZoneCount, int recordsPerZone, int pageSize) {
+        this.pageSize = pageSize;
+        List<HostedZone> hostedZones = Lists.newArrayList();
+        for (int z = 0; z < hostedZoneCount; z++) {
+            hostedZones.add(new HostedZone().withId("/hostedzone/Z" + z).withName(zoneName(z)));
+        }
+        this.hostedZones = ImmutableList.copyOf(hostedZones);
+
+        // Every zone holds the same records, relative to its own name. Only the last zone's names are used.
+        List<ResourceRecordSet> recordSets = Lists.newArrayList();
+        for (int r = 0; r < recordsPerZone; r++) {
+            recordSets.add(new ResourceRecordSet()
+                    .withName(recordName(r, hostedZoneCount - 1))
+                    .withType(RRType.CNAME)
+                    .withTTL(60L)
+                    .withResourceRecords(new ResourceRecord("db-" + r + ".rds.amazonaws.com")));
+        }
+        this.recordSets = ImmutableList.copyOf(recordSets);
+    }
+
+    static String zoneName(int z) {
+        return String.format("zone-%05d.example.com.", z);
+    }
+
+    static String recordName(int r, int z) {
+        return String.format("record-%05d.", r) + zoneName(z);
+    }
+
+    AmazonRoute53 client() {
+        return (AmazonRoute53) Proxy.newProxyInstance(AmazonRoute53.class.getClassLoader(), new Class<?>[]{AmazonRoute53.class}, this);
+    }
+
+    ListHostedZonesResult listHostedZones() {
+        return listHostedZones(new ListHostedZonesRequest());
+    }
+
+    ListHostedZonesResult listHostedZones(ListHostedZonesRequest request) {
+        int from = request.getMarker() == null ? 0 : Integer.parseInt(request.getMarker());
+        int to = Math.min(from + pageSize, hostedZones.size());
+        boolean truncated = to < hostedZones.size();
+        return new ListHostedZonesResult()
+                .withHostedZones(hostedZones.subList(from, to))
+                .withIsTruncated(truncated)
+                .withNextMarker(truncated ? String.valueOf(to) : null);
+    }
+
+    ListResourceRecordSetsResult listResourceRecordSets(ListResourceRecordSetsRequest request) {
+        int from = 0;
+        if (request.getStartRecordName() != null) {
+            int found = Collections.binarySearch(Lists.transform(recordSets, new Function<ResourceRecordSet, String>() {
+                @Override
+                public String apply(ResourceRecordSet recordSet) {
+                    return recordSet.getName();
+                }
+            }), request.getStartRecordName());
+            from = found >= 0 ? found : -found - 1;
+        }
+        int to = Math.min(from + pageSize, recordSets.size());
+        boolean truncated = to < recordSets.size();
+        return new ListResourceRecordSetsResult()
+                .withResourceRecordSets(recordSets.subList(from, to))
+                .withIsTruncated(truncated)
+                .withNextRecordName(truncated ? recordSets.get(to).getName() : null)
+                .withNextRecordType(truncated ? recordSets.get(to).getType() : null);
+    }
+}
@@ -23,18 +23,31 @@
  */
 package com.github.blacklocus.rdsecho;
 
+import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.services.rds.AmazonRDS;
-import com.amazonaws.services.rds.AmazonRDSClient;
 import com.amazonaws.services.rds.model.AddTagsToResourceRequest;
 import com.amazonaws.services.rds.model.DBInstance;
 import com.amazonaws.services.rds.model.Tag;
 import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.Journal;
 import com.github.blacklocus.rdsecho.utl.RdsFind;
+import com.github.blacklocus.rdsecho.utl.RunReport;
+import com.github.blacklocus.rdsecho.utl.RunReporter;
+import com.github.blacklocus.rdsecho.utl.StageHistory;
 import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 abstract class AbstractEchoIntermediateStage implements Callable<Boolean> {
 
@@ -43,33 +56,174 @@ abstract class AbstractEchoIntermediateStage implements Callable<Boolean> {
     final String requisiteStage;
     final String resultantStage;
 
-    final AmazonRDS rds = new AmazonRDSClient();
+    final AmazonRDS rds;
 
-    final EchoCfg cfg = EchoCfg.getInstance();
-    final EchoUtil echo = new EchoUtil();
+    final EchoCfg cfg;
+    final EchoUtil echo;
+    final RunReporter reporter;
+    final StageHistory history;
+    final Journal journal;
 
-    public AbstractEchoIntermediateStage(String requisiteStage, String resultantStage) {
+    /**
+     * Report of the current call
+     */
+    RunReport report;
+
+    /**
+     * Whether to wait for the instance to become available rather than give up
+     */
+    boolean waitForAvailable = false;
+
+    public AbstractEchoIntermediateStage(EchoContext ctx, String requisiteStage, String resultantStage) {
         this.requisiteStage = requisiteStage;
         this.resultantStage = resultantStage;
+        this.rds = ctx.rds;
+        this.cfg = ctx.cfg;
+        this.echo = ctx.echo;
+        this.reporter = ctx.reporter;
+        this.history = ctx.history;
+        this.journal = ctx.journal;
     }
 
     @Override
     public Boolean call() throws Exception {
+        report = reporter.begin(getCommand());
+        try {
+            return report.advanced(advance());
+        } catch (Exception e) {
+            report.failed(e);
+            throw e;
+        } finally {
+            reporter.end(report);
+        }
+    }
+
+    boolean advance() throws Exception {
 
         // Validate state, make sure we're operating on what we expect to.
 
         String tagEchoManaged = echo.getTagEchoManaged();
-        String tagEchoStage = echo.getTagEchoStage();
         String command = this.getCommand();
 
         LOG.info("[{}] Locating latest Echo managed instance (tagged with {}=true)", command, tagEchoManaged);
-        Optional<DBInstance> instanceOpt = echo.lastEchoInstance();
-        if (!instanceOpt.isPresent()) {
+        List<DBInstance> cohort = candidates();
+        if (cohort.isEmpty()) {
             LOG.warn("[{}] Unable to locate Echo-managed instance. Is there one? Aborting.", command, tagEchoManaged);
             return false;
         }
+        if (cohort.size() > 1) {
+            LOG.info("[{}] Latest Echo-managed instances are a cohort of {}", command, cohort.size());
+        }
+
+        List<DBInstance> ready = Lists.newArrayList();
+        for (DBInstance member : cohort) {
+            Optional<DBInstance> instance = ready(member);
+            if (instance.isPresent()) {
+                ready.add(instance.get());
+            }
+        }
+        if (ready.isEmpty() || (traversesWholeCohort() && ready.size() < cohort.size())) {
+            return false;
+        }
+
+        // Pick up where an earlier run that was interrupted left off, rather than send its requests again
+
+        List<DBInstance> traversed = Lists.newArrayList();
+        List<DBInstance> remaining = Lists.newArrayList();
+        for (DBInstance instance : ready) {
+            if (resumed(instance)) {
+                traversed.add(instance);
+            } else {
+                remaining.add(instance);
+            }
+        }
+
+        // Do the part special to traversing this stage
+
+        if (!remaining.isEmpty()) {
+            for (DBInstance instance : remaining) {
+                journal.intent(instance.getDBInstanceIdentifier(), command, requisiteStage, resultantStage);
+            }
+            traversed.addAll(traverseCohort(remaining));
+        }
+
+        boolean advanced = false;
+        for (DBInstance instance : traversed) {
 
-        DBInstance instance = instanceOpt.get();
+            // Advance. This replaces, same-named tags.
+            Tag stageTag = new Tag().withKey(echo.getTagEchoStage()).withValue(resultantStage);
+            rds.addTagsToResource(new AddTagsToResourceRequest()
+                    .withResourceName(RdsFind.instanceArn(cfg.region(), cfg.accountNumber(), instance.getDBInstanceIdentifier()))
+                    .withTags(stageTag));
+            echo.tagged(instance.getDBInstanceIdentifier(), Collections.singletonList(stageTag));
+            report.transition(instance.getDBInstanceIdentifier(), requisiteStage, resultantStage);
+            history.started(instance.getDBInstanceIdentifier(), resultantStage, System.currentTimeMillis());
+            journal.done(instance.getDBInstanceIdentifier(), command);
+            advanced = true;
+        }
+        return advanced;
+    }
+
+    /**
+     * @return whether an earlier run was interrupted after it sent this stage's requests for the instance, so that it
+     * only remains to advance the instance's stage
+     */
+    boolean resumed(DBInstance instance) {
+        String dbInstanceId = instance.getDBInstanceIdentifier();
+        Optional<Journal.Entry> entry = journal.open(dbInstanceId, getCommand());
+        if (!entry.isPresent() || entry.get().getState() == Journal.State.INTENT) {
+            return false;
+        }
+        if (!resume(instance, entry.get())) {
+            LOG.info("[{}] An earlier run was interrupted on instance {} ({}) before its requests took effect. " +
+                    "Sending them again.", getCommand(), dbInstanceId, entry.get());
+            return false;
+        }
+        LOG.info("[{}] An earlier run was interrupted on instance {} ({}) after its requests took effect. " +
+                "Advancing its stage without sending them again.", getCommand(), dbInstanceId, entry.get());
+        return true;
+    }
+
+    /**
+     * Reconciles an interrupted run's journal entry with the instance. By default, only an entry whose requests all
+     * succeeded is resumed. Override where the instance shows whether a request that may or may not have been sent
+     * took effect.
+     *
+     * @param entry which has sent or was about to send requests
+     * @return whether the stage's requests took effect on the instance
+     */
+    boolean resume(DBInstance instance, Journal.Entry entry) {
+        return entry.getState() == Journal.State.SENT;
+    }
+
+    /**
+     * Journals and reports the request, which is about to be sent on behalf of the instance
+     */
+    void sending(String dbInstanceId, AmazonWebServiceRequest request) {
+        journal.sending(dbInstanceId, getCommand(), request);
+        report.request(request);
+    }
+
+    /**
+     * Journals that all of the requests sent on behalf of the instance succeeded
+     */
+    void sent(String dbInstanceId) {
+        journal.sent(dbInstanceId, getCommand());
+    }
+
+    /**
+     * @return the instances this stage would advance, by default the latest cohort
+     */
+    List<DBInstance> candidates() {
+        return echo.lastEchoCohort();
+    }
+
+    /**
+     * @return the instance, current as of when it is available, if it is in the requisite stage and available
+     */
+    Optional<DBInstance> ready(DBInstance instance) throws InterruptedException {
+        String tagEchoStage = echo.getTagEchoStage();
+        String command = this.getCommand();
 
         String dbInstanceId = instance.getDBInstanceIdentifier();
         LOG.info("[{}] Located echo-managed instance with identifier {}", command, dbInstanceId);
@@ -80,37 +234,98 @@ abstract class AbstractEchoIntermediateStage implements Callable<Boolean> {
                             "(If the instance is supposed to be in stage {} but isn't, edit " +
                             "the instance's tags to add {}={} and run this operation again.)",
                     command, dbInstanceId, requisiteStage, tagEchoStage, requisiteStage);
-            return false;
+            return Optional.absent();
         }
         String instanceStage = stageOpt.get().getValue();
         if (!requisiteStage.equals(instanceStage)) {
             LOG.info("[{}] Instance {} has stage {} but this operation is looking for {}={}. Exiting.\n",
                     command, dbInstanceId, instanceStage, tagEchoStage, requisiteStage);
-            return false;
+            return Optional.absent();
         }
 
         // Looks like we found a good echo instance, but is it available to us?
 
         if (!"available".equals(instance.getDBInstanceStatus())) {
-            LOG.info("[{}] Instance {} is in correct stage of {} but does not have status 'available' (saw {}) so aborting.",
+            if (!waitForAvailable) {
+                LOG.info("[{}] Instance {} is in correct stage of {} but does not have status 'available' (saw {}) so aborting.",
+                        command, dbInstanceId, instanceStage, instance.getDBInstanceStatus());
+                return Optional.absent();
+            }
+
+            LOG.info("[{}] Instance {} is in correct stage of {} but has status {}. Waiting for it to become available.",
                     command, dbInstanceId, instanceStage, instance.getDBInstanceStatus());
-            return false;
+            long waitStart = System.currentTimeMillis();
+            Optional<DBInstance> instanceOpt = echo.waitForAvailable(dbInstanceId);
+            report.phase("waitForAvailable " + dbInstanceId, waitStart);
+            if (instanceOpt.isPresent()) {
+                available(instanceOpt.get());
+            } else {
+                LOG.info("[{}] Instance {} did not become available. Aborting.", command, dbInstanceId);
+            }
+            return instanceOpt;
         }
+        available(instance);
+        return Optional.of(instance);
+    }
 
-        // Do the part special to traversing this stage
-
-        if (traverseStage(instance)) {
-
-            // Advance. This replaces, same-named tags.
-            rds.addTagsToResource(new AddTagsToResourceRequest()
-                    .withResourceName(RdsFind.instanceArn(cfg.region(), cfg.accountNumber(), instance.getDBInstanceIdentifier()))
-                    .withTags(new Tag().withKey(tagEchoStage).withValue(resultantStage)));
+    void available(DBInstance instance) {
+        report.instance(instance);
+        // Only a new instance's stage started when the instance did; the others are in the history
+        Date createTime = instance.getInstanceCreateTime();
+        history.available(instance, requisiteStage, EchoConst.STAGE_NEW.equals(requisiteStage) && createTime != null ?
+                Optional.of(createTime.getTime()) : Optional.<Long>absent(), System.currentTimeMillis());
+    }
 
-            return true;
+    /**
+     * Traverses each instance, all at once unless confirmations are interactive. Override to traverse a cohort as one.
+     *
+     * @param instances which are guaranteed non-empty, available, and on the requisite stage
+     * @return the instances that traversed the stage
+     */
+    List<DBInstance> traverseCohort(List<DBInstance> instances) throws Exception {
+        List<DBInstance> traversed = Lists.newArrayList();
+        if (instances.size() == 1 || cfg.interactive()) {
+            for (DBInstance instance : instances) {
+                if (traverseStage(instance)) {
+                    traversed.add(instance);
+                }
+            }
+            return traversed;
+        }
 
-        } else {
-            return false;
+        ExecutorService executor = Executors.newFixedThreadPool(instances.size(), new ThreadFactoryBuilder()
+                .setNameFormat("rdsecho-" + getCommand() + "-%d")
+                .build());
+        List<Future<Boolean>> futures = Lists.newArrayList();
+        try {
+            for (final DBInstance instance : instances) {
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return traverseStage(instance);
+                    }
+                }));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < instances.size(); i++) {
+            try {
+                if (futures.get(i).get()) {
+                    traversed.add(instances.get(i));
+                }
+            } catch (ExecutionException e) {
+                LOG.error("[{}] Failed on instance {}", getCommand(), instances.get(i).getDBInstanceIdentifier(), e.getCause());
+            }
         }
+        return traversed;
+    }
+
+    /**
+     * @return whether the stage may only be traversed by the whole cohort at once
+     */
+    boolean traversesWholeCohort() {
+        return false;
     }
 
     /**
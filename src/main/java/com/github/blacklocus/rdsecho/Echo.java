@@ -23,7 +23,12 @@
  */
 package com.github.blacklocus.rdsecho;
 
+import com.github.blacklocus.rdsecho.utl.ApiMetrics;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
@@ -35,22 +40,31 @@ import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_ALL;
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_APPLY;
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_COPY;
 import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_MODIFY;
 import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_NEW;
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_PLAN;
 import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_PROMOTE;
 import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_REBOOT;
 import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_RETIRE;
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_RUN;
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_WARM;
 import static com.github.blacklocus.rdsecho.EchoConst.STAGE_FORGOTTEN;
 import static com.github.blacklocus.rdsecho.EchoConst.STAGE_MODIFIED;
 import static com.github.blacklocus.rdsecho.EchoConst.STAGE_NEW;
 import static com.github.blacklocus.rdsecho.EchoConst.STAGE_PROMOTED;
 import static com.github.blacklocus.rdsecho.EchoConst.STAGE_REBOOTED;
 import static com.github.blacklocus.rdsecho.EchoConst.STAGE_RETIRED;
+import static com.github.blacklocus.rdsecho.EchoConst.STAGE_WARMED;
 
 public class Echo {
 
     private static final Logger LOG = LoggerFactory.getLogger(Echo.class);
 
+    static final String OPTION_WAIT = "--wait";
+
     static final Map<String, CommandBundle> COMMANDS = ImmutableMap.<String, CommandBundle>builder()
             .put("sample-props", bundle(EchoSampleProps.class,
                     "Drops a template rdsecho.properties into the current working directory, which must be " +
@@ -61,6 +75,10 @@ public class Echo {
                             "present in the current directory, OPTS property values will be populated with the file's " +
                             "values. The stdout of this command can be piped to a file. Log messages are placed on " +
                             "stderr and so will not be included in the output."))
+            .put(COMMAND_COPY, bundle(EchoCopy.class,
+                    "Optional. Copies the latest snapshot from the region configured by %s into this one, so that '%s' restores " +
+                            "from the copy. With --wait, waits for the copy to complete, logging its progress.",
+                    EchoCfg.PROP_COPY_SOURCE_REGION, COMMAND_NEW))
             .put(COMMAND_NEW, bundle(EchoNew.class,
                     "Creates a stage '%s' instance from a snapshot. This is usually the longest operation.",
                     STAGE_NEW))
@@ -70,34 +88,97 @@ public class Echo {
             .put(COMMAND_REBOOT, bundle(EchoReboot.class,
                     "Reboots a stage '%s' instance so that all settings may take full effect and advances stage to '%s'.",
                     STAGE_MODIFIED, STAGE_REBOOTED))
+            .put(COMMAND_WARM, bundle(EchoWarm.class,
+                    "Optional. Reads through the tables of a stage '%s' instance so that its data is loaded before it " +
+                            "takes traffic, and advances stage to '%s'. Only when %s or %s is configured, which also requires %s.",
+                    STAGE_REBOOTED, STAGE_WARMED, EchoCfg.PROP_WARM_TABLES, EchoCfg.PROP_WARM_QUERIES_FILE,
+                    EchoCfg.PROP_JDBC_URL))
             .put(COMMAND_PROMOTE, bundle(EchoPromote.class,
-                    "Promotes a stage '%s' instance so that it becomes the active instance behind the specified CNAME " +
-                            "and advances stage to '%s'. Any previously '%s' instances will be moved to stage '%s'.",
-                    STAGE_REBOOTED, STAGE_PROMOTED, STAGE_PROMOTED, STAGE_FORGOTTEN))
+                    "Promotes a stage '%s' (or '%s' if warming) instance so that it becomes the active instance " +
+                            "behind the specified CNAME and advances stage to '%s'. Any previously '%s' instances " +
+                            "will be moved to stage '%s'.",
+                    STAGE_REBOOTED, STAGE_WARMED, STAGE_PROMOTED, STAGE_PROMOTED, STAGE_FORGOTTEN))
             .put(COMMAND_RETIRE, bundle(EchoRetire.class,
                     "Retires a stage '%s' instance (destroys it) and advances stage to '%s'.",
                     STAGE_FORGOTTEN, STAGE_RETIRED))
+            .put(COMMAND_RUN, bundle(EchoRun.class,
+                    "Runs until killed, advancing the latest instance through stages '%s' to '%s' as soon as it is " +
+                            "available, then starting over with a new instance. Requires rdsecho.interactive=false.",
+                    STAGE_NEW, STAGE_PROMOTED))
+            .put(COMMAND_PLAN, bundle(EchoPlan.class,
+                    "Looks up once everything that the stages through '%s', and then '%s', would act on, and " +
+                            "writes every request they would make to %s without making any, along with an estimate " +
+                            "of the AWS calls saved.",
+                    STAGE_PROMOTED, COMMAND_RETIRE, EchoCfg.PROP_PLAN_FILE))
+            .put(COMMAND_APPLY, bundle(EchoApply.class,
+                    "Carries out the plan written by '%s', waiting for the instances in between, without looking " +
+                            "them up again. Refuses a plan older than %s, or one that would no longer make the same " +
+                            "requests. Requires rdsecho.interactive=false.",
+                    COMMAND_PLAN, EchoCfg.PROP_PLAN_MAX_AGE_MINUTES))
+            .put(COMMAND_ALL, bundle(EchoAll.class,
+                    "Followed by another command, runs that command on every environment configured by a properties " +
+                            "file in the directory %s (default %s), all at once. The command '%s' advances each " +
+                            "environment through as many stages as it can, waiting in between. %s caps how many " +
+                            "restores may be in progress at once.",
+                    EchoAll.PROP_ALL_DIR, EchoAll.DEFAULT_DIR, EchoAll.PIPELINE,
+                    EchoCfg.PROP_ALL_MAX_CONCURRENT_RESTORES))
             .build();
 
     public static void main(String[] args) throws Exception {
         if (args.length == 0) {
             printUsage();
+            return;
+        }
 
-        } else if (args.length == 1) {
-            String command = args[0];
-            CommandBundle bundle = COMMANDS.get(command);
-
-            if (bundle == null) {
-                LOG.error("Unrecognized command '{}'.");
-                printUsage();
+        String command = args[0];
+        CommandBundle bundle = COMMANDS.get(command);
+        if (bundle == null) {
+            LOG.error("Unrecognized command '{}'.", command);
+            printUsage();
+            return;
+        }
 
+        Callable<Boolean> callable = bundle.commandClass.newInstance();
+        int firstOption = 1;
+        if (callable instanceof EchoAll && args.length > 1) {
+            ((EchoAll) callable).command = args[1];
+            firstOption = 2;
+        }
+        for (int i = firstOption; i < args.length; i++) {
+            if (OPTION_WAIT.equals(args[i]) && callable instanceof AbstractEchoIntermediateStage) {
+                ((AbstractEchoIntermediateStage) callable).waitForAvailable = true;
+            } else if (OPTION_WAIT.equals(args[i]) && callable instanceof EchoCopy) {
+                ((EchoCopy) callable).waitForAvailable = true;
+            } else if (OPTION_WAIT.equals(args[i]) && callable instanceof EchoAll) {
+                ((EchoAll) callable).waitForAvailable = true;
             } else {
-                bundle.commandClass.newInstance().call();
+                LOG.error("Unrecognized option '{}' for command '{}'.", args[i], command);
+                printUsage();
+                return;
             }
+        }
+        try {
+            callable.call();
+        } finally {
+            reportMetrics(callable);
+        }
+    }
 
-        } else {
-            LOG.error("Expected exactly one argument.");
-            printUsage();
+    static void reportMetrics(Callable<Boolean> command) throws IOException {
+        ApiMetrics metrics = ApiMetrics.getInstance();
+        if (metrics.isEmpty()) {
+            // Made no AWS calls, and perhaps is not even configured
+            return;
+        }
+        LOG.info("AWS API calls:\n{}", metrics.summary());
+
+        // 'all' reads no single configuration, so only -D applies
+        Optional<String> metricsFile = command instanceof EchoAll ?
+                Optional.fromNullable(Strings.emptyToNull(System.getProperty(EchoCfg.PROP_METRICS_FILE))) :
+                EchoCfg.getInstance().metricsFile();
+        if (metricsFile.isPresent()) {
+            metrics.write(new File(metricsFile.get()));
+            LOG.info("Wrote metrics to {}", metricsFile.get());
         }
     }
 
@@ -105,7 +186,8 @@ public class Echo {
         StringWriter s = new StringWriter();
         PrintWriter p = new PrintWriter(s)
                 .format("usage:%n")
-                .format("$ rds-echo <command>%n")
+                .format("$ rds-echo <command> [--wait]%n")
+                .format("$ rds-echo all <command> [--wait]%n")
                 .format("%n")
                 .format("RDS Echo may be configured by rdsecho.properties in the current working directory, %n")
                 .format("or exporting a fully-populated RDS_ECHO_OPTS environment variable.%n")
@@ -115,6 +197,10 @@ public class Echo {
                 .format("many of the parameters. This can then be converted to OPTS if desired through the%n")
                 .format("sample-opts command.%n")
                 .format("%n")
+                .format("Commands that advance an existing instance (modify, reboot, warm, promote, retire) abort if%n")
+                .format("the instance is not available. With --wait they instead poll the instance until it is, at%n")
+                .format("most rdsecho.wait.timeoutMinutes.%n")
+                .format("%n")
                 .format("Valid commands correspond to Echo stages:%n")
                 .format("%n");
 
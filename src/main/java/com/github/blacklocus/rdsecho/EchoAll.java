@@ -0,0 +1,275 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.route53.AmazonRoute53;
+import com.github.blacklocus.rdsecho.utl.ApiRateLimiter;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.RdsInventory;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_ALL;
+
+/**
+ * Runs one command for every environment configured in a directory, all environments at once. Environments in the
+ * same region share their RDS client, and environments in the same account and region share one {@link RdsInventory}
+ * so that the account is scanned once rather than once per environment.
+ * <p/>
+ * The command is any of the stage commands, or {@value #PIPELINE}, which advances each environment through as many
+ * stages as it can, waiting for the instance to become available in between.
+ */
+public class EchoAll implements Callable<Boolean> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EchoAll.class);
+
+    /**
+     * System property naming the directory of environment properties files, by default {@value #DEFAULT_DIR}
+     */
+    public static final String PROP_ALL_DIR = EchoCfg.PREFIX + "all.dir";
+
+    public static final String DEFAULT_DIR = "rdsecho.d";
+
+    public static final String PIPELINE = "pipeline";
+
+    /**
+     * The command to run on every environment, set from the command line
+     */
+    String command;
+    boolean waitForAvailable = false;
+
+    @Override
+    public Boolean call() throws Exception {
+        if (command == null) {
+            LOG.error("[{}] Expected a command to run on all environments.", COMMAND_ALL);
+            return false;
+        }
+
+        File dir = new File(System.getProperty(PROP_ALL_DIR, DEFAULT_DIR));
+        Map<String, EchoCfg> environments = EchoCfg.environments(dir);
+        LOG.info("[{}] Running {} on {} environments configured in {}: {}",
+                COMMAND_ALL, command, environments.size(), dir, environments.keySet());
+
+        // Share what can be shared. Rate limits apply to the whole process.
+
+        ApiRateLimiter.getInstance().configure(rateLimits(environments.values()),
+                EchoContext.lockDir(rateLimitLockDir(environments.values())));
+        AmazonRoute53 route53 = EchoContext.route53Client();
+        Map<String, AmazonRDS> rdsByRegion = Maps.newHashMap();
+        Map<String, RdsInventory> inventories = Maps.newHashMap();
+        for (EchoCfg cfg : environments.values()) {
+            if (!rdsByRegion.containsKey(cfg.region())) {
+                rdsByRegion.put(cfg.region(), EchoContext.rdsClient(cfg.region()));
+            }
+            String inventoryKey = cfg.region() + ':' + cfg.accountNumber();
+            if (!inventories.containsKey(inventoryKey)) {
+                inventories.put(inventoryKey, new RdsInventory(
+                        EchoUtil.newRdsFind(cfg, rdsByRegion.get(cfg.region())), cfg.region(), cfg.accountNumber()));
+            }
+            // Environments sharing the inventory share its tag cache too
+            inventories.get(inventoryKey).getRdsFind().readTagsLive(cfg.name() + '-');
+        }
+        Optional<Semaphore> restorePermits = restorePermits(environments.values(), inventories);
+
+        // Run the command for each environment, all at once
+
+        ExecutorService executor = Executors.newFixedThreadPool(environments.size(), new ThreadFactoryBuilder()
+                .setNameFormat("rdsecho-all-%d")
+                .build());
+        Map<String, Future<Result>> futures = Maps.newLinkedHashMap();
+        for (EchoCfg cfg : environments.values()) {
+            RdsInventory inventory = inventories.get(cfg.region() + ':' + cfg.accountNumber());
+            EchoContext ctx = new EchoContext(cfg, rdsByRegion.get(cfg.region()), route53, inventory, restorePermits);
+            futures.put(cfg.name(), executor.submit(environmentCommand(ctx)));
+        }
+        executor.shutdown();
+
+        // Report
+
+        boolean allOk = true;
+        StringWriter report = new StringWriter();
+        PrintWriter printer = new PrintWriter(report);
+        printer.format("[%s] Results of %s%n", COMMAND_ALL, command);
+        for (Map.Entry<String, Future<Result>> e : futures.entrySet()) {
+            Result result;
+            try {
+                result = e.getValue().get();
+            } catch (ExecutionException ex) {
+                LOG.error("[{}] {} failed on environment {}", COMMAND_ALL, command, e.getKey(), ex.getCause());
+                result = new Result(0, 0, Throwables.getRootCause(ex).toString());
+            }
+            allOk &= result.failure == null;
+            printer.format("  %-20s %-10s %6ds  %s%n", e.getKey(),
+                    result.failure != null ? "failed" : result.advanced > 0 ? "advanced" : "unchanged",
+                    result.seconds, result.failure != null ? result.failure : result.advanced + " stage(s)");
+        }
+        LOG.info(report.toString());
+
+        return allOk;
+    }
+
+    Callable<Result> environmentCommand(final EchoContext ctx) {
+        return new Callable<Result>() {
+            @Override
+            public Result call() throws Exception {
+                long start = System.currentTimeMillis();
+                int advanced = 0;
+                if (PIPELINE.equals(command)) {
+                    EchoRun run = new EchoRun(ctx);
+                    while (run.step()) {
+                        advanced++;
+                    }
+                } else if (stageCommand(ctx).call()) {
+                    advanced++;
+                }
+                return new Result(advanced, (System.currentTimeMillis() - start) / 1000, null);
+            }
+        };
+    }
+
+    Callable<Boolean> stageCommand(EchoContext ctx) {
+        switch (command) {
+            case EchoConst.COMMAND_COPY:
+                EchoCopy copy = new EchoCopy(ctx);
+                copy.waitForAvailable = waitForAvailable;
+                return copy;
+            case EchoConst.COMMAND_NEW:
+                return new EchoNew(ctx);
+            case EchoConst.COMMAND_MODIFY:
+                return waitIfAsked(new EchoModify(ctx));
+            case EchoConst.COMMAND_REBOOT:
+                return waitIfAsked(new EchoReboot(ctx));
+            case EchoConst.COMMAND_WARM:
+                return waitIfAsked(new EchoWarm(ctx));
+            case EchoConst.COMMAND_PROMOTE:
+                return waitIfAsked(new EchoPromote(ctx));
+            case EchoConst.COMMAND_RETIRE:
+                return waitIfAsked(new EchoRetire(ctx));
+            default:
+                throw new IllegalArgumentException("Cannot run '" + command + "' on all environments");
+        }
+    }
+
+    AbstractEchoIntermediateStage waitIfAsked(AbstractEchoIntermediateStage stage) {
+        stage.waitForAvailable = waitForAvailable;
+        return stage;
+    }
+
+    /**
+     * @return permits for as many more restores as the lowest cap any environment sets allows, given those already in
+     * progress, or none if no environment sets a cap
+     */
+    static Optional<Semaphore> restorePermits(Iterable<EchoCfg> environments, Map<String, RdsInventory> inventories) {
+        int maxConcurrentRestores = 0;
+        for (EchoCfg cfg : environments) {
+            int max = cfg.allMaxConcurrentRestores();
+            if (max > 0 && (maxConcurrentRestores == 0 || max < maxConcurrentRestores)) {
+                maxConcurrentRestores = max;
+            }
+        }
+        if (maxConcurrentRestores == 0) {
+            return Optional.absent();
+        }
+
+        int inProgress = 0;
+        for (EchoCfg cfg : environments) {
+            RdsInventory inventory = inventories.get(cfg.region() + ':' + cfg.accountNumber());
+            String tagEchoStage = String.format(EchoConst.TAG_ECHO_STAGE_FMT, cfg.name());
+            for (DBInstance instance : inventory.instancesWithTag(tagEchoStage, EchoConst.STAGE_NEW)) {
+                if ("creating".equals(instance.getDBInstanceStatus())) {
+                    inProgress++;
+                }
+            }
+        }
+        int permits = Math.max(0, maxConcurrentRestores - inProgress);
+        LOG.info("[{}] {} restores in progress. Up to {} more may start.", COMMAND_ALL, inProgress, permits);
+        return Optional.of(new Semaphore(permits));
+    }
+
+    /**
+     * @return the lowest rate any environment sets for each operation, as every environment's calls share the limits
+     */
+    static Map<String, Double> rateLimits(Iterable<EchoCfg> environments) {
+        Map<String, Double> rateLimits = Maps.newHashMap();
+        for (EchoCfg cfg : environments) {
+            for (Map.Entry<String, Double> e : cfg.rateLimits().entrySet()) {
+                Double rate = rateLimits.get(e.getKey());
+                rateLimits.put(e.getKey(), rate == null ? e.getValue() : Math.min(rate, e.getValue()));
+            }
+        }
+        return rateLimits;
+    }
+
+    /**
+     * @return the lock directory of the first environment to set one
+     */
+    static Optional<String> rateLimitLockDir(Iterable<EchoCfg> environments) {
+        Optional<String> lockDir = Optional.absent();
+        for (EchoCfg cfg : environments) {
+            Optional<String> own = cfg.rateLimitLockDir();
+            if (!lockDir.isPresent()) {
+                lockDir = own;
+            } else if (own.isPresent() && !own.equals(lockDir)) {
+                LOG.warn("[{}] Environment {} sets {}={}, but all environments share {}", COMMAND_ALL, cfg.name(),
+                        EchoCfg.PROP_RATE_LIMIT_LOCK_DIR, own.get(), lockDir.get());
+            }
+        }
+        return lockDir;
+    }
+
+    static class Result {
+        final int advanced;
+        final long seconds;
+        final String failure;
+
+        Result(int advanced, long seconds, String failure) {
+            this.advanced = advanced;
+            this.seconds = seconds;
+            this.failure = failure;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        EchoAll all = new EchoAll();
+        all.command = args.length > 0 ? args[0] : null;
+        all.call();
+    }
+}
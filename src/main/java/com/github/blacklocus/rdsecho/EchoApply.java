@@ -0,0 +1,162 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.github.blacklocus.rdsecho.utl.RunReport;
+import com.github.blacklocus.rdsecho.utl.RunReporter;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_APPLY;
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_PLAN;
+
+/**
+ * Carries out the plan that {@link EchoPlan} wrote to {@link EchoCfg#planFile()}, running its commands in order and
+ * waiting for the instances to become available in between. Lookups are answered from the instances in the plan, and a
+ * new instance is restored from what the plan located, rather than looking them up again. The plan must be no older than
+ * {@link EchoCfg#planMaxAgeMinutes()}, and is planned again from the same instances before anything is done, so that a
+ * plan that no longer holds, e.g. after the configuration or the DNS records changed, is refused.
+ */
+public class EchoApply implements Callable<Boolean> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EchoApply.class);
+
+    final EchoContext ctx;
+    final EchoCfg cfg;
+    final RunReporter reporter;
+
+    public EchoApply() {
+        this(EchoContext.create());
+    }
+
+    public EchoApply(EchoContext ctx) {
+        this.ctx = ctx;
+        this.cfg = ctx.cfg;
+        this.reporter = ctx.reporter;
+    }
+
+    @Override
+    public Boolean call() throws Exception {
+        if (cfg.interactive()) {
+            LOG.error("[{}] Cannot apply unattended with {}=true. Exiting.", COMMAND_APPLY, EchoCfg.PROP_INTERACTIVE);
+            return false;
+        }
+
+        File file = new File(cfg.planFile());
+        if (!file.isFile()) {
+            LOG.error("[{}] There is no plan at {}. Run '{}' first.", COMMAND_APPLY, file, COMMAND_PLAN);
+            return false;
+        }
+        Plan plan = Plan.fromJson(Files.toString(file, Charsets.UTF_8));
+        if (!cfg.name().equals(plan.environment)) {
+            LOG.error("[{}] The plan at {} is of environment {}, not {}. Exiting.",
+                    COMMAND_APPLY, file, plan.environment, cfg.name());
+            return false;
+        }
+        long ageMinutes = (System.currentTimeMillis() - plan.createdMillis) / 60000;
+        if (ageMinutes > cfg.planMaxAgeMinutes()) {
+            LOG.error("[{}] The plan at {} is {} minutes old, older than {}={}. Run '{}' again.", COMMAND_APPLY,
+                    file, ageMinutes, EchoCfg.PROP_PLAN_MAX_AGE_MINUTES, cfg.planMaxAgeMinutes(), COMMAND_PLAN);
+            return false;
+        }
+
+        // Look up nothing the plan already found
+
+        ctx.echo.prime(plan.primedInstances());
+        RestoreSource source = RestoreSource.create(ctx);
+        if (plan.source.isPresent()) {
+            source.pin(plan.source.get());
+        }
+
+        RunReport report = reporter.begin(COMMAND_APPLY);
+        Optional<Plan> replanned;
+        try {
+            report.put("planFile", file.getPath());
+            replanned = new EchoPlan(ctx).plan(source, plan.hostedZoneId, report);
+        } catch (Exception e) {
+            report.failed(e);
+            throw e;
+        } finally {
+            reporter.end(report);
+        }
+        if (!replanned.isPresent()) {
+            LOG.error("[{}] The plan at {} no longer holds. Run '{}' again.", COMMAND_APPLY, file, COMMAND_PLAN);
+            return false;
+        }
+        Optional<String> difference = plan.difference(replanned.get());
+        if (difference.isPresent()) {
+            LOG.error("[{}] The plan at {} no longer holds: {}\nRun '{}' again.",
+                    COMMAND_APPLY, file, difference.get(), COMMAND_PLAN);
+            return false;
+        }
+
+        // Carry it out
+
+        for (int i = 0; i < plan.steps.size(); i++) {
+            Plan.Step step = plan.steps.get(i);
+            LOG.info("[{}] Step {} of {}: {} {}", COMMAND_APPLY, i + 1, plan.steps.size(), step.command, step.instances);
+            if (!command(step.command, source, plan.hostedZoneId).call()) {
+                LOG.warn("[{}] Step {} did not complete. Stopping. Run '{}' to plan the rest.",
+                        COMMAND_APPLY, i + 1, COMMAND_PLAN);
+                return false;
+            }
+        }
+        LOG.info("[{}] Applied all {} steps of the plan at {}.", COMMAND_APPLY, plan.steps.size(), file);
+        return true;
+    }
+
+    /**
+     * @return the command, waiting for its instances to become available
+     */
+    Callable<Boolean> command(String command, RestoreSource source, Optional<String> hostedZoneId) {
+        switch (command) {
+            case EchoConst.COMMAND_NEW:
+                return new EchoNew(ctx, source);
+            case EchoConst.COMMAND_MODIFY:
+                return EchoRun.waiting(new EchoModify(ctx));
+            case EchoConst.COMMAND_REBOOT:
+                return EchoRun.waiting(new EchoReboot(ctx));
+            case EchoConst.COMMAND_WARM:
+                return EchoRun.waiting(new EchoWarm(ctx));
+            case EchoConst.COMMAND_PROMOTE:
+                EchoPromote promote = new EchoPromote(ctx);
+                promote.knownHostedZoneId = hostedZoneId;
+                return EchoRun.waiting(promote);
+            case EchoConst.COMMAND_RETIRE:
+                return EchoRun.waiting(new EchoRetire(ctx));
+            default:
+                throw new IllegalArgumentException("Cannot apply '" + command + "'");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new EchoApply().call();
+    }
+}
@@ -23,15 +23,37 @@
  */
 package com.github.blacklocus.rdsecho;
 
+import com.github.blacklocus.rdsecho.utl.ApiRateLimiter;
+import com.github.blacklocus.rdsecho.utl.CnameTarget;
+import com.github.blacklocus.rdsecho.utl.DiscoveryType;
+import com.github.blacklocus.rdsecho.utl.RdsFind;
+import com.github.blacklocus.rdsecho.utl.RestoreSourceType;
+import com.github.blacklocus.rdsecho.utl.SnapshotPolicy;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.apache.commons.configuration.CompositeConfiguration;
 import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.MapConfiguration;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.apache.commons.configuration.SystemConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 public class EchoCfg {
 
     private static final Logger LOG = LoggerFactory.getLogger(EchoCfg.class);
@@ -45,6 +67,22 @@ public class EchoCfg {
     public static final String PROP_ACCOUNT_NUMBER = PREFIX + "accountNumber";
     public static final String PROP_SNAPSHOT_DB_INSTANCE_IDENTIFIER = PREFIX + "snapshot.dbInstanceIdentifier";
 
+    // Snapshot selection parameters are optional
+    public static final String PROP_SNAPSHOT_TYPE = PREFIX + "snapshot.type";
+    public static final String PROP_SNAPSHOT_POLICY = PREFIX + "snapshot.policy";
+    public static final String PROP_SNAPSHOT_BEFORE = PREFIX + "snapshot.before";
+    public static final String PROP_SNAPSHOT_MAX_AGE_HOURS = PREFIX + "snapshot.maxAgeHours";
+
+    // Copy parameters are optional
+    public static final String PROP_COPY_SOURCE_REGION = PREFIX + "copy.sourceRegion";
+
+    // Discovery parameters are optional
+    public static final String PROP_FIND_TAG_CONCURRENCY = PREFIX + "find.tagConcurrency";
+    public static final String PROP_FIND_PREFETCH_DEPTH = PREFIX + "find.prefetchDepth";
+    public static final String PROP_FIND_DISCOVERY = PREFIX + "find.discovery";
+    public static final String PROP_CACHE_DIR = PREFIX + "cache.dir";
+    public static final String PROP_CACHE_TTL_MINUTES = PREFIX + "cache.ttlMinutes";
+
     // All new instance parameters are required
     public static final String PROP_NEW_ENGINE = PREFIX + "new.engine";
     public static final String PROP_NEW_LICENSE_MODEL = PREFIX + "new.licenseModel";
@@ -56,6 +94,11 @@ public class EchoCfg {
     public static final String PROP_NEW_OPTION_GROUP_NAME = PREFIX + "new.optionGroupName";
     public static final String PROP_NEW_AUTO_MINOR_VERSION_UPGRADE = PREFIX + "new.autoMinorVersionUpgrade";
     public static final String PROP_NEW_TAGS = PREFIX + "new.tags";
+    public static final String PROP_NEW_COUNT = PREFIX + "new.count";
+    public static final String PROP_NEW_SOURCE = PREFIX + "new.source";
+    public static final String PROP_NEW_RESTORE_OFFSET_MINUTES = PREFIX + "new.restoreOffsetMinutes";
+    public static final String PROP_NEW_DEADLINE = PREFIX + "new.deadline";
+    public static final String PROP_NEW_DEADLINE_ZONE = PREFIX + "new.deadlineZone";
 
     // Modify parameters are mostly optional
     public static final String PROP_MOD_DB_PARAMETER_GROUP_NAME = PREFIX + "mod.dbParameterGroupName";
@@ -66,8 +109,60 @@ public class EchoCfg {
     // Promote parameters are required
     public static final String PROP_PROMOTE_CNAME = PREFIX + "promote.cname";
     public static final String PROP_PROMOTE_TTL = PREFIX + "promote.ttl";
+    public static final String PROP_PROMOTE_HOSTED_ZONE_ID = PREFIX + "promote.hostedZoneId";
+    public static final String PROP_PROMOTE_SYNC_TIMEOUT_MINUTES = PREFIX + "promote.syncTimeoutMinutes";
+    public static final String PROP_PROMOTE_SHIFT_STEPS = PREFIX + "promote.shiftSteps";
+    public static final String PROP_PROMOTE_SHIFT_HOLD_SECONDS = PREFIX + "promote.shiftHoldSeconds";
     public static final String PROP_PROMOTE_TAGS = PREFIX + "promote.tags";
 
+    // JDBC parameters are needed only to warm or verify instances
+    public static final String PROP_JDBC_URL = PREFIX + "jdbc.url";
+    public static final String PROP_JDBC_USER = PREFIX + "jdbc.user";
+    public static final String PROP_JDBC_PASSWORD = PREFIX + "jdbc.password";
+    public static final String PROP_JDBC_DRIVER_JAR = PREFIX + "jdbc.driverJar";
+
+    // Warm parameters are optional. Without tables or queries there is no warm stage.
+    public static final String PROP_WARM_TABLES = PREFIX + "warm.tables";
+    public static final String PROP_WARM_QUERIES_FILE = PREFIX + "warm.queriesFile";
+    public static final String PROP_WARM_THREADS = PREFIX + "warm.threads";
+    public static final String PROP_WARM_FETCH_SIZE = PREFIX + "warm.fetchSize";
+
+    // Verify parameters are optional. Without queries promote does not verify.
+    public static final String PROP_VERIFY_QUERIES_FILE = PREFIX + "verify.queriesFile";
+    public static final String PROP_VERIFY_THREADS = PREFIX + "verify.threads";
+    public static final String PROP_VERIFY_REPEAT = PREFIX + "verify.repeat";
+    public static final String PROP_VERIFY_MAX_P50_MILLIS = PREFIX + "verify.maxP50Millis";
+    public static final String PROP_VERIFY_MAX_P99_MILLIS = PREFIX + "verify.maxP99Millis";
+    public static final String PROP_VERIFY_COMPARE_TO_PROMOTED = PREFIX + "verify.compareToPromoted";
+    public static final String PROP_VERIFY_MAX_SLOWDOWN = PREFIX + "verify.maxSlowdown";
+    public static final String PROP_VERIFY_MAX_ROW_DRIFT = PREFIX + "verify.maxRowDrift";
+
+    // Wait parameters are optional
+    public static final String PROP_WAIT_TIMEOUT_MINUTES = PREFIX + "wait.timeoutMinutes";
+
+    // Run parameters are optional
+    public static final String PROP_RUN_MIN_POLL_SECONDS = PREFIX + "run.minPollSeconds";
+    public static final String PROP_RUN_MAX_POLL_SECONDS = PREFIX + "run.maxPollSeconds";
+    public static final String PROP_ALL_MAX_CONCURRENT_RESTORES = PREFIX + "all.maxConcurrentRestores";
+
+    // Rate limit parameters are optional. Each operation is rdsecho.rateLimit.<service>.<operation>, e.g.
+    // rdsecho.rateLimit.rds.listTagsForResource, or rdsecho.rateLimit.default for any other.
+    public static final String PROP_RATE_LIMIT_PREFIX = PREFIX + "rateLimit.";
+    public static final String PROP_RATE_LIMIT_LOCK_DIR = PROP_RATE_LIMIT_PREFIX + "lockDir";
+
+    // Metrics parameters are optional
+    public static final String PROP_METRICS_FILE = PREFIX + "metrics.file";
+
+    // Report parameters are optional
+    public static final String PROP_REPORT_FILE = PREFIX + "report.file";
+    public static final String PROP_HISTORY_FILE = PREFIX + "history.file";
+
+    public static final String PROP_PLAN_FILE = PREFIX + "plan.file";
+    public static final String PROP_PLAN_MAX_AGE_MINUTES = PREFIX + "plan.maxAgeMinutes";
+
+    // Journal parameters are optional
+    public static final String PROP_JOURNAL_FILE = PREFIX + "journal.file";
+
     // Retire parameters are optional and unspecified take on AWS defaults
     public static final String PROP_RETIRE_SKIP_FINAL_SNAPSHOT = PREFIX + "retire.skipFinalSnapshot";
     public static final String PROP_RETIRE_FINAL_DB_SNAPSHOT_IDENTIFIER = PREFIX + "retire.finalDbSnapshotIdentifier";
@@ -86,7 +181,15 @@ public class EchoCfg {
 
     // package scoped for testing
     EchoCfg(String propertiesFilename) {
+        this(propertiesFilename, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * @param overrides properties that take precedence over VM properties and the file, e.g. in tests
+     */
+    EchoCfg(String propertiesFilename, Map<String, ?> overrides) {
         this.cfg = new CompositeConfiguration();
+        this.cfg.addConfiguration(new MapConfiguration(overrides));
         this.cfg.addConfiguration(new SystemConfiguration());
         try {
             this.cfg.addConfiguration(new PropertiesConfiguration(propertiesFilename));
@@ -124,6 +227,50 @@ public class EchoCfg {
         return cfg.getString(PROP_SNAPSHOT_DB_INSTANCE_IDENTIFIER);
     }
 
+    public Optional<String> snapshotType() {
+        return Optional.fromNullable(Strings.emptyToNull(cfg.getString(PROP_SNAPSHOT_TYPE)));
+    }
+
+    public SnapshotPolicy snapshotPolicy() {
+        return SnapshotPolicy.fromValue(cfg.getString(PROP_SNAPSHOT_POLICY, SnapshotPolicy.NEWEST.getValue()));
+    }
+
+    public Optional<Date> snapshotBefore() {
+        String before = Strings.emptyToNull(cfg.getString(PROP_SNAPSHOT_BEFORE));
+        return before == null ? Optional.<Date>absent() : Optional.of(DateTime.parse(before).toDate());
+    }
+
+    public Optional<Integer> snapshotMaxAgeHours() {
+        return optionalInteger(PROP_SNAPSHOT_MAX_AGE_HOURS);
+    }
+
+    /**
+     * @return the region whose snapshots are copied into {@link #region()} to restore from, if not this one
+     */
+    public Optional<String> copySourceRegion() {
+        return Optional.fromNullable(Strings.emptyToNull(cfg.getString(PROP_COPY_SOURCE_REGION)));
+    }
+
+    public Optional<Integer> findTagConcurrency() {
+        return Optional.fromNullable(cfg.getInteger(PROP_FIND_TAG_CONCURRENCY, null));
+    }
+
+    public int findPrefetchDepth() {
+        return cfg.getInt(PROP_FIND_PREFETCH_DEPTH, RdsFind.DEFAULT_PREFETCH_DEPTH);
+    }
+
+    public DiscoveryType findDiscovery() {
+        return DiscoveryType.fromValue(cfg.getString(PROP_FIND_DISCOVERY, DiscoveryType.SCAN.getValue()));
+    }
+
+    public Optional<String> cacheDir() {
+        return Optional.fromNullable(Strings.emptyToNull(cfg.getString(PROP_CACHE_DIR)));
+    }
+
+    public int cacheTtlMinutes() {
+        return cfg.getInt(PROP_CACHE_TTL_MINUTES, 60);
+    }
+
     public Optional<String> newEngine() {
         return Optional.fromNullable(cfg.getString(PROP_NEW_ENGINE));
     }
@@ -160,6 +307,40 @@ public class EchoCfg {
         return Optional.fromNullable(cfg.getBoolean(PROP_NEW_AUTO_MINOR_VERSION_UPGRADE, null));
     }
 
+    /**
+     * @return how many instances to create from the snapshot at once, as one cohort
+     */
+    public int newCount() {
+        int count = cfg.getInt(PROP_NEW_COUNT, 1);
+        Preconditions.checkArgument(count > 0, PROP_NEW_COUNT + " must be at least 1");
+        return count;
+    }
+
+    public RestoreSourceType newRestoreSource() {
+        return RestoreSourceType.fromValue(cfg.getString(PROP_NEW_SOURCE, RestoreSourceType.SNAPSHOT.getValue()));
+    }
+
+    /**
+     * @return how many minutes before the source instance's latest restorable time to restore it to
+     */
+    public int newRestoreOffsetMinutes() {
+        int offset = cfg.getInt(PROP_NEW_RESTORE_OFFSET_MINUTES, 0);
+        Preconditions.checkArgument(offset >= 0, PROP_NEW_RESTORE_OFFSET_MINUTES + " must not be negative");
+        return offset;
+    }
+
+    /**
+     * @return the time of day by which a new instance must be ready to promote, if any
+     */
+    public Optional<LocalTime> newDeadline() {
+        String deadline = Strings.emptyToNull(cfg.getString(PROP_NEW_DEADLINE));
+        return deadline == null ? Optional.<LocalTime>absent() : Optional.of(LocalTime.parse(deadline));
+    }
+
+    public DateTimeZone newDeadlineZone() {
+        return DateTimeZone.forID(cfg.getString(PROP_NEW_DEADLINE_ZONE, "UTC"));
+    }
+
     public Optional<String[]> newTags() {
         String[] values = cfg.getStringArray(PROP_NEW_TAGS);
         if (values == null || values.length == 0) {
@@ -190,14 +371,63 @@ public class EchoCfg {
         return cfg.getBoolean(PROP_MOD_APPLY_IMMEDIATELY);
     }
 
+    /**
+     * @return name of the first of {@link #promoteCnames()}
+     */
     public String promoteCname() {
-        return cfg.getString(PROP_PROMOTE_CNAME);
+        return promoteCnames().get(0).getName();
     }
 
     public long promoteTtl() {
         return cfg.getLong(PROP_PROMOTE_TTL);
     }
 
+    /**
+     * @return every CNAME to point at the promoted instance
+     */
+    public List<CnameTarget> promoteCnames() {
+        List<CnameTarget> cnames = Lists.newArrayList();
+        for (String spec : cfg.getStringArray(PROP_PROMOTE_CNAME)) {
+            cnames.add(CnameTarget.parse(spec));
+        }
+        return cnames;
+    }
+
+    public long promoteSyncTimeoutMinutes() {
+        return cfg.getLong(PROP_PROMOTE_SYNC_TIMEOUT_MINUTES, 10);
+    }
+
+    /**
+     * @return ascending percents of traffic to shift to the promoted instance, one step at a time, always ending at 100.
+     * Only 100 when unset, which shifts all traffic at once.
+     */
+    public List<Long> promoteShiftSteps() {
+        List<Long> steps = Lists.newArrayList();
+        for (String step : cfg.getStringArray(PROP_PROMOTE_SHIFT_STEPS)) {
+            if (Strings.isNullOrEmpty(step.trim())) {
+                continue;
+            }
+            long percent = Long.parseLong(step.trim());
+            Preconditions.checkArgument(percent > 0 && percent <= 100,
+                    PROP_PROMOTE_SHIFT_STEPS + " must be percents from 1 to 100: " + percent);
+            Preconditions.checkArgument(steps.isEmpty() || percent > steps.get(steps.size() - 1),
+                    PROP_PROMOTE_SHIFT_STEPS + " must be ascending: " + percent);
+            steps.add(percent);
+        }
+        if (steps.isEmpty() || steps.get(steps.size() - 1) != 100) {
+            steps.add(100L);
+        }
+        return steps;
+    }
+
+    public long promoteShiftHoldSeconds() {
+        return cfg.getLong(PROP_PROMOTE_SHIFT_HOLD_SECONDS, 0);
+    }
+
+    public Optional<String> promoteHostedZoneId() {
+        return Optional.fromNullable(Strings.emptyToNull(cfg.getString(PROP_PROMOTE_HOSTED_ZONE_ID)));
+    }
+
     public Optional<String[]> promoteTags() {
         String[] values = cfg.getStringArray(PROP_PROMOTE_TAGS);
         if (values == null || values.length == 0) {
@@ -207,6 +437,156 @@ public class EchoCfg {
         }
     }
 
+    /**
+     * @return JDBC URL in which {host} and {port} stand for an instance's endpoint
+     */
+    public Optional<String> jdbcUrl() {
+        return Optional.fromNullable(Strings.emptyToNull(cfg.getString(PROP_JDBC_URL)));
+    }
+
+    public Optional<String> jdbcUser() {
+        return Optional.fromNullable(Strings.emptyToNull(cfg.getString(PROP_JDBC_USER)));
+    }
+
+    public Optional<String> jdbcPassword() {
+        return Optional.fromNullable(Strings.emptyToNull(cfg.getString(PROP_JDBC_PASSWORD)));
+    }
+
+    public Optional<String> jdbcDriverJar() {
+        return Optional.fromNullable(Strings.emptyToNull(cfg.getString(PROP_JDBC_DRIVER_JAR)));
+    }
+
+    /**
+     * @return whether there is a warm stage between reboot and promote, which {@link #PROP_WARM_TABLES} or
+     * {@link #PROP_WARM_QUERIES_FILE} turns on. The {@link #PROP_JDBC_URL} shared with verify does not, but warming
+     * needs it, so it is checked here rather than leaving an instance stuck short of promote.
+     */
+    public boolean warmEnabled() {
+        boolean enabled = !warmTables().isEmpty() || warmQueriesFile().isPresent();
+        Preconditions.checkState(!enabled || jdbcUrl().isPresent(),
+                PROP_WARM_TABLES + " or " + PROP_WARM_QUERIES_FILE + " requires " + PROP_JDBC_URL);
+        return enabled;
+    }
+
+    public List<String> warmTables() {
+        List<String> tables = Lists.newArrayList();
+        for (String table : cfg.getStringArray(PROP_WARM_TABLES)) {
+            if (!Strings.isNullOrEmpty(table.trim())) {
+                tables.add(table.trim());
+            }
+        }
+        return tables;
+    }
+
+    public Optional<String> warmQueriesFile() {
+        return Optional.fromNullable(Strings.emptyToNull(cfg.getString(PROP_WARM_QUERIES_FILE)));
+    }
+
+    public int warmThreads() {
+        return cfg.getInt(PROP_WARM_THREADS, 4);
+    }
+
+    public int warmFetchSize() {
+        return cfg.getInt(PROP_WARM_FETCH_SIZE, 1000);
+    }
+
+    public Optional<String> verifyQueriesFile() {
+        return Optional.fromNullable(Strings.emptyToNull(cfg.getString(PROP_VERIFY_QUERIES_FILE)));
+    }
+
+    public int verifyThreads() {
+        return cfg.getInt(PROP_VERIFY_THREADS, 4);
+    }
+
+    public int verifyRepeat() {
+        return cfg.getInt(PROP_VERIFY_REPEAT, 20);
+    }
+
+    public Optional<Long> verifyMaxP50Millis() {
+        return optionalLong(PROP_VERIFY_MAX_P50_MILLIS);
+    }
+
+    public Optional<Long> verifyMaxP99Millis() {
+        return optionalLong(PROP_VERIFY_MAX_P99_MILLIS);
+    }
+
+    public boolean verifyCompareToPromoted() {
+        return cfg.getBoolean(PROP_VERIFY_COMPARE_TO_PROMOTED, false);
+    }
+
+    public double verifyMaxSlowdown() {
+        return cfg.getDouble(PROP_VERIFY_MAX_SLOWDOWN, 1.5);
+    }
+
+    public double verifyMaxRowDrift() {
+        return cfg.getDouble(PROP_VERIFY_MAX_ROW_DRIFT, 0.1);
+    }
+
+    public long waitTimeoutMinutes() {
+        return cfg.getLong(PROP_WAIT_TIMEOUT_MINUTES, 48 * 60);
+    }
+
+    public long runMinPollSeconds() {
+        return cfg.getLong(PROP_RUN_MIN_POLL_SECONDS, 30);
+    }
+
+    public long runMaxPollSeconds() {
+        return cfg.getLong(PROP_RUN_MAX_POLL_SECONDS, 900);
+    }
+
+    /**
+     * @return how many restores may be in progress at once across the environments of 'all', or 0 for no cap
+     */
+    public int allMaxConcurrentRestores() {
+        int max = cfg.getInt(PROP_ALL_MAX_CONCURRENT_RESTORES, 0);
+        Preconditions.checkArgument(max >= 0, PROP_ALL_MAX_CONCURRENT_RESTORES + " must not be negative");
+        return max;
+    }
+
+    /**
+     * @return calls per second by operation, see {@link ApiRateLimiter#configure(Map, Optional)}
+     */
+    public Map<String, Double> rateLimits() {
+        Map<String, Double> rateLimits = Maps.newHashMap();
+        Iterator<String> keys = cfg.getKeys(PROP_RATE_LIMIT_PREFIX.substring(0, PROP_RATE_LIMIT_PREFIX.length() - 1));
+        while (keys.hasNext()) {
+            String key = keys.next();
+            String value = Strings.emptyToNull(cfg.getString(key));
+            if (!key.equals(PROP_RATE_LIMIT_LOCK_DIR) && value != null) {
+                rateLimits.put(key.substring(PROP_RATE_LIMIT_PREFIX.length()), Double.valueOf(value));
+            }
+        }
+        return rateLimits;
+    }
+
+    public Optional<String> rateLimitLockDir() {
+        return Optional.fromNullable(Strings.emptyToNull(cfg.getString(PROP_RATE_LIMIT_LOCK_DIR)));
+    }
+
+    public Optional<String> metricsFile() {
+        return Optional.fromNullable(Strings.emptyToNull(cfg.getString(PROP_METRICS_FILE)));
+    }
+
+    public Optional<String> reportFile() {
+        return Optional.fromNullable(Strings.emptyToNull(cfg.getString(PROP_REPORT_FILE)));
+    }
+
+    public Optional<String> historyFile() {
+        return Optional.fromNullable(Strings.emptyToNull(cfg.getString(PROP_HISTORY_FILE)));
+    }
+
+    public String planFile() {
+        return Optional.fromNullable(Strings.emptyToNull(cfg.getString(PROP_PLAN_FILE))).or("rdsecho-plan.json");
+    }
+
+    public long planMaxAgeMinutes() {
+        return cfg.getLong(PROP_PLAN_MAX_AGE_MINUTES, 60);
+    }
+
+    public Optional<String> journalFile() {
+        return Optional.fromNullable(Strings.emptyToNull(cfg.getString(PROP_JOURNAL_FILE)));
+    }
+
     public Optional<Boolean> retireSkipFinalSnapshot() {
         return Optional.fromNullable(cfg.getBoolean(PROP_RETIRE_SKIP_FINAL_SNAPSHOT, null));
     }
@@ -215,6 +595,44 @@ public class EchoCfg {
         return Optional.fromNullable(cfg.getString(PROP_RETIRE_FINAL_DB_SNAPSHOT_IDENTIFIER));
     }
 
+    /**
+     * Absent when undefined or blank, which commons-configuration would otherwise fail to convert.
+     */
+    Optional<Integer> optionalInteger(String prop) {
+        String value = Strings.emptyToNull(cfg.getString(prop));
+        return value == null ? Optional.<Integer>absent() : Optional.of(cfg.getInteger(prop, null));
+    }
+
+    Optional<Long> optionalLong(String prop) {
+        String value = Strings.emptyToNull(cfg.getString(prop));
+        return value == null ? Optional.<Long>absent() : Optional.of(cfg.getLong(prop));
+    }
+
+    /**
+     * Reads every <code>*.properties</code> file in the directory as the configuration of one environment.
+     *
+     * @return configurations keyed by {@link #name()}
+     */
+    public static Map<String, EchoCfg> environments(File dir) {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".properties");
+            }
+        });
+        Preconditions.checkState(files != null && files.length > 0, "No environment properties files found in " + dir);
+        Arrays.sort(files);
+
+        Map<String, EchoCfg> environments = Maps.newLinkedHashMap();
+        for (File file : files) {
+            EchoCfg cfg = new EchoCfg(file.getPath());
+            Preconditions.checkState(!environments.containsKey(cfg.name()),
+                    "Environment " + cfg.name() + " is configured more than once, again in " + file);
+            environments.put(cfg.name(), cfg);
+        }
+        return environments;
+    }
+
     public static final class Lazy {
         static final EchoCfg INSTANCE = new EchoCfg(EchoConst.CONFIGURATION_PROPERTIES);
     }
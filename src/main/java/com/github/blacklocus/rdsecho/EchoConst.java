@@ -30,6 +30,11 @@ public class EchoConst {
      */
     public static final String CONFIGURATION_PROPERTIES = "rdsecho.properties";
 
+    /**
+     * Prefix common to all Echo tags.
+     */
+    public static final String TAG_ECHO_PREFIX = "rdsecho:";
+
     /**
      * Tag that marks an instance as Echo managed.
      */
@@ -40,6 +45,29 @@ public class EchoConst {
      */
     public static final String TAG_ECHO_STAGE_FMT = "rdsecho:%s:stage";
 
+    /**
+     * Tag that marks the cohort of an instance, the instances created together from one snapshot that advance through
+     * the stages together. The value is the identifier that the instances' identifiers are numbered from.
+     */
+    public static final String TAG_ECHO_COHORT_FMT = "rdsecho:%s:cohort";
+
+    /**
+     * Tag that marks how many instances the cohort of an instance was created with, whatever the configured count is
+     * by the time it is looked at again.
+     */
+    public static final String TAG_ECHO_COHORT_SIZE_FMT = "rdsecho:%s:cohortSize";
+
+    /**
+     * Tag on a snapshot copied from another region. The value is the ARN of the snapshot it is a copy of.
+     */
+    public static final String TAG_ECHO_COPY_OF_FMT = "rdsecho:%s:copyOf";
+
+    /**
+     * Tag that marks what a new instance was restored from, so that the rest of its cohort can be restored from the
+     * same. The value is the snapshot identifier, or the restore time of a point-in-time restore.
+     */
+    public static final String TAG_ECHO_SOURCE_FMT = "rdsecho:%s:source";
+
     /**
      * The stage that marks an instance as having just been created by means of the RDS restore-from-snapshot API.
      * The next step is to modify it once it becomes available with the instance settings that could not be specified
@@ -59,6 +87,12 @@ public class EchoConst {
      */
     public static final String STAGE_REBOOTED = "rebooted";
 
+    /**
+     * The stage that marks an instance whose tables have been read through, so that its data has been loaded from S3
+     * and it does not start out slow once promoted. Only when a warm stage is configured.
+     */
+    public static final String STAGE_WARMED = "warmed";
+
     /**
      * The stage that marks an instance as having been rebooted and ready to be used with all necessary settings. The
      * instance is the target of the CNAME that all participants use to target the particular environment. For a
@@ -78,6 +112,11 @@ public class EchoConst {
      */
     public static final String STAGE_RETIRED = "retired";
 
+    /**
+     * The command to copy the latest snapshot from another region into this one, ahead of creating a new instance
+     */
+    public static final String COMMAND_COPY = "copy";
+
     /**
      * The command to create a new instance. Sets stage as "new"
      */
@@ -94,7 +133,13 @@ public class EchoConst {
     public static final String COMMAND_REBOOT = "reboot";
 
     /**
-     * The command to promote an instance that is ready for use. Changes stage from "rebooted" to "promoted".
+     * The command to warm an instance after it has been rebooted. Changes stage from "rebooted" to "warmed"
+     */
+    public static final String COMMAND_WARM = "warm";
+
+    /**
+     * The command to promote an instance that is ready for use. Changes stage from "rebooted", or "warmed" if
+     * configured, to "promoted".
      * Changes previously promoted instance to "forgotten".
      */
     public static final String COMMAND_PROMOTE = "promote";
@@ -103,4 +148,26 @@ public class EchoConst {
      * The command to retire an instance. Changes stage from "forgotten" to "retired" and then deletes it. Goodbye forever.
      */
     public static final String COMMAND_RETIRE = "retire";
+
+    /**
+     * The command to continuously advance the latest instance through the stages from "new" to "promoted", starting
+     * over with a new instance once the last has been promoted.
+     */
+    public static final String COMMAND_RUN = "run";
+
+    /**
+     * The command to look up once everything that the stages through "promoted", and then retirement, would act on, and
+     * write down every request they would make without making any.
+     */
+    public static final String COMMAND_PLAN = "plan";
+
+    /**
+     * The command to carry out a plan written by "plan", without looking it all up again.
+     */
+    public static final String COMMAND_APPLY = "apply";
+
+    /**
+     * The command to run another command on every environment configured in a directory, all at once.
+     */
+    public static final String COMMAND_ALL = "all";
 }
@@ -0,0 +1,151 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.regions.RegionUtils;
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.rds.AmazonRDSClient;
+import com.amazonaws.services.route53.AmazonRoute53;
+import com.amazonaws.services.route53.AmazonRoute53Client;
+import com.github.blacklocus.rdsecho.utl.ApiMetrics;
+import com.github.blacklocus.rdsecho.utl.ApiRateLimiter;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.Journal;
+import com.github.blacklocus.rdsecho.utl.RdsInventory;
+import com.github.blacklocus.rdsecho.utl.RunReporter;
+import com.github.blacklocus.rdsecho.utl.StageHistory;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+import java.io.File;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Configuration and AWS clients shared by the commands of one environment. Commands built on the same context reuse
+ * the same clients and their connection pools. Each command's calls on the clients are recorded into its
+ * {@link com.github.blacklocus.rdsecho.utl.RunReport}.
+ */
+public class EchoContext {
+
+    final EchoCfg cfg;
+    final AmazonRDS rds;
+    final AmazonRoute53 route53;
+
+    /**
+     * Client of the region snapshots are copied from, if they are
+     */
+    final Optional<AmazonRDS> sourceRds;
+    final EchoUtil echo;
+    final RunReporter reporter;
+    final StageHistory history;
+    final Journal journal;
+
+    /**
+     * Limits how many restores may be started, across all contexts sharing it
+     */
+    final Optional<Semaphore> restorePermits;
+
+    public EchoContext(EchoCfg cfg, AmazonRDS rds, AmazonRoute53 route53) {
+        this(cfg, rds, route53, Optional.<RdsInventory>absent(), Optional.<Semaphore>absent(),
+                Optional.<AmazonRDS>absent());
+    }
+
+    /**
+     * A context whose lookups are answered from the given inventory of the configured region and account, as when
+     * several environments share the clients and inventory.
+     */
+    public EchoContext(EchoCfg cfg, AmazonRDS rds, AmazonRoute53 route53, RdsInventory inventory,
+                       Optional<Semaphore> restorePermits) {
+        this(cfg, rds, route53, Optional.of(inventory), restorePermits, Optional.<AmazonRDS>absent());
+    }
+
+    /**
+     * @param sourceRds client of {@link EchoCfg#copySourceRegion()} if snapshots are copied, else a new one is made
+     */
+    EchoContext(EchoCfg cfg, AmazonRDS rds, AmazonRoute53 route53, Optional<RdsInventory> inventory,
+                Optional<Semaphore> restorePermits, Optional<AmazonRDS> sourceRds) {
+        this.cfg = cfg;
+        this.reporter = reporter(cfg);
+        this.history = new StageHistory(file(cfg.historyFile()));
+        this.journal = new Journal(cfg.name(), file(cfg.journalFile()));
+        this.rds = reporter.instrument(AmazonRDS.class, rds, "rds");
+        this.route53 = reporter.instrument(AmazonRoute53.class, route53, "route53");
+        this.sourceRds = sourceRds(cfg, reporter, sourceRds);
+        this.echo = new EchoUtil(cfg, inventory.isPresent() ? inventory.get() :
+                new RdsInventory(EchoUtil.newRdsFind(cfg, this.rds), cfg.region(), cfg.accountNumber()));
+        this.restorePermits = restorePermits;
+    }
+
+    /**
+     * @return a context on the default configuration with new clients
+     */
+    public static EchoContext create() {
+        EchoCfg cfg = EchoCfg.getInstance();
+        ApiRateLimiter.getInstance().configure(cfg.rateLimits(), lockDir(cfg.rateLimitLockDir()));
+        return new EchoContext(cfg, rdsClient(cfg.region()), route53Client());
+    }
+
+    static Optional<AmazonRDS> sourceRds(EchoCfg cfg, RunReporter reporter, Optional<AmazonRDS> sourceRds) {
+        Optional<String> sourceRegion = cfg.copySourceRegion();
+        return sourceRegion.isPresent() ? Optional.of(reporter.instrument(AmazonRDS.class,
+                sourceRds.isPresent() ? sourceRds.get() : rdsClient(sourceRegion.get()), "rds")) :
+                Optional.<AmazonRDS>absent();
+    }
+
+    static RunReporter reporter(EchoCfg cfg) {
+        return new RunReporter(cfg.name(), file(cfg.reportFile()));
+    }
+
+    static Optional<File> file(Optional<String> path) {
+        return path.isPresent() ? Optional.of(new File(path.get())) : Optional.<File>absent();
+    }
+
+    static Optional<File> lockDir(Optional<String> lockDir) {
+        if (lockDir.isPresent()) {
+            File dir = new File(lockDir.get());
+            Preconditions.checkState(dir.isDirectory() || dir.mkdirs(), "Cannot create rate limit lock directory " + dir);
+            return Optional.of(dir);
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * @return a new RDS client for the region, paced by {@link ApiRateLimiter} and reporting to {@link ApiMetrics}
+     */
+    public static AmazonRDS rdsClient(String region) {
+        AmazonRDSClient rds = new AmazonRDSClient();
+        rds.setRegion(RegionUtils.getRegion(region));
+        // Metrics inside the limiter, so that latencies do not include waiting for a turn
+        return ApiRateLimiter.getInstance().limit(AmazonRDS.class,
+                ApiMetrics.getInstance().instrument(AmazonRDS.class, rds, "rds"), "rds");
+    }
+
+    /**
+     * @return a new Route53 client, paced by {@link ApiRateLimiter} and reporting to {@link ApiMetrics}
+     */
+    public static AmazonRoute53 route53Client() {
+        return ApiRateLimiter.getInstance().limit(AmazonRoute53.class,
+                ApiMetrics.getInstance().instrument(AmazonRoute53.class, new AmazonRoute53Client(), "route53"), "route53");
+    }
+}
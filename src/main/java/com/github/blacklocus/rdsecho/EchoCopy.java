@@ -0,0 +1,200 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.rds.model.CopyDBSnapshotRequest;
+import com.amazonaws.services.rds.model.DBSnapshot;
+import com.amazonaws.services.rds.model.Tag;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.RdsFind;
+import com.github.blacklocus.rdsecho.utl.RunReport;
+import com.github.blacklocus.rdsecho.utl.RunReporter;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_COPY;
+
+/**
+ * Copies the latest snapshot of the source instance from {@link EchoCfg#copySourceRegion()} into this environment's
+ * region, so that {@link EchoNew} can restore from it there. Environments in several regions copy at once with
+ * {@link EchoAll}.
+ */
+public class EchoCopy implements Callable<Boolean> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EchoCopy.class);
+
+    final AmazonRDS rds;
+    final Optional<AmazonRDS> sourceRds;
+
+    final EchoCfg cfg;
+    final EchoUtil echo;
+    final RunReporter reporter;
+
+    /**
+     * Whether to wait for the copy to complete rather than just start it
+     */
+    boolean waitForAvailable = false;
+
+    /**
+     * How long to wait between looks at the copy, shortened by tests
+     */
+    long pollMillis = TimeUnit.SECONDS.toMillis(60);
+
+    public EchoCopy() {
+        this(EchoContext.create());
+    }
+
+    public EchoCopy(EchoContext ctx) {
+        this.rds = ctx.rds;
+        this.sourceRds = ctx.sourceRds;
+        this.cfg = ctx.cfg;
+        this.echo = ctx.echo;
+        this.reporter = ctx.reporter;
+    }
+
+    @Override
+    public Boolean call() throws Exception {
+        RunReport report = reporter.begin(COMMAND_COPY);
+        try {
+            return report.advanced(copy(report));
+        } catch (Exception e) {
+            report.failed(e);
+            throw e;
+        } finally {
+            reporter.end(report);
+        }
+    }
+
+    boolean copy(RunReport report) throws Exception {
+        if (!sourceRds.isPresent()) {
+            LOG.error("[{}] Nothing to copy without {}. Exiting.", COMMAND_COPY, EchoCfg.PROP_COPY_SOURCE_REGION);
+            return false;
+        }
+        String sourceRegion = cfg.copySourceRegion().get();
+
+        LOG.info("[{}] Locating {} snapshot from {} in {}", COMMAND_COPY, cfg.snapshotPolicy().getValue(),
+                cfg.snapshotDbInstanceIdentifier(), sourceRegion);
+        Optional<DBSnapshot> sourceOpt = echo.latestSnapshot(EchoUtil.newRdsFind(cfg, sourceRds.get()));
+        if (!sourceOpt.isPresent()) {
+            LOG.info("[{}] Could not locate a suitable snapshot in {}. Cannot continue.", COMMAND_COPY, sourceRegion);
+            return false;
+        }
+        DBSnapshot source = sourceOpt.get();
+        String sourceArn = RdsFind.snapshotArn(sourceRegion, cfg.accountNumber(), source.getDBSnapshotIdentifier());
+        String copyIdentifier = echo.copyIdentifier(source.getDBSnapshotIdentifier());
+        report.put("snapshotId", source.getDBSnapshotIdentifier())
+                .put("copySnapshotId", copyIdentifier);
+
+        boolean started = false;
+        Optional<DBSnapshot> copyOpt = echo.snapshot(copyIdentifier);
+        if (copyOpt.isPresent()) {
+            LOG.info("[{}] Snapshot {} is already copied to {} in {} (status {}, {}%).", COMMAND_COPY,
+                    source.getDBSnapshotIdentifier(), copyIdentifier, cfg.region(), copyOpt.get().getStatus(),
+                    copyOpt.get().getPercentProgress());
+
+        } else {
+            LOG.info("[{}] Proposed snapshot copy...\n" +
+                            "  source snapshot  : {} completed on {}\n" +
+                            "  copy snapshot id : {} in {}", COMMAND_COPY, sourceArn,
+                    new DateTime(source.getSnapshotCreateTime()).toDateTimeISO(), copyIdentifier, cfg.region());
+
+            if (cfg.interactive()) {
+                String format = "Proceed to copy this snapshot? Input %s to confirm.";
+                if (!EchoUtil.prompt(copyIdentifier, format, copyIdentifier)) {
+                    LOG.info("User declined to proceed. Exiting.");
+                    return false;
+                }
+            }
+
+            CopyDBSnapshotRequest request = new CopyDBSnapshotRequest()
+                    .withSourceDBSnapshotIdentifier(sourceArn)
+                    .withTargetDBSnapshotIdentifier(copyIdentifier)
+                    .withTags(new Tag().withKey(echo.getTagEchoCopyOf()).withValue(sourceArn));
+            report.request(request);
+            rds.copyDBSnapshot(request);
+            LOG.info("[{}] Started copying snapshot {} to {} in {}.", COMMAND_COPY,
+                    source.getDBSnapshotIdentifier(), copyIdentifier, cfg.region());
+            started = true;
+        }
+
+        if (waitForAvailable) {
+            long waitStart = System.currentTimeMillis();
+            try {
+                return waitForCopy(copyIdentifier) || started;
+            } finally {
+                report.phase("waitForCopy " + copyIdentifier, waitStart);
+            }
+        }
+        return started;
+    }
+
+    /**
+     * Polls the copy, logging its progress, until it is available, at most {@link EchoCfg#waitTimeoutMinutes()}.
+     *
+     * @return whether the copy is available
+     */
+    boolean waitForCopy(String copyIdentifier) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(cfg.waitTimeoutMinutes());
+        Integer lastPercent = null;
+        while (true) {
+            Optional<DBSnapshot> copyOpt = echo.snapshot(copyIdentifier);
+            if (!copyOpt.isPresent()) {
+                LOG.error("[{}] Snapshot copy {} no longer exists.", COMMAND_COPY, copyIdentifier);
+                return false;
+            }
+            DBSnapshot copy = copyOpt.get();
+            if ("available".equals(copy.getStatus())) {
+                LOG.info("[{}] Snapshot copy {} is available.", COMMAND_COPY, copyIdentifier);
+                return true;
+            }
+            if (!"creating".equals(copy.getStatus()) && !"pending".equals(copy.getStatus())) {
+                LOG.error("[{}] Snapshot copy {} has status {} and will not become available.",
+                        COMMAND_COPY, copyIdentifier, copy.getStatus());
+                return false;
+            }
+            if (!Objects.equal(copy.getPercentProgress(), lastPercent)) {
+                LOG.info("[{}] Snapshot copy {} is {}% copied.", COMMAND_COPY, copyIdentifier, copy.getPercentProgress());
+                lastPercent = copy.getPercentProgress();
+            }
+            long now = System.currentTimeMillis();
+            if (now >= deadline) {
+                LOG.error("[{}] Snapshot copy {} did not become available within {} minutes.",
+                        COMMAND_COPY, copyIdentifier, cfg.waitTimeoutMinutes());
+                return false;
+            }
+            Thread.sleep(Math.min(pollMillis, deadline - now));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new EchoCopy().call();
+    }
+}
@@ -39,7 +39,11 @@ public class EchoModify extends AbstractEchoIntermediateStage {
     private static final Logger LOG = LoggerFactory.getLogger(EchoModify.class);
 
     public EchoModify() {
-        super(EchoConst.STAGE_NEW, EchoConst.STAGE_MODIFIED);
+        this(EchoContext.create());
+    }
+
+    public EchoModify(EchoContext ctx) {
+        super(ctx, EchoConst.STAGE_NEW, EchoConst.STAGE_MODIFIED);
     }
 
     @Override
@@ -50,10 +54,39 @@ public class EchoModify extends AbstractEchoIntermediateStage {
 
         StringWriter proposed = new StringWriter();
         PrintWriter printer = new PrintWriter(proposed);
+        ModifyDBInstanceRequest request = request(dbInstanceId, printer);
+
+        LOG.info(proposed.toString());
+
+        // Interactive user confirm
+
+        if (cfg.interactive()) {
+            String format = "Proceed to modify DB instance with these settings? Input %s to confirm.";
+            if (!EchoUtil.prompt(dbInstanceId, format, dbInstanceId)) {
+                LOG.info("User declined to proceed. Exiting.");
+                return false;
+            }
+        }
+
+        // Do the deed
+
+        LOG.info("[{}] Modifying existing DB instance {}", getCommand(), dbInstanceId);
+        sending(dbInstanceId, request);
+        rds.modifyDBInstance(request);
+        sent(dbInstanceId);
+        LOG.info("[{}] Submitted modify request on instance {}. Finished.", getCommand(), dbInstanceId);
+
+        return true;
+    }
+
+    /**
+     * @return the modification of the instance, printing what it is
+     */
+    ModifyDBInstanceRequest request(String dbInstanceId, PrintWriter printer) {
         printer.format("[%s] Proposed db modifications on instance %s...%n", getCommand(), dbInstanceId);
 
         ModifyDBInstanceRequest request = new ModifyDBInstanceRequest();
-        request.withDBInstanceIdentifier(instance.getDBInstanceIdentifier());
+        request.withDBInstanceIdentifier(dbInstanceId);
 
         Optional<String> dbParameterGroupNameOpt = cfg.modDbParameterGroupName();
         if (dbParameterGroupNameOpt.isPresent()) {
@@ -73,26 +106,7 @@ public class EchoModify extends AbstractEchoIntermediateStage {
         boolean applyImmediately = cfg.modApplyImmediately();
         printer.format("  apply immediately      : %b%n", applyImmediately);
         request.withApplyImmediately(applyImmediately);
-
-        LOG.info(proposed.toString());
-
-        // Interactive user confirm
-
-        if (cfg.interactive()) {
-            String format = "Proceed to modify DB instance with these settings? Input %s to confirm.";
-            if (!EchoUtil.prompt(dbInstanceId, format, dbInstanceId)) {
-                LOG.info("User declined to proceed. Exiting.");
-                return false;
-            }
-        }
-
-        // Do the deed
-
-        LOG.info("[{}] Modifying existing DB instance {}", getCommand(), dbInstanceId);
-        rds.modifyDBInstance(request);
-        LOG.info("[{}] Submitted modify request on instance {}. Finished.", getCommand(), dbInstanceId);
-
-        return true;
+        return request;
     }
 
     @Override
@@ -24,23 +24,39 @@
 package com.github.blacklocus.rdsecho;
 
 
+import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.services.rds.AmazonRDS;
-import com.amazonaws.services.rds.AmazonRDSClient;
 import com.amazonaws.services.rds.model.AddTagsToResourceRequest;
 import com.amazonaws.services.rds.model.DBInstance;
-import com.amazonaws.services.rds.model.DBSnapshot;
 import com.amazonaws.services.rds.model.RestoreDBInstanceFromDBSnapshotRequest;
 import com.amazonaws.services.rds.model.Tag;
 import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.Journal;
 import com.github.blacklocus.rdsecho.utl.RdsFind;
+import com.github.blacklocus.rdsecho.utl.RunReport;
+import com.github.blacklocus.rdsecho.utl.RunReporter;
+import com.github.blacklocus.rdsecho.utl.StageHistory;
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.LocalTime;
+import org.joda.time.Period;
+import org.joda.time.format.PeriodFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,24 +66,72 @@ public class EchoNew implements Callable<Boolean> {
 
     private static final Logger LOG = LoggerFactory.getLogger(EchoNew.class);
 
-    final AmazonRDS rds = new AmazonRDSClient();
+    final AmazonRDS rds;
 
-    final EchoCfg cfg = EchoCfg.getInstance();
-    final EchoUtil echo = new EchoUtil();
+    final EchoCfg cfg;
+    final EchoUtil echo;
+    final RestoreSource source;
+    final Optional<Semaphore> restorePermits;
+    final RunReporter reporter;
+    final StageHistory history;
+    final Journal journal;
+
+    public EchoNew() {
+        this(EchoContext.create());
+    }
+
+    public EchoNew(EchoContext ctx) {
+        this(ctx, RestoreSource.create(ctx));
+    }
+
+    /**
+     * Restores from the given source, e.g. one {@link RestoreSource#pin(String) pinned} by a plan
+     */
+    EchoNew(EchoContext ctx, RestoreSource source) {
+        this.rds = ctx.rds;
+        this.cfg = ctx.cfg;
+        this.echo = ctx.echo;
+        this.source = source;
+        this.restorePermits = ctx.restorePermits;
+        this.reporter = ctx.reporter;
+        this.history = ctx.history;
+        this.journal = ctx.journal;
+    }
 
     @Override
     public Boolean call() throws Exception {
+        RunReport report = reporter.begin(COMMAND_NEW);
+        try {
+            return report.advanced(create(report));
+        } catch (Exception e) {
+            report.failed(e);
+            throw e;
+        } finally {
+            reporter.end(report);
+        }
+    }
+
+    boolean create(RunReport report) throws Exception {
 
         // Do some sanity checks to make sure we aren't generating a bunch of trouble in RDS
 
         String tagEchoManaged = echo.getTagEchoManaged();
 
+        if (resumed(report)) {
+            return true;
+        }
+
+        List<DBInstance> lastCohort = echo.lastEchoCohort();
+        if (isPartial(lastCohort)) {
+            return completeCohort(lastCohort, report);
+        }
+
         LOG.info("[{}] Checking to see if current echo-created instance (tagged {}) was created less than 24 hours ago. " +
                 "If so this operation will not continue.", COMMAND_NEW, tagEchoManaged);
         Optional<DBInstance> newestInstanceOpt = echo.lastEchoInstance();
         if (newestInstanceOpt.isPresent()) {
 
-            if (new DateTime(newestInstanceOpt.get().getInstanceCreateTime()).plusHours(24).isAfter(DateTime.now())) {
+            if (createdWithinDay(newestInstanceOpt.get())) {
                 LOG.info("[{}] Last echo-created RDS instance {} was created less than 24 hours ago. Aborting.",
                         COMMAND_NEW, tagEchoManaged);
                 return false;
@@ -81,45 +145,231 @@ public class EchoNew implements Callable<Boolean> {
             LOG.info("[{}] No prior echo-created instance found with tag {}. Proceeding.", COMMAND_NEW, tagEchoManaged);
         }
 
-        // Locate a suitable snapshot to be the basis of the new instance
+        // Locate what to restore the new instance from
 
-        LOG.info("[{}] Locating latest snapshot from {}", COMMAND_NEW, cfg.snapshotDbInstanceIdentifier());
-        Optional<DBSnapshot> dbSnapshotOpt = echo.latestSnapshot();
-        if (dbSnapshotOpt.isPresent()) {
-            DBSnapshot snapshot = dbSnapshotOpt.get();
-            LOG.info("[{}] Located snapshot {} completed on {}", COMMAND_NEW, snapshot.getDBSnapshotIdentifier(),
-                    new DateTime(snapshot.getSnapshotCreateTime()).toDateTimeISO().toString());
-
-        } else {
-            LOG.info("[{}] Could not locate a suitable snapshot. Cannot continue.", COMMAND_NEW);
+        if (!source.locate(report)) {
             return false;
         }
 
         // Info summary
 
-        String dbSnapshotIdentifier = dbSnapshotOpt.get().getDBSnapshotIdentifier();
-        String newDbInstanceIdentifier = cfg.name() + '-' + DateTime.now(DateTimeZone.UTC).toString("yyyy-MM-dd");
+        String newDbInstanceIdentifier = newDbInstanceIdentifier();
+        List<String> cohortIdentifiers = cohortIdentifiers(newDbInstanceIdentifier, cfg.newCount());
 
         // Prepare request and build up informational message with conditional parts.
 
         StringWriter proposed = new StringWriter();
         PrintWriter printer = new PrintWriter(proposed);
+        RestoreDBInstanceFromDBSnapshotRequest request = settings(newDbInstanceIdentifier, cohortIdentifiers.size(),
+                cohortIdentifiers, printer);
+
+        Optional<DateTime> readyOpt = readyEstimate(request, printer);
+        if (readyOpt.isPresent()) {
+            report.put("readyEstimate", readyOpt.get().toString());
+        }
+
+        LOG.info(proposed.toString());
+
+        // Would it be ready in time?
+
+        Optional<LocalTime> deadlineOpt = cfg.newDeadline();
+        if (deadlineOpt.isPresent()) {
+            DateTime deadline = nextDeadline(DateTime.now(cfg.newDeadlineZone()), deadlineOpt.get());
+            if (!readyOpt.isPresent()) {
+                LOG.warn("[{}] Cannot estimate whether the new instance will be ready by {} without history of every " +
+                        "stage. Proceeding.", COMMAND_NEW, deadline);
+            } else if (readyOpt.get().isAfter(deadline)) {
+                LOG.warn("[{}] The new instance would not be ready until {}, after the deadline {}. Not creating it " +
+                        "this time.", COMMAND_NEW, readyOpt.get(), deadline);
+                return false;
+            }
+        }
+
+        // Interactive user confirmation
+
+        if (cfg.interactive()) {
+            String format = "Proceed to create a new DB instance from this source? Input %s to confirm.";
+            if (!EchoUtil.prompt(newDbInstanceIdentifier, format, newDbInstanceIdentifier)) {
+                LOG.info("User declined to proceed. Exiting.");
+                return false;
+            }
+        }
+
+        // Create the new databases, all at once
+
+        return restoreAll(request, cohortIdentifiers, report);
+    }
+
+    /**
+     * Restores the instances all at once, each with the given settings. If any fails, the rest are still restored, and
+     * the rest of the cohort is restored by a later {@link #completeCohort(List, RunReport)}.
+     *
+     * @return whether they were restored, rather than waiting for restores already in progress
+     */
+    boolean restoreAll(RestoreDBInstanceFromDBSnapshotRequest request, List<String> dbInstanceIdentifiers,
+                       RunReport report) throws InterruptedException {
+        if (restorePermits.isPresent() && !restorePermits.get().tryAcquire(dbInstanceIdentifiers.size())) {
+            LOG.info("[{}] Too many restores are already in progress. Not creating {} this time.",
+                    COMMAND_NEW, dbInstanceIdentifiers);
+            return false;
+        }
+
+        LOG.info("[{}] Creating {} new DB instance(s). Hold on to your butts.",
+                COMMAND_NEW, dbInstanceIdentifiers.size());
+        ExecutorService executor = Executors.newFixedThreadPool(dbInstanceIdentifiers.size(), new ThreadFactoryBuilder()
+                .setNameFormat("rdsecho-new-%d")
+                .build());
+        List<Future<DBInstance>> restores = Lists.newArrayList();
+        try {
+            for (String dbInstanceIdentifier : dbInstanceIdentifiers) {
+                restores.add(executor.submit(restore(request, dbInstanceIdentifier, report)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Throwable failure = null;
+        for (Future<DBInstance> restore : restores) {
+            try {
+                DBInstance restored = restore.get();
+                report.instance(restored);
+                report.transition(restored.getDBInstanceIdentifier(), null, EchoConst.STAGE_NEW);
+            } catch (ExecutionException e) {
+                if (restorePermits.isPresent()) {
+                    restorePermits.get().release();
+                }
+                LOG.error("[{}] Failed to create a DB instance", COMMAND_NEW, e.getCause());
+                failure = failure != null ? failure : e.getCause();
+            }
+        }
+        if (failure != null) {
+            throw Throwables.propagate(failure);
+        }
+
+        LOG.info("[{}] Kicked off new DB instance creation. All done here. Check on your instance progress at\n" +
+                        "  https://console.aws.amazon.com/rds/home?region={}#dbinstance:id={}",
+                COMMAND_NEW, cfg.region(), dbInstanceIdentifiers.get(0));
+
+        return true;
+    }
+
+    /**
+     * @return whether the cohort is missing instances that an earlier run failed to restore, while every instance that
+     * it did restore is still new, numbered as one of the cohort's size when created, and tagged with what it was
+     * restored from
+     */
+    boolean isPartial(List<DBInstance> cohort) {
+        if (cohort.isEmpty()) {
+            return false;
+        }
+        String first = cohort.get(0).getDBInstanceIdentifier();
+        Optional<Tag> baseOpt = echo.instanceTag(first, echo.getTagEchoCohort());
+        Optional<Integer> sizeOpt = cohortSize(first);
+        if (!baseOpt.isPresent() || !sizeOpt.isPresent() || cohort.size() >= sizeOpt.get()) {
+            return false;
+        }
+        List<String> identifiers = cohortIdentifiers(baseOpt.get().getValue(), sizeOpt.get());
+        for (DBInstance member : cohort) {
+            String dbInstanceIdentifier = member.getDBInstanceIdentifier();
+            Optional<Tag> stageOpt = echo.instanceStage(dbInstanceIdentifier);
+            if (!identifiers.contains(dbInstanceIdentifier) || !sizeOpt.equals(cohortSize(dbInstanceIdentifier)) ||
+                    !stageOpt.isPresent() || !EchoConst.STAGE_NEW.equals(stageOpt.get().getValue()) ||
+                    !echo.instanceTag(dbInstanceIdentifier, echo.getTagEchoSource()).isPresent()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return how many instances the instance's cohort was created with, absent if it was not tagged so
+     */
+    Optional<Integer> cohortSize(String dbInstanceIdentifier) {
+        Optional<Tag> sizeOpt = echo.instanceTag(dbInstanceIdentifier, echo.getTagEchoCohortSize());
+        if (!sizeOpt.isPresent()) {
+            return Optional.absent();
+        }
+        try {
+            return Optional.of(Integer.parseInt(sizeOpt.get().getValue()));
+        } catch (NumberFormatException e) {
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * Restores the instances missing from a {@link #isPartial(List) partial} cohort, from what the rest of it was
+     * restored from.
+     *
+     * @return whether they were restored
+     */
+    boolean completeCohort(List<DBInstance> cohort, RunReport report) throws InterruptedException {
+        String first = cohort.get(0).getDBInstanceIdentifier();
+        String newDbInstanceIdentifier = echo.instanceTag(first, echo.getTagEchoCohort()).get().getValue();
+        String located = echo.instanceTag(first, echo.getTagEchoSource()).get().getValue();
+        int cohortSize = cohortSize(first).get();
+
+        List<String> missing = Lists.newArrayList(cohortIdentifiers(newDbInstanceIdentifier, cohortSize));
+        for (DBInstance member : cohort) {
+            missing.remove(member.getDBInstanceIdentifier());
+        }
+        LOG.info("[{}] An earlier run restored only part of cohort {}. Restoring the rest, {}, from {}.",
+                COMMAND_NEW, newDbInstanceIdentifier, missing, located);
+
+        // The same source restores every new instance when run continuously
+        Optional<String> pinned = source.pinned;
+        source.pin(located);
+        try {
+            if (!source.locate(report)) {
+                return false;
+            }
+            StringWriter proposed = new StringWriter();
+            RestoreDBInstanceFromDBSnapshotRequest request = settings(newDbInstanceIdentifier, cohortSize, missing,
+                    new PrintWriter(proposed));
+            LOG.info(proposed.toString());
+
+            if (cfg.interactive()) {
+                String format = "Proceed to complete this cohort from this source? Input %s to confirm.";
+                if (!EchoUtil.prompt(newDbInstanceIdentifier, format, newDbInstanceIdentifier)) {
+                    LOG.info("User declined to proceed. Exiting.");
+                    return false;
+                }
+            }
+            return restoreAll(request, missing, report);
+        } finally {
+            source.pinned = pinned;
+        }
+    }
+
+    /**
+     * @return the identifier that a new instance created today is numbered from
+     */
+    String newDbInstanceIdentifier() {
+        return cfg.name() + '-' + DateTime.now(DateTimeZone.UTC).toString("yyyy-MM-dd");
+    }
+
+    /**
+     * @param cohortSize       how many instances the whole cohort has, of which these are some or all
+     * @return settings of every instance of the new cohort, whatever it is restored from, printing what they are
+     */
+    RestoreDBInstanceFromDBSnapshotRequest settings(String newDbInstanceIdentifier, int cohortSize,
+                                                    List<String> cohortIdentifiers, PrintWriter printer) {
         printer.format("[%s] Proposed new db instance...%n", COMMAND_NEW);
+        // Settings of every new instance, whatever it is restored from
         RestoreDBInstanceFromDBSnapshotRequest request = new RestoreDBInstanceFromDBSnapshotRequest();
 
         // Required settings
 
-        request.withDBInstanceIdentifier(newDbInstanceIdentifier);
-        request.withDBSnapshotIdentifier(dbSnapshotIdentifier);
         request.withTags(
                 new Tag().withKey(echo.getTagEchoManaged()).withValue("true"),
-                new Tag().withKey(echo.getTagEchoStage()).withValue(EchoConst.STAGE_NEW)
+                new Tag().withKey(echo.getTagEchoStage()).withValue(EchoConst.STAGE_NEW),
+                new Tag().withKey(echo.getTagEchoCohort()).withValue(newDbInstanceIdentifier),
+                new Tag().withKey(echo.getTagEchoCohortSize()).withValue(String.valueOf(cohortSize)),
+                new Tag().withKey(echo.getTagEchoSource()).withValue(source.located())
         );
 
-        printer.format("  db snapshot id   : %s%n", dbSnapshotIdentifier);
-        printer.format("  db instance id   : %s%n", newDbInstanceIdentifier);
+        source.describe(printer);
+        printer.format("  db instance id   : %s%n", Joiner.on(", ").join(cohortIdentifiers));
 
-        // Not required; these will default to snapshot settings
+        // Not required; these will default to the source's settings
 
         Optional<String> engineOpt = cfg.newEngine();
         if (engineOpt.isPresent()) {
@@ -174,42 +424,144 @@ public class EchoNew implements Callable<Boolean> {
             request.withAutoMinorVersionUpgrade(autoMinorVersionOpt.get());
             printer.format("  auto minor ver up: %s%n", autoMinorVersionOpt.get());
         }
+        return request;
+    }
 
-        LOG.info(proposed.toString());
+    Callable<DBInstance> restore(final RestoreDBInstanceFromDBSnapshotRequest settings,
+                                 final String dbInstanceIdentifier, final RunReport report) {
+        return new Callable<DBInstance>() {
+            @Override
+            public DBInstance call() {
+                AmazonWebServiceRequest request = source.request(settings, dbInstanceIdentifier);
+                journal.intent(dbInstanceIdentifier, COMMAND_NEW, null, EchoConst.STAGE_NEW);
+                journal.sending(dbInstanceIdentifier, COMMAND_NEW, request);
+                report.request(request);
+                DBInstance restoredInstance = source.restore(request);
+                journal.sent(dbInstanceIdentifier, COMMAND_NEW);
+
+                List<Tag> instanceTags = Lists.newArrayList(settings.getTags());
+                instanceTags.addAll(applyNewTags(dbInstanceIdentifier));
+                echo.created(restoredInstance, instanceTags);
+                journal.done(dbInstanceIdentifier, COMMAND_NEW);
+                return restoredInstance;
+            }
+        };
+    }
 
-        // Interactive user confirmation
+    /**
+     * @return the configured tags of new instances, now applied to the instance
+     */
+    List<Tag> applyNewTags(String dbInstanceIdentifier) {
+        Optional<String[]> newTags = cfg.newTags();
+        if (!newTags.isPresent()) {
+            return Collections.emptyList();
+        }
+        List<Tag> tags = EchoUtil.parseTags(newTags.get());
+        if (tags.size() > 0) {
+            LOG.info("[{}] Applying tags on create new: {}", COMMAND_NEW, Arrays.asList(tags));
+            AddTagsToResourceRequest tagsRequest = new AddTagsToResourceRequest()
+                    .withResourceName(RdsFind.instanceArn(cfg.region(), cfg.accountNumber(), dbInstanceIdentifier));
+            tagsRequest.setTags(tags);
+            rds.addTagsToResource(tagsRequest);
+        }
+        return tags;
+    }
 
-        if (cfg.interactive()) {
-            String format = "Proceed to create a new DB instance from this snapshot? Input %s to confirm.";
-            if (!EchoUtil.prompt(newDbInstanceIdentifier, format, newDbInstanceIdentifier)) {
-                LOG.info("User declined to proceed. Exiting.");
-                return false;
+    /**
+     * Reconciles the restores an earlier run was interrupted on with the instances that exist. A restore that was sent
+     * is finished rather than sent again, and one that never created its instance is abandoned.
+     *
+     * @return whether any restore was finished, in which case there is nothing more to create
+     */
+    boolean resumed(RunReport report) {
+        boolean resumed = false;
+        for (Journal.Entry entry : journal.open(COMMAND_NEW)) {
+            String dbInstanceIdentifier = entry.getInstance();
+            Optional<DBInstance> instanceOpt = entry.getState() == Journal.State.INTENT ?
+                    Optional.<DBInstance>absent() : echo.instance(dbInstanceIdentifier);
+            if (!instanceOpt.isPresent()) {
+                LOG.info("[{}] An earlier run was interrupted before it created instance {} ({}).",
+                        COMMAND_NEW, dbInstanceIdentifier, entry);
+                journal.abandoned(dbInstanceIdentifier, COMMAND_NEW);
+                continue;
             }
+            LOG.info("[{}] An earlier run was interrupted after it created instance {} ({}). Finishing it rather than " +
+                    "restoring again.", COMMAND_NEW, dbInstanceIdentifier, entry);
+            List<Tag> tags = applyNewTags(dbInstanceIdentifier);
+            if (!tags.isEmpty()) {
+                echo.tagged(dbInstanceIdentifier, tags);
+            }
+            report.instance(instanceOpt.get());
+            report.transition(dbInstanceIdentifier, null, EchoConst.STAGE_NEW);
+            journal.done(dbInstanceIdentifier, COMMAND_NEW);
+            resumed = true;
         }
+        return resumed;
+    }
 
-        // Create the new database
-
-        LOG.info("[{}] Creating new DB instance. Hold on to your butts.", COMMAND_NEW);
-        DBInstance restoredInstance = rds.restoreDBInstanceFromDBSnapshot(request);
+    /**
+     * Estimates from the stage history when an instance restored from the source would be ready to promote, and
+     * prints it.
+     *
+     * @return when it would be ready, if there is history of every stage up to promotion
+     */
+    Optional<DateTime> readyEstimate(RestoreDBInstanceFromDBSnapshotRequest request, PrintWriter printer) {
+        if (!history.isEnabled()) {
+            return Optional.absent();
+        }
+        int allocatedStorage = source.allocatedStorage();
+        String storageType = request.getStorageType() != null ? request.getStorageType() : source.storageType();
+        List<String> stages = Lists.newArrayList(EchoConst.STAGE_NEW, EchoConst.STAGE_MODIFIED, EchoConst.STAGE_REBOOTED);
+        if (cfg.warmEnabled()) {
+            stages.add(StageHistory.WARMING);
+        }
 
-        Optional<String[]> newTags = cfg.newTags();
-        if (newTags.isPresent()) {
-            List<Tag> tags = EchoUtil.parseTags(newTags.get());
-            if (tags.size() > 0) {
-                LOG.info("[{}] Applying tags on create new: {}", COMMAND_NEW, Arrays.asList(tags));
-                AddTagsToResourceRequest tagsRequest = new AddTagsToResourceRequest()
-                        .withResourceName(RdsFind.instanceArn(cfg.region(), cfg.accountNumber(),
-                                restoredInstance.getDBInstanceIdentifier()));
-                tagsRequest.setTags(tags);
-                rds.addTagsToResource(tagsRequest);
+        long seconds = cfg.promoteShiftSteps().size() * cfg.promoteShiftHoldSeconds();
+        for (String stage : stages) {
+            Optional<StageHistory.Estimate> estimate = history.estimate(stage, allocatedStorage, storageType,
+                    request.getDBInstanceClass());
+            if (!estimate.isPresent()) {
+                printer.format("  ready to promote : unknown, no history of stage %s%n", stage);
+                return Optional.absent();
             }
+            printer.format("    %-14s : %s (from %d runs)%n", stage,
+                    PeriodFormat.getDefault().print(new Period(estimate.get().getSeconds() * 1000)),
+                    estimate.get().getSamples());
+            seconds += estimate.get().getSeconds();
         }
+        DateTime ready = DateTime.now(cfg.newDeadlineZone()).plusSeconds((int) seconds);
+        printer.format("  ready to promote : %s, in %s%n", ready,
+                PeriodFormat.getDefault().print(new Period(seconds * 1000)));
+        return Optional.of(ready);
+    }
 
-        LOG.info("[{}] Kicked off new DB instance creation. All done here. Check on your instance progress at\n" +
-                        "  https://console.aws.amazon.com/rds/home?region={}#dbinstance:id={}",
-                COMMAND_NEW, cfg.region(), newDbInstanceIdentifier);
+    /**
+     * @return whether the instance was created less than 24 hours ago, too recently to create another
+     */
+    static boolean createdWithinDay(DBInstance instance) {
+        return new DateTime(instance.getInstanceCreateTime()).plusHours(24).isAfter(DateTime.now());
+    }
 
-        return true;
+    /**
+     * @return the first time after now that it is the deadline time of day
+     */
+    static DateTime nextDeadline(DateTime now, LocalTime deadline) {
+        DateTime next = now.withFields(deadline);
+        return next.isAfter(now) ? next : next.plusDays(1);
+    }
+
+    /**
+     * @return identifiers of a cohort of the given size, just the base identifier for one
+     */
+    static List<String> cohortIdentifiers(String baseIdentifier, int count) {
+        if (count == 1) {
+            return Collections.singletonList(baseIdentifier);
+        }
+        List<String> identifiers = Lists.newArrayList();
+        for (int i = 1; i <= count; i++) {
+            identifiers.add(baseIdentifier + '-' + i);
+        }
+        return identifiers;
     }
 
     public static void main(String[] args) throws Exception {
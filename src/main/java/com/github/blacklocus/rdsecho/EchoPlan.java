@@ -0,0 +1,326 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.RestoreDBInstanceFromDBSnapshotRequest;
+import com.amazonaws.services.rds.model.Tag;
+import com.amazonaws.services.route53.model.Change;
+import com.amazonaws.util.json.JSONObject;
+import com.github.blacklocus.rdsecho.utl.CnameTarget;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.RunReport;
+import com.github.blacklocus.rdsecho.utl.RunReporter;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_APPLY;
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_PLAN;
+
+/**
+ * Looks up once everything that the remaining stages of the latest instance, or of a new instance if one is due, and
+ * then retirement would act on, and writes down every request they would make to {@link EchoCfg#planFile()} without
+ * making any. {@link EchoApply} carries out the plan without looking everything up again.
+ */
+public class EchoPlan implements Callable<Boolean> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EchoPlan.class);
+
+    final EchoContext ctx;
+    final EchoCfg cfg;
+    final EchoUtil echo;
+    final RunReporter reporter;
+
+    public EchoPlan() {
+        this(EchoContext.create());
+    }
+
+    public EchoPlan(EchoContext ctx) {
+        this.ctx = ctx;
+        this.cfg = ctx.cfg;
+        this.echo = ctx.echo;
+        this.reporter = ctx.reporter;
+    }
+
+    @Override
+    public Boolean call() throws Exception {
+        RunReport report = reporter.begin(COMMAND_PLAN);
+        try {
+            Optional<Plan> planOpt = plan(RestoreSource.create(ctx), Optional.<String>absent(), report);
+            if (!planOpt.isPresent()) {
+                return false;
+            }
+            Plan plan = planOpt.get();
+            LOG.info(describe(plan));
+
+            File file = new File(cfg.planFile());
+            Files.write(plan.toJson(), file, Charsets.UTF_8);
+            report.put("planFile", file.getPath());
+            LOG.info("[{}] Wrote the plan to {}. Review it, then run '{}' within {} minutes.",
+                    COMMAND_PLAN, file, COMMAND_APPLY, cfg.planMaxAgeMinutes());
+            return true;
+
+        } catch (Exception e) {
+            report.failed(e);
+            throw e;
+        } finally {
+            reporter.end(report);
+        }
+    }
+
+    /**
+     * Plans from the instances as looked up, or as primed from an earlier plan.
+     *
+     * @param source            to restore a new instance from, located if one is planned
+     * @param knownHostedZoneId the hosted zone of the CNAMEs, if already known
+     * @return the plan, or absent if there is none to make
+     */
+    Optional<Plan> plan(RestoreSource source, Optional<String> knownHostedZoneId, RunReport report) throws Exception {
+        long created = System.currentTimeMillis();
+
+        LOG.info("[{}] Looking up the echo instances of {}", COMMAND_PLAN, cfg.name());
+        Map<DBInstance, List<Tag>> instances = echo.echoInstances();
+        List<DBInstance> cohort = echo.lastEchoCohort();
+        List<DBInstance> forgotten = Lists.newArrayList(echo.instancesInStage(EchoConst.STAGE_FORGOTTEN));
+        int discoveryCalls = report.apiCallCount();
+
+        // A cohort advances as far as the instance furthest behind
+        String stage = null;
+        for (DBInstance instance : cohort) {
+            Optional<Tag> stageOpt = echo.instanceStage(instance.getDBInstanceIdentifier());
+            if (!stageOpt.isPresent()) {
+                LOG.error("[{}] Instance {} has no {} tag. Fix it by hand, then plan again.",
+                        COMMAND_PLAN, instance.getDBInstanceIdentifier(), echo.getTagEchoStage());
+                return Optional.absent();
+            }
+            if (stage == null ||
+                    EchoRun.STAGE_ORDER.indexOf(stageOpt.get().getValue()) < EchoRun.STAGE_ORDER.indexOf(stage)) {
+                stage = stageOpt.get().getValue();
+            }
+        }
+        List<String> commands = commands(stage, cfg.warmEnabled());
+
+        // The instances the commands act on, and their addresses, as far as they are known yet
+        List<String> ids = Lists.newArrayList();
+        Map<String, String> addressesById = Maps.newLinkedHashMap();
+        Optional<String> located = Optional.absent();
+        String newDbInstanceIdentifier = null;
+        if (!commands.isEmpty() && EchoConst.COMMAND_NEW.equals(commands.get(0))) {
+            Optional<DBInstance> last = echo.lastEchoInstance();
+            if (last.isPresent() && EchoNew.createdWithinDay(last.get())) {
+                LOG.info("[{}] The last echo instance {} was created less than 24 hours ago. No new instance is planned.",
+                        COMMAND_PLAN, last.get().getDBInstanceIdentifier());
+                commands = Collections.emptyList();
+            } else if (!source.locate(report)) {
+                return Optional.absent();
+            } else {
+                located = Optional.of(source.located());
+                newDbInstanceIdentifier = new EchoNew(ctx, source).newDbInstanceIdentifier();
+                ids.addAll(EchoNew.cohortIdentifiers(newDbInstanceIdentifier, cfg.newCount()));
+            }
+        } else {
+            for (DBInstance instance : cohort) {
+                ids.add(instance.getDBInstanceIdentifier());
+            }
+        }
+        for (String id : ids) {
+            Optional<DBInstance> instance = Optional.absent();
+            for (DBInstance member : cohort) {
+                if (member.getDBInstanceIdentifier().equals(id) && member.getEndpoint() != null) {
+                    instance = Optional.of(member);
+                }
+            }
+            addressesById.put(id, instance.isPresent() ? instance.get().getEndpoint().getAddress() : placeholder(id));
+        }
+
+        // What each command would request
+
+        StringWriter proposed = new StringWriter();
+        PrintWriter printer = new PrintWriter(proposed);
+        List<Plan.Step> steps = Lists.newArrayList();
+        Optional<String> hostedZoneId = Optional.absent();
+        int checkCalls = located.isPresent() ? 1 : 0;
+        int n = ids.size();
+        for (String command : commands) {
+            List<Map<String, Object>> requests = Lists.newArrayList();
+            switch (command) {
+                case EchoConst.COMMAND_NEW:
+                    RestoreDBInstanceFromDBSnapshotRequest settings =
+                            new EchoNew(ctx, source).settings(newDbInstanceIdentifier, n, ids, printer);
+                    for (String id : ids) {
+                        requests.add(RunReport.describe(source.request(settings, id)));
+                    }
+                    steps.add(new Plan.Step(command, ids, requests, 1 + n * (cfg.newTags().isPresent() ? 2 : 1)));
+                    break;
+
+                case EchoConst.COMMAND_MODIFY:
+                    EchoModify modify = new EchoModify(ctx);
+                    for (String id : ids) {
+                        requests.add(RunReport.describe(modify.request(id, printer)));
+                    }
+                    steps.add(new Plan.Step(command, ids, requests, 2 * n));
+                    break;
+
+                case EchoConst.COMMAND_REBOOT:
+                    EchoReboot reboot = new EchoReboot(ctx);
+                    for (String id : ids) {
+                        requests.add(RunReport.describe(reboot.request(id)));
+                    }
+                    steps.add(new Plan.Step(command, ids, requests, 2 * n));
+                    break;
+
+                case EchoConst.COMMAND_WARM:
+                    // Reads the database, asking nothing of AWS but to advance the stage
+                    steps.add(new Plan.Step(command, ids, requests, n));
+                    break;
+
+                case EchoConst.COMMAND_PROMOTE:
+                    EchoPromote promote = new EchoPromote(ctx);
+                    promote.knownHostedZoneId = knownHostedZoneId;
+                    List<CnameTarget> cnames = cfg.promoteCnames();
+                    hostedZoneId = Optional.of(promote.hostedZoneId(cnames));
+                    if (n > 1) {
+                        List<Change> changes = promote.cohortChanges(hostedZoneId.get(), cnames, addressesById);
+                        if (!changes.isEmpty()) {
+                            requests.add(RunReport.describe(promote.request(hostedZoneId.get(), changes,
+                                    "cohort " + Joiner.on(' ').join(ids))));
+                        }
+                    } else {
+                        String id = ids.get(0);
+                        for (Map.Entry<Long, List<Change>> batch :
+                                promote.stepChanges(hostedZoneId.get(), cnames, addressesById.get(id)).entrySet()) {
+                            requests.add(RunReport.describe(promote.request(hostedZoneId.get(), batch.getValue(),
+                                    String.format("%s %d%%", id, batch.getKey()))));
+                        }
+                    }
+                    // The instances promoted before are demoted, and so retired after
+                    int demoted = 0;
+                    for (DBInstance instance : echo.promotedInstances()) {
+                        if (!ids.contains(instance.getDBInstanceIdentifier())) {
+                            forgotten.add(instance);
+                            demoted++;
+                        }
+                    }
+                    checkCalls += cnames.size();
+                    steps.add(new Plan.Step(command, ids, requests, 2 * cnames.size() + requests.size() +
+                            n * (cfg.promoteTags().isPresent() ? 2 : 1) + demoted));
+                    break;
+
+                default:
+                    throw new IllegalStateException("Cannot plan " + command);
+            }
+        }
+
+        if (!forgotten.isEmpty()) {
+            EchoRetire retire = new EchoRetire(ctx);
+            List<String> forgottenIds = Lists.newArrayList();
+            List<Map<String, Object>> requests = Lists.newArrayList();
+            for (DBInstance instance : forgotten) {
+                forgottenIds.add(instance.getDBInstanceIdentifier());
+                requests.add(RunReport.describe(retire.request(instance.getDBInstanceIdentifier())));
+            }
+            steps.add(new Plan.Step(EchoConst.COMMAND_RETIRE, forgottenIds, requests, 2 * forgottenIds.size()));
+        }
+        LOG.info(proposed.toString());
+
+        return Optional.of(new Plan(cfg.name(), created, instances, located, hostedZoneId, discoveryCalls, checkCalls,
+                steps));
+    }
+
+    /**
+     * @param stage of the latest cohort, or null if there is none
+     * @return the commands that advance the latest cohort from its stage through promotion, or create and advance a new
+     * cohort if the latest is already promoted
+     */
+    static List<String> commands(String stage, boolean warmEnabled) {
+        List<String> pipeline = Lists.newArrayList(EchoConst.COMMAND_NEW, EchoConst.COMMAND_MODIFY,
+                EchoConst.COMMAND_REBOOT);
+        if (warmEnabled) {
+            pipeline.add(EchoConst.COMMAND_WARM);
+        }
+        pipeline.add(EchoConst.COMMAND_PROMOTE);
+
+        String next;
+        if (stage == null || EchoRun.STAGE_ORDER.indexOf(stage) >= EchoRun.STAGE_ORDER.indexOf(EchoConst.STAGE_PROMOTED)) {
+            next = EchoConst.COMMAND_NEW;
+        } else if (EchoConst.STAGE_NEW.equals(stage)) {
+            next = EchoConst.COMMAND_MODIFY;
+        } else if (EchoConst.STAGE_MODIFIED.equals(stage)) {
+            next = EchoConst.COMMAND_REBOOT;
+        } else if (EchoConst.STAGE_REBOOTED.equals(stage) && warmEnabled) {
+            next = EchoConst.COMMAND_WARM;
+        } else {
+            next = EchoConst.COMMAND_PROMOTE;
+        }
+        return pipeline.subList(pipeline.indexOf(next), pipeline.size());
+    }
+
+    /**
+     * @return what stands for the address of an instance that has none yet
+     */
+    static String placeholder(String dbInstanceIdentifier) {
+        return "<address of " + dbInstanceIdentifier + ">";
+    }
+
+    /**
+     * @return the plan's steps and requests, and the AWS calls it saves, for the log
+     */
+    static String describe(Plan plan) {
+        StringWriter described = new StringWriter();
+        PrintWriter printer = new PrintWriter(described);
+        printer.format("[%s] Plan for %s%n", COMMAND_PLAN, plan.environment);
+        if (plan.steps.isEmpty()) {
+            printer.format("  Nothing to do.%n");
+        }
+        for (int i = 0; i < plan.steps.size(); i++) {
+            Plan.Step step = plan.steps.get(i);
+            printer.format("  %d. %s %s%n", i + 1, step.command, step.instances);
+            for (Map<String, Object> request : step.requests) {
+                printer.format("       %s%n", new JSONObject(request));
+            }
+        }
+        printer.format("  AWS calls, not counting polls while waiting: about %d as separate commands, each looking " +
+                        "up the %d echo instances again in %d calls, or about %d by %s%n", plan.separateCalls(),
+                plan.instances.size(), plan.discoveryCalls, plan.applyCalls(), COMMAND_APPLY);
+        return described.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new EchoPlan().call();
+    }
+}
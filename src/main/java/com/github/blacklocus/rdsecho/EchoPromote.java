@@ -28,53 +28,72 @@ import com.amazonaws.services.rds.model.DBInstance;
 import com.amazonaws.services.rds.model.Endpoint;
 import com.amazonaws.services.rds.model.Tag;
 import com.amazonaws.services.route53.AmazonRoute53;
-import com.amazonaws.services.route53.AmazonRoute53Client;
 import com.amazonaws.services.route53.model.Change;
 import com.amazonaws.services.route53.model.ChangeAction;
 import com.amazonaws.services.route53.model.ChangeBatch;
+import com.amazonaws.services.route53.model.ChangeInfo;
 import com.amazonaws.services.route53.model.ChangeResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.ChangeStatus;
 import com.amazonaws.services.route53.model.HostedZone;
 import com.amazonaws.services.route53.model.RRType;
-import com.amazonaws.services.route53.model.ResourceRecord;
 import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.github.blacklocus.rdsecho.utl.ChangeWaiter;
+import com.github.blacklocus.rdsecho.utl.CnameShift;
+import com.github.blacklocus.rdsecho.utl.CnameTarget;
 import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.Journal;
 import com.github.blacklocus.rdsecho.utl.RdsFind;
 import com.github.blacklocus.rdsecho.utl.Route53Find;
+import com.github.blacklocus.rdsecho.utl.Verifier;
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
-import static com.github.blacklocus.rdsecho.utl.Route53Find.cnameEquals;
-import static com.github.blacklocus.rdsecho.utl.Route53Find.nameEquals;
 import static com.google.common.collect.Iterables.getOnlyElement;
 
 public class EchoPromote extends AbstractEchoIntermediateStage {
 
     private static final Logger LOG = LoggerFactory.getLogger(EchoPromote.class);
 
-    final AmazonRoute53 route53 = new AmazonRoute53Client();
-    final Route53Find route53Find = new Route53Find();
+    final AmazonRoute53 route53;
+    final Route53Find route53Find;
+
+    /**
+     * The hosted zone of the CNAMEs if already known, e.g. from a plan, so that it need not be looked up
+     */
+    Optional<String> knownHostedZoneId = Optional.absent();
 
     public EchoPromote() {
-        super(EchoConst.STAGE_REBOOTED, EchoConst.STAGE_PROMOTED);
+        this(EchoContext.create());
+    }
+
+    public EchoPromote(EchoContext ctx) {
+        super(ctx, ctx.cfg.warmEnabled() ? EchoConst.STAGE_WARMED : EchoConst.STAGE_REBOOTED, EchoConst.STAGE_PROMOTED);
+        this.route53 = ctx.route53;
+        this.route53Find = new Route53Find(route53, cfg.findPrefetchDepth());
     }
 
     @Override
     boolean traverseStage(DBInstance instance) {
 
-        LOG.info("[{}] Reading current DNS records", getCommand());
-        String tld = EchoUtil.getTLD(cfg.promoteCname()) + '.';
-        HostedZone hostedZone = route53Find.hostedZone(nameEquals(tld)).get();
-        LOG.info("[{}] Found corresponding HostedZone. name: {} id: {}", getCommand(), hostedZone.getName(), hostedZone.getId());
-
-        ResourceRecordSet resourceRecordSet = route53Find.resourceRecordSet(
-                hostedZone.getId(), cnameEquals(cfg.promoteCname())).get();
-        ResourceRecord resourceRecord = getOnlyElement(resourceRecordSet.getResourceRecords());
-        LOG.info("[{}] Found CNAME {} with current value {}", getCommand(), resourceRecordSet.getName(), resourceRecord.getValue());
-
         Endpoint endpoint = instance.getEndpoint();
         String tagEchoManaged = echo.getTagEchoManaged();
         String dbInstanceId = instance.getDBInstanceIdentifier();
@@ -84,32 +103,487 @@ public class EchoPromote extends AbstractEchoIntermediateStage {
             return false;
         }
         String instanceAddr = endpoint.getAddress();
-        if (resourceRecord.getValue().equals(instanceAddr)) {
-            LOG.info("[{}] Echo DB instance {} ({}) lines up with CNAME {}. Nothing to do.",
-                    getCommand(), tagEchoManaged, instanceAddr, resourceRecordSet.getName());
+
+        if (cfg.verifyQueriesFile().isPresent() && !verify(instance)) {
             return false;
-        } else {
-            LOG.info("[{}] Echo DB instance {} ({}) differs from CNAME {}.",
-                    getCommand(), tagEchoManaged, instanceAddr, resourceRecordSet.getName());
+        }
+
+        LOG.info("[{}] Reading current DNS records", getCommand());
+        List<CnameTarget> cnames = cfg.promoteCnames();
+        String hostedZoneId = hostedZoneId(cnames);
+        Map<Long, List<Change>> stepChanges = stepChanges(hostedZoneId, cnames, instanceAddr);
+        if (stepChanges.isEmpty()) {
+            LOG.info("[{}] Echo DB instance {} ({}) already lines up with every CNAME, as a previous promote left it.",
+                    getCommand(), tagEchoManaged, instanceAddr);
+        }
+
+        List<Long> steps = cfg.promoteShiftSteps();
+        if (cfg.interactive()) {
+            String format = "Are you sure you want to promote %s to be the new target of %s in steps of %s percent? " +
+                    "Input %s to confirm.";
+            if (!EchoUtil.prompt(dbInstanceId, format, dbInstanceId, cnames, steps, dbInstanceId)) {
+                LOG.info("User declined to proceed. Exiting.");
+                return false;
+            }
+        }
+
+        // A previous promote that lined the CNAMEs up has nothing to roll back, and its change is long INSYNC
+        Map<String, List<ResourceRecordSet>> before = stepChanges.isEmpty() ?
+                Collections.<String, List<ResourceRecordSet>>emptyMap() : recordSets(hostedZoneId, cnames);
+        boolean insync = stepChanges.isEmpty();
+        for (Map.Entry<Long, List<Change>> batch : stepChanges.entrySet()) {
+            long step = batch.getKey();
+            LOG.info("[{}] Shifting {}% of {} to {} with {} change(s)",
+                    getCommand(), step, cfg.name(), instanceAddr, batch.getValue().size());
+            insync = false;
+            try {
+                insync = submit(hostedZoneId, batch.getValue(), String.format("%s %d%%", dbInstanceId, step),
+                        Collections.singletonList(dbInstanceId));
+                if (step < 100 && cfg.promoteShiftHoldSeconds() > 0) {
+                    LOG.info("[{}] Holding at {}% for {}s", getCommand(), step, cfg.promoteShiftHoldSeconds());
+                    TimeUnit.SECONDS.sleep(cfg.promoteShiftHoldSeconds());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("[{}] Interrupted at {}%. Promote again to resume.", getCommand(), step);
+                if (step < 100) {
+                    return false;
+                }
+            }
+        }
+
+        if (!demoteOrRollBack(hostedZoneId, before, Collections.singletonList(dbInstanceId), insync)) {
+            return false;
+        }
+        sent(dbInstanceId);
+        applyPromoteTags(instance);
+
+        return true;
+    }
+
+    @Override
+    List<DBInstance> traverseCohort(List<DBInstance> instances) throws Exception {
+        if (instances.size() == 1) {
+            return super.traverseCohort(instances);
+        }
+        return promoteCohort(instances) ? instances : Collections.<DBInstance>emptyList();
+    }
+
+    /**
+     * A cohort is promoted behind every CNAME all at once, as one evenly weighted record set for each instance.
+     */
+    @Override
+    boolean traversesWholeCohort() {
+        return true;
+    }
+
+    boolean promoteCohort(List<DBInstance> instances) {
+        Map<String, String> addressesById = Maps.newLinkedHashMap();
+        for (DBInstance instance : instances) {
+            String dbInstanceId = instance.getDBInstanceIdentifier();
+            if (null == instance.getEndpoint()) {
+                LOG.info("[{}] Echo DB instance {} has no address. Is it still initializing?", getCommand(), dbInstanceId);
+                return false;
+            }
+            if (cfg.verifyQueriesFile().isPresent() && !verify(instance)) {
+                return false;
+            }
+            addressesById.put(dbInstanceId, instance.getEndpoint().getAddress());
+        }
+
+        LOG.info("[{}] Reading current DNS records", getCommand());
+        List<CnameTarget> cnames = cfg.promoteCnames();
+        if (cfg.promoteShiftSteps().size() > 1) {
+            LOG.info("[{}] A cohort is promoted all at once. {} applies only to single instances.",
+                    getCommand(), EchoCfg.PROP_PROMOTE_SHIFT_STEPS);
+        }
+        String hostedZoneId = hostedZoneId(cnames);
+        List<Change> changes = cohortChanges(hostedZoneId, cnames, addressesById);
+        if (changes.isEmpty()) {
+            LOG.info("[{}] Cohort {} already lines up with every CNAME, as a previous promote left it.",
+                    getCommand(), addressesById.keySet());
         }
 
         if (cfg.interactive()) {
-            String format = "Are you sure you want to promote %s to be the new target of %s? Input %s to confirm.";
-            if (!EchoUtil.prompt(dbInstanceId, format, dbInstanceId, cfg.promoteCname(), dbInstanceId)) {
+            String format = "Are you sure you want to promote %s to be the new targets of %s? Input %s to confirm.";
+            String confirm = instances.get(0).getDBInstanceIdentifier();
+            if (!EchoUtil.prompt(confirm, format, addressesById.keySet(), cnames, confirm)) {
                 LOG.info("User declined to proceed. Exiting.");
                 return false;
             }
         }
 
-        LOG.info("[{}] Updating CNAME {} from {} to {}", getCommand(), cfg.name(), resourceRecord.getValue(), instanceAddr);
-        ChangeResourceRecordSetsRequest request = new ChangeResourceRecordSetsRequest()
-                .withHostedZoneId(hostedZone.getId())
+        LOG.info("[{}] Pointing {} CNAME(s) of {} at cohort {}", getCommand(), cnames.size(), cfg.name(), addressesById.keySet());
+        Map<String, List<ResourceRecordSet>> before = changes.isEmpty() ?
+                Collections.<String, List<ResourceRecordSet>>emptyMap() : recordSets(hostedZoneId, cnames);
+        boolean insync = changes.isEmpty();
+        if (!changes.isEmpty()) {
+            try {
+                insync = submit(hostedZoneId, changes, "cohort " + Joiner.on(' ').join(addressesById.keySet()),
+                        Lists.newArrayList(addressesById.keySet()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("[{}] Interrupted waiting for Route53.", getCommand());
+            }
+        }
+        if (!demoteOrRollBack(hostedZoneId, before, Lists.newArrayList(addressesById.keySet()), insync)) {
+            return false;
+        }
+        for (DBInstance instance : instances) {
+            sent(instance.getDBInstanceIdentifier());
+            applyPromoteTags(instance);
+        }
+
+        return true;
+    }
+
+    /**
+     * A promotion that may or may not have been sent before the run was interrupted was, if every CNAME already points
+     * at the instance, or at its cohort. A shift interrupted part way is not resumed here, but carries on from its
+     * current weights when traversed again.
+     */
+    @Override
+    boolean resume(DBInstance instance, Journal.Entry entry) {
+        if (entry.getState() == Journal.State.SENDING && !pointedAt(instance)) {
+            return false;
+        }
+        // The run may have been interrupted before it demoted the instances promoted before
+        List<String> promotedIds = Lists.newArrayList();
+        for (DBInstance member : candidates()) {
+            promotedIds.add(member.getDBInstanceIdentifier());
+        }
+        if (!demote(previouslyPromoted(promotedIds))) {
+            LOG.error("[{}] Could not demote every previously promoted instance. Fix the failures above and promote " +
+                    "again.", getCommand());
+            return false;
+        }
+        applyPromoteTags(instance);
+        return true;
+    }
+
+    /**
+     * @return whether every CNAME points at the instance, together with the rest of its cohort if it has one
+     */
+    boolean pointedAt(DBInstance instance) {
+        List<DBInstance> cohort = candidates();
+        List<CnameTarget> cnames = cfg.promoteCnames();
+        if (cohort.size() <= 1) {
+            return instance.getEndpoint() != null &&
+                    stepChanges(hostedZoneId(cnames), cnames, instance.getEndpoint().getAddress()).isEmpty();
+        }
+        Map<String, String> addressesById = Maps.newLinkedHashMap();
+        for (DBInstance member : cohort) {
+            if (null == member.getEndpoint()) {
+                return false;
+            }
+            addressesById.put(member.getDBInstanceIdentifier(), member.getEndpoint().getAddress());
+        }
+        return cohortChanges(hostedZoneId(cnames), cnames, addressesById).isEmpty();
+    }
+
+    /**
+     * Once the change is INSYNC, demotes every previously promoted instance. If any cannot be, puts the CNAMEs back as
+     * they were before the promotion, now that the instances they pointed at are in stage promoted again.
+     *
+     * @param before      the record sets of the CNAMEs as they were before the promotion
+     * @param promotedIds the instances being promoted
+     * @param insync      whether Route53 reported the promotion's change INSYNC
+     * @return whether the previously promoted instances were demoted
+     * @throws IllegalStateException if demoted instances could not be moved back to stage promoted, in which case the
+     *                               CNAMEs are left pointing at the instances being promoted
+     */
+    boolean demoteOrRollBack(String hostedZoneId, Map<String, List<ResourceRecordSet>> before, List<String> promotedIds,
+                             boolean insync) {
+        List<DBInstance> demoted = previouslyPromoted(promotedIds);
+        if (demoted.isEmpty()) {
+            LOG.info("[{}] No previously promoted instance to demote.", getCommand());
+            return true;
+        }
+        if (!insync) {
+            LOG.warn("[{}] Route53 has not reported the change INSYNC, so {} stay promoted and {} is not advanced " +
+                    "yet. Promote again to finish once it is.", getCommand(), identifiers(demoted), promotedIds);
+            return false;
+        }
+        if (demote(demoted)) {
+            return true;
+        }
+        List<Change> rollback = rollbackChanges(hostedZoneId, before);
+        LOG.error("[{}] Could not demote every previously promoted instance. Rolling back the DNS change with {} " +
+                "change(s).", getCommand(), rollback.size());
+        if (!rollback.isEmpty()) {
+            try {
+                submit(hostedZoneId, rollback, "rollback " + Joiner.on(' ').join(promotedIds),
+                        Collections.<String>emptyList());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("[{}] Interrupted waiting for Route53 to roll back.", getCommand());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param promotedIds the instances being promoted
+     * @return every other instance in stage promoted, in one pass over the inventory
+     */
+    List<DBInstance> previouslyPromoted(List<String> promotedIds) {
+        List<DBInstance> promoted = Lists.newArrayList();
+        for (DBInstance instance : echo.promotedInstances()) {
+            if (!promotedIds.contains(instance.getDBInstanceIdentifier())) {
+                promoted.add(instance);
+            }
+        }
+        return promoted;
+    }
+
+    /**
+     * Moves the instances to stage forgotten, writing their tags all at once. If any cannot be, those that were are
+     * moved back to stage promoted.
+     *
+     * @return whether every instance was demoted
+     * @throws IllegalStateException if any instance could be neither demoted nor moved back
+     */
+    boolean demote(List<DBInstance> demoted) {
+        if (demoted.isEmpty()) {
+            return true;
+        }
+        LOG.info("[{}] Demoting previously promoted instance(s) {} to stage {}", getCommand(),
+                identifiers(demoted), EchoConst.STAGE_FORGOTTEN);
+        List<DBInstance> retagged = retag(demoted, EchoConst.STAGE_PROMOTED, EchoConst.STAGE_FORGOTTEN);
+        if (retagged.size() == demoted.size()) {
+            return true;
+        }
+        if (!retagged.isEmpty()) {
+            LOG.info("[{}] Moving {} back to stage {}", getCommand(), identifiers(retagged), EchoConst.STAGE_PROMOTED);
+            List<DBInstance> restored = retag(retagged, EchoConst.STAGE_FORGOTTEN, EchoConst.STAGE_PROMOTED);
+            if (restored.size() < retagged.size()) {
+                List<DBInstance> stranded = Lists.newArrayList(retagged);
+                stranded.removeAll(restored);
+                // Rolling DNS back onto them would have retire delete what the CNAMEs point at
+                throw new IllegalStateException(String.format("Instances %s could not be moved back to stage %s. " +
+                                "The CNAMEs are left pointing at the instances being promoted. Set %s=%s on %s " +
+                                "by hand before anything is retired.", identifiers(stranded), EchoConst.STAGE_PROMOTED,
+                        echo.getTagEchoStage(), EchoConst.STAGE_PROMOTED, identifiers(stranded)));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tags each instance with the stage, all at once
+     *
+     * @return the instances that were tagged
+     */
+    List<DBInstance> retag(List<DBInstance> instances, final String fromStage, final String toStage) {
+        ExecutorService executor = Executors.newFixedThreadPool(instances.size(), new ThreadFactoryBuilder()
+                .setNameFormat("rdsecho-" + getCommand() + "-retag-%d")
+                .build());
+        List<Future<?>> futures = Lists.newArrayList();
+        try {
+            for (final DBInstance instance : instances) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        String dbInstanceId = instance.getDBInstanceIdentifier();
+                        Tag stageTag = new Tag().withKey(echo.getTagEchoStage()).withValue(toStage);
+                        rds.addTagsToResource(new AddTagsToResourceRequest()
+                                .withResourceName(RdsFind.instanceArn(cfg.region(), cfg.accountNumber(), dbInstanceId))
+                                .withTags(stageTag));
+                        echo.tagged(dbInstanceId, Collections.singletonList(stageTag));
+                        report.transition(dbInstanceId, fromStage, toStage);
+                    }
+                }));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        List<DBInstance> retagged = Lists.newArrayList();
+        for (int i = 0; i < instances.size(); i++) {
+            try {
+                futures.get(i).get();
+                retagged.add(instances.get(i));
+            } catch (ExecutionException e) {
+                LOG.error("[{}] Could not move instance {} to stage {}",
+                        getCommand(), instances.get(i).getDBInstanceIdentifier(), toStage, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("[{}] Interrupted moving instance {} to stage {}",
+                        getCommand(), instances.get(i).getDBInstanceIdentifier(), toStage);
+            }
+        }
+        return retagged;
+    }
+
+    static List<String> identifiers(List<DBInstance> instances) {
+        List<String> ids = Lists.newArrayList();
+        for (DBInstance instance : instances) {
+            ids.add(instance.getDBInstanceIdentifier());
+        }
+        return ids;
+    }
+
+    /**
+     * @return the record sets of each CNAME by name, as they are now
+     */
+    Map<String, List<ResourceRecordSet>> recordSets(String hostedZoneId, List<CnameTarget> cnames) {
+        Map<String, List<ResourceRecordSet>> recordSets = Maps.newLinkedHashMap();
+        for (CnameTarget cname : cnames) {
+            if (!recordSets.containsKey(cname.getName())) {
+                recordSets.put(cname.getName(), Lists.newArrayList(
+                        route53Find.resourceRecordSets(hostedZoneId, cname.getName(), RRType.CNAME)));
+            }
+        }
+        return recordSets;
+    }
+
+    /**
+     * @param before the record sets of each CNAME by name, as they were
+     * @return the changes that put the record sets back as they were, in one batch
+     */
+    List<Change> rollbackChanges(String hostedZoneId, Map<String, List<ResourceRecordSet>> before) {
+        List<Change> deletes = Lists.newArrayList();
+        List<Change> creates = Lists.newArrayList();
+        for (Map.Entry<String, List<ResourceRecordSet>> e : before.entrySet()) {
+            List<ResourceRecordSet> now = Lists.newArrayList(
+                    route53Find.resourceRecordSets(hostedZoneId, e.getKey(), RRType.CNAME));
+            for (ResourceRecordSet recordSet : now) {
+                if (!e.getValue().contains(recordSet)) {
+                    deletes.add(new Change(ChangeAction.DELETE, recordSet));
+                }
+            }
+            for (ResourceRecordSet recordSet : e.getValue()) {
+                if (!now.contains(recordSet)) {
+                    creates.add(new Change(ChangeAction.CREATE, recordSet));
+                }
+            }
+        }
+        // Deletes first, as a plain CNAME cannot be created beside weighted record sets of the same name
+        deletes.addAll(creates);
+        return deletes;
+    }
+
+    /**
+     * Submits the changes as one batch, so that every CNAME moves together or not at all, and waits for it to be
+     * INSYNC if so configured.
+     *
+     * @param dbInstanceIds the instances the changes are journaled for
+     * @return whether Route53 reported the change INSYNC
+     */
+    boolean submit(String hostedZoneId, List<Change> changes, String comment, List<String> dbInstanceIds)
+            throws InterruptedException {
+        ChangeResourceRecordSetsRequest request = request(hostedZoneId, changes, comment);
+        for (String dbInstanceId : dbInstanceIds) {
+            journal.sending(dbInstanceId, getCommand(), request);
+        }
+        report.request(request);
+        ChangeInfo change = route53.changeResourceRecordSets(request).getChangeInfo();
+        if (cfg.promoteSyncTimeoutMinutes() <= 0) {
+            return ChangeStatus.INSYNC.toString().equals(change.getStatus());
+        }
+        long syncStart = System.currentTimeMillis();
+        try {
+            return new ChangeWaiter(route53).waitForInsync(change, cfg.promoteSyncTimeoutMinutes(), TimeUnit.MINUTES)
+                    .isPresent();
+        } finally {
+            report.phase("route53Insync " + change.getId(), syncStart);
+        }
+    }
+
+    /**
+     * @return the changes that point every CNAME at the address, one batch for each step of the shift still to go, or
+     * none if every CNAME already points there
+     */
+    Map<Long, List<Change>> stepChanges(String hostedZoneId, List<CnameTarget> cnames, String instanceAddr) {
+        // Plain CNAMEs shift, gradually if so configured. Weighted record sets of your own keep their weights and
+        // move with the last step.
+        List<CnameShift> shifts = Lists.newArrayList();
+        List<Change> weightedChanges = Lists.newArrayList();
+        for (CnameTarget cname : cnames) {
+            List<ResourceRecordSet> named = Lists.newArrayList(
+                    route53Find.resourceRecordSets(hostedZoneId, cname.getName(), RRType.CNAME));
+            if (!cname.getSetIdentifier().isPresent()) {
+                CnameShift shift = new CnameShift(cname, named, instanceAddr, cfg.promoteTtl());
+                if (shift.isDone()) {
+                    LOG.info("[{}] Echo DB instance {} ({}) lines up with CNAME {}.",
+                            getCommand(), echo.getTagEchoManaged(), instanceAddr, cname);
+                } else {
+                    LOG.info("[{}] CNAME {} will shift from {} ({}% shifted)", getCommand(), cname,
+                            shift.getOldAddress().or("nothing"), shift.percent());
+                    shifts.add(shift);
+                }
+                continue;
+            }
+            Optional<ResourceRecordSet> current = Iterables.tryFind(named, cnameTargetMatches(cname));
+            if (!current.isPresent()) {
+                LOG.info("[{}] CNAME {} does not exist yet and will be created.", getCommand(), cname);
+            } else {
+                String currentValue = getOnlyElement(current.get().getResourceRecords()).getValue();
+                LOG.info("[{}] Found CNAME {} with current value {}", getCommand(), cname, currentValue);
+                if (currentValue.equals(instanceAddr)) {
+                    LOG.info("[{}] Echo DB instance {} ({}) lines up with CNAME {}.",
+                            getCommand(), echo.getTagEchoManaged(), instanceAddr, cname);
+                    continue;
+                }
+            }
+            weightedChanges.add(new Change(ChangeAction.UPSERT, cname.toResourceRecordSet(instanceAddr, cfg.promoteTtl())));
+        }
+        Map<Long, List<Change>> stepChanges = Maps.newLinkedHashMap();
+        if (shifts.isEmpty() && weightedChanges.isEmpty()) {
+            return stepChanges;
+        }
+
+        // Resume an interrupted shift rather than sending traffic back
+        long shifted = 100;
+        for (CnameShift shift : shifts) {
+            shifted = Math.min(shifted, shift.percent());
+        }
+        for (long step : cfg.promoteShiftSteps()) {
+            if (step < 100 && step <= shifted) {
+                continue;
+            }
+            // One batch per step, so that every CNAME moves together or not at all
+            List<Change> changes = Lists.newArrayList();
+            for (CnameShift shift : shifts) {
+                changes.addAll(shift.shiftTo(step));
+            }
+            if (step == 100) {
+                changes.addAll(weightedChanges);
+            }
+            // Route53 rejects an empty batch, as when only weighted record sets move
+            if (!changes.isEmpty()) {
+                stepChanges.put(step, changes);
+            }
+        }
+        return stepChanges;
+    }
+
+    /**
+     * @return the changes that point every CNAME at the cohort's addresses, evenly weighted, or none if they already do
+     */
+    List<Change> cohortChanges(String hostedZoneId, List<CnameTarget> cnames, Map<String, String> addressesById) {
+        for (CnameTarget cname : cnames) {
+            Preconditions.checkState(!cname.getSetIdentifier().isPresent(),
+                    "A cohort can only be promoted behind plain CNAMEs, not " + cname);
+        }
+        List<Change> changes = Lists.newArrayList();
+        for (CnameTarget cname : cnames) {
+            List<ResourceRecordSet> named = Lists.newArrayList(
+                    route53Find.resourceRecordSets(hostedZoneId, cname.getName(), RRType.CNAME));
+            CnameShift shift = new CnameShift(cname, named, addressesById.values().iterator().next(), cfg.promoteTtl());
+            changes.addAll(shift.shiftToCohort(addressesById));
+        }
+        return changes;
+    }
+
+    ChangeResourceRecordSetsRequest request(String hostedZoneId, List<Change> changes, String comment) {
+        return new ChangeResourceRecordSetsRequest()
+                .withHostedZoneId(hostedZoneId)
                 .withChangeBatch(new ChangeBatch()
-                        .withChanges(new Change(ChangeAction.UPSERT, new ResourceRecordSet(cfg.promoteCname(), RRType.CNAME)
-                                .withResourceRecords(new ResourceRecord(instanceAddr))
-                                .withTTL(cfg.promoteTtl()))));
-        route53.changeResourceRecordSets(request);
+                        .withComment(String.format("rds-echo %s %s %s", getCommand(), cfg.name(), comment))
+                        .withChanges(changes));
+    }
 
+    void applyPromoteTags(DBInstance instance) {
         Optional<String[]> promoteTags = cfg.promoteTags();
         if (promoteTags.isPresent()) {
             List<Tag> tags = EchoUtil.parseTags(promoteTags.get());
@@ -122,10 +596,86 @@ public class EchoPromote extends AbstractEchoIntermediateStage {
                 rds.addTagsToResource(tagsRequest);
             }
         }
+    }
+
+    /**
+     * Measures the verification workload on the instance, and on the promoted instance to compare to if so
+     * configured.
+     *
+     * @return whether the instance is fit to promote
+     */
+    boolean verify(DBInstance instance) {
+        String dbInstanceId = instance.getDBInstanceIdentifier();
+        long verifyStart = System.currentTimeMillis();
+        Verifier.Thresholds thresholds = new Verifier.Thresholds(cfg.verifyMaxP50Millis(), cfg.verifyMaxP99Millis(),
+                cfg.verifyMaxSlowdown(), cfg.verifyMaxRowDrift());
+        try {
+            List<String> queries = EchoUtil.readQueries(cfg.verifyQueriesFile());
+            LOG.info("[{}] Verifying instance {} with {} queries, each {} times.",
+                    getCommand(), dbInstanceId, queries.size(), cfg.verifyRepeat());
+            Map<String, Verifier.QueryStats> candidate = verifier(instance).run(queries);
+
+            Optional<Map<String, Verifier.QueryStats>> baseline = Optional.absent();
+            Optional<DBInstance> promoted = cfg.verifyCompareToPromoted() ?
+                    echo.promotedInstance() : Optional.<DBInstance>absent();
+            if (promoted.isPresent() && !dbInstanceId.equals(promoted.get().getDBInstanceIdentifier()) &&
+                    promoted.get().getEndpoint() != null) {
+                LOG.info("[{}] Measuring the same on promoted instance {} to compare.",
+                        getCommand(), promoted.get().getDBInstanceIdentifier());
+                baseline = Optional.of(verifier(promoted.get()).run(queries));
+            }
+            LOG.info("[{}] Verification of instance {}:\n{}",
+                    getCommand(), dbInstanceId, Verifier.report(candidate, baseline));
+
+            List<String> violations = Verifier.violations(candidate, baseline, thresholds);
+            if (!violations.isEmpty()) {
+                LOG.error("[{}] Refusing to promote instance {}, which failed verification:\n  {}",
+                        getCommand(), dbInstanceId, Joiner.on("\n  ").join(violations));
+                return false;
+            }
+            return true;
+
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("[{}] Interrupted verifying instance {}.", getCommand(), dbInstanceId);
+            return false;
+        } finally {
+            report.phase("verify " + dbInstanceId, verifyStart);
+        }
+    }
 
-        LOG.info("[{}] Searching for any existing promoted instance to demote.", getCommand()); // TODO no it doesn't
+    Verifier verifier(DBInstance instance) throws IOException {
+        return new Verifier(EchoUtil.newJdbcConnector(cfg, instance.getEndpoint()), cfg.verifyThreads(), cfg.verifyRepeat());
+    }
 
-        return true;
+    /**
+     * @return the configured hosted zone, or else the one named after the CNAMEs' top-level domain
+     */
+    String hostedZoneId(List<CnameTarget> cnames) {
+        Optional<String> configured = cfg.promoteHostedZoneId().or(knownHostedZoneId);
+        if (configured.isPresent()) {
+            return configured.get();
+        }
+        String tld = EchoUtil.getTLD(cnames.get(0).getName()) + '.';
+        for (CnameTarget cname : cnames) {
+            // A change batch applies to a single zone
+            Preconditions.checkState(tld.equals(EchoUtil.getTLD(cname.getName()) + '.'),
+                    "All of " + EchoCfg.PROP_PROMOTE_CNAME + " must be in the same hosted zone");
+        }
+        HostedZone hostedZone = route53Find.hostedZoneByName(tld).get();
+        LOG.info("[{}] Found corresponding HostedZone. name: {} id: {}", getCommand(), hostedZone.getName(), hostedZone.getId());
+        return hostedZone.getId();
+    }
+
+    static Predicate<ResourceRecordSet> cnameTargetMatches(final CnameTarget cname) {
+        return new Predicate<ResourceRecordSet>() {
+            @Override
+            public boolean apply(ResourceRecordSet resourceRecordSet) {
+                return cname.matches(resourceRecordSet);
+            }
+        };
     }
 
     @Override
@@ -24,17 +24,27 @@
 package com.github.blacklocus.rdsecho;
 
 import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.DescribeEventsRequest;
+import com.amazonaws.services.rds.model.Event;
 import com.amazonaws.services.rds.model.RebootDBInstanceRequest;
+import com.amazonaws.services.rds.model.SourceType;
 import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.Journal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Date;
+
 public class EchoReboot extends AbstractEchoIntermediateStage {
 
     private static final Logger LOG = LoggerFactory.getLogger(EchoReboot.class);
 
     public EchoReboot() {
-        super(EchoConst.STAGE_MODIFIED, EchoConst.STAGE_REBOOTED);
+        this(EchoContext.create());
+    }
+
+    public EchoReboot(EchoContext ctx) {
+        super(ctx, EchoConst.STAGE_MODIFIED, EchoConst.STAGE_REBOOTED);
     }
 
     @Override
@@ -50,12 +60,43 @@ public class EchoReboot extends AbstractEchoIntermediateStage {
         }
 
         LOG.info("[{}] Rebooting instance {}", getCommand(), dbInstanceId);
-        rds.rebootDBInstance(new RebootDBInstanceRequest()
-                .withDBInstanceIdentifier(dbInstanceId));
+        RebootDBInstanceRequest request = request(dbInstanceId);
+        sending(dbInstanceId, request);
+        rds.rebootDBInstance(request);
+        sent(dbInstanceId);
 
         return true;
     }
 
+    /**
+     * A reboot that may or may not have been sent before the run was interrupted was, if RDS has recorded an event of
+     * the instance rebooting since
+     */
+    @Override
+    boolean resume(DBInstance instance, Journal.Entry entry) {
+        if (super.resume(instance, entry)) {
+            return true;
+        }
+        DescribeEventsRequest request = new DescribeEventsRequest()
+                .withSourceIdentifier(instance.getDBInstanceIdentifier())
+                .withSourceType(SourceType.DbInstance)
+                .withStartTime(new Date(entry.getSendingMillis().get()));
+        for (Event event : rds.describeEvents(request).getEvents()) {
+            String message = event.getMessage() == null ? "" : event.getMessage().toLowerCase();
+            if (message.contains("reboot") || message.contains("restart")) {
+                LOG.info("[{}] Instance {} rebooted at {}: {}",
+                        getCommand(), instance.getDBInstanceIdentifier(), event.getDate(), event.getMessage());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    RebootDBInstanceRequest request(String dbInstanceId) {
+        return new RebootDBInstanceRequest()
+                .withDBInstanceIdentifier(dbInstanceId);
+    }
+
     @Override
     String getCommand() {
         return EchoConst.COMMAND_REBOOT;
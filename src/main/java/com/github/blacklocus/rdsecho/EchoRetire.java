@@ -29,12 +29,26 @@ import com.github.blacklocus.rdsecho.utl.EchoUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 public class EchoRetire extends AbstractEchoIntermediateStage {
 
     private static final Logger LOG = LoggerFactory.getLogger(EchoRetire.class);
 
     public EchoRetire() {
-        super(EchoConst.STAGE_PROMOTED, EchoConst.STAGE_RETIRED);
+        this(EchoContext.create());
+    }
+
+    public EchoRetire(EchoContext ctx) {
+        super(ctx, EchoConst.STAGE_FORGOTTEN, EchoConst.STAGE_RETIRED);
+    }
+
+    /**
+     * Every forgotten instance, rather than the latest cohort, which is the promoted one or newer
+     */
+    @Override
+    List<DBInstance> candidates() {
+        return echo.instancesInStage(EchoConst.STAGE_FORGOTTEN);
     }
 
     @Override
@@ -52,16 +66,22 @@ public class EchoRetire extends AbstractEchoIntermediateStage {
         }
 
         LOG.info("[{}] Retiring instance {}", getCommand(), dbInstanceId);
-        DeleteDBInstanceRequest request = new DeleteDBInstanceRequest()
-                .withDBInstanceIdentifier(dbInstanceId)
-                .withSkipFinalSnapshot(cfg.retireSkipFinalSnapshot().orNull())
-                .withFinalDBSnapshotIdentifier(cfg.retireFinalDbSnapshotIdentifier().orNull());
+        DeleteDBInstanceRequest request = request(dbInstanceId);
+        sending(dbInstanceId, request);
         rds.deleteDBInstance(request);
+        sent(dbInstanceId);
         LOG.info("[{}] So long {}", getCommand(), dbInstanceId);
 
         return true;
     }
 
+    DeleteDBInstanceRequest request(String dbInstanceId) {
+        return new DeleteDBInstanceRequest()
+                .withDBInstanceIdentifier(dbInstanceId)
+                .withSkipFinalSnapshot(cfg.retireSkipFinalSnapshot().orNull())
+                .withFinalDBSnapshotIdentifier(cfg.retireFinalDbSnapshotIdentifier().orNull());
+    }
+
     @Override
     String getCommand() {
         return EchoConst.COMMAND_RETIRE;
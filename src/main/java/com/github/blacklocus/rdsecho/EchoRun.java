@@ -0,0 +1,230 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Tag;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_RUN;
+
+/**
+ * Drives an environment through the Echo stages for as long as the process lives. The stage of the latest echo
+ * instance selects the command that advances it; that command waits for the instance to be available and runs as soon
+ * as it is (see {@link com.github.blacklocus.rdsecho.utl.InstanceWaiter}). Between attempts the daemon waits, starting
+ * at the minimum poll interval and doubling up to the maximum while nothing advances. A new echo instance is created
+ * once the last one has been promoted, subject to the same rules as the {@link EchoNew} command.
+ */
+public class EchoRun implements Callable<Boolean> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EchoRun.class);
+
+    final EchoCfg cfg;
+    final EchoUtil echo;
+
+    final EchoNew newInstances;
+    final Callable<Boolean> echoNew;
+    final Map<String, Callable<Boolean>> commandsByStage;
+
+    /**
+     * Stages in the order instances go through them
+     */
+    static final List<String> STAGE_ORDER = ImmutableList.of(EchoConst.STAGE_NEW, EchoConst.STAGE_MODIFIED,
+            EchoConst.STAGE_REBOOTED, EchoConst.STAGE_WARMED, EchoConst.STAGE_PROMOTED, EchoConst.STAGE_FORGOTTEN,
+            EchoConst.STAGE_RETIRED);
+
+    final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("rdsecho-run")
+            .build());
+
+    long pollSeconds;
+
+    public EchoRun() {
+        this(EchoContext.create());
+    }
+
+    public EchoRun(EchoContext ctx) {
+        this.cfg = ctx.cfg;
+        this.echo = ctx.echo;
+        this.newInstances = new EchoNew(ctx);
+        this.echoNew = cfg.copySourceRegion().isPresent() ? copyThenNew(ctx, newInstances) : newInstances;
+        ImmutableMap.Builder<String, Callable<Boolean>> commands = ImmutableMap.<String, Callable<Boolean>>builder()
+                .put(EchoConst.STAGE_NEW, waiting(new EchoModify(ctx)))
+                .put(EchoConst.STAGE_MODIFIED, waiting(new EchoReboot(ctx)));
+        if (cfg.warmEnabled()) {
+            commands.put(EchoConst.STAGE_REBOOTED, waiting(new EchoWarm(ctx)))
+                    .put(EchoConst.STAGE_WARMED, waiting(new EchoPromote(ctx)));
+        } else {
+            commands.put(EchoConst.STAGE_REBOOTED, waiting(new EchoPromote(ctx)));
+        }
+        this.commandsByStage = commands
+                .put(EchoConst.STAGE_PROMOTED, echoNew)
+                .build();
+        this.pollSeconds = cfg.runMinPollSeconds();
+    }
+
+    @Override
+    public Boolean call() throws Exception {
+        if (cfg.interactive()) {
+            LOG.error("[{}] Cannot run unattended with {}=true. Exiting.", COMMAND_RUN, EchoCfg.PROP_INTERACTIVE);
+            return false;
+        }
+
+        LOG.info("[{}] Running environment {} continuously, polling every {} to {} seconds.",
+                COMMAND_RUN, cfg.name(), cfg.runMinPollSeconds(), cfg.runMaxPollSeconds());
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                long delay;
+                try {
+                    // Each step describes the latest cohort again by itself. Instances created or deleted by hand are
+                    // only looked for while backed off to the longest poll.
+                    if (pollSeconds >= cfg.runMaxPollSeconds()) {
+                        echo.refresh();
+                    }
+                    delay = step() ? resetPoll() : backOffPoll();
+                } catch (Exception e) {
+                    LOG.error("[{}] Step failed. Will try again.", COMMAND_RUN, e);
+                    delay = backOffPoll();
+                }
+                LOG.info("[{}] Next step in {} seconds.", COMMAND_RUN, delay);
+                scheduler.schedule(this, delay, TimeUnit.SECONDS);
+            }
+        }, 0, TimeUnit.SECONDS);
+
+        scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        return true;
+    }
+
+    /**
+     * Runs the command that advances the latest echo instance from its current stage, if that instance is available.
+     *
+     * @return whether the instance advanced
+     */
+    boolean step() throws Exception {
+        List<DBInstance> cohort = echo.lastEchoCohort();
+        if (cohort.isEmpty()) {
+            LOG.info("[{}] No echo instance yet.", COMMAND_RUN);
+            return echoNew.call();
+        }
+
+        // The last step may have changed their status. Only they are described again, as the inventory may be shared
+        // by other environments.
+        for (DBInstance instance : cohort) {
+            echo.refresh(instance.getDBInstanceIdentifier());
+        }
+
+        // A new that failed part way restored only part of the cohort, which is completed before anything advances
+        if (newInstances.isPartial(cohort)) {
+            LOG.info("[{}] The cohort of instance {} is missing instances that {} failed to restore. Completing it.",
+                    COMMAND_RUN, cohort.get(0).getDBInstanceIdentifier(), EchoConst.COMMAND_NEW);
+            return newInstances.call();
+        }
+
+        // A cohort advances as far as the instance furthest behind
+        String dbInstanceId = null;
+        String stage = null;
+        for (DBInstance instance : cohort) {
+            Optional<Tag> stageOpt = echo.instanceStage(instance.getDBInstanceIdentifier());
+            if (!stageOpt.isPresent()) {
+                LOG.warn("[{}] Instance {} has no {} tag. Waiting for it to be fixed by hand.",
+                        COMMAND_RUN, instance.getDBInstanceIdentifier(), echo.getTagEchoStage());
+                return false;
+            }
+            if (stage == null || STAGE_ORDER.indexOf(stageOpt.get().getValue()) < STAGE_ORDER.indexOf(stage)) {
+                dbInstanceId = instance.getDBInstanceIdentifier();
+                stage = stageOpt.get().getValue();
+            }
+        }
+
+        Callable<Boolean> command = nextCommand(stage);
+        if (command == null) {
+            LOG.warn("[{}] Instance {} is in stage {}, which nothing advances. Waiting for it to be fixed by hand.",
+                    COMMAND_RUN, dbInstanceId, stage);
+            return false;
+        }
+        LOG.info("[{}] Advancing instance {} from stage {}.", COMMAND_RUN, dbInstanceId, stage);
+        return command.call();
+    }
+
+    /**
+     * @return the command that advances an instance out of the given stage, or null if there is none. Run never
+     * advances an instance out of stage forgotten: destroying instances is left to {@link EchoRetire}.
+     */
+    Callable<Boolean> nextCommand(String stage) {
+        return commandsByStage.get(stage);
+    }
+
+    /**
+     * Copies the latest snapshot into the region, and then restores from it once the copy is available. Until it is,
+     * each step just looks at the copy again rather than blocking the daemon, so a step resumes whatever copy the last
+     * one left in progress.
+     */
+    static Callable<Boolean> copyThenNew(EchoContext ctx, final EchoNew echoNew) {
+        final EchoCopy copy = new EchoCopy(ctx);
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                boolean copied = copy.call();
+                return echoNew.call() || copied;
+            }
+        };
+    }
+
+    /**
+     * The stage polls just its instance until available, so it advances as soon as it can.
+     */
+    static AbstractEchoIntermediateStage waiting(AbstractEchoIntermediateStage stage) {
+        stage.waitForAvailable = true;
+        return stage;
+    }
+
+    long resetPoll() {
+        pollSeconds = cfg.runMinPollSeconds();
+        return pollSeconds;
+    }
+
+    long backOffPoll() {
+        long delay = pollSeconds;
+        pollSeconds = Math.min(pollSeconds * 2, cfg.runMaxPollSeconds());
+        return delay;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new EchoRun().call();
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Endpoint;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.JdbcConnector;
+import com.github.blacklocus.rdsecho.utl.StageHistory;
+import com.github.blacklocus.rdsecho.utl.Warmer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A restored instance loads its data from S3 lazily, block by block as it is first read, so it starts out slow. Warm
+ * reads through the configured tables and queries over JDBC so that this happens before the instance is promoted.
+ */
+public class EchoWarm extends AbstractEchoIntermediateStage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EchoWarm.class);
+
+    public EchoWarm() {
+        this(EchoContext.create());
+    }
+
+    public EchoWarm(EchoContext ctx) {
+        super(ctx, EchoConst.STAGE_REBOOTED, EchoConst.STAGE_WARMED);
+    }
+
+    @Override
+    boolean traverseStage(DBInstance instance) {
+
+        String dbInstanceId = instance.getDBInstanceIdentifier();
+        if (!cfg.warmEnabled()) {
+            LOG.info("[{}] No {} or {} configured, so there is nothing to warm ({} alone does not enable warming). " +
+                    "Exiting.", getCommand(), EchoCfg.PROP_WARM_TABLES, EchoCfg.PROP_WARM_QUERIES_FILE,
+                    EchoCfg.PROP_JDBC_URL);
+            return false;
+        }
+        Endpoint endpoint = instance.getEndpoint();
+        if (null == endpoint) {
+            LOG.info("[{}] Echo DB instance {} has no address. Is it still initializing?", getCommand(), dbInstanceId);
+            return false;
+        }
+
+        List<String> tables = cfg.warmTables();
+        List<String> queries;
+        JdbcConnector connector;
+        try {
+            queries = EchoUtil.readQueries(cfg.warmQueriesFile());
+            connector = EchoUtil.newJdbcConnector(cfg, endpoint);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        LOG.info("[{}] Warming instance {} by reading {} tables and {} queries, {} at a time.",
+                getCommand(), dbInstanceId, tables.size(), queries.size(), cfg.warmThreads());
+        List<Warmer.Scan> scans;
+        long warmStart = System.currentTimeMillis();
+        try {
+            scans = new Warmer(connector, cfg.warmThreads(), cfg.warmFetchSize()).warm(tables, queries);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("[{}] Interrupted warming instance {}.", getCommand(), dbInstanceId);
+            return false;
+        } finally {
+            report.phase("warm " + dbInstanceId, warmStart);
+        }
+
+        for (Warmer.Scan scan : scans) {
+            if (scan.getFailure().isPresent()) {
+                LOG.error("[{}] Could not warm all of instance {}. Fix the failures above and run this again.",
+                        getCommand(), dbInstanceId);
+                return false;
+            }
+        }
+        history.record(instance, StageHistory.WARMING, (System.currentTimeMillis() - warmStart) / 1000);
+        // Warming sends nothing to AWS, but is as well not repeated
+        sent(dbInstanceId);
+        return true;
+    }
+
+    @Override
+    String getCommand() {
+        return EchoConst.COMMAND_WARM;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new EchoWarm().call();
+    }
+}
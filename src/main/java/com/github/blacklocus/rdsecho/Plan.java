@@ -0,0 +1,350 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Endpoint;
+import com.amazonaws.services.rds.model.Tag;
+import com.amazonaws.util.json.JSONArray;
+import com.amazonaws.util.json.JSONException;
+import com.amazonaws.util.json.JSONObject;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What {@link EchoPlan} looked up, and every request the stages would make from there, in order. Written as JSON to be
+ * reviewed, and read back by {@link EchoApply}, which answers its lookups from the instances found here rather than
+ * looking them up again.
+ */
+class Plan {
+
+    /**
+     * Status of planned instances read back, as their status may have changed since. A stage looks such an instance up
+     * again before acting on it.
+     */
+    static final String STATUS_PLANNED = "planned";
+
+    final String environment;
+    final long createdMillis;
+
+    /**
+     * Every echo instance of the environment with its tags
+     */
+    final Map<DBInstance, List<Tag>> instances;
+
+    /**
+     * What a new instance is restored from, e.g. the snapshot identifier, if a new instance is planned
+     */
+    final Optional<String> source;
+    final Optional<String> hostedZoneId;
+
+    /**
+     * AWS calls it took to look up the instances, which each command would otherwise repeat
+     */
+    final int discoveryCalls;
+
+    /**
+     * AWS calls it takes to plan again from the instances, to check that the plan still holds
+     */
+    final int checkCalls;
+    final List<Step> steps;
+
+    Plan(String environment, long createdMillis, Map<DBInstance, List<Tag>> instances, Optional<String> source,
+         Optional<String> hostedZoneId, int discoveryCalls, int checkCalls, List<Step> steps) {
+        this.environment = environment;
+        this.createdMillis = createdMillis;
+        this.instances = instances;
+        this.source = source;
+        this.hostedZoneId = hostedZoneId;
+        this.discoveryCalls = discoveryCalls;
+        this.checkCalls = checkCalls;
+        this.steps = ImmutableList.copyOf(steps);
+    }
+
+    /**
+     * @return about how many AWS calls the steps take as separate commands, each looking everything up again. Polls
+     * while waiting are not counted.
+     */
+    int separateCalls() {
+        return stepCalls() + discoveryCalls * steps.size();
+    }
+
+    /**
+     * @return about how many AWS calls {@link EchoApply} takes, which looks up nothing but to check the plan. Polls
+     * while waiting are not counted.
+     */
+    int applyCalls() {
+        return stepCalls() + checkCalls;
+    }
+
+    int stepCalls() {
+        int calls = 0;
+        for (Step step : steps) {
+            calls += step.calls;
+        }
+        return calls;
+    }
+
+    /**
+     * @return the first step that differs from that of the other plan, in either its command, its instances or its
+     * requests, or absent if the plans have the same steps
+     */
+    Optional<String> difference(Plan other) {
+        for (int i = 0; i < Math.max(steps.size(), other.steps.size()); i++) {
+            String step = i < steps.size() ? steps.get(i).fingerprint() : "nothing";
+            String otherStep = i < other.steps.size() ? other.steps.get(i).fingerprint() : "nothing";
+            if (!step.equals(otherStep)) {
+                return Optional.of(String.format("step %d was%n  %s%nbut is now%n  %s", i + 1, step, otherStep));
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * @return the instances as planned, with their status {@value #STATUS_PLANNED}
+     */
+    Map<DBInstance, List<Tag>> primedInstances() {
+        Map<DBInstance, List<Tag>> primed = Maps.newLinkedHashMap();
+        for (Map.Entry<DBInstance, List<Tag>> e : instances.entrySet()) {
+            DBInstance instance = e.getKey();
+            primed.put(new DBInstance()
+                    .withDBInstanceIdentifier(instance.getDBInstanceIdentifier())
+                    .withDBInstanceStatus(STATUS_PLANNED)
+                    .withDBInstanceClass(instance.getDBInstanceClass())
+                    .withEngine(instance.getEngine())
+                    .withAllocatedStorage(instance.getAllocatedStorage())
+                    .withStorageType(instance.getStorageType())
+                    .withInstanceCreateTime(instance.getInstanceCreateTime())
+                    .withEndpoint(instance.getEndpoint()), e.getValue());
+        }
+        return primed;
+    }
+
+    String toJson() throws JSONException {
+        Map<String, Object> root = Maps.newLinkedHashMap();
+        root.put("environment", environment);
+        root.put("created", new DateTime(createdMillis, DateTimeZone.UTC).toString());
+        List<Map<String, Object>> instancesJson = Lists.newArrayList();
+        for (Map.Entry<DBInstance, List<Tag>> e : instances.entrySet()) {
+            instancesJson.add(instanceJson(e.getKey(), e.getValue()));
+        }
+        root.put("instances", instancesJson);
+        if (source.isPresent()) {
+            root.put("source", source.get());
+        }
+        if (hostedZoneId.isPresent()) {
+            root.put("hostedZoneId", hostedZoneId.get());
+        }
+        Map<String, Object> budget = Maps.newLinkedHashMap();
+        budget.put("discovery", discoveryCalls);
+        budget.put("check", checkCalls);
+        budget.put("separateCommands", separateCalls());
+        budget.put("apply", applyCalls());
+        root.put("apiCalls", budget);
+        List<Map<String, Object>> stepsJson = Lists.newArrayList();
+        for (Step step : steps) {
+            stepsJson.add(step.toMap());
+        }
+        root.put("steps", stepsJson);
+        return new JSONObject(root).toString(2);
+    }
+
+    static Plan fromJson(String json) throws JSONException {
+        JSONObject root = new JSONObject(json);
+        Map<DBInstance, List<Tag>> instances = Maps.newLinkedHashMap();
+        JSONArray instancesJson = root.getJSONArray("instances");
+        for (int i = 0; i < instancesJson.length(); i++) {
+            JSONObject instanceJson = instancesJson.getJSONObject(i);
+            instances.put(instance(instanceJson), tags(instanceJson.getJSONObject("tags")));
+        }
+        List<Step> steps = Lists.newArrayList();
+        JSONArray stepsJson = root.getJSONArray("steps");
+        for (int i = 0; i < stepsJson.length(); i++) {
+            steps.add(Step.fromJson(stepsJson.getJSONObject(i)));
+        }
+        return new Plan(root.getString("environment"), DateTime.parse(root.getString("created")).getMillis(),
+                instances, optString(root, "source"), optString(root, "hostedZoneId"),
+                root.getJSONObject("apiCalls").getInt("discovery"), root.getJSONObject("apiCalls").getInt("check"),
+                steps);
+    }
+
+    static Map<String, Object> instanceJson(DBInstance instance, List<Tag> tags) {
+        Map<String, Object> json = Maps.newLinkedHashMap();
+        json.put("id", instance.getDBInstanceIdentifier());
+        json.put("status", instance.getDBInstanceStatus());
+        putIfSet(json, "class", instance.getDBInstanceClass());
+        putIfSet(json, "engine", instance.getEngine());
+        putIfSet(json, "allocatedStorage", instance.getAllocatedStorage());
+        putIfSet(json, "storageType", instance.getStorageType());
+        if (instance.getInstanceCreateTime() != null) {
+            json.put("createTime", new DateTime(instance.getInstanceCreateTime(), DateTimeZone.UTC).toString());
+        }
+        if (instance.getEndpoint() != null) {
+            putIfSet(json, "address", instance.getEndpoint().getAddress());
+            putIfSet(json, "port", instance.getEndpoint().getPort());
+        }
+        Map<String, String> tagsJson = Maps.newLinkedHashMap();
+        for (Tag tag : tags) {
+            tagsJson.put(tag.getKey(), tag.getValue());
+        }
+        json.put("tags", tagsJson);
+        return json;
+    }
+
+    static DBInstance instance(JSONObject json) throws JSONException {
+        DBInstance instance = new DBInstance()
+                .withDBInstanceIdentifier(json.getString("id"))
+                .withDBInstanceStatus(json.getString("status"))
+                .withDBInstanceClass(optString(json, "class").orNull())
+                .withEngine(optString(json, "engine").orNull())
+                .withStorageType(optString(json, "storageType").orNull());
+        if (json.has("allocatedStorage")) {
+            instance.setAllocatedStorage(json.getInt("allocatedStorage"));
+        }
+        if (json.has("createTime")) {
+            instance.setInstanceCreateTime(DateTime.parse(json.getString("createTime")).toDate());
+        }
+        if (json.has("address")) {
+            instance.setEndpoint(new Endpoint()
+                    .withAddress(json.getString("address"))
+                    .withPort(json.has("port") ? json.getInt("port") : null));
+        }
+        return instance;
+    }
+
+    static List<Tag> tags(JSONObject json) throws JSONException {
+        List<Tag> tags = Lists.newArrayList();
+        Iterator<?> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = (String) keys.next();
+            tags.add(new Tag().withKey(key).withValue(json.getString(key)));
+        }
+        return tags;
+    }
+
+    static void putIfSet(Map<String, Object> json, String key, Object value) {
+        if (value != null) {
+            json.put(key, value);
+        }
+    }
+
+    static Optional<String> optString(JSONObject json, String key) throws JSONException {
+        return json.has(key) ? Optional.of(json.getString(key)) : Optional.<String>absent();
+    }
+
+    /**
+     * @return the JSON value with objects as sorted maps and every other value as a string, to compare regardless of
+     * the order of keys and how numbers were written
+     */
+    static Object canonical(Object json) throws JSONException {
+        if (json instanceof JSONObject) {
+            Map<String, Object> map = Maps.newTreeMap();
+            Iterator<?> keys = ((JSONObject) json).keys();
+            while (keys.hasNext()) {
+                String key = (String) keys.next();
+                map.put(key, canonical(((JSONObject) json).get(key)));
+            }
+            return map;
+        }
+        if (json instanceof JSONArray) {
+            List<Object> list = Lists.newArrayList();
+            for (int i = 0; i < ((JSONArray) json).length(); i++) {
+                list.add(canonical(((JSONArray) json).get(i)));
+            }
+            return list;
+        }
+        return String.valueOf(json);
+    }
+
+    /**
+     * One command of the plan, the instances it acts on, and the requests it would make of them
+     */
+    static class Step {
+
+        final String command;
+        final List<String> instances;
+
+        /**
+         * Each as {@link com.github.blacklocus.rdsecho.utl.RunReport#describe(Object) described} in run reports
+         */
+        final List<Map<String, Object>> requests;
+
+        /**
+         * About how many AWS calls the command makes beyond looking up the instances, not counting polls
+         */
+        final int calls;
+
+        Step(String command, List<String> instances, List<Map<String, Object>> requests, int calls) {
+            this.command = command;
+            this.instances = ImmutableList.copyOf(instances);
+            this.requests = ImmutableList.copyOf(requests);
+            this.calls = calls;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> json = Maps.newLinkedHashMap();
+            json.put("command", command);
+            json.put("instances", instances);
+            json.put("requests", requests);
+            json.put("apiCalls", calls);
+            return json;
+        }
+
+        /**
+         * @return the command, instances and requests in canonical form
+         */
+        String fingerprint() {
+            Map<String, Object> json = toMap();
+            json.remove("apiCalls");
+            try {
+                return canonical(new JSONObject(new JSONObject(json).toString())).toString();
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        static Step fromJson(JSONObject json) throws JSONException {
+            List<String> instances = Lists.newArrayList();
+            JSONArray instancesJson = json.getJSONArray("instances");
+            for (int i = 0; i < instancesJson.length(); i++) {
+                instances.add(instancesJson.getString(i));
+            }
+            List<Map<String, Object>> requests = Lists.newArrayList();
+            JSONArray requestsJson = json.getJSONArray("requests");
+            for (int i = 0; i < requestsJson.length(); i++) {
+                requests.add((Map<String, Object>) canonical(requestsJson.getJSONObject(i)));
+            }
+            return new Step(json.getString("command"), instances, requests, json.getInt("apiCalls"));
+        }
+    }
+}
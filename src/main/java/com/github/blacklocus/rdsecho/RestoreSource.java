@@ -0,0 +1,330 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.DBSnapshot;
+import com.amazonaws.services.rds.model.RestoreDBInstanceFromDBSnapshotRequest;
+import com.amazonaws.services.rds.model.RestoreDBInstanceToPointInTimeRequest;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.RestoreSourceType;
+import com.github.blacklocus.rdsecho.utl.RunReport;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Date;
+
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_COPY;
+import static com.github.blacklocus.rdsecho.EchoConst.COMMAND_NEW;
+
+/**
+ * Where {@link EchoNew} restores new instances from, as configured by {@link EchoCfg#newRestoreSource()}. Whatever the
+ * source, new instances take the same settings and tags, given as a {@link RestoreDBInstanceFromDBSnapshotRequest}
+ * that names no snapshot.
+ */
+abstract class RestoreSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RestoreSource.class);
+
+    final AmazonRDS rds;
+    final EchoCfg cfg;
+    final EchoUtil echo;
+
+    Optional<String> pinned = Optional.absent();
+
+    RestoreSource(EchoContext ctx) {
+        this.rds = ctx.rds;
+        this.cfg = ctx.cfg;
+        this.echo = ctx.echo;
+    }
+
+    static RestoreSource create(EchoContext ctx) {
+        switch (ctx.cfg.newRestoreSource()) {
+            case POINT_IN_TIME:
+                return new PointInTime(ctx);
+            default:
+                return new Snapshot(ctx);
+        }
+    }
+
+    /**
+     * Locates what to restore from, logging and reporting it.
+     *
+     * @return whether there is anything to restore from
+     */
+    abstract boolean locate(RunReport report);
+
+    /**
+     * Prints what is restored from, as part of the proposed new instance
+     */
+    abstract void describe(PrintWriter printer);
+
+    /**
+     * @return the gigabytes of storage of what is restored from
+     */
+    abstract int allocatedStorage();
+
+    abstract String storageType();
+
+    /**
+     * @return what was located, e.g. the snapshot identifier, to {@link #pin(String)} a later restore to
+     */
+    abstract String located();
+
+    /**
+     * Makes {@link #locate(RunReport)} locate just what was {@link #located()} earlier, rather than the latest.
+     */
+    void pin(String located) {
+        this.pinned = Optional.of(located);
+    }
+
+    /**
+     * @return the request that restores one instance with the given settings from what was located
+     */
+    abstract AmazonWebServiceRequest request(RestoreDBInstanceFromDBSnapshotRequest settings, String dbInstanceIdentifier);
+
+    /**
+     * Makes a {@link #request(RestoreDBInstanceFromDBSnapshotRequest, String)}
+     */
+    abstract DBInstance restore(AmazonWebServiceRequest request);
+
+    /**
+     * Copies every setting that is set onto the given request, by the setter of the same name, so that each source
+     * restores with every setting without listing them.
+     *
+     * @return the request
+     */
+    static <R extends AmazonWebServiceRequest> R withSettings(RestoreDBInstanceFromDBSnapshotRequest settings,
+                                                              R request) {
+        for (Method getter : RestoreDBInstanceFromDBSnapshotRequest.class.getDeclaredMethods()) {
+            String name = getter.getName();
+            if (!Modifier.isPublic(getter.getModifiers()) || getter.getParameterTypes().length > 0 ||
+                    !name.startsWith("get") || name.length() == 3) {
+                continue;
+            }
+            try {
+                Object value = getter.invoke(settings);
+                if (value == null || (value instanceof Collection && ((Collection<?>) value).isEmpty())) {
+                    continue;
+                }
+                setter(request.getClass(), "set" + name.substring(3), getter.getReturnType()).invoke(request, value);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Cannot copy setting " + name.substring(3) + " onto " +
+                        request.getClass().getSimpleName(), e);
+            }
+        }
+        return request;
+    }
+
+    static Method setter(Class<?> type, String name, Class<?> valueType) throws NoSuchMethodException {
+        for (Method method : type.getMethods()) {
+            if (method.getName().equals(name) && method.getParameterTypes().length == 1 &&
+                    method.getParameterTypes()[0].isAssignableFrom(valueType)) {
+                return method;
+            }
+        }
+        throw new NoSuchMethodException(type.getName() + "." + name);
+    }
+
+    /**
+     * The latest snapshot of the source instance, or this region's copy of it if snapshots are copied from another
+     * region.
+     */
+    static class Snapshot extends RestoreSource {
+
+        final Optional<AmazonRDS> sourceRds;
+
+        DBSnapshot snapshot;
+
+        Snapshot(EchoContext ctx) {
+            super(ctx);
+            this.sourceRds = ctx.sourceRds;
+        }
+
+        @Override
+        boolean locate(RunReport report) {
+            LOG.info("[{}] Locating {} snapshot from {}", COMMAND_NEW, cfg.snapshotPolicy().getValue(),
+                    cfg.snapshotDbInstanceIdentifier());
+            Optional<DBSnapshot> dbSnapshotOpt = pinned.isPresent() ? echo.snapshot(pinned.get()) :
+                    sourceRds.isPresent() ? latestCopy() : echo.latestSnapshot();
+            if (!dbSnapshotOpt.isPresent()) {
+                LOG.info("[{}] Could not locate a suitable snapshot. Cannot continue.", COMMAND_NEW);
+                return false;
+            }
+            snapshot = dbSnapshotOpt.get();
+            LOG.info("[{}] Located snapshot {} completed on {}", COMMAND_NEW, snapshot.getDBSnapshotIdentifier(),
+                    new DateTime(snapshot.getSnapshotCreateTime()).toDateTimeISO().toString());
+            report.put("snapshotId", snapshot.getDBSnapshotIdentifier())
+                    .put("snapshotCreateTime", new DateTime(snapshot.getSnapshotCreateTime(), DateTimeZone.UTC).toString())
+                    .put("snapshotAgeMinutes",
+                            (System.currentTimeMillis() - snapshot.getSnapshotCreateTime().getTime()) / 60000)
+                    .put("snapshotAllocatedStorage", snapshot.getAllocatedStorage());
+            return true;
+        }
+
+        /**
+         * @return this region's copy of the latest snapshot in the source region, once it is available
+         */
+        Optional<DBSnapshot> latestCopy() {
+            Optional<DBSnapshot> sourceOpt = echo.latestSnapshot(EchoUtil.newRdsFind(cfg, sourceRds.get()));
+            if (!sourceOpt.isPresent()) {
+                return Optional.absent();
+            }
+            String copyIdentifier = echo.copyIdentifier(sourceOpt.get().getDBSnapshotIdentifier());
+            Optional<DBSnapshot> copyOpt = echo.snapshot(copyIdentifier);
+            if (!copyOpt.isPresent()) {
+                LOG.info("[{}] Snapshot {} in {} has not been copied to {}. Run {} first.", COMMAND_NEW,
+                        sourceOpt.get().getDBSnapshotIdentifier(), cfg.copySourceRegion().get(), cfg.region(),
+                        COMMAND_COPY);
+                return Optional.absent();
+            }
+            if (!"available".equals(copyOpt.get().getStatus())) {
+                LOG.info("[{}] Snapshot copy {} is not available yet ({}% copied).", COMMAND_NEW, copyIdentifier,
+                        copyOpt.get().getPercentProgress());
+                return Optional.absent();
+            }
+            return copyOpt;
+        }
+
+        @Override
+        void describe(PrintWriter printer) {
+            printer.format("  db snapshot id   : %s%n", snapshot.getDBSnapshotIdentifier());
+        }
+
+        @Override
+        int allocatedStorage() {
+            return snapshot.getAllocatedStorage() == null ? 0 : snapshot.getAllocatedStorage();
+        }
+
+        @Override
+        String storageType() {
+            return snapshot.getStorageType();
+        }
+
+        @Override
+        String located() {
+            return snapshot.getDBSnapshotIdentifier();
+        }
+
+        @Override
+        AmazonWebServiceRequest request(RestoreDBInstanceFromDBSnapshotRequest settings, String dbInstanceIdentifier) {
+            return withSettings(settings, new RestoreDBInstanceFromDBSnapshotRequest())
+                    .withDBInstanceIdentifier(dbInstanceIdentifier)
+                    .withDBSnapshotIdentifier(snapshot.getDBSnapshotIdentifier());
+        }
+
+        @Override
+        DBInstance restore(AmazonWebServiceRequest request) {
+            return rds.restoreDBInstanceFromDBSnapshot((RestoreDBInstanceFromDBSnapshotRequest) request);
+        }
+    }
+
+    /**
+     * The source instance as of its latest restorable time, less {@link EchoCfg#newRestoreOffsetMinutes()}. Every
+     * instance of a cohort is restored to the same time.
+     */
+    static class PointInTime extends RestoreSource {
+
+        DBInstance source;
+        Date restoreTime;
+
+        PointInTime(EchoContext ctx) {
+            super(ctx);
+            Preconditions.checkState(!ctx.sourceRds.isPresent(), "Cannot restore to a point in time from another " +
+                    "region. Unset " + EchoCfg.PROP_COPY_SOURCE_REGION + " or set " + EchoCfg.PROP_NEW_SOURCE + "=" +
+                    RestoreSourceType.SNAPSHOT.getValue());
+        }
+
+        @Override
+        boolean locate(RunReport report) {
+            String sourceId = cfg.snapshotDbInstanceIdentifier();
+            LOG.info("[{}] Locating source instance {} to restore to a point in time", COMMAND_NEW, sourceId);
+            Optional<DBInstance> sourceOpt = echo.instance(sourceId);
+            if (!sourceOpt.isPresent()) {
+                LOG.info("[{}] Could not locate source instance {}. Cannot continue.", COMMAND_NEW, sourceId);
+                return false;
+            }
+            source = sourceOpt.get();
+            Date latest = source.getLatestRestorableTime();
+            if (latest == null) {
+                LOG.info("[{}] Source instance {} has no latest restorable time. Are automated backups enabled? " +
+                        "Cannot continue.", COMMAND_NEW, sourceId);
+                return false;
+            }
+            restoreTime = pinned.isPresent() ? DateTime.parse(pinned.get()).toDate() :
+                    new DateTime(latest).minusMinutes(cfg.newRestoreOffsetMinutes()).toDate();
+            LOG.info("[{}] Restoring source instance {} as of {}. Its latest restorable time is {}.",
+                    COMMAND_NEW, sourceId, new DateTime(restoreTime).toDateTimeISO(), new DateTime(latest).toDateTimeISO());
+            report.put("sourceInstanceId", sourceId)
+                    .put("restoreTime", new DateTime(restoreTime, DateTimeZone.UTC).toString())
+                    .put("dataAgeMinutes", (System.currentTimeMillis() - restoreTime.getTime()) / 60000)
+                    .put("sourceAllocatedStorage", source.getAllocatedStorage());
+            return true;
+        }
+
+        @Override
+        void describe(PrintWriter printer) {
+            printer.format("  source instance  : %s%n", source.getDBInstanceIdentifier());
+            printer.format("  restore time     : %s%n", new DateTime(restoreTime).toDateTimeISO());
+        }
+
+        @Override
+        int allocatedStorage() {
+            return source.getAllocatedStorage() == null ? 0 : source.getAllocatedStorage();
+        }
+
+        @Override
+        String storageType() {
+            return source.getStorageType();
+        }
+
+        @Override
+        String located() {
+            return new DateTime(restoreTime, DateTimeZone.UTC).toString();
+        }
+
+        @Override
+        AmazonWebServiceRequest request(RestoreDBInstanceFromDBSnapshotRequest settings, String dbInstanceIdentifier) {
+            return withSettings(settings, new RestoreDBInstanceToPointInTimeRequest())
+                    .withSourceDBInstanceIdentifier(source.getDBInstanceIdentifier())
+                    .withTargetDBInstanceIdentifier(dbInstanceIdentifier)
+                    .withRestoreTime(restoreTime);
+        }
+
+        @Override
+        DBInstance restore(AmazonWebServiceRequest request) {
+            return rds.restoreDBInstanceToPointInTime((RestoreDBInstanceToPointInTimeRequest) request);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.util.json.JSONException;
+import com.amazonaws.util.json.JSONObject;
+import com.github.rholder.retry.Attempt;
+import com.github.rholder.retry.RetryListener;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Call counts, errors, throttling, retries and latency histograms of each AWS operation, e.g.
+ * <code>rds.describeDBInstances</code>. Clients are measured by wrapping them with
+ * {@link #instrument(Class, Object, String)}.
+ */
+public class ApiMetrics {
+
+    /**
+     * Upper bounds of the latency histogram buckets. One more bucket counts anything slower.
+     */
+    static final long[] BUCKET_BOUNDS_MILLIS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentSkipListMap<String, OperationMetrics>();
+
+    public OperationMetrics operation(String name) {
+        OperationMetrics metrics = operations.get(name);
+        if (metrics == null) {
+            operations.putIfAbsent(name, new OperationMetrics());
+            metrics = operations.get(name);
+        }
+        return metrics;
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * @return a client that records every call it passes on to the given client, under the service name and the
+     * method name
+     */
+    public <T> T instrument(Class<T> clientInterface, T client, String service) {
+        return ApiProxy.wrap(clientInterface, client, service, new ApiProxy.Around() {
+            @Override
+            public Object around(String operation, ApiProxy.Call call) throws Throwable {
+                long start = System.nanoTime();
+                try {
+                    Object result = call.proceed();
+                    operation(operation).record(start, null);
+                    return result;
+                } catch (Throwable e) {
+                    operation(operation).record(start, e);
+                    throw e;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return a listener for a {@link com.github.rholder.retry.Retryer} of the operation, counting its retries
+     */
+    public RetryListener retryListener(final String operation) {
+        return new RetryListener() {
+            @Override
+            public <V> void onRetry(Attempt<V> attempt) {
+                // Called after every attempt, the first of which is no retry
+                if (attempt.getAttemptNumber() > 1) {
+                    operation(operation).retries.incrementAndGet();
+                }
+            }
+        };
+    }
+
+    public String summary() {
+        StringWriter s = new StringWriter();
+        PrintWriter p = new PrintWriter(s);
+        p.format("%-40s %7s %7s %9s %7s %8s %8s %8s %8s%n",
+                "operation", "calls", "errors", "throttled", "retries", "p50", "p90", "p99", "max");
+        for (Map.Entry<String, OperationMetrics> e : operations.entrySet()) {
+            OperationMetrics m = e.getValue();
+            p.format("%-40s %7d %7d %9d %7d %8s %8s %8s %7dms%n", e.getKey(), m.calls.get(), m.errors.get(),
+                    m.throttled.get(), m.retries.get(), percentile(m, 0.5), percentile(m, 0.9), percentile(m, 0.99),
+                    m.maxMillis.get());
+        }
+        p.flush();
+        return s.toString();
+    }
+
+    /**
+     * @return "&lt;=" the upper bound of the bucket holding the percentile
+     */
+    static String percentile(OperationMetrics m, double percentile) {
+        if (m.calls.get() == 0) {
+            return "-";
+        }
+        long bound = m.percentileBoundMillis(percentile);
+        return bound == Long.MAX_VALUE ? ">" + BUCKET_BOUNDS_MILLIS[BUCKET_BOUNDS_MILLIS.length - 1] + "ms" :
+                "<=" + bound + "ms";
+    }
+
+    /**
+     * Writes every operation's metrics, including the full latency histogram, as a JSON object.
+     */
+    public void write(File file) throws IOException {
+        Map<String, Object> byOperation = Maps.newLinkedHashMap();
+        for (Map.Entry<String, OperationMetrics> e : operations.entrySet()) {
+            OperationMetrics m = e.getValue();
+            Map<String, Object> histogram = Maps.newLinkedHashMap();
+            for (int i = 0; i < m.buckets.length(); i++) {
+                histogram.put(i < BUCKET_BOUNDS_MILLIS.length ? "le" + BUCKET_BOUNDS_MILLIS[i] : "inf", m.buckets.get(i));
+            }
+            Map<String, Object> metrics = Maps.newLinkedHashMap();
+            metrics.put("calls", m.calls.get());
+            metrics.put("errors", m.errors.get());
+            metrics.put("throttled", m.throttled.get());
+            metrics.put("retries", m.retries.get());
+            metrics.put("totalMillis", m.totalMillis.get());
+            metrics.put("maxMillis", m.maxMillis.get());
+            metrics.put("latencyMillis", histogram);
+            byOperation.put(e.getKey(), metrics);
+        }
+        Map<String, Object> root = Maps.newLinkedHashMap();
+        root.put("timestamp", System.currentTimeMillis());
+        root.put("operations", byOperation);
+        try {
+            Files.write(new JSONObject(root).toString(2), file, Charsets.UTF_8);
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public static class OperationMetrics {
+
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong throttled = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong totalMillis = new AtomicLong();
+        final AtomicLong maxMillis = new AtomicLong();
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+
+        void record(long startNanos, Throwable error) {
+            long millis = (System.nanoTime() - startNanos) / 1000000;
+            calls.incrementAndGet();
+            totalMillis.addAndGet(millis);
+            long max;
+            do {
+                max = maxMillis.get();
+            } while (millis > max && !maxMillis.compareAndSet(max, millis));
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MILLIS.length && millis > BUCKET_BOUNDS_MILLIS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+
+            if (error != null) {
+                errors.incrementAndGet();
+                if (error instanceof AmazonServiceException && RetryUtils.isThrottlingException((AmazonServiceException) error)) {
+                    throttled.incrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * @return upper bound of the bucket holding the percentile, Long.MAX_VALUE for the last, unbounded bucket
+         */
+        long percentileBoundMillis(double percentile) {
+            long total = calls.get();
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+                seen += buckets.get(i);
+                if (seen >= Math.ceil(total * percentile)) {
+                    return BUCKET_BOUNDS_MILLIS[i];
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public long getThrottled() {
+            return throttled.get();
+        }
+
+        public long getRetries() {
+            return retries.get();
+        }
+    }
+
+    public static final class Lazy {
+        static final ApiMetrics INSTANCE = new ApiMetrics();
+    }
+
+    /**
+     * @return the metrics of this process, which every client made by rds-echo reports to
+     */
+    public static ApiMetrics getInstance() {
+        return Lazy.INSTANCE;
+    }
+}
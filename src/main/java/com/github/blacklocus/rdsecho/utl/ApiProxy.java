@@ -0,0 +1,89 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.AmazonWebServiceRequest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Wraps an AWS client so that something may be done around each of its API calls, as {@link ApiMetrics},
+ * {@link ApiRateLimiter} and {@link RunReporter} do. Client configuration methods pass straight through.
+ */
+public class ApiProxy {
+
+    /**
+     * Done around each API call of a wrapped client
+     */
+    public interface Around {
+
+        /**
+         * @param operation the service and method name, e.g. <code>rds.describeDBInstances</code>
+         * @param call      passes the call on to the wrapped client, throwing whatever the client throws
+         * @return what the call returns
+         */
+        Object around(String operation, Call call) throws Throwable;
+    }
+
+    public interface Call {
+        Object proceed() throws Throwable;
+    }
+
+    /**
+     * @return a client that passes each API call on to the given client through <code>around</code>
+     */
+    public static <T> T wrap(Class<T> clientInterface, final T client, final String service, final Around around) {
+        return clientInterface.cast(Proxy.newProxyInstance(clientInterface.getClassLoader(),
+                new Class<?>[]{clientInterface}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, final Method method, final Object[] args) throws Throwable {
+                        Call call = new Call() {
+                            @Override
+                            public Object proceed() throws Throwable {
+                                try {
+                                    return method.invoke(client, args);
+                                } catch (InvocationTargetException e) {
+                                    throw e.getCause();
+                                }
+                            }
+                        };
+                        return isApiCall(method, args) ?
+                                around.around(service + '.' + method.getName(), call) : call.proceed();
+                    }
+                }));
+    }
+
+    /**
+     * @return whether the method is an API call rather than client configuration. Many calls, like
+     * <code>modifyDBInstance</code> or <code>addTagsToResource</code>, return the model or nothing rather than a
+     * result, but every call takes just its request.
+     */
+    static boolean isApiCall(Method method, Object[] args) {
+        return method.getReturnType().getSimpleName().endsWith("Result") ||
+                args != null && args.length == 1 && args[0] instanceof AmazonWebServiceRequest;
+    }
+}
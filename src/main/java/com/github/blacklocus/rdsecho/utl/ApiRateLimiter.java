@@ -0,0 +1,201 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces AWS calls per operation, e.g. <code>rds.listTagsForResource</code>, to stay below the rate at which AWS
+ * throttles, rather than backing off once it has. Clients are paced by wrapping them with
+ * {@link #limit(Class, Object, String)}; every client so wrapped shares the same pace per operation.
+ * <p/>
+ * Given a lock directory, processes on the same host share the pace as well: each call reserves the next free slot in
+ * a file per operation, under a file lock, then waits for its slot.
+ */
+public class ApiRateLimiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ApiRateLimiter.class);
+
+    /**
+     * Key of the rate applied to every operation without a rate of its own.
+     */
+    public static final String DEFAULT_OPERATION = "default";
+
+    /**
+     * A JVM may hold only one lock on a file, so threads take turns at the lock files.
+     */
+    static final Object FILE_LOCK_GUARD = new Object();
+
+    final ConcurrentMap<String, Optional<OperationLimiter>> limiters = new ConcurrentHashMap<String, Optional<OperationLimiter>>();
+    Map<String, Double> callsPerSecond = ImmutableMap.of();
+    Optional<File> lockDir = Optional.absent();
+
+    /**
+     * @param callsPerSecond by operation, or {@link #DEFAULT_OPERATION}. Operations without a rate are not limited.
+     * @param lockDir        directory of the files through which processes share the pace, if any
+     */
+    public synchronized void configure(Map<String, Double> callsPerSecond, Optional<File> lockDir) {
+        this.callsPerSecond = ImmutableMap.copyOf(callsPerSecond);
+        this.lockDir = lockDir;
+        limiters.clear();
+        if (!callsPerSecond.isEmpty()) {
+            LOG.info("Limiting AWS calls per second to {}{}", callsPerSecond,
+                    lockDir.isPresent() ? ", shared through " + lockDir.get() : "");
+        }
+    }
+
+    /**
+     * @return a client that waits for its turn before passing each call on to the given client
+     */
+    public <T> T limit(Class<T> clientInterface, T client, String service) {
+        return ApiProxy.wrap(clientInterface, client, service, new ApiProxy.Around() {
+            @Override
+            public Object around(String operation, ApiProxy.Call call) throws Throwable {
+                acquire(operation);
+                return call.proceed();
+            }
+        });
+    }
+
+    /**
+     * Waits until the operation may be called.
+     */
+    public void acquire(String operation) {
+        Optional<OperationLimiter> limiter = limiters.get(operation);
+        if (limiter == null) {
+            limiter = createLimiter(operation);
+        }
+        if (limiter.isPresent()) {
+            limiter.get().acquire();
+        }
+    }
+
+    synchronized Optional<OperationLimiter> createLimiter(String operation) {
+        Optional<OperationLimiter> limiter = limiters.get(operation);
+        if (limiter == null) {
+            Double rate = callsPerSecond.containsKey(operation) ?
+                    callsPerSecond.get(operation) : callsPerSecond.get(DEFAULT_OPERATION);
+            if (rate == null) {
+                limiter = Optional.absent();
+            } else if (lockDir.isPresent()) {
+                limiter = Optional.<OperationLimiter>of(new SharedLimiter(new File(lockDir.get(), operation + ".rate"), rate));
+            } else {
+                limiter = Optional.<OperationLimiter>of(new LocalLimiter(rate));
+            }
+            limiters.put(operation, limiter);
+        }
+        return limiter;
+    }
+
+    interface OperationLimiter {
+        void acquire();
+    }
+
+    static class LocalLimiter implements OperationLimiter {
+
+        final RateLimiter rateLimiter;
+
+        LocalLimiter(double callsPerSecond) {
+            this.rateLimiter = RateLimiter.create(callsPerSecond);
+        }
+
+        @Override
+        public void acquire() {
+            rateLimiter.acquire();
+        }
+    }
+
+    static class SharedLimiter implements OperationLimiter {
+
+        final File file;
+        final long intervalMillis;
+
+        SharedLimiter(File file, double callsPerSecond) {
+            this.file = file;
+            this.intervalMillis = Math.max(1, (long) (1000 / callsPerSecond));
+        }
+
+        @Override
+        public void acquire() {
+            long slot;
+            try {
+                slot = reserveSlot();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to reserve a call slot in " + file, e);
+            }
+            long waitMillis = slot - System.currentTimeMillis();
+            if (waitMillis > 0) {
+                Uninterruptibles.sleepUninterruptibly(waitMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * @return time at which this caller may call. The file holds the time of the last slot reserved by anyone.
+         */
+        long reserveSlot() throws IOException {
+            synchronized (FILE_LOCK_GUARD) {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    FileLock lock = raf.getChannel().lock();
+                    try {
+                        long last = raf.length() >= 8 ? raf.readLong() : 0;
+                        long slot = Math.max(System.currentTimeMillis(), last + intervalMillis);
+                        raf.seek(0);
+                        raf.writeLong(slot);
+                        return slot;
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    raf.close();
+                }
+            }
+        }
+    }
+
+    public static final class Lazy {
+        static final ApiRateLimiter INSTANCE = new ApiRateLimiter();
+    }
+
+    /**
+     * @return the rate limiter of this process, which every client made by rds-echo waits on
+     */
+    public static ApiRateLimiter getInstance() {
+        return Lazy.INSTANCE;
+    }
+}
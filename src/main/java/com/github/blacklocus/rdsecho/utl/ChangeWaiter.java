@@ -0,0 +1,84 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.route53.AmazonRoute53;
+import com.amazonaws.services.route53.model.ChangeInfo;
+import com.amazonaws.services.route53.model.ChangeStatus;
+import com.amazonaws.services.route53.model.GetChangeRequest;
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls a Route53 change until it is INSYNC, that is, until all Route53 name servers answer with it. Polls back off
+ * from one second, as changes typically propagate within a minute.
+ */
+public class ChangeWaiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeWaiter.class);
+
+    static final long MAX_POLL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    final AmazonRoute53 route53;
+    long initialPollMillis = TimeUnit.SECONDS.toMillis(1);
+
+    public ChangeWaiter(AmazonRoute53 route53) {
+        this.route53 = route53;
+    }
+
+    /**
+     * Call right after submitting the change.
+     *
+     * @return milliseconds until the change was seen INSYNC, or absent if it was not before the timeout
+     */
+    public Optional<Long> waitForInsync(ChangeInfo change, long timeout, TimeUnit unit) throws InterruptedException {
+        // Our own clock rather than the change's submittedAt, which is Route53's
+        long start = System.currentTimeMillis();
+        long deadline = start + unit.toMillis(timeout);
+        long pollMillis = initialPollMillis;
+        ChangeInfo current = change;
+        int polls = 0;
+
+        while (!ChangeStatus.INSYNC.toString().equals(current.getStatus())) {
+            long now = System.currentTimeMillis();
+            if (now >= deadline) {
+                LOG.warn("Route53 change {} still {} after {} {}.",
+                        change.getId(), current.getStatus(), timeout, unit.toString().toLowerCase());
+                return Optional.absent();
+            }
+            Thread.sleep(Math.min(pollMillis, deadline - now));
+            pollMillis = Math.min(pollMillis * 2, MAX_POLL_MILLIS);
+            current = route53.getChange(new GetChangeRequest(change.getId())).getChangeInfo();
+            polls++;
+        }
+
+        // As precise as the polling interval allows
+        long millis = System.currentTimeMillis() - start;
+        LOG.info("Route53 change {} INSYNC after {}ms ({} polls).", change.getId(), millis, polls);
+        return Optional.of(millis);
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.route53.model.Change;
+import com.amazonaws.services.route53.model.ChangeAction;
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Iterables.getOnlyElement;
+
+/**
+ * Moves a plain CNAME from its current address to a new one in steps. In between, the CNAME is a pair of weighted record
+ * sets, {@value #SET_OLD} at the old address and {@value #SET_NEW} at the new, splitting traffic by percent. At 100
+ * percent it is a plain CNAME again.
+ * <p/>
+ * Route53 does not allow a plain record and weighted record sets of the same name at once, so each step deletes
+ * whichever record sets it replaces in the same change batch. A shift interrupted part way is picked up again from the
+ * weighted record sets left behind.
+ * <p/>
+ * A cohort of instances is promoted all at once instead, to a weighted record set for each, evenly weighted. Shifting
+ * away from a cohort is all at once too, as there is no one address to shift from.
+ */
+public class CnameShift {
+
+    /**
+     * Weighted record sets of the CNAME that rds-echo manages all start with this
+     */
+    public static final String SET_PREFIX = "rdsecho-";
+    public static final String SET_OLD = SET_PREFIX + "old";
+    public static final String SET_NEW = SET_PREFIX + "new";
+
+    final CnameTarget cname;
+    final String address;
+    final long ttl;
+    final Optional<String> oldAddress;
+
+    /**
+     * The record sets of this CNAME as last read or changed
+     */
+    List<ResourceRecordSet> live = Lists.newArrayList();
+
+    /**
+     * @param current the record sets named like the CNAME, as listed from Route53
+     */
+    public CnameShift(CnameTarget cname, Iterable<ResourceRecordSet> current, String address, long ttl) {
+        Preconditions.checkArgument(!cname.getSetIdentifier().isPresent(), "Only a plain CNAME shifts: " + cname);
+        this.cname = cname;
+        this.address = address;
+        this.ttl = ttl;
+
+        Optional<String> plainAddress = Optional.absent();
+        Optional<String> shiftingFrom = Optional.absent();
+        for (ResourceRecordSet rrs : current) {
+            if (!Route53Find.normalizeName(cname.getName()).equals(Route53Find.normalizeName(rrs.getName())) ||
+                    !RRType.CNAME.toString().equals(rrs.getType())) {
+                continue;
+            }
+            if (rrs.getSetIdentifier() == null) {
+                plainAddress = Optional.of(value(rrs));
+                live.add(rrs);
+            } else if (rrs.getSetIdentifier().startsWith(SET_PREFIX)) {
+                if (SET_OLD.equals(rrs.getSetIdentifier())) {
+                    shiftingFrom = Optional.of(value(rrs));
+                }
+                live.add(rrs);
+            }
+        }
+        Optional<String> from = shiftingFrom.or(plainAddress);
+        this.oldAddress = from.isPresent() && !from.get().equals(address) ? from : Optional.<String>absent();
+    }
+
+    public CnameTarget getCname() {
+        return cname;
+    }
+
+    /**
+     * @return the address traffic is shifting away from, absent if the CNAME does not exist yet or there is nothing to
+     * shift away from
+     */
+    public Optional<String> getOldAddress() {
+        return oldAddress;
+    }
+
+    /**
+     * @return whether the CNAME is already a plain CNAME at the new address
+     */
+    public boolean isDone() {
+        if (live.size() != 1) {
+            return false;
+        }
+        ResourceRecordSet only = live.get(0);
+        return only.getSetIdentifier() == null && address.equals(value(only));
+    }
+
+    /**
+     * @return percent of traffic already at the new address
+     */
+    public long percent() {
+        if (isDone()) {
+            return 100;
+        }
+        for (ResourceRecordSet rrs : live) {
+            if (SET_NEW.equals(rrs.getSetIdentifier()) && address.equals(value(rrs))) {
+                return rrs.getWeight();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return changes that send this percent of traffic to the new address, all of it at 100 or if there is no old
+     * address
+     */
+    public List<Change> shiftTo(long percent) {
+        Preconditions.checkArgument(percent > 0 && percent <= 100, "Percent must be in (0, 100]: " + percent);
+        List<ResourceRecordSet> target = Lists.newArrayList();
+        if (percent == 100 || !oldAddress.isPresent()) {
+            target.add(cname.toResourceRecordSet(address, ttl));
+        } else {
+            target.add(weighted(SET_OLD, oldAddress.get(), 100 - percent));
+            target.add(weighted(SET_NEW, address, percent));
+        }
+        return changesTo(target);
+    }
+
+    /**
+     * @param addressesById the address of each instance of the cohort, by instance identifier
+     * @return changes that point the CNAME at every instance evenly, none if it already does
+     */
+    public List<Change> shiftToCohort(Map<String, String> addressesById) {
+        List<ResourceRecordSet> target = Lists.newArrayList();
+        for (Map.Entry<String, String> e : addressesById.entrySet()) {
+            target.add(weighted(SET_PREFIX + e.getKey(), e.getValue(), 1));
+        }
+        if (keys(live).equals(keys(target))) {
+            return Collections.emptyList();
+        }
+        return changesTo(target);
+    }
+
+    /**
+     * @return what tells the record sets apart, with names and values as Route53 lists them: lower case, ending in a dot
+     */
+    static Set<String> keys(List<ResourceRecordSet> resourceRecordSets) {
+        Set<String> keys = Sets.newHashSet();
+        for (ResourceRecordSet rrs : resourceRecordSets) {
+            keys.add(Joiner.on(' ').useForNull("-").join(Route53Find.normalizeName(rrs.getName()), rrs.getType(),
+                    rrs.getSetIdentifier(), rrs.getWeight(), rrs.getTTL(), Route53Find.normalizeName(value(rrs))));
+        }
+        return keys;
+    }
+
+    /**
+     * @return changes that replace the live record sets with the target record sets
+     */
+    List<Change> changesTo(List<ResourceRecordSet> target) {
+        List<Change> changes = Lists.newArrayList();
+        for (ResourceRecordSet rrs : live) {
+            if (!containsSet(target, rrs.getSetIdentifier())) {
+                // Must be exactly as it is to be deleted
+                changes.add(new Change(ChangeAction.DELETE, rrs));
+            }
+        }
+        for (ResourceRecordSet rrs : target) {
+            changes.add(new Change(ChangeAction.UPSERT, rrs));
+        }
+        live = target;
+        return changes;
+    }
+
+    ResourceRecordSet weighted(String setIdentifier, String value, long weight) {
+        return new ResourceRecordSet(cname.getName(), RRType.CNAME)
+                .withSetIdentifier(setIdentifier)
+                .withWeight(weight)
+                .withTTL(ttl)
+                .withResourceRecords(new ResourceRecord(value));
+    }
+
+    static boolean containsSet(List<ResourceRecordSet> resourceRecordSets, String setIdentifier) {
+        for (ResourceRecordSet rrs : resourceRecordSets) {
+            if (setIdentifier == null ? rrs.getSetIdentifier() == null : setIdentifier.equals(rrs.getSetIdentifier())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static String value(ResourceRecordSet resourceRecordSet) {
+        return getOnlyElement(resourceRecordSet.getResourceRecords()).getValue();
+    }
+
+    @Override
+    public String toString() {
+        return cname.toString();
+    }
+}
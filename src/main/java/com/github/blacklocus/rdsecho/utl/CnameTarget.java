@@ -0,0 +1,95 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * A CNAME that promote points at the promoted instance, optionally one weighted record set of several sharing the
+ * name. Written as <code>name</code> or <code>name@setIdentifier=weight</code>.
+ */
+public class CnameTarget {
+
+    final String name;
+    final Optional<String> setIdentifier;
+    final Optional<Long> weight;
+
+    public CnameTarget(String name, Optional<String> setIdentifier, Optional<Long> weight) {
+        this.name = name;
+        this.setIdentifier = setIdentifier;
+        this.weight = weight;
+    }
+
+    public static CnameTarget parse(String spec) {
+        int at = spec.indexOf('@');
+        if (at < 0) {
+            return new CnameTarget(spec.trim(), Optional.<String>absent(), Optional.<Long>absent());
+        }
+        String[] setAndWeight = spec.substring(at + 1).split("=", 2);
+        Preconditions.checkArgument(setAndWeight.length == 2, "Weighted CNAME must be name@setIdentifier=weight: " + spec);
+        return new CnameTarget(spec.substring(0, at).trim(), Optional.of(setAndWeight[0].trim()),
+                Optional.of(Long.valueOf(setAndWeight[1].trim())));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Optional<String> getSetIdentifier() {
+        return setIdentifier;
+    }
+
+    public Optional<Long> getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return whether the record set is the one this targets
+     */
+    public boolean matches(ResourceRecordSet resourceRecordSet) {
+        return Route53Find.normalizeName(name).equals(Route53Find.normalizeName(resourceRecordSet.getName())) &&
+                RRType.CNAME.toString().equals(resourceRecordSet.getType()) &&
+                setIdentifier.equals(Optional.fromNullable(resourceRecordSet.getSetIdentifier()));
+    }
+
+    /**
+     * @return the record set pointing this CNAME at the address
+     */
+    public ResourceRecordSet toResourceRecordSet(String address, long ttl) {
+        return new ResourceRecordSet(name, RRType.CNAME)
+                .withSetIdentifier(setIdentifier.orNull())
+                .withWeight(weight.orNull())
+                .withTTL(ttl)
+                .withResourceRecords(new ResourceRecord(address));
+    }
+
+    @Override
+    public String toString() {
+        return setIdentifier.isPresent() ? name + '@' + setIdentifier.get() + '=' + weight.get() : name;
+    }
+}
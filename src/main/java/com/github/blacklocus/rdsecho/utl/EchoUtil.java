@@ -23,29 +23,66 @@
  */
 package com.github.blacklocus.rdsecho.utl;
 
+import com.amazonaws.services.rds.AmazonRDS;
 import com.amazonaws.services.rds.model.DBInstance;
 import com.amazonaws.services.rds.model.DBSnapshot;
+import com.amazonaws.services.rds.model.Endpoint;
 import com.amazonaws.services.rds.model.Tag;
 import com.github.blacklocus.rdsecho.EchoCfg;
 import com.github.blacklocus.rdsecho.EchoConst;
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicates;
+import com.google.common.base.Splitter;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 public class EchoUtil {
 
     private static final Logger LOG = LoggerFactory.getLogger(EchoUtil.class);
 
-    final RdsFind rdsFind = new RdsFind();
+    static final Comparator<DBInstance> BY_IDENTIFIER = new Comparator<DBInstance>() {
+        @Override
+        public int compare(DBInstance a, DBInstance b) {
+            return a.getDBInstanceIdentifier().compareTo(b.getDBInstanceIdentifier());
+        }
+    };
+
+    static final Pattern QUERY_END = Pattern.compile(";\\s*(\\n|$)");
+
+    final EchoCfg cfg;
+
+    final RdsFind rdsFind;
 
-    final EchoCfg cfg = EchoCfg.getInstance();
+    final RdsInventory inventory;
+
+    /**
+     * Instance lookups are answered from the inventory, which may be shared with other environments.
+     */
+    public EchoUtil(EchoCfg cfg, RdsInventory inventory) {
+        this.cfg = cfg;
+        this.rdsFind = inventory.getRdsFind();
+        this.inventory = inventory;
+    }
 
     public String getTagEchoManaged() {
         return String.format(EchoConst.TAG_ECHO_MANAGED_FMT, cfg.name());
@@ -56,24 +93,228 @@ public class EchoUtil {
     }
 
     public Optional<DBInstance> lastEchoInstance() {
-        return RdsFind.newestInstance(rdsFind.instances(rdsFind.instanceHasTag(
-                cfg.region(), cfg.accountNumber(), getTagEchoManaged(), "true")));
+        return RdsFind.newestInstance(inventory.instancesWithTag(getTagEchoManaged(), "true"));
+    }
+
+    public String getTagEchoCopyOf() {
+        return String.format(EchoConst.TAG_ECHO_COPY_OF_FMT, cfg.name());
+    }
+
+    /**
+     * @return the identifier of this environment's copy of the snapshot, e.g. development-copy-rds-production-2015-01-31
+     * for rds:production-2015-01-31
+     */
+    public String copyIdentifier(String sourceDbSnapshotIdentifier) {
+        return copyIdentifier(cfg.name(), sourceDbSnapshotIdentifier);
+    }
+
+    static String copyIdentifier(String name, String sourceDbSnapshotIdentifier) {
+        // Only letters, digits and single hyphens
+        return (name + "-copy-" + sourceDbSnapshotIdentifier).replaceAll("[^A-Za-z0-9]+", "-").replaceAll("-$", "");
+    }
+
+    /**
+     * Describes just the one instance, which need not be echo-managed
+     */
+    public Optional<DBInstance> instance(String dbInstanceIdentifier) {
+        return rdsFind.instance(dbInstanceIdentifier);
+    }
+
+    public Optional<DBSnapshot> snapshot(String dbSnapshotIdentifier) {
+        return rdsFind.snapshot(dbSnapshotIdentifier);
     }
 
+    public String getTagEchoCohort() {
+        return String.format(EchoConst.TAG_ECHO_COHORT_FMT, cfg.name());
+    }
+
+    public String getTagEchoCohortSize() {
+        return String.format(EchoConst.TAG_ECHO_COHORT_SIZE_FMT, cfg.name());
+    }
+
+    public String getTagEchoSource() {
+        return String.format(EchoConst.TAG_ECHO_SOURCE_FMT, cfg.name());
+    }
+
+    /**
+     * @return every instance of the last echo instance's cohort by identifier, just that instance if it has no
+     * cohort, or none if there is no echo instance
+     */
+    public List<DBInstance> lastEchoCohort() {
+        Optional<DBInstance> last = lastEchoInstance();
+        if (!last.isPresent()) {
+            return Collections.emptyList();
+        }
+        Optional<Tag> cohort = Iterables.tryFind(inventory.tags(last.get().getDBInstanceIdentifier()),
+                RdsFind.tagName(getTagEchoCohort()));
+        if (!cohort.isPresent()) {
+            return Collections.singletonList(last.get());
+        }
+        List<DBInstance> members = Lists.newArrayList(inventory.instancesWithTag(getTagEchoCohort(), cohort.get().getValue()));
+        Collections.sort(members, BY_IDENTIFIER);
+        return members;
+    }
+
+    /**
+     * @return the echo instances in the stage
+     */
+    public List<DBInstance> instancesInStage(String stage) {
+        List<DBInstance> instances = Lists.newArrayList(inventory.instancesWithTag(getTagEchoStage(), stage));
+        Collections.sort(instances, BY_IDENTIFIER);
+        return instances;
+    }
+
+    /**
+     * @return the newest of the {@link #promotedInstances()}
+     */
     public Optional<DBInstance> promotedInstance() {
-        return Optional.fromNullable(Iterables.getOnlyElement(rdsFind.instances(rdsFind.instanceHasTag(
-                cfg.region(), cfg.accountNumber(), getTagEchoStage(), EchoConst.STAGE_PROMOTED
-        )), null));
+        return RdsFind.newestInstance(promotedInstances());
+    }
+
+    /**
+     * @return the promoted instances, several if a cohort was promoted
+     */
+    public List<DBInstance> promotedInstances() {
+        return instancesInStage(EchoConst.STAGE_PROMOTED);
     }
 
     public Optional<Tag> instanceStage(String dbInstanceIdentifier) {
-        return rdsFind.instanceTag(
-                RdsFind.instanceArn(cfg.region(), cfg.accountNumber(), dbInstanceIdentifier),
-                RdsFind.tagName(getTagEchoStage()));
+        return instanceTag(dbInstanceIdentifier, getTagEchoStage());
+    }
+
+    public Optional<Tag> instanceTag(String dbInstanceIdentifier, String tagKey) {
+        return Iterables.tryFind(inventory.tags(dbInstanceIdentifier), RdsFind.tagName(tagKey));
     }
 
+    /**
+     * Records tags just applied to an instance, so that further lookups see them.
+     */
+    public void tagged(String dbInstanceIdentifier, List<Tag> tags) {
+        inventory.tagged(dbInstanceIdentifier, tags);
+    }
+
+    /**
+     * Records an instance just created with the given tags, so that further lookups see it.
+     */
+    public void created(DBInstance instance, List<Tag> tags) {
+        // RDS reports no create time until the instance is available, but it is already the latest
+        if (instance.getInstanceCreateTime() == null) {
+            instance.setInstanceCreateTime(new Date());
+        }
+        inventory.added(instance, tags);
+    }
+
+    /**
+     * @return every echo instance of this environment with its tags, as looked up
+     */
+    public Map<DBInstance, List<Tag>> echoInstances() {
+        Map<DBInstance, List<Tag>> instances = Maps.newLinkedHashMap();
+        for (DBInstance instance : inventory.instancesWithTag(getTagEchoManaged(), "true")) {
+            instances.put(instance, inventory.tags(instance));
+        }
+        return instances;
+    }
+
+    /**
+     * Answers further lookups from the given instances alone, as looked up earlier
+     */
+    public void prime(Map<DBInstance, List<Tag>> instances) {
+        inventory.prime(instances);
+    }
+
+    /**
+     * Forgets everything looked up so far. The next lookup sees the current state of the account.
+     */
+    public void refresh() {
+        inventory.invalidate();
+    }
+
+    /**
+     * Describes the one instance again, so that further lookups see its current status
+     */
+    public void refresh(String dbInstanceIdentifier) {
+        inventory.refresh(dbInstanceIdentifier);
+    }
+
+    /**
+     * Polls the one instance until it is available, at most {@link EchoCfg#waitTimeoutMinutes()}.
+     *
+     * @see InstanceWaiter
+     */
+    public Optional<DBInstance> waitForAvailable(String dbInstanceIdentifier) throws InterruptedException {
+        return new InstanceWaiter(rdsFind).waitForAvailable(dbInstanceIdentifier, cfg.waitTimeoutMinutes(), TimeUnit.MINUTES);
+    }
+
+    /**
+     * Selects a snapshot of the source instance according to the configured {@link SnapshotPolicy}. The snapshot type
+     * is passed on to RDS so that snapshots of the other type are never listed.
+     */
     public Optional<DBSnapshot> latestSnapshot() {
-        return RdsFind.newestSnapshot(rdsFind.snapshots(cfg.snapshotDbInstanceIdentifier(), RdsFind.snapshotIsAvailable()));
+        return latestSnapshot(rdsFind);
+    }
+
+    /**
+     * As {@link #latestSnapshot()}, but of the snapshots found through the given RdsFind, e.g. in another region
+     */
+    public Optional<DBSnapshot> latestSnapshot(RdsFind rdsFind) {
+        SnapshotPolicy policy = cfg.snapshotPolicy();
+        Optional<String> snapshotType = policy == SnapshotPolicy.NEWEST_MANUAL ? Optional.of("manual") : cfg.snapshotType();
+
+        Optional<Date> before = Optional.absent();
+        if (policy == SnapshotPolicy.NEWEST_BEFORE) {
+            Optional<Date> snapshotBefore = cfg.snapshotBefore();
+            Preconditions.checkState(snapshotBefore.isPresent(), EchoCfg.PROP_SNAPSHOT_BEFORE + " must be defined for " +
+                    EchoCfg.PROP_SNAPSHOT_POLICY + "=" + policy.getValue());
+            before = snapshotBefore;
+        }
+        Optional<Date> after = Optional.absent();
+        Optional<Integer> maxAgeHours = cfg.snapshotMaxAgeHours();
+        if (maxAgeHours.isPresent()) {
+            after = Optional.of(DateTime.now().minusHours(maxAgeHours.get()).toDate());
+        }
+
+        return RdsFind.newestSnapshot(rdsFind.snapshots(cfg.snapshotDbInstanceIdentifier(), snapshotType,
+                Predicates.and(RdsFind.snapshotIsAvailable(), RdsFind.snapshotCreatedBetween(after, before))));
+    }
+
+    /**
+     * @return a RdsFind on the given client, configured per the discovery parameters
+     */
+    public static RdsFind newRdsFind(EchoCfg cfg, AmazonRDS rds) {
+        RdsFind rdsFind = new RdsFind(rds, cfg.findTagConcurrency().or(RdsFind.DEFAULT_TAG_CONCURRENCY))
+                .withPrefetchDepth(cfg.findPrefetchDepth());
+        Optional<String> cacheDir = cfg.cacheDir();
+        if (cacheDir.isPresent()) {
+            rdsFind.withTagCache(TagCache.load(new File(cacheDir.get()), cfg.cacheTtlMinutes(), TimeUnit.MINUTES));
+            rdsFind.readTagsLive(cfg.name() + '-');
+        }
+        if (cfg.findDiscovery() == DiscoveryType.TAG_INDEX) {
+            rdsFind.withDiscovery(new TagIndexInstanceDiscovery(rdsFind, new ResourceGroupsTagIndex(cfg.region())));
+        }
+        return rdsFind;
+    }
+
+    /**
+     * @return connections to the database at the endpoint, as configured by {@link EchoCfg#PROP_JDBC_URL}
+     */
+    public static JdbcConnector newJdbcConnector(EchoCfg cfg, Endpoint endpoint) throws MalformedURLException {
+        Preconditions.checkState(cfg.jdbcUrl().isPresent(), EchoCfg.PROP_JDBC_URL + " is required");
+        return JdbcConnector.forEndpoint(cfg.jdbcUrl().get(), endpoint,
+                cfg.jdbcUser(), cfg.jdbcPassword(), cfg.jdbcDriverJar());
+    }
+
+    /**
+     * @return the queries in the file, each ending with a semicolon at the end of a line, or none if absent
+     */
+    public static List<String> readQueries(Optional<String> queriesFile) throws IOException {
+        List<String> queries = Lists.newArrayList();
+        if (queriesFile.isPresent()) {
+            String content = Files.toString(new File(queriesFile.get()), Charsets.UTF_8);
+            for (String query : Splitter.on(QUERY_END).trimResults().omitEmptyStrings().split(content)) {
+                queries.add(query);
+            }
+        }
+        return queries;
     }
 
     public static String getTLD(String domain) {
@@ -0,0 +1,159 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls a single instance until it becomes available. How long to wait between polls depends on what the instance is
+ * doing: restores take hours, modifications minutes, and reboots seconds.
+ */
+public class InstanceWaiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InstanceWaiter.class);
+
+    /**
+     * Statuses from which an instance will not become available without intervention
+     */
+    static final Set<String> HOPELESS_STATUSES = ImmutableSet.of(
+            "deleting", "failed", "incompatible-network", "incompatible-option-group", "incompatible-parameters",
+            "incompatible-restore", "storage-full");
+
+    final RdsFind rdsFind;
+
+    /**
+     * Unit of {@link #pollSeconds(String)} as slept, shortened by tests
+     */
+    TimeUnit pollUnit = TimeUnit.SECONDS;
+
+    public InstanceWaiter(RdsFind rdsFind) {
+        this.rdsFind = rdsFind;
+    }
+
+    /**
+     * @return the available instance, or absent if it vanished, reached a status it cannot recover from on its own, or
+     * did not become available before the timeout
+     */
+    public Optional<DBInstance> waitForAvailable(String dbInstanceIdentifier, long timeout, TimeUnit unit)
+            throws InterruptedException {
+
+        long start = System.currentTimeMillis();
+        long deadline = start + unit.toMillis(timeout);
+        Map<String, Long> statusMillis = Maps.newLinkedHashMap();
+        String status = null;
+        long statusSince = start;
+
+        try {
+            while (true) {
+                Optional<DBInstance> instanceOpt = rdsFind.instance(dbInstanceIdentifier);
+                long now = System.currentTimeMillis();
+                if (!instanceOpt.isPresent()) {
+                    LOG.warn("Instance {} no longer exists.", dbInstanceIdentifier);
+                    return Optional.absent();
+                }
+
+                DBInstance instance = instanceOpt.get();
+                String newStatus = instance.getDBInstanceStatus();
+                if (!newStatus.equals(status)) {
+                    if (status != null) {
+                        addTime(statusMillis, status, now - statusSince);
+                        LOG.info("Instance {} went from {} to {} after {}s.",
+                                dbInstanceIdentifier, status, newStatus, (now - statusSince) / 1000);
+                    }
+                    status = newStatus;
+                    statusSince = now;
+                }
+
+                if ("available".equals(status)) {
+                    return instanceOpt;
+                }
+                if (HOPELESS_STATUSES.contains(status)) {
+                    LOG.error("Instance {} has status {} and will not become available by itself.",
+                            dbInstanceIdentifier, status);
+                    return Optional.absent();
+                }
+                if (now >= deadline) {
+                    LOG.error("Instance {} did not become available within {} {}.",
+                            dbInstanceIdentifier, timeout, unit.toString().toLowerCase());
+                    return Optional.absent();
+                }
+
+                long sleepMillis = Math.min(pollUnit.toMillis(pollSeconds(status)), deadline - now);
+                LOG.debug("Instance {} has status {}. Checking again in {}s.", dbInstanceIdentifier, status, sleepMillis / 1000);
+                Thread.sleep(sleepMillis);
+            }
+
+        } finally {
+            if (status != null) {
+                addTime(statusMillis, status, System.currentTimeMillis() - statusSince);
+            }
+            LOG.info("Waited {}s for instance {}. Seconds per status: {}",
+                    (System.currentTimeMillis() - start) / 1000, dbInstanceIdentifier, toSeconds(statusMillis));
+        }
+    }
+
+    /**
+     * @return how long to wait before looking at an instance with the given status again
+     */
+    public static long pollSeconds(String status) {
+        switch (status) {
+            case "creating":
+            case "backing-up":
+                return 300;
+            case "modifying":
+            case "upgrading":
+            case "storage-optimization":
+            case "maintenance":
+                return 60;
+            case "rebooting":
+            case "renaming":
+            case "resetting-master-credentials":
+                return 10;
+            default:
+                return 30;
+        }
+    }
+
+    static void addTime(Map<String, Long> statusMillis, String status, long millis) {
+        Long sum = statusMillis.get(status);
+        statusMillis.put(status, sum == null ? millis : sum + millis);
+    }
+
+    static Map<String, Long> toSeconds(Map<String, Long> statusMillis) {
+        Map<String, Long> seconds = Maps.newLinkedHashMap();
+        for (Map.Entry<String, Long> e : statusMillis.entrySet()) {
+            seconds.put(e.getKey(), e.getValue() / 1000);
+        }
+        return seconds;
+    }
+}
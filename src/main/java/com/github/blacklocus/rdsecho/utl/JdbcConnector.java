@@ -0,0 +1,107 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.Endpoint;
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.ServiceLoader;
+
+/**
+ * Opens JDBC connections to the database of one RDS instance.
+ */
+public class JdbcConnector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcConnector.class);
+
+    final String url;
+    final Properties info;
+    final Optional<Driver> driver;
+
+    /**
+     * @param driver to connect with, or absent to find one through {@link DriverManager}
+     */
+    public JdbcConnector(String url, Properties info, Optional<Driver> driver) {
+        this.url = url;
+        this.info = info;
+        this.driver = driver;
+    }
+
+    /**
+     * @param urlTemplate JDBC URL in which {host} and {port} stand for the endpoint
+     * @param driverJar   jar holding the driver, if it is not on the classpath
+     */
+    public static JdbcConnector forEndpoint(String urlTemplate, Endpoint endpoint, Optional<String> user,
+                                            Optional<String> password, Optional<String> driverJar)
+            throws MalformedURLException {
+        String url = urlTemplate
+                .replace("{host}", endpoint.getAddress())
+                .replace("{port}", String.valueOf(endpoint.getPort()));
+        Properties info = new Properties();
+        if (user.isPresent()) {
+            info.setProperty("user", user.get());
+        }
+        if (password.isPresent()) {
+            info.setProperty("password", password.get());
+        }
+        return new JdbcConnector(url, info, driver(driverJar, url));
+    }
+
+    public Connection connect() throws SQLException {
+        return driver.isPresent() ? driver.get().connect(url, info) : DriverManager.getConnection(url, info);
+    }
+
+    /**
+     * @return the driver for the URL in the jar, or absent to find one on the classpath
+     */
+    static Optional<Driver> driver(Optional<String> driverJar, String url) throws MalformedURLException {
+        if (!driverJar.isPresent()) {
+            return Optional.absent();
+        }
+        // DriverManager only hands out drivers loaded by the caller's class loader, so use the driver directly
+        ClassLoader loader = new URLClassLoader(new URL[]{new File(driverJar.get()).toURI().toURL()},
+                JdbcConnector.class.getClassLoader());
+        for (Driver driver : ServiceLoader.load(Driver.class, loader)) {
+            try {
+                if (driver.acceptsURL(url)) {
+                    return Optional.of(driver);
+                }
+            } catch (SQLException e) {
+                LOG.debug("Driver {} rejected {}", driver, url, e);
+            }
+        }
+        throw new IllegalStateException("No JDBC driver in " + driverJar.get() + " accepts " + url);
+    }
+}
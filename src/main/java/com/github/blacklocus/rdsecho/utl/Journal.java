@@ -0,0 +1,379 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.util.json.JSONException;
+import com.amazonaws.util.json.JSONObject;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A local, append-only journal of what each command set out to do to each instance, kept in a file of JSON lines and
+ * written ahead of the AWS calls it records. For each instance a command acts on it records the {@link State#INTENT},
+ * each mutating request {@link State#SENDING before it is sent}, {@link State#SENT when the last has succeeded}, and
+ * finally that the instance's stage was advanced. A command that finds an entry still open for its instance was
+ * interrupted by an earlier run, and can tell from the entry how far that run got.
+ * <p/>
+ * Each record is forced to disk before the call it precedes. Safe to use from several threads and processes at once:
+ * every read and append holds a lock on the file. Once the file grows past {@link #compactBytes}, an append compacts it
+ * in place down to the entries still open, so it stays small however long it is used.
+ */
+public class Journal {
+
+    static final String EVENT_INTENT = "intent";
+    static final String EVENT_SENDING = "sending";
+    static final String EVENT_SENT = "sent";
+    static final String EVENT_DONE = "done";
+    static final String EVENT_ABANDONED = "abandoned";
+
+    public enum State {
+        /**
+         * The command set out to act on the instance, but sent nothing yet
+         */
+        INTENT,
+        /**
+         * A request was about to be sent, and may or may not have been
+         */
+        SENDING,
+        /**
+         * Everything was sent and succeeded, but the stage was not advanced
+         */
+        SENT
+    }
+
+    final String environment;
+    final Optional<File> file;
+    long compactBytes = 1 << 20;
+
+    public Journal(String environment, Optional<File> file) {
+        this.environment = environment;
+        this.file = file;
+    }
+
+    public boolean isEnabled() {
+        return file.isPresent();
+    }
+
+    /**
+     * Records that the command sets out to act on the instance, opening a new entry
+     *
+     * @param fromStage the stage the instance is in, or null for a new instance
+     */
+    public void intent(String dbInstanceIdentifier, String command, String fromStage, String toStage) {
+        Map<String, Object> record = record(dbInstanceIdentifier, command, EVENT_INTENT);
+        if (fromStage != null) {
+            record.put("from", fromStage);
+        }
+        record.put("to", toStage);
+        append(record);
+    }
+
+    /**
+     * Records the request that is about to be sent on behalf of the instance
+     */
+    public void sending(String dbInstanceIdentifier, String command, Object request) {
+        Map<String, Object> record = record(dbInstanceIdentifier, command, EVENT_SENDING);
+        record.put("request", RunReport.describe(request));
+        append(record);
+    }
+
+    /**
+     * Records that everything sent on behalf of the instance succeeded
+     */
+    public void sent(String dbInstanceIdentifier, String command) {
+        append(record(dbInstanceIdentifier, command, EVENT_SENT));
+    }
+
+    /**
+     * Records that the instance's stage was advanced, closing its entry
+     */
+    public void done(String dbInstanceIdentifier, String command) {
+        append(record(dbInstanceIdentifier, command, EVENT_DONE));
+    }
+
+    /**
+     * Closes the entry without the stage having been advanced, e.g. when what it set out to do turns out never to have
+     * happened
+     */
+    public void abandoned(String dbInstanceIdentifier, String command) {
+        append(record(dbInstanceIdentifier, command, EVENT_ABANDONED));
+    }
+
+    /**
+     * @return the entry of the command's last intent on the instance, if it was never closed
+     */
+    public Optional<Entry> open(String dbInstanceIdentifier, String command) {
+        Entry entry = null;
+        for (Map<String, Object> record : read()) {
+            if (!environment.equals(record.get("environment")) || !command.equals(record.get("command")) ||
+                    !dbInstanceIdentifier.equals(record.get("instance"))) {
+                continue;
+            }
+            entry = next(entry, record);
+        }
+        return Optional.fromNullable(entry);
+    }
+
+    /**
+     * @return the entries of the command that were never closed, one per instance
+     */
+    public List<Entry> open(String command) {
+        Map<String, Entry> entries = Maps.newLinkedHashMap();
+        for (Map<String, Object> record : read()) {
+            if (!environment.equals(record.get("environment")) || !command.equals(record.get("command"))) {
+                continue;
+            }
+            String instance = (String) record.get("instance");
+            Entry entry = next(entries.remove(instance), record);
+            if (entry != null) {
+                entries.put(instance, entry);
+            }
+        }
+        return Lists.newArrayList(entries.values());
+    }
+
+    /**
+     * @return the entry as of the record, or null if the record closes it
+     */
+    static Entry next(Entry entry, Map<String, Object> record) {
+        String event = (String) record.get("event");
+        long at = DateTime.parse((String) record.get("at")).getMillis();
+        String instance = (String) record.get("instance");
+        switch (event) {
+            case EVENT_INTENT:
+                return new Entry(instance, State.INTENT, at, Collections.<String>emptyList());
+            case EVENT_SENDING:
+                if (entry == null) {
+                    return null;
+                }
+                List<String> requests = Lists.newArrayList(entry.requests);
+                Object request = record.get("request");
+                if (request instanceof JSONObject) {
+                    requests.add(((JSONObject) request).optString("type"));
+                }
+                return new Entry(instance, State.SENDING, entry.sendingMillis.or(at), requests);
+            case EVENT_SENT:
+                return entry == null ? null : new Entry(instance, State.SENT, entry.sendingMillis.or(at), entry.requests);
+            default:
+                return null;
+        }
+    }
+
+    Map<String, Object> record(String dbInstanceIdentifier, String command, String event) {
+        Map<String, Object> record = Maps.newLinkedHashMap();
+        record.put("at", new DateTime(DateTimeZone.UTC).toString());
+        record.put("environment", environment);
+        record.put("instance", dbInstanceIdentifier);
+        record.put("command", command);
+        record.put("event", event);
+        return record;
+    }
+
+    List<Map<String, Object>> read() {
+        List<Map<String, Object>> records = Lists.newArrayList();
+        if (!file.isPresent() || !file.get().exists()) {
+            return records;
+        }
+        String text;
+        // A JVM may hold only one lock on a file, so threads take turns at it
+        synchronized (Journal.class) {
+            try (RandomAccessFile raf = new RandomAccessFile(file.get(), "r")) {
+                FileLock lock = raf.getChannel().lock(0, Long.MAX_VALUE, true);
+                try {
+                    text = readAll(raf);
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read journal " + file.get(), e);
+            }
+        }
+        for (String line : Splitter.on('\n').split(text)) {
+            Map<String, Object> record = parse(line);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return the record, or null if the line is blank or the last line of a process that died while writing it
+     */
+    static Map<String, Object> parse(String line) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(line);
+            Map<String, Object> record = Maps.newHashMap();
+            for (String key : JSONObject.getNames(json)) {
+                Object value = json.get(key);
+                record.put(key, JSONObject.NULL.equals(value) ? null : value);
+            }
+            return record;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Appends the record and forces it to disk. Unlike the history and reports, a record that cannot be written fails
+     * the command, as it must not act without one.
+     */
+    void append(Map<String, Object> record) {
+        if (!file.isPresent()) {
+            return;
+        }
+        byte[] line = (new JSONObject(record).toString() + '\n').getBytes(Charsets.UTF_8);
+        synchronized (Journal.class) {
+            try (RandomAccessFile raf = new RandomAccessFile(file.get(), "rw")) {
+                FileLock lock = raf.getChannel().lock();
+                try {
+                    long length = raf.length();
+                    if (length > 0) {
+                        raf.seek(length - 1);
+                        if (raf.read() != '\n') {
+                            // Set a line torn by a process that died writing it apart from this one
+                            raf.write('\n');
+                        }
+                    }
+                    raf.write(line);
+                    if (raf.length() > compactBytes) {
+                        compact(raf);
+                    }
+                    raf.getChannel().force(true);
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write journal " + file.get(), e);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the locked file with only the records of entries still open, in their order
+     */
+    static void compact(RandomAccessFile raf) throws IOException {
+        List<String> lines = Lists.newArrayList(Splitter.on('\n').split(readAll(raf)));
+        Map<String, Entry> entries = Maps.newHashMap();
+        Map<String, List<Integer>> entryLines = Maps.newHashMap();
+        for (int i = 0; i < lines.size(); i++) {
+            Map<String, Object> record = parse(lines.get(i));
+            if (record == null) {
+                continue;
+            }
+            String key = record.get("environment") + " " + record.get("command") + " " + record.get("instance");
+            Entry entry = next(entries.remove(key), record);
+            if (entry == null) {
+                entryLines.remove(key);
+                continue;
+            }
+            if (EVENT_INTENT.equals(record.get("event"))) {
+                entryLines.put(key, Lists.<Integer>newArrayList());
+            }
+            entries.put(key, entry);
+            entryLines.get(key).add(i);
+        }
+
+        List<Integer> kept = Lists.newArrayList();
+        for (List<Integer> indexes : entryLines.values()) {
+            kept.addAll(indexes);
+        }
+        Collections.sort(kept);
+        StringBuilder compacted = new StringBuilder();
+        for (int i : kept) {
+            compacted.append(lines.get(i)).append('\n');
+        }
+        byte[] bytes = compacted.toString().getBytes(Charsets.UTF_8);
+        raf.seek(0);
+        raf.write(bytes);
+        raf.setLength(bytes.length);
+    }
+
+    static String readAll(RandomAccessFile raf) throws IOException {
+        byte[] bytes = new byte[(int) raf.length()];
+        raf.seek(0);
+        raf.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    /**
+     * How far an interrupted command got with an instance
+     */
+    public static class Entry {
+        final String instance;
+        final State state;
+        final Optional<Long> sendingMillis;
+        final List<String> requests;
+
+        Entry(String instance, State state, long atMillis, List<String> requests) {
+            this.instance = instance;
+            this.state = state;
+            this.sendingMillis = state == State.INTENT ? Optional.<Long>absent() : Optional.of(atMillis);
+            this.requests = Collections.unmodifiableList(requests);
+        }
+
+        public String getInstance() {
+            return instance;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * @return when the first request was about to be sent, if one was
+         */
+        public Optional<Long> getSendingMillis() {
+            return sendingMillis;
+        }
+
+        /**
+         * @return the types of the requests that were about to be sent, in order
+         */
+        public List<String> getRequests() {
+            return requests;
+        }
+
+        @Override
+        public String toString() {
+            return state + (requests.isEmpty() ? "" : " " + requests);
+        }
+    }
+}
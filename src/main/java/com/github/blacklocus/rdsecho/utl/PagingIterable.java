@@ -23,20 +23,53 @@
  */
 package com.github.blacklocus.rdsecho.utl;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
+import com.google.common.collect.Iterables;
 import org.apache.http.annotation.NotThreadSafe;
 
+import java.io.Closeable;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
+/**
+ * Iterates over pages produced by the supplier. The supplier returns <code>null</code> once there are no more pages.
+ * Empty pages (e.g. every item on a page was filtered out) do not end the iteration. Pages are fetched as the
+ * iteration reaches them.
+ */
 @NotThreadSafe
-class PagingIterable<T> implements Iterable<T>, Iterator<T> {
+class PagingIterable<T> implements Iterable<T>, Iterator<T>, Closeable {
 
     final Supplier<Iterable<T>> supplier;
-    Iterator<T> currentPage;
+    Iterator<T> currentPage = Collections.emptyIterator();
 
     public PagingIterable(Supplier<Iterable<T>> supplier) {
         this.supplier = supplier;
-        this.currentPage = supplier.get().iterator();
+    }
+
+    /**
+     * @param prefetchDepth how many pages to fetch ahead of the iteration, or 0 to fetch each page only when reached
+     */
+    static <T> PagingIterable<T> create(Supplier<Iterable<T>> supplier, int prefetchDepth) {
+        if (prefetchDepth > 0) {
+            return new PrefetchingPagingIterable<T>(supplier, prefetchDepth);
+        } else {
+            return new PagingIterable<T>(supplier);
+        }
+    }
+
+    /**
+     * First element, after which the rest of a paging iteration is abandoned.
+     */
+    static <T> Optional<T> first(Iterable<T> iterable) {
+        try {
+            return Optional.fromNullable(Iterables.getFirst(iterable, null));
+        } finally {
+            if (iterable instanceof PagingIterable) {
+                ((PagingIterable<T>) iterable).close();
+            }
+        }
     }
 
     @Override
@@ -46,21 +79,38 @@ class PagingIterable<T> implements Iterable<T>, Iterator<T> {
 
     @Override
     public boolean hasNext() {
-        boolean x = currentPage.hasNext();
-        return x;
+        while (currentPage != null && !currentPage.hasNext()) {
+            currentPage = nextPage();
+        }
+        return currentPage != null;
     }
 
     @Override
     public T next() {
-        T next = currentPage.next();
-        if (!currentPage.hasNext()) {
-            currentPage = supplier.get().iterator();
+        if (!hasNext()) {
+            throw new NoSuchElementException();
         }
-        return next;
+        return currentPage.next();
     }
 
     @Override
     public void remove() {
         throw new UnsupportedOperationException();
     }
+
+    /**
+     * Abandons the iteration. Further pages will not be fetched.
+     */
+    @Override
+    public void close() {
+        currentPage = null;
+    }
+
+    /**
+     * @return the next page or null if there are no more
+     */
+    Iterator<T> nextPage() {
+        Iterable<T> page = supplier.get();
+        return page == null ? null : page.iterator();
+    }
 }
@@ -0,0 +1,181 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.annotation.NotThreadSafe;
+
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link PagingIterable} that fetches pages in the background ahead of the iteration, so that the caller consumes
+ * one page while the next is requested. At most <code>prefetchDepth</code> fetched pages wait to be consumed. A
+ * failure to fetch a page is thrown from the iterating thread when the iteration reaches that page.
+ * <p/>
+ * The supplier is only ever called from one background thread at a time, from when the iteration starts.
+ * {@link #close()} stops fetching when the iteration is abandoned early. An iteration abandoned without being closed
+ * releases its thread once no page has been consumed for <code>abandonMillis</code>; should the iteration carry on
+ * after all, fetching resumes where it stopped.
+ */
+@NotThreadSafe
+class PrefetchingPagingIterable<T> extends PagingIterable<T> {
+
+    // Daemon threads so that an abandoned iteration never holds up exit.
+    static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("rdsecho-prefetch-%d")
+            .build());
+
+    static final long DEFAULT_ABANDON_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * How often the iterating thread checks whether the producer gave up while it waits for a page
+     */
+    static final long POLL_MILLIS = 100;
+
+    final BlockingQueue<Page<T>> pages;
+    long abandonMillis = DEFAULT_ABANDON_MILLIS;
+
+    /**
+     * Not started until the iteration is
+     */
+    Future<?> producer;
+
+    /**
+     * The page the producer fetched but gave up queueing, once it has given up
+     */
+    volatile Page<T> held;
+
+    PrefetchingPagingIterable(Supplier<Iterable<T>> supplier, int prefetchDepth) {
+        super(supplier);
+        Preconditions.checkArgument(prefetchDepth > 0, "prefetch depth must be positive");
+        this.pages = new ArrayBlockingQueue<Page<T>>(prefetchDepth);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        if (producer == null && currentPage != null) {
+            producer = produce();
+        }
+        return this;
+    }
+
+    Future<?> produce() {
+        final long abandonMillis = this.abandonMillis;
+        return PREFETCH_EXECUTOR.submit(new Runnable() {
+            @Override
+            public void run() {
+                Page<T> page;
+                try {
+                    do {
+                        try {
+                            page = new Page<T>(supplier.get(), null);
+                        } catch (Throwable t) {
+                            page = new Page<T>(null, t);
+                        }
+                        if (!pages.offer(page, abandonMillis, TimeUnit.MILLISECONDS)) {
+                            held = page;
+                            return;
+                        }
+                    } while (!page.isLast());
+
+                } catch (InterruptedException e) {
+                    // closed
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (producer != null) {
+            producer.cancel(true);
+        }
+    }
+
+    @Override
+    Iterator<T> nextPage() {
+        iterator();
+        Page<T> page;
+        try {
+            while ((page = pages.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                if (producer.isDone()) {
+                    // It may have queued its last page just before it finished
+                    page = pages.poll();
+                    if (page == null) {
+                        page = resume();
+                    }
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
+        if (page.failure != null) {
+            close();
+            throw Throwables.propagate(page.failure);
+        }
+        return page.items == null ? null : page.items.iterator();
+    }
+
+    /**
+     * @return the page the producer held when it gave up on the iteration, fetching on from there
+     */
+    Page<T> resume() {
+        Page<T> page = held;
+        Preconditions.checkState(page != null, "Prefetching stopped without a page");
+        held = null;
+        if (!page.isLast()) {
+            producer = produce();
+        }
+        return page;
+    }
+
+    static class Page<T> {
+        final Iterable<T> items;
+        final Throwable failure;
+
+        Page(Iterable<T> items, Throwable failure) {
+            this.items = items;
+            this.failure = failure;
+        }
+
+        boolean isLast() {
+            return items == null;
+        }
+    }
+}
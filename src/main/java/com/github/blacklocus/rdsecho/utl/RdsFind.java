@@ -27,7 +27,9 @@ import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.rds.AmazonRDS;
 import com.amazonaws.services.rds.AmazonRDSClient;
 import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.DBInstanceNotFoundException;
 import com.amazonaws.services.rds.model.DBSnapshot;
+import com.amazonaws.services.rds.model.DBSnapshotNotFoundException;
 import com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
 import com.amazonaws.services.rds.model.DescribeDBInstancesResult;
 import com.amazonaws.services.rds.model.DescribeDBSnapshotsRequest;
@@ -40,19 +42,47 @@ import com.github.rholder.retry.RetryerBuilder;
 import com.github.rholder.retry.StopStrategies;
 import com.github.rholder.retry.WaitStrategies;
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import javax.annotation.Nullable;
-import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 
 public class RdsFind {
 
-    final AmazonRDS rds = new AmazonRDSClient();
+    /**
+     * Default number of ListTagsForResource calls that may be in flight at once.
+     */
+    public static final int DEFAULT_TAG_CONCURRENCY = 8;
+
+    /**
+     * Default number of pages fetched ahead of the caller's iteration.
+     */
+    public static final int DEFAULT_PREFETCH_DEPTH = 1;
+
+    final AmazonRDS rds;
+
+    // Daemon threads so that a finished command never waits on idle tag workers to exit.
+    final ExecutorService tagExecutor;
+
+    Optional<TagCache> tagCache = Optional.absent();
+    int prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+    InstanceDiscovery discovery = new ScanInstanceDiscovery(this);
 
     // Retry 10 times with exponential backoff, starting with 1 second bounded to 60 seconds
     final Retryer<ListTagsForResourceResult> tagRetryer = RetryerBuilder.<ListTagsForResourceResult>newBuilder()
@@ -60,14 +90,97 @@ public class RdsFind {
             .retryIfRuntimeException()
             .withStopStrategy(StopStrategies.stopAfterAttempt(10))
             .withWaitStrategy(WaitStrategies.exponentialWait(1, 60, TimeUnit.SECONDS))
+            .withRetryListener(ApiMetrics.getInstance().retryListener("rds.listTagsForResource"))
             .build();
 
+    public RdsFind() {
+        this(DEFAULT_TAG_CONCURRENCY);
+    }
+
+    public RdsFind(int tagConcurrency) {
+        this(new AmazonRDSClient(), tagConcurrency);
+    }
+
+    public RdsFind(AmazonRDS rds, int tagConcurrency) {
+        Preconditions.checkArgument(tagConcurrency > 0, "tag concurrency must be positive");
+        this.rds = rds;
+        this.tagExecutor = Executors.newFixedThreadPool(tagConcurrency, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("rdsecho-tags-%d")
+                .build());
+    }
+
+    /**
+     * Serve instance tags from the given cache where possible, see {@link #resolveTags(String, String, Iterable)}.
+     */
+    public RdsFind withTagCache(TagCache tagCache) {
+        this.tagCache = Optional.of(tagCache);
+        return this;
+    }
+
+    /**
+     * Reads the tags of instances whose identifier starts with the prefix live rather than from the tag cache, if any,
+     * see {@link TagCache#readLive(String)}.
+     */
+    public void readTagsLive(String identifierPrefix) {
+        if (tagCache.isPresent()) {
+            tagCache.get().readLive(identifierPrefix);
+        }
+    }
+
+    /**
+     * @param prefetchDepth how many pages of any listing to fetch ahead of the caller, or 0 to fetch each page only
+     *                      when the caller reaches it
+     */
+    public RdsFind withPrefetchDepth(int prefetchDepth) {
+        this.prefetchDepth = prefetchDepth;
+        return this;
+    }
+
+    /**
+     * How instances carrying a tag are found. Defaults to {@link ScanInstanceDiscovery}.
+     */
+    public RdsFind withDiscovery(InstanceDiscovery discovery) {
+        this.discovery = discovery;
+        return this;
+    }
+
+    public InstanceDiscovery getDiscovery() {
+        return discovery;
+    }
+
     public Optional<DBInstance> instance(Predicate<DBInstance> predicate) {
-        return Optional.fromNullable(Iterables.getFirst(instances(predicate), null));
+        return PagingIterable.first(instances(predicate));
+    }
+
+    /**
+     * Describes just the one instance, rather than listing every instance.
+     */
+    public Optional<DBInstance> instance(String dbInstanceIdentifier) {
+        try {
+            DescribeDBInstancesResult result = rds.describeDBInstances(new DescribeDBInstancesRequest()
+                    .withDBInstanceIdentifier(dbInstanceIdentifier));
+            return Optional.fromNullable(Iterables.getFirst(result.getDBInstances(), null));
+        } catch (DBInstanceNotFoundException e) {
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * Describes just the one snapshot.
+     */
+    public Optional<DBSnapshot> snapshot(String dbSnapshotIdentifier) {
+        try {
+            DescribeDBSnapshotsResult result = rds.describeDBSnapshots(new DescribeDBSnapshotsRequest()
+                    .withDBSnapshotIdentifier(dbSnapshotIdentifier));
+            return Optional.fromNullable(Iterables.getFirst(result.getDBSnapshots(), null));
+        } catch (DBSnapshotNotFoundException e) {
+            return Optional.absent();
+        }
     }
 
     public Iterable<DBInstance> instances(final Predicate<DBInstance> predicate) {
-        return new PagingIterable<DBInstance>(new Supplier<Iterable<DBInstance>>() {
+        return PagingIterable.create(new Supplier<Iterable<DBInstance>>() {
 
             String marker = null;
             boolean isTruncated = true;
@@ -83,24 +196,102 @@ public class RdsFind {
                     return Iterables.filter(result.getDBInstances(), predicate);
 
                 } else {
-                    return Collections.emptyList();
+                    return null;
                 }
             }
-        });
+        }, prefetchDepth);
+    }
+
+    /**
+     * Fetches the tags of all given instances, at most the configured tag concurrency at a time. Each fetch is retried
+     * in the same fashion as {@link #instanceHasTag(String, String, String, String)}. Tags found in the tag cache, if
+     * any, are not fetched; fetched tags are added to it.
+     *
+     * @return tags keyed by instance ARN
+     */
+    public Map<String, List<Tag>> resolveTags(String region, String accountNumber, Iterable<DBInstance> instances) {
+        Map<String, List<Tag>> resolved = Maps.newHashMap();
+        Map<String, Future<List<Tag>>> pending = Maps.newLinkedHashMap();
+        for (final DBInstance instance : instances) {
+            final String arn = instanceArn(region, accountNumber, instance.getDBInstanceIdentifier());
+            if (tagCache.isPresent()) {
+                Optional<List<Tag>> cached = tagCache.get().get(arn, instance.getInstanceCreateTime());
+                if (cached.isPresent()) {
+                    resolved.put(arn, cached.get());
+                    continue;
+                }
+            }
+            pending.put(arn, tagExecutor.submit(new Callable<List<Tag>>() {
+                @Override
+                public List<Tag> call() throws Exception {
+                    List<Tag> tags = listTags(arn);
+                    if (tagCache.isPresent()) {
+                        tagCache.get().put(arn, instance.getInstanceCreateTime(), tags);
+                    }
+                    return tags;
+                }
+            }));
+        }
+
+        try {
+            for (Map.Entry<String, Future<List<Tag>>> e : pending.entrySet()) {
+                resolved.put(e.getKey(), e.getValue().get());
+            }
+            return resolved;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+
+        } finally {
+            // No-op for completed lookups. Stops queued lookups when one of them failed.
+            for (Future<List<Tag>> future : pending.values()) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Notes the end of a scan that saw every instance in the account and region. Cached tags of any other instance of
+     * that account and region are evicted, as those instances no longer exist.
+     */
+    public void scanned(String region, String accountNumber, Set<String> instanceArns) {
+        if (tagCache.isPresent()) {
+            tagCache.get().retain(instanceArn(region, accountNumber, ""), instanceArns);
+            tagCache.get().save();
+        }
+    }
+
+    void saveTagCache() {
+        if (tagCache.isPresent()) {
+            tagCache.get().save();
+        }
     }
 
     public Optional<Tag> instanceTag(String instanceArn, Predicate<Tag> predicate) {
         return Optional.fromNullable(Iterables.getFirst(instanceTags(instanceArn, predicate), null));
     }
 
+    /**
+     * Lists the instance's tags, with retries as {@link #resolveTags(String, String, Iterable)} does
+     */
     public Iterable<Tag> instanceTags(String instanceArn, Predicate<Tag> predicate) {
-        ListTagsForResourceResult result = rds.listTagsForResource(new ListTagsForResourceRequest()
-                .withResourceName(instanceArn));
-        return Iterables.filter(result.getTagList(), predicate);
+        return Iterables.filter(listTags(instanceArn), predicate);
+    }
+
+    public Iterable<DBSnapshot> snapshots(String dbInstanceIdentifier, Predicate<DBSnapshot> predicate) {
+        return snapshots(dbInstanceIdentifier, Optional.<String>absent(), predicate);
     }
 
-    public Iterable<DBSnapshot> snapshots(final String dbInstanceIdentifier, final Predicate<DBSnapshot> predicate) {
-        return new PagingIterable<DBSnapshot>(new Supplier<Iterable<DBSnapshot>>() {
+    /**
+     * @param snapshotType if present, only snapshots of this type (automated or manual) are requested from RDS
+     */
+    public Iterable<DBSnapshot> snapshots(final String dbInstanceIdentifier, final Optional<String> snapshotType,
+                                          final Predicate<DBSnapshot> predicate) {
+        return PagingIterable.create(new Supplier<Iterable<DBSnapshot>>() {
 
             String marker = null;
             boolean isTruncated = true;
@@ -110,6 +301,7 @@ public class RdsFind {
                 if (isTruncated) {
                     DescribeDBSnapshotsRequest request = new DescribeDBSnapshotsRequest()
                             .withDBInstanceIdentifier(dbInstanceIdentifier)
+                            .withSnapshotType(snapshotType.orNull())
                             .withMarker(marker);
                     DescribeDBSnapshotsResult result = rds.describeDBSnapshots(request);
                     marker = result.getMarker();
@@ -117,10 +309,10 @@ public class RdsFind {
                     return Iterables.filter(result.getDBSnapshots(), predicate);
 
                 } else {
-                    return Collections.emptyList();
+                    return null;
                 }
             }
-        });
+        }, prefetchDepth);
     }
 
     public Predicate<DBInstance> instanceHasTag(final String region, final String accountNumber,
@@ -128,33 +320,38 @@ public class RdsFind {
         return new Predicate<DBInstance>() {
             @Override
             public boolean apply(DBInstance instance) {
-                try {
-                    final String rdsInstanceArn = instanceArn(region, accountNumber, instance.getDBInstanceIdentifier());
-                    ListTagsForResourceResult result = tagRetryer.call(new Callable<ListTagsForResourceResult>() {
-                        @Override
-                        public ListTagsForResourceResult call() throws Exception {
-                            return rds.listTagsForResource(new ListTagsForResourceRequest()
-                                    .withResourceName(rdsInstanceArn));
-                        }
-                    });
-
-                    return Iterables.any(result.getTagList(), new Predicate<Tag>() {
-                        @Override
-                        public boolean apply(Tag tag) {
-                            return tagKey.equals(tag.getKey()) && tagValue.equals(tag.getValue());
-                        }
-                    });
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
+                String rdsInstanceArn = instanceArn(region, accountNumber, instance.getDBInstanceIdentifier());
+                return Iterables.any(listTags(rdsInstanceArn), tagEquals(tagKey, tagValue));
             }
         };
     }
 
+    /**
+     * ListTagsForResource with retries
+     */
+    List<Tag> listTags(final String instanceArn) {
+        try {
+            ListTagsForResourceResult result = tagRetryer.call(new Callable<ListTagsForResourceResult>() {
+                @Override
+                public ListTagsForResourceResult call() throws Exception {
+                    return rds.listTagsForResource(new ListTagsForResourceRequest()
+                            .withResourceName(instanceArn));
+                }
+            });
+            return result.getTagList();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public static String instanceArn(String region, String accountNumber, String dbInstanceIdentifier) {
         return String.format("arn:aws:rds:%s:%s:db:%s", region, accountNumber, dbInstanceIdentifier);
     }
 
+    public static String snapshotArn(String region, String accountNumber, String dbSnapshotIdentifier) {
+        return String.format("arn:aws:rds:%s:%s:snapshot:%s", region, accountNumber, dbSnapshotIdentifier);
+    }
+
     public static Predicate<DBSnapshot> snapshotIsAvailable() {
         return new Predicate<DBSnapshot>() {
             @Override
@@ -164,6 +361,31 @@ public class RdsFind {
         };
     }
 
+    /**
+     * @param after  exclusive lower bound on snapshot create time, if present
+     * @param before exclusive upper bound on snapshot create time, if present
+     */
+    public static Predicate<DBSnapshot> snapshotCreatedBetween(final Optional<Date> after, final Optional<Date> before) {
+        return new Predicate<DBSnapshot>() {
+            @Override
+            public boolean apply(DBSnapshot snapshot) {
+                Date created = snapshot.getSnapshotCreateTime();
+                return created != null &&
+                        (!after.isPresent() || created.after(after.get())) &&
+                        (!before.isPresent() || created.before(before.get()));
+            }
+        };
+    }
+
+    public static Predicate<Tag> tagEquals(final String key, final String value) {
+        return new Predicate<Tag>() {
+            @Override
+            public boolean apply(Tag tag) {
+                return key.equals(tag.getKey()) && value.equals(tag.getValue());
+            }
+        };
+    }
+
     public static Predicate<Tag> tagName(final String name) {
         return new Predicate<Tag>() {
             @Override
@@ -195,11 +417,11 @@ public class RdsFind {
     public static Optional<DBSnapshot> newestSnapshot(Iterable<DBSnapshot> snapshots) {
         DBSnapshot newest = null;
 
-        // filter out instances without a create time
+        // filter out snapshots without a create time, e.g. those still being created
         Iterable<DBSnapshot> validSnapshots = Iterables.filter(snapshots, new Predicate<DBSnapshot>() {
             @Override
             public boolean apply(@Nullable DBSnapshot input) {
-                return input != null && input.getInstanceCreateTime() != null;
+                return input != null && input.getSnapshotCreateTime() != null;
             }
         });
 
@@ -0,0 +1,213 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Tag;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Instances of one account and region along with their tags, indexed by tag. Each tag looked up is discovered once
+ * through the {@link RdsFind#getDiscovery() discovery strategy} and then served from the index until
+ * {@link #invalidate()}d. A discovery that returns every instance answers all later lookups, so that all of a command's
+ * lookups, and those of any number of environments in the same account and region, cost one scan.
+ */
+public class RdsInventory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RdsInventory.class);
+
+    final RdsFind rdsFind;
+    final String region;
+    final String accountNumber;
+
+    // All guarded by this
+    final Map<String, DBInstance> instancesById = Maps.newHashMap();
+    final Map<String, List<Tag>> tagsById = Maps.newHashMap();
+    final ListMultimap<Map.Entry<String, String>, DBInstance> instancesByTag = ArrayListMultimap.create();
+    final Set<Map.Entry<String, String>> discoveredTags = Sets.newHashSet();
+    boolean discoveredAll = false;
+
+    public RdsInventory(RdsFind rdsFind, String region, String accountNumber) {
+        this.rdsFind = rdsFind;
+        this.region = region;
+        this.accountNumber = accountNumber;
+    }
+
+    public RdsFind getRdsFind() {
+        return rdsFind;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    /**
+     * Discards everything discovered. The next lookup discovers again.
+     */
+    public synchronized void invalidate() {
+        instancesById.clear();
+        tagsById.clear();
+        instancesByTag.clear();
+        discoveredTags.clear();
+        discoveredAll = false;
+    }
+
+    public synchronized List<DBInstance> instancesWithTag(String tagKey, String tagValue) {
+        Map.Entry<String, String> tag = Maps.immutableEntry(tagKey, tagValue);
+        if (!discoveredAll && !discoveredTags.contains(tag)) {
+            discover(tagKey, tagValue);
+            discoveredTags.add(tag);
+        }
+        return ImmutableList.copyOf(instancesByTag.get(tag));
+    }
+
+    /**
+     * @return tags of the instance. Instances not yet discovered have their tags listed directly.
+     */
+    public synchronized List<Tag> tags(String dbInstanceIdentifier) {
+        List<Tag> tags = tagsById.get(dbInstanceIdentifier);
+        if (tags != null) {
+            return tags;
+        } else if (discoveredAll) {
+            return ImmutableList.of();
+        } else {
+            return Lists.newArrayList(rdsFind.instanceTags(
+                    RdsFind.instanceArn(region, accountNumber, dbInstanceIdentifier), Predicates.<Tag>alwaysTrue()));
+        }
+    }
+
+    public synchronized List<Tag> tags(DBInstance instance) {
+        return tags(instance.getDBInstanceIdentifier());
+    }
+
+    /**
+     * Records tags just written to an instance, replacing same-named tags as AddTagsToResource does, so that lookups
+     * see them without discovering again. Ignored for instances not yet discovered.
+     */
+    public synchronized void tagged(String dbInstanceIdentifier, List<Tag> newTags) {
+        DBInstance instance = instancesById.get(dbInstanceIdentifier);
+        if (instance == null) {
+            return;
+        }
+        Map<String, Tag> merged = Maps.newLinkedHashMap();
+        for (Tag tag : tagsById.get(dbInstanceIdentifier)) {
+            merged.put(tag.getKey(), tag);
+        }
+        for (Tag tag : newTags) {
+            merged.put(tag.getKey(), tag);
+        }
+        index(instance, ImmutableList.copyOf(merged.values()));
+    }
+
+    /**
+     * Describes the one instance again, so that lookups see its current status without discovering again. Its tags are
+     * kept. An instance that no longer exists is forgotten. Ignored for instances not yet discovered.
+     */
+    public void refresh(String dbInstanceIdentifier) {
+        Optional<DBInstance> current = rdsFind.instance(dbInstanceIdentifier);
+        synchronized (this) {
+            List<Tag> tags = tagsById.get(dbInstanceIdentifier);
+            if (tags == null) {
+                return;
+            }
+            if (current.isPresent()) {
+                index(current.get(), tags);
+            } else {
+                DBInstance previous = instancesById.remove(dbInstanceIdentifier);
+                tagsById.remove(dbInstanceIdentifier);
+                for (Tag tag : tags) {
+                    instancesByTag.remove(Maps.immutableEntry(tag.getKey(), tag.getValue()), previous);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records an instance just created with the given tags, so that lookups see it without discovering again.
+     * Ignored until something has been discovered, as the next discovery will find it.
+     */
+    public synchronized void added(DBInstance instance, List<Tag> tags) {
+        if (discoveredAll || !discoveredTags.isEmpty()) {
+            index(instance, ImmutableList.copyOf(tags));
+        }
+    }
+
+    /**
+     * Replaces everything discovered with the given instances, taken as every instance there is, e.g. as discovered
+     * earlier by another process.
+     */
+    public synchronized void prime(Map<DBInstance, List<Tag>> instances) {
+        invalidate();
+        for (Map.Entry<DBInstance, List<Tag>> e : instances.entrySet()) {
+            index(e.getKey(), ImmutableList.copyOf(e.getValue()));
+        }
+        discoveredAll = true;
+    }
+
+    void discover(String tagKey, String tagValue) {
+        long start = System.currentTimeMillis();
+        InstanceDiscovery discovery = rdsFind.getDiscovery();
+        Map<DBInstance, List<Tag>> discovered = discovery.discover(region, accountNumber, tagKey, tagValue);
+        for (Map.Entry<DBInstance, List<Tag>> e : discovered.entrySet()) {
+            index(e.getKey(), e.getValue());
+        }
+        discoveredAll = discovery.discoversAll();
+        LOG.info("Discovered {} instances in {} of account {} in {}ms",
+                discovered.size(), region, accountNumber, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * (Re)indexes the instance under the given tags, replacing whatever it was indexed under before.
+     */
+    void index(DBInstance instance, List<Tag> tags) {
+        String dbInstanceIdentifier = instance.getDBInstanceIdentifier();
+        DBInstance previous = instancesById.put(dbInstanceIdentifier, instance);
+        List<Tag> previousTags = tagsById.put(dbInstanceIdentifier, tags);
+        if (previousTags != null) {
+            for (Tag tag : previousTags) {
+                instancesByTag.remove(Maps.immutableEntry(tag.getKey(), tag.getValue()), previous);
+            }
+        }
+        for (Tag tag : tags) {
+            instancesByTag.put(Maps.immutableEntry(tag.getKey(), tag.getValue()), instance);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.auth.AWS4Signer;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.http.HttpMethodName;
+import com.amazonaws.services.rds.model.Tag;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.rholder.retry.RetryException;
+import com.github.rholder.retry.Retryer;
+import com.github.rholder.retry.RetryerBuilder;
+import com.github.rholder.retry.StopStrategies;
+import com.github.rholder.retry.WaitStrategies;
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TagIndex} on the Resource Groups Tagging API, which lists the RDS instances carrying a tag in one call per
+ * hundred of them, however many instances the account holds. This SDK has no client for the API, so its GetResources
+ * requests are signed and sent here, with the default credentials. They require the tag:GetResources permission. Like
+ * the calls of every other client, each is paced by {@link ApiRateLimiter} and measured by {@link ApiMetrics}, as
+ * <code>tagging.getResources</code>.
+ */
+public class ResourceGroupsTagIndex implements TagIndex {
+
+    static final String SERVICE_NAME = "tagging";
+    static final String TARGET = "ResourceGroupsTaggingAPI_20170126.GetResources";
+    static final String CONTENT_TYPE = "application/x-amz-json-1.1";
+    static final String RESOURCE_TYPE = "rds:db";
+    static final int RESOURCES_PER_PAGE = 100;
+    static final String OPERATION = SERVICE_NAME + ".getResources";
+
+    static final ObjectMapper MAPPER = new ObjectMapper();
+
+    final String region;
+    final AWSCredentialsProvider credentials;
+
+    // Retry throttling and server errors as RdsFind retries tag lookups
+    final Retryer<JsonNode> retryer = RetryerBuilder.<JsonNode>newBuilder()
+            .retryIfException(new Predicate<Throwable>() {
+                @Override
+                public boolean apply(Throwable t) {
+                    return t instanceof AmazonServiceException && (((AmazonServiceException) t).getStatusCode() >= 500 ||
+                            "ThrottledException".equals(((AmazonServiceException) t).getErrorCode()));
+                }
+            })
+            .withStopStrategy(StopStrategies.stopAfterAttempt(10))
+            .withWaitStrategy(WaitStrategies.exponentialWait(1, 60, TimeUnit.SECONDS))
+            .withRetryListener(ApiMetrics.getInstance().retryListener(OPERATION))
+            .build();
+
+    public ResourceGroupsTagIndex(String region) {
+        this(region, new DefaultAWSCredentialsProviderChain());
+    }
+
+    public ResourceGroupsTagIndex(String region, AWSCredentialsProvider credentials) {
+        this.region = region;
+        this.credentials = credentials;
+    }
+
+    @Override
+    public Map<String, List<Tag>> resourcesWithTag(String tagKey, String tagValue) {
+        Map<String, List<Tag>> resources = Maps.newLinkedHashMap();
+        String paginationToken = "";
+        do {
+            JsonNode response = getResources(requestBody(tagKey, tagValue, paginationToken));
+            for (JsonNode mapping : response.path("ResourceTagMappingList")) {
+                resources.put(text(mapping, "ResourceARN"), tags(mapping.path("Tags")));
+            }
+            paginationToken = response.path("PaginationToken").asText();
+        } while (!paginationToken.isEmpty());
+        return resources;
+    }
+
+    static String requestBody(String tagKey, String tagValue, String paginationToken) {
+        Map<String, Object> body = Maps.newLinkedHashMap();
+        body.put("ResourceTypeFilters", Collections.singletonList(RESOURCE_TYPE));
+        body.put("TagFilters", Collections.singletonList(ImmutableMap.of(
+                "Key", tagKey, "Values", Collections.singletonList(tagValue))));
+        body.put("ResourcesPerPage", RESOURCES_PER_PAGE);
+        if (!Strings.isNullOrEmpty(paginationToken)) {
+            body.put("PaginationToken", paginationToken);
+        }
+        try {
+            return MAPPER.writeValueAsString(body);
+        } catch (IOException e) {
+            throw new AmazonClientException("Could not write GetResources request", e);
+        }
+    }
+
+    static List<Tag> tags(JsonNode tagsJson) {
+        List<Tag> tags = Lists.newArrayList();
+        for (JsonNode tag : tagsJson) {
+            tags.add(new Tag().withKey(text(tag, "Key")).withValue(tag.path("Value").asText()));
+        }
+        return tags;
+    }
+
+    static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        if (value == null || !value.isTextual()) {
+            throw new AmazonClientException("Unexpected GetResources response, without " + field);
+        }
+        return value.asText();
+    }
+
+    JsonNode getResources(final String body) {
+        try {
+            return retryer.call(new Callable<JsonNode>() {
+                @Override
+                public JsonNode call() throws Exception {
+                    ApiRateLimiter.getInstance().acquire(OPERATION);
+                    long start = System.nanoTime();
+                    try {
+                        JsonNode response = MAPPER.readTree(post(body));
+                        ApiMetrics.getInstance().operation(OPERATION).record(start, null);
+                        return response;
+                    } catch (Exception e) {
+                        ApiMetrics.getInstance().operation(OPERATION).record(start, e);
+                        throw e;
+                    }
+                }
+            });
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ?
+                    (RuntimeException) e.getCause() : new AmazonClientException(e.getCause().getMessage(), e.getCause());
+        } catch (RetryException e) {
+            throw new AmazonClientException("GetResources failed after retries", e.getLastFailedAttempt().getExceptionCause());
+        }
+    }
+
+    /**
+     * Signs the request body and sends it
+     *
+     * @return the response body
+     * @throws AmazonServiceException if the service responded with an error
+     */
+    String post(String body) throws IOException {
+        byte[] content = body.getBytes(Charsets.UTF_8);
+        DefaultRequest<Void> request = signed(content);
+        HttpPost post = new HttpPost(request.getEndpoint());
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            // HttpClient sets the same Host itself
+            if (!"Host".equalsIgnoreCase(header.getKey())) {
+                post.setHeader(header.getKey(), header.getValue());
+            }
+        }
+        post.setEntity(new ByteArrayEntity(content));
+        // A few calls per command, so not worth holding connections open between them
+        try (CloseableHttpClient http = HttpClients.createDefault();
+             CloseableHttpResponse response = http.execute(post)) {
+            String responseBody = EntityUtils.toString(response.getEntity(), Charsets.UTF_8);
+            int status = response.getStatusLine().getStatusCode();
+            if (status != 200) {
+                throw serviceException(status, responseBody);
+            }
+            return responseBody;
+        }
+    }
+
+    DefaultRequest<Void> signed(byte[] content) {
+        DefaultRequest<Void> request = new DefaultRequest<Void>(SERVICE_NAME);
+        request.setHttpMethod(HttpMethodName.POST);
+        request.setEndpoint(URI.create("https://" + SERVICE_NAME + "." + region + ".amazonaws.com"));
+        request.addHeader("Content-Type", CONTENT_TYPE);
+        request.addHeader("X-Amz-Target", TARGET);
+        request.setContent(new ByteArrayInputStream(content));
+        AWS4Signer signer = new AWS4Signer();
+        signer.setServiceName(SERVICE_NAME);
+        signer.setRegionName(region);
+        signer.sign(request, credentials.getCredentials());
+        return request;
+    }
+
+    static AmazonServiceException serviceException(int status, String responseBody) {
+        String errorCode = null;
+        String message = responseBody;
+        try {
+            JsonNode error = MAPPER.readTree(responseBody);
+            if (error != null && error.isObject()) {
+                errorCode = error.has("__type") ? error.get("__type").asText() : null;
+                JsonNode messageJson = error.has("Message") ? error.get("Message") : error.get("message");
+                message = messageJson != null ? messageJson.asText() : responseBody;
+            }
+        } catch (IOException e) {
+            // Not JSON, keep the body as the message
+        }
+        AmazonServiceException exception = new AmazonServiceException(message);
+        exception.setServiceName(SERVICE_NAME);
+        exception.setStatusCode(status);
+        // e.g. com.amazonaws.resourcegroupstaggingapi#ThrottledException
+        exception.setErrorCode(errorCode == null ? null : errorCode.substring(errorCode.indexOf('#') + 1));
+        return exception;
+    }
+}
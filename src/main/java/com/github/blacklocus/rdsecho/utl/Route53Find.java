@@ -30,21 +30,46 @@ import com.amazonaws.services.route53.model.ListHostedZonesRequest;
 import com.amazonaws.services.route53.model.ListHostedZonesResult;
 import com.amazonaws.services.route53.model.ListResourceRecordSetsRequest;
 import com.amazonaws.services.route53.model.ListResourceRecordSetsResult;
+import com.amazonaws.services.route53.model.RRType;
 import com.amazonaws.services.route53.model.ResourceRecordSet;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.base.Supplier;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
-import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentMap;
 
 
 public class Route53Find {
-    final AmazonRoute53 route53 = new AmazonRoute53Client();
+
+    /**
+     * Hosted zones by name, shared by every instance in the process. Zones cannot be renamed.
+     */
+    static final ConcurrentMap<String, HostedZone> HOSTED_ZONES_BY_NAME = Maps.newConcurrentMap();
+
+    final AmazonRoute53 route53;
+    final int prefetchDepth;
+
+    public Route53Find() {
+        this(new AmazonRoute53Client(), RdsFind.DEFAULT_PREFETCH_DEPTH);
+    }
+
+    /**
+     * @param prefetchDepth how many pages of any listing to fetch ahead of the caller, or 0 to fetch each page only
+     *                      when the caller reaches it
+     */
+    public Route53Find(AmazonRoute53 route53, int prefetchDepth) {
+        this.route53 = route53;
+        this.prefetchDepth = prefetchDepth;
+    }
 
     public Optional<HostedZone> hostedZone() {
-        return Optional.fromNullable(Iterables.getFirst(hostedZones(), null));
+        return PagingIterable.first(hostedZones());
     }
 
     public Iterable<HostedZone> hostedZones() {
@@ -52,11 +77,26 @@ public class Route53Find {
     }
 
     public Optional<HostedZone> hostedZone(final Predicate<HostedZone> predicate) {
-        return Optional.fromNullable(Iterables.getFirst(hostedZones(predicate), null));
+        return PagingIterable.first(hostedZones(predicate));
+    }
+
+    /**
+     * Lists hosted zones only the first time any instance in the process looks for the name.
+     */
+    public Optional<HostedZone> hostedZoneByName(String name) {
+        HostedZone cached = HOSTED_ZONES_BY_NAME.get(name);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        Optional<HostedZone> hostedZone = hostedZone(nameEquals(name));
+        if (hostedZone.isPresent()) {
+            HOSTED_ZONES_BY_NAME.put(name, hostedZone.get());
+        }
+        return hostedZone;
     }
 
     public Iterable<HostedZone> hostedZones(final Predicate<HostedZone> predicate) {
-        return new PagingIterable<HostedZone>(new Supplier<Iterable<HostedZone>>() {
+        return PagingIterable.create(new Supplier<Iterable<HostedZone>>() {
 
             String nextMarker = null;
             boolean isTruncated = true;
@@ -66,20 +106,20 @@ public class Route53Find {
                 if (isTruncated) {
                     ListHostedZonesRequest request = new ListHostedZonesRequest()
                             .withMarker(nextMarker);
-                    ListHostedZonesResult result = route53.listHostedZones();
+                    ListHostedZonesResult result = route53.listHostedZones(request);
                     nextMarker = result.getNextMarker();
                     isTruncated = result.isTruncated();
                     return Iterables.filter(result.getHostedZones(), predicate);
 
                 } else {
-                    return Collections.emptyList();
+                    return null;
                 }
             }
-        });
+        }, prefetchDepth);
     }
 
     public Optional<ResourceRecordSet> resourceRecordSet(String hostedZoneId) {
-        return Optional.fromNullable(Iterables.getFirst(resourceRecordSets(hostedZoneId), null));
+        return PagingIterable.first(resourceRecordSets(hostedZoneId));
     }
 
     public Iterable<ResourceRecordSet> resourceRecordSets(String hostedZoneId) {
@@ -87,31 +127,98 @@ public class Route53Find {
     }
 
     public Optional<ResourceRecordSet> resourceRecordSet(final String hostedZoneId, final Predicate<ResourceRecordSet> predicate) {
-        return Optional.fromNullable(Iterables.getFirst(resourceRecordSets(hostedZoneId, predicate), null));
+        return PagingIterable.first(resourceRecordSets(hostedZoneId, predicate));
     }
 
     public Iterable<ResourceRecordSet> resourceRecordSets(final String hostedZoneId, final Predicate<ResourceRecordSet> predicate) {
-        return new PagingIterable<ResourceRecordSet>(new Supplier<Iterable<ResourceRecordSet>>() {
+        return PagingIterable.create(new Supplier<Iterable<ResourceRecordSet>>() {
 
             String nextRecordName = null;
+            String nextRecordType = null;
+            String nextRecordIdentifier = null;
             boolean isTruncated = true;
 
             @Override
             public Iterable<ResourceRecordSet> get() {
                 if (isTruncated) {
+                    // Resuming needs all three, or records of the same name are listed again.
                     ListResourceRecordSetsRequest request = new ListResourceRecordSetsRequest()
                             .withHostedZoneId(hostedZoneId)
-                            .withStartRecordName(nextRecordName);
+                            .withStartRecordName(nextRecordName)
+                            .withStartRecordType(nextRecordType)
+                            .withStartRecordIdentifier(nextRecordIdentifier);
                     ListResourceRecordSetsResult result = route53.listResourceRecordSets(request);
                     nextRecordName = result.getNextRecordName();
+                    nextRecordType = result.getNextRecordType();
+                    nextRecordIdentifier = result.getNextRecordIdentifier();
                     isTruncated = result.isTruncated();
                     return Iterables.filter(result.getResourceRecordSets(), predicate);
 
                 } else {
-                    return Collections.emptyList();
+                    return null;
                 }
             }
-        });
+        }, prefetchDepth);
+    }
+
+    public Optional<ResourceRecordSet> resourceRecordSet(String hostedZoneId, String name, RRType type) {
+        return PagingIterable.first(resourceRecordSets(hostedZoneId, name, type));
+    }
+
+    /**
+     * Record sets of exactly the name and type, several if weighted or otherwise routed. Listing starts at the name and
+     * type and stops at the first record set past them, so only the pages holding them are read, however large the
+     * zone.
+     */
+    public Iterable<ResourceRecordSet> resourceRecordSets(final String hostedZoneId, final String name, final RRType type) {
+        final String normalizedName = normalizeName(name);
+        return PagingIterable.create(new Supplier<Iterable<ResourceRecordSet>>() {
+
+            String nextRecordName = name;
+            String nextRecordType = type.toString();
+            String nextRecordIdentifier = null;
+            boolean isTruncated = true;
+
+            @Override
+            public Iterable<ResourceRecordSet> get() {
+                if (isTruncated) {
+                    ListResourceRecordSetsRequest request = new ListResourceRecordSetsRequest()
+                            .withHostedZoneId(hostedZoneId)
+                            .withStartRecordName(nextRecordName)
+                            .withStartRecordType(nextRecordType)
+                            .withStartRecordIdentifier(nextRecordIdentifier);
+                    ListResourceRecordSetsResult result = route53.listResourceRecordSets(request);
+                    nextRecordName = result.getNextRecordName();
+                    nextRecordType = result.getNextRecordType();
+                    nextRecordIdentifier = result.getNextRecordIdentifier();
+                    isTruncated = result.isTruncated();
+
+                    List<ResourceRecordSet> matching = Lists.newArrayList();
+                    for (ResourceRecordSet resourceRecordSet : result.getResourceRecordSets()) {
+                        if (normalizeName(resourceRecordSet.getName()).equals(normalizedName) &&
+                                type.toString().equals(resourceRecordSet.getType())) {
+                            matching.add(resourceRecordSet);
+                        } else {
+                            // Listed in order, so there are no more
+                            isTruncated = false;
+                            break;
+                        }
+                    }
+                    return matching;
+
+                } else {
+                    return null;
+                }
+            }
+        }, prefetchDepth);
+    }
+
+    /**
+     * Route53 lists names in lower case and fully qualified.
+     */
+    static String normalizeName(String name) {
+        String lower = name.toLowerCase(Locale.ENGLISH);
+        return lower.endsWith(".") ? lower : lower + '.';
     }
 
     public static Predicate<HostedZone> nameEquals(final String name) {
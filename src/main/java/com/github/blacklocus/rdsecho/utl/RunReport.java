@@ -0,0 +1,222 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.util.json.JSONObject;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What one command did, as one JSON object: what it acted on, what it asked of AWS, every AWS call and wait it made
+ * with its timing, and the stage transitions that resulted. Safe to record to from several threads at once. See
+ * {@link RunReporter}.
+ */
+public class RunReport {
+
+    final Map<String, Object> fields = Maps.newLinkedHashMap();
+    final List<Map<String, Object>> instances = Lists.newArrayList();
+    final List<Map<String, Object>> requests = Lists.newArrayList();
+    final List<Map<String, Object>> apiCalls = Lists.newArrayList();
+    final List<Map<String, Object>> phases = Lists.newArrayList();
+    final List<Map<String, Object>> transitions = Lists.newArrayList();
+
+    final long startMillis = System.currentTimeMillis();
+
+    RunReport(String environment, String command) {
+        fields.put("environment", environment);
+        fields.put("command", command);
+        fields.put("start", timestamp(startMillis));
+    }
+
+    public synchronized RunReport put(String key, Object value) {
+        fields.put(key, value);
+        return this;
+    }
+
+    /**
+     * Records what a request asked of AWS: each of its parameters that is set.
+     */
+    public synchronized RunReport request(Object request) {
+        requests.add(describe(request));
+        return this;
+    }
+
+    /**
+     * Records the instance acted on as it is now.
+     */
+    public synchronized RunReport instance(DBInstance instance) {
+        Map<String, Object> properties = Maps.newLinkedHashMap();
+        properties.put("id", instance.getDBInstanceIdentifier());
+        properties.put("status", instance.getDBInstanceStatus());
+        properties.put("class", instance.getDBInstanceClass());
+        properties.put("engine", instance.getEngine());
+        properties.put("allocatedStorage", instance.getAllocatedStorage());
+        properties.put("storageType", instance.getStorageType());
+        properties.put("iops", instance.getIops());
+        properties.put("createTime", timestamp(instance.getInstanceCreateTime()));
+        instances.add(properties);
+        return this;
+    }
+
+    public synchronized void apiCall(String operation, long startMillis, long millis, Optional<Throwable> error) {
+        Map<String, Object> call = Maps.newLinkedHashMap();
+        call.put("operation", operation);
+        call.put("start", timestamp(startMillis));
+        call.put("millis", millis);
+        if (error.isPresent()) {
+            call.put("error", error.get().toString());
+        }
+        apiCalls.add(call);
+    }
+
+    /**
+     * @return how many AWS calls were recorded so far
+     */
+    public synchronized int apiCallCount() {
+        return apiCalls.size();
+    }
+
+    /**
+     * Records a phase of the command, such as waiting for an instance or a DNS change, that took from the given start
+     * until now.
+     */
+    public synchronized void phase(String name, long startMillis) {
+        Map<String, Object> phase = Maps.newLinkedHashMap();
+        phase.put("name", name);
+        phase.put("start", timestamp(startMillis));
+        phase.put("millis", System.currentTimeMillis() - startMillis);
+        phases.add(phase);
+    }
+
+    /**
+     * @param fromStage the stage the instance left, or null for a new instance
+     */
+    public synchronized void transition(String dbInstanceIdentifier, String fromStage, String toStage) {
+        Map<String, Object> transition = Maps.newLinkedHashMap();
+        transition.put("instance", dbInstanceIdentifier);
+        if (fromStage != null) {
+            transition.put("from", fromStage);
+        }
+        transition.put("to", toStage);
+        transition.put("at", timestamp(System.currentTimeMillis()));
+        transitions.add(transition);
+    }
+
+    /**
+     * @return whether the command advanced, as given
+     */
+    public boolean advanced(boolean advanced) {
+        put("outcome", advanced ? "advanced" : "unchanged");
+        return advanced;
+    }
+
+    public void failed(Throwable t) {
+        put("outcome", "failed");
+        put("error", t.toString());
+    }
+
+    /**
+     * @return the report so far as a single line of JSON
+     */
+    public synchronized String toJson() {
+        Map<String, Object> root = Maps.newLinkedHashMap(fields);
+        long endMillis = System.currentTimeMillis();
+        root.put("end", timestamp(endMillis));
+        root.put("millis", endMillis - startMillis);
+        root.put("instances", instances);
+        root.put("requests", requests);
+        root.put("apiCalls", apiCalls);
+        root.put("phases", phases);
+        root.put("transitions", transitions);
+        return new JSONObject(root).toString();
+    }
+
+    static String timestamp(long millis) {
+        return new DateTime(millis, DateTimeZone.UTC).toString();
+    }
+
+    static String timestamp(Date date) {
+        return date == null ? null : timestamp(date.getTime());
+    }
+
+    /**
+     * @return the type of an AWS request and its {@link #properties(Object) parameters}
+     */
+    public static Map<String, Object> describe(Object request) {
+        Map<String, Object> description = Maps.newLinkedHashMap();
+        description.put("type", request.getClass().getSimpleName());
+        description.put("parameters", properties(request));
+        return description;
+    }
+
+    /**
+     * @return the set properties of an AWS request, read through its getters
+     */
+    public static Map<String, Object> properties(Object request) {
+        Map<String, Object> properties = Maps.newTreeMap();
+        // Only the request's own properties, not those of AmazonWebServiceRequest
+        for (Method method : request.getClass().getDeclaredMethods()) {
+            String name = method.getName();
+            if (!Modifier.isPublic(method.getModifiers()) || method.getParameterTypes().length > 0 ||
+                    !name.startsWith("get") || name.length() == 3) {
+                continue;
+            }
+            Object value;
+            try {
+                value = method.invoke(request);
+            } catch (ReflectiveOperationException e) {
+                continue;
+            }
+            if (value instanceof Collection && ((Collection<?>) value).isEmpty()) {
+                continue;
+            }
+            if (value != null) {
+                String property = Character.toLowerCase(name.charAt(3)) + name.substring(4);
+                properties.put(property, value instanceof Collection ? stringValues((Collection<?>) value) :
+                        value instanceof Number || value instanceof Boolean ? value : value.toString());
+            }
+        }
+        return properties;
+    }
+
+    static List<String> stringValues(Collection<?> values) {
+        List<String> strings = Lists.newArrayList();
+        for (Object value : values) {
+            strings.add(String.valueOf(value));
+        }
+        return Collections.unmodifiableList(strings);
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Keeps a {@link RunReport} of each command run in one environment, and appends each to a file as a line of JSON once
+ * the command finishes. AWS calls are recorded into the report of the command running at the time, through clients
+ * wrapped with {@link #instrument(Class, Object, String)}.
+ */
+public class RunReporter {
+
+    /**
+     * Serializes appends of every reporter in the process, which may share a file
+     */
+    static final Object APPEND_LOCK = new Object();
+
+    final String environment;
+    final Optional<File> file;
+
+    volatile RunReport current;
+
+    public RunReporter(String environment, Optional<File> file) {
+        this.environment = environment;
+        this.file = file;
+    }
+
+    /**
+     * @return a new report of the command, which receives AWS calls until {@link #end(RunReport)}
+     */
+    public RunReport begin(String command) {
+        RunReport report = new RunReport(environment, command);
+        current = report;
+        return report;
+    }
+
+    /**
+     * Appends the report to the file, if there is one
+     */
+    public void end(RunReport report) throws IOException {
+        if (current == report) {
+            current = null;
+        }
+        if (file.isPresent()) {
+            String line = report.toJson() + '\n';
+            synchronized (APPEND_LOCK) {
+                Files.append(line, file.get(), Charsets.UTF_8);
+            }
+        }
+    }
+
+    /**
+     * @return a client that records every call it passes on to the given client into the current report, under the
+     * service name and the method name
+     */
+    public <T> T instrument(Class<T> clientInterface, T client, String service) {
+        return ApiProxy.wrap(clientInterface, client, service, new ApiProxy.Around() {
+            @Override
+            public Object around(String operation, ApiProxy.Call call) throws Throwable {
+                RunReport report = current;
+                if (report == null) {
+                    return call.proceed();
+                }
+                long start = System.currentTimeMillis();
+                try {
+                    Object result = call.proceed();
+                    report.apiCall(operation, start, System.currentTimeMillis() - start, Optional.<Throwable>absent());
+                    return result;
+                } catch (Throwable e) {
+                    report.apiCall(operation, start, System.currentTimeMillis() - start, Optional.of(e));
+                    throw e;
+                }
+            }
+        });
+    }
+}
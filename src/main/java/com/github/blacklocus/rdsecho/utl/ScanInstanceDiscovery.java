@@ -0,0 +1,72 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Tag;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes every instance, then lists the tags of each. Costs one ListTagsForResource call per instance in the account
+ * that is not in the {@link TagCache}.
+ */
+public class ScanInstanceDiscovery implements InstanceDiscovery {
+
+    /**
+     * Tags are resolved this many instances at a time, so that they are being listed while the next page of instances
+     * is prefetched.
+     */
+    static final int BATCH_SIZE = 100;
+
+    final RdsFind rdsFind;
+
+    public ScanInstanceDiscovery(RdsFind rdsFind) {
+        this.rdsFind = rdsFind;
+    }
+
+    @Override
+    public Map<DBInstance, List<Tag>> discover(String region, String accountNumber, String tagKey, String tagValue) {
+        Map<DBInstance, List<Tag>> discovered = Maps.newLinkedHashMap();
+        Map<String, List<Tag>> tagsByArn = Maps.newHashMap();
+        for (List<DBInstance> batch : Iterables.partition(rdsFind.instances(Predicates.<DBInstance>alwaysTrue()), BATCH_SIZE)) {
+            tagsByArn.putAll(rdsFind.resolveTags(region, accountNumber, batch));
+            for (DBInstance instance : batch) {
+                discovered.put(instance, tagsByArn.get(RdsFind.instanceArn(region, accountNumber, instance.getDBInstanceIdentifier())));
+            }
+            rdsFind.saveTagCache();
+        }
+        rdsFind.scanned(region, accountNumber, tagsByArn.keySet());
+        return discovered;
+    }
+
+    @Override
+    public boolean discoversAll() {
+        return true;
+    }
+}
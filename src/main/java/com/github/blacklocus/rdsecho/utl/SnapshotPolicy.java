@@ -0,0 +1,64 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+/**
+ * How {@link EchoUtil#latestSnapshot()} picks among the snapshots of the source instance.
+ */
+public enum SnapshotPolicy {
+
+    /**
+     * The most recent available snapshot of any type
+     */
+    NEWEST("newest"),
+
+    /**
+     * The most recent available snapshot created before a given time
+     */
+    NEWEST_BEFORE("newest-before"),
+
+    /**
+     * The most recent available manual snapshot
+     */
+    NEWEST_MANUAL("newest-manual");
+
+    final String value;
+
+    SnapshotPolicy(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public static SnapshotPolicy fromValue(String value) {
+        for (SnapshotPolicy policy : values()) {
+            if (policy.value.equals(value)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unrecognized snapshot policy '" + value + "'");
+    }
+}
@@ -0,0 +1,307 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.util.json.JSONException;
+import com.amazonaws.util.json.JSONObject;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * How long echo instances took to become available in each stage, kept in a local file of JSON lines, and estimates of
+ * how long the next instance will take. A stage is measured from when the instance entered it, its create time for
+ * stage 'new', until rds-echo first sees it available in that stage.
+ */
+public class StageHistory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StageHistory.class);
+
+    static final String TYPE_START = "start";
+    static final String TYPE_SAMPLE = "sample";
+
+    /**
+     * What samples of how long warming took are recorded as, alongside those of the stages. Warming is timed by
+     * rds-echo itself, rather than until the instance is available.
+     */
+    public static final String WARMING = "warm";
+
+    final Optional<File> file;
+
+    /**
+     * The records last read, and the length and modification time of the file they were read from
+     */
+    List<Map<String, Object>> records = Collections.emptyList();
+    long recordsLength = -1;
+    long recordsModified = -1;
+
+    public StageHistory(Optional<File> file) {
+        this.file = file;
+    }
+
+    public boolean isEnabled() {
+        return file.isPresent();
+    }
+
+    /**
+     * Records that the instance entered the stage at the given time
+     */
+    public void started(String dbInstanceIdentifier, String stage, long atMillis) {
+        Map<String, Object> start = Maps.newLinkedHashMap();
+        start.put("type", TYPE_START);
+        start.put("instance", dbInstanceIdentifier);
+        start.put("stage", stage);
+        start.put("at", atMillis);
+        append(start);
+    }
+
+    /**
+     * Records how long the instance took to become available in the stage, if not already recorded
+     *
+     * @param startMillis when the instance entered the stage, if known
+     */
+    public void available(DBInstance instance, String stage, Optional<Long> startMillis, long atMillis) {
+        if (!file.isPresent()) {
+            return;
+        }
+        List<Map<String, Object>> records = read();
+        String dbInstanceId = instance.getDBInstanceIdentifier();
+        Long start = startMillis.orNull();
+        for (Map<String, Object> record : records) {
+            if (dbInstanceId.equals(record.get("instance")) && stage.equals(record.get("stage"))) {
+                if (TYPE_SAMPLE.equals(record.get("type"))) {
+                    return;
+                }
+                start = ((Number) record.get("at")).longValue();
+            }
+        }
+        if (start != null) {
+            record(instance, stage, (atMillis - start) / 1000);
+        }
+    }
+
+    /**
+     * Records that the instance took so long in the stage
+     */
+    public void record(DBInstance instance, String stage, long seconds) {
+        append(new Sample(instance.getDBInstanceIdentifier(), stage, instance.getAllocatedStorage(),
+                instance.getStorageType(), instance.getDBInstanceClass(), seconds).toMap());
+    }
+
+    /**
+     * @return the samples of every stage, oldest first
+     */
+    public List<Sample> samples() {
+        List<Sample> samples = Lists.newArrayList();
+        for (Map<String, Object> record : read()) {
+            if (TYPE_SAMPLE.equals(record.get("type"))) {
+                samples.add(Sample.fromMap(record));
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * @return an estimate of how long an instance of the given storage and class will take in the stage, if there are
+     * samples of the stage
+     */
+    public Optional<Estimate> estimate(String stage, int allocatedStorage, String storageType, String instanceClass) {
+        return estimate(samples(), stage, allocatedStorage, storageType, instanceClass);
+    }
+
+    /**
+     * Estimates from the samples most like the instance: of the same storage type and instance class if there are any,
+     * else of the same storage type, else of the stage. Where the samples cover more than one size of storage, the
+     * estimate is the least squares line through them, seconds against gigabytes; else their median.
+     */
+    static Optional<Estimate> estimate(List<Sample> samples, String stage, int allocatedStorage, String storageType,
+                                       String instanceClass) {
+        List<Sample> ofStage = Lists.newArrayList();
+        List<Sample> ofStorageType = Lists.newArrayList();
+        List<Sample> alike = Lists.newArrayList();
+        for (Sample sample : samples) {
+            if (!stage.equals(sample.stage)) {
+                continue;
+            }
+            ofStage.add(sample);
+            if (Objects.equal(storageType, sample.storageType)) {
+                ofStorageType.add(sample);
+                if (Objects.equal(instanceClass, sample.instanceClass)) {
+                    alike.add(sample);
+                }
+            }
+        }
+        List<Sample> basis = !alike.isEmpty() ? alike : !ofStorageType.isEmpty() ? ofStorageType : ofStage;
+        if (basis.isEmpty()) {
+            return Optional.absent();
+        }
+
+        Set<Integer> sizes = Sets.newHashSet();
+        double sumX = 0, sumY = 0;
+        for (Sample sample : basis) {
+            sizes.add(sample.allocatedStorage);
+            sumX += sample.allocatedStorage;
+            sumY += sample.seconds;
+        }
+        int n = basis.size();
+        if (sizes.size() > 1) {
+            double meanX = sumX / n, meanY = sumY / n, sxy = 0, sxx = 0;
+            for (Sample sample : basis) {
+                sxy += (sample.allocatedStorage - meanX) * (sample.seconds - meanY);
+                sxx += (sample.allocatedStorage - meanX) * (sample.allocatedStorage - meanX);
+            }
+            double slope = sxy / sxx;
+            if (slope >= 0) {
+                long seconds = Math.round(meanY + slope * (allocatedStorage - meanX));
+                return Optional.of(new Estimate(Math.max(0, seconds), n));
+            }
+        }
+        List<Long> seconds = Lists.newArrayList();
+        for (Sample sample : basis) {
+            seconds.add(sample.seconds);
+        }
+        Collections.sort(seconds);
+        return Optional.of(new Estimate(seconds.get(n / 2), n));
+    }
+
+    /**
+     * @return every record, read again only if the file changed since it was last read
+     */
+    synchronized List<Map<String, Object>> read() {
+        if (!file.isPresent() || !file.get().exists()) {
+            return Collections.emptyList();
+        }
+        long length = file.get().length();
+        long modified = file.get().lastModified();
+        if (length != recordsLength || modified != recordsModified) {
+            records = Collections.unmodifiableList(readAll());
+            recordsLength = length;
+            recordsModified = modified;
+        }
+        return records;
+    }
+
+    List<Map<String, Object>> readAll() {
+        List<Map<String, Object>> records = Lists.newArrayList();
+        try {
+            for (String line : Files.readLines(file.get(), Charsets.UTF_8)) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                JSONObject json = new JSONObject(line);
+                Map<String, Object> record = Maps.newHashMap();
+                for (String key : JSONObject.getNames(json)) {
+                    Object value = json.get(key);
+                    record.put(key, JSONObject.NULL.equals(value) ? null : value);
+                }
+                records.add(record);
+            }
+        } catch (IOException | JSONException e) {
+            LOG.warn("Could not read stage history {}", file.get(), e);
+        }
+        return records;
+    }
+
+    void append(Map<String, Object> record) {
+        if (!file.isPresent()) {
+            return;
+        }
+        try {
+            synchronized (StageHistory.class) {
+                Files.append(new JSONObject(record).toString() + '\n', file.get(), Charsets.UTF_8);
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not record stage history to {}", file.get(), e);
+        }
+    }
+
+    public static class Sample {
+        final String instance;
+        final String stage;
+        final int allocatedStorage;
+        final String storageType;
+        final String instanceClass;
+        final long seconds;
+
+        public Sample(String instance, String stage, Integer allocatedStorage, String storageType,
+                      String instanceClass, long seconds) {
+            this.instance = instance;
+            this.stage = stage;
+            this.allocatedStorage = allocatedStorage == null ? 0 : allocatedStorage;
+            this.storageType = storageType;
+            this.instanceClass = instanceClass;
+            this.seconds = seconds;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = Maps.newLinkedHashMap();
+            map.put("type", TYPE_SAMPLE);
+            map.put("instance", instance);
+            map.put("stage", stage);
+            map.put("allocatedStorage", allocatedStorage);
+            map.put("storageType", storageType);
+            map.put("instanceClass", instanceClass);
+            map.put("seconds", seconds);
+            return map;
+        }
+
+        static Sample fromMap(Map<String, Object> map) {
+            return new Sample((String) map.get("instance"), (String) map.get("stage"),
+                    ((Number) map.get("allocatedStorage")).intValue(), (String) map.get("storageType"),
+                    (String) map.get("instanceClass"), ((Number) map.get("seconds")).longValue());
+        }
+    }
+
+    public static class Estimate {
+        final long seconds;
+        final int samples;
+
+        Estimate(long seconds, int samples) {
+            this.seconds = seconds;
+            this.samples = samples;
+        }
+
+        public long getSeconds() {
+            return seconds;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+    }
+}
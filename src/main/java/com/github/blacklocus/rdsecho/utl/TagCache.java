@@ -0,0 +1,252 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.Tag;
+import com.github.blacklocus.rdsecho.EchoConst;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local cache of instance tag sets, keyed by instance ARN, so that repeated commands need not list the tags of every
+ * instance in the account again. Each entry remembers the instance create time it was read from; an instance
+ * re-created under the same identifier does not match and is looked up again. Entries expire after the configured TTL.
+ * <p/>
+ * Instances carrying any rds-echo tag are never served from the cache. Their stage tag is what every command acts
+ * upon, so it is always read live. Neither are instances named after an environment, see {@link #readLive(String)}, so
+ * that one tagged by hand is seen by the next command rather than once its entry expires.
+ * <p/>
+ * The described instances themselves are not cached. A scan pages through DescribeDBInstances regardless, both to learn
+ * which instances still exist for {@link #retain(String, Set)} and because their status and endpoint must be current,
+ * so a cached summary would save no call. The tag lookups, one per instance, are the cost worth avoiding.
+ */
+public class TagCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TagCache.class);
+
+    static final String FILENAME = "tags.cache";
+    static final int FORMAT_VERSION = 1;
+
+    final File file;
+    final long ttlMillis;
+    final Map<String, Entry> entries = Maps.newConcurrentMap();
+    final Set<String> livePrefixes = Sets.newCopyOnWriteArraySet();
+    volatile boolean dirty = false;
+
+    TagCache(File file, long ttlMillis) {
+        this.file = file;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @param dir in which the cache file lives, created if necessary
+     */
+    public static TagCache load(File dir, long ttl, TimeUnit unit) {
+        TagCache cache = new TagCache(new File(dir, FILENAME), unit.toMillis(ttl));
+        if (cache.file.exists()) {
+            try {
+                cache.read();
+                LOG.debug("Read {} cached tag sets from {}", cache.entries.size(), cache.file);
+            } catch (IOException e) {
+                LOG.warn("Ignoring unreadable tag cache {}: {}", cache.file, e.toString());
+                cache.entries.clear();
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Never serves the tags of instances whose identifier starts with the prefix, such as an environment's name and a
+     * dash, which every instance it creates is named with
+     */
+    public void readLive(String identifierPrefix) {
+        livePrefixes.add(identifierPrefix);
+    }
+
+    /**
+     * @param instanceCreateTime of the instance as just described, which must match that of the cached entry
+     * @return cached tags if present, unexpired, and for the same instance
+     */
+    public Optional<List<Tag>> get(String instanceArn, Date instanceCreateTime) {
+        Entry entry = entries.get(instanceArn);
+        if (entry == null ||
+                entry.expiresAt < System.currentTimeMillis() ||
+                entry.instanceCreateTime != timeOf(instanceCreateTime) ||
+                hasEchoTag(entry.tags) ||
+                isLive(instanceArn)) {
+            return Optional.absent();
+        }
+        return Optional.of(entry.tags);
+    }
+
+    public void put(String instanceArn, Date instanceCreateTime, List<Tag> tags) {
+        entries.put(instanceArn, new Entry(timeOf(instanceCreateTime), System.currentTimeMillis() + ttlMillis,
+                ImmutableList.copyOf(tags)));
+        dirty = true;
+    }
+
+    /**
+     * Evicts every entry under the ARN prefix that is not one of the given ARNs, i.e. instances that no longer exist.
+     */
+    public void retain(String arnPrefix, Set<String> instanceArns) {
+        Iterator<String> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            String arn = keys.next();
+            if (arn.startsWith(arnPrefix) && !instanceArns.contains(arn)) {
+                keys.remove();
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Writes the cache if anything changed since it was loaded or last saved. Failure to write is logged, not thrown.
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        try {
+            write();
+        } catch (IOException e) {
+            LOG.warn("Unable to write tag cache {}: {}", file, e.toString());
+        }
+    }
+
+    void read() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("unsupported tag cache version " + version);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String arn = in.readUTF();
+                long instanceCreateTime = in.readLong();
+                long expiresAt = in.readLong();
+                int tagCount = in.readInt();
+                ImmutableList.Builder<Tag> tags = ImmutableList.builder();
+                for (int j = 0; j < tagCount; j++) {
+                    tags.add(new Tag().withKey(in.readUTF()).withValue(in.readBoolean() ? in.readUTF() : null));
+                }
+                entries.put(arn, new Entry(instanceCreateTime, expiresAt, tags.build()));
+            }
+        }
+    }
+
+    void write() throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("could not create " + dir);
+        }
+
+        // Write aside and move into place so that concurrent readers never see a partial file.
+        File tmp = File.createTempFile(FILENAME, ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(new FileOutputStream(tmp))))) {
+                Map<String, Entry> snapshot = Maps.newHashMap(entries);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Entry> e : snapshot.entrySet()) {
+                    Entry entry = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(entry.instanceCreateTime);
+                    out.writeLong(entry.expiresAt);
+                    out.writeInt(entry.tags.size());
+                    for (Tag tag : entry.tags) {
+                        out.writeUTF(tag.getKey());
+                        out.writeBoolean(tag.getValue() != null);
+                        if (tag.getValue() != null) {
+                            out.writeUTF(tag.getValue());
+                        }
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    boolean isLive(String instanceArn) {
+        String identifier = instanceArn.substring(instanceArn.lastIndexOf(':') + 1);
+        for (String prefix : livePrefixes) {
+            if (identifier.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static long timeOf(Date date) {
+        return date == null ? 0 : date.getTime();
+    }
+
+    static boolean hasEchoTag(List<Tag> tags) {
+        for (Tag tag : tags) {
+            if (tag.getKey().startsWith(EchoConst.TAG_ECHO_PREFIX)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static class Entry {
+        final long instanceCreateTime;
+        final long expiresAt;
+        final List<Tag> tags;
+
+        Entry(long instanceCreateTime, long expiresAt, List<Tag> tags) {
+            this.instanceCreateTime = instanceCreateTime;
+            this.expiresAt = expiresAt;
+            this.tags = tags;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Tag;
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Asks a {@link TagIndex} which instances carry the tag, then describes only those. Costs one DescribeDBInstances call
+ * per tagged instance, however many instances the account holds.
+ */
+public class TagIndexInstanceDiscovery implements InstanceDiscovery {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TagIndexInstanceDiscovery.class);
+
+    final RdsFind rdsFind;
+    final TagIndex tagIndex;
+
+    public TagIndexInstanceDiscovery(RdsFind rdsFind, TagIndex tagIndex) {
+        this.rdsFind = rdsFind;
+        this.tagIndex = tagIndex;
+    }
+
+    @Override
+    public Map<DBInstance, List<Tag>> discover(String region, String accountNumber, String tagKey, String tagValue) {
+        String arnPrefix = RdsFind.instanceArn(region, accountNumber, "");
+        Map<DBInstance, List<Tag>> discovered = Maps.newLinkedHashMap();
+        for (Map.Entry<String, List<Tag>> e : tagIndex.resourcesWithTag(tagKey, tagValue).entrySet()) {
+            if (!e.getKey().startsWith(arnPrefix)) {
+                // Some other resource type, region or account
+                continue;
+            }
+            String dbInstanceIdentifier = e.getKey().substring(arnPrefix.length());
+            Optional<DBInstance> instance = rdsFind.instance(dbInstanceIdentifier);
+            if (instance.isPresent()) {
+                discovered.put(instance.get(), e.getValue());
+            } else {
+                // The index lags behind deletions
+                LOG.debug("Tag index lists {} which no longer exists.", e.getKey());
+            }
+        }
+        return discovered;
+    }
+
+    @Override
+    public boolean discoversAll() {
+        return false;
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Measures a query workload against the database of an instance, to tell whether it is fit to take traffic. Each query
+ * runs several times, interleaved with the others across a few connections at once, and is timed to its first row, so
+ * that reading and checksumming the rest here does not count against the database. Every run then counts and checksums
+ * the rows, which a baseline's must match when no row drift is allowed.
+ */
+public class Verifier {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Verifier.class);
+
+    /**
+     * Latencies within this much of the baseline's are never a slowdown, however many times slower, as they are likely
+     * noise.
+     */
+    static final double SLOWDOWN_GRACE_MILLIS = 5;
+
+    final JdbcConnector connector;
+    final int threads;
+    final int repeat;
+
+    public Verifier(JdbcConnector connector, int threads, int repeat) {
+        this.connector = connector;
+        this.threads = threads;
+        this.repeat = repeat;
+    }
+
+    /**
+     * @return measurements keyed by query, in the order given
+     */
+    public Map<String, QueryStats> run(List<String> queries) throws InterruptedException {
+        final Map<String, QueryStats> stats = Maps.newLinkedHashMap();
+        final Queue<QueryStats> runs = new ConcurrentLinkedQueue<QueryStats>();
+        for (String query : queries) {
+            stats.put(query, new QueryStats(query));
+        }
+        for (int i = 0; i < repeat; i++) {
+            runs.addAll(stats.values());
+        }
+        if (runs.isEmpty()) {
+            return stats;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("rdsecho-verify-%d").build());
+        try {
+            List<Future<Void>> futures = Lists.newArrayList();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws SQLException {
+                        try (Connection connection = connector.connect()) {
+                            connection.setReadOnly(true);
+                            QueryStats next;
+                            while ((next = runs.poll()) != null) {
+                                run(connection, next);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // Could not connect. Runs left go to the other connections.
+                    LOG.error("Verification connection failed", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        for (QueryStats s : stats.values()) {
+            if (s.latenciesMillis.isEmpty() && !s.failure.isPresent()) {
+                s.failure = Optional.<Throwable>of(new SQLException("No connection could run " + s.query));
+            }
+        }
+        return stats;
+    }
+
+    void run(Connection connection, QueryStats stats) {
+        long rows = 0;
+        CRC32 checksum = new CRC32();
+        double millis;
+        try (Statement statement = connection.createStatement()) {
+            long start = System.nanoTime();
+            try (ResultSet resultSet = statement.executeQuery(stats.query)) {
+                boolean more = resultSet.next();
+                millis = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / 1000.0;
+
+                int columns = resultSet.getMetaData().getColumnCount();
+                for (; more; more = resultSet.next()) {
+                    rows++;
+                    for (int c = 1; c <= columns; c++) {
+                        String value = resultSet.getString(c);
+                        checksum.update(String.valueOf(value).getBytes(Charsets.UTF_8));
+                        checksum.update(0);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            stats.failed(e);
+            return;
+        }
+        stats.ran(millis, rows, checksum.getValue());
+    }
+
+    /**
+     * @param baseline the same workload measured on the instance to compare to, e.g. the one promoted now
+     * @return why the candidate's measurements fail the thresholds, empty if they pass
+     */
+    public static List<String> violations(Map<String, QueryStats> candidate,
+                                          Optional<Map<String, QueryStats>> baseline, Thresholds thresholds) {
+        List<String> violations = Lists.newArrayList();
+        for (QueryStats c : candidate.values()) {
+            if (c.failure.isPresent()) {
+                violations.add(String.format("%s failed: %s", c.query, c.failure.get()));
+                continue;
+            }
+            checkMax(violations, c, "p50", c.percentileMillis(0.5), thresholds.maxP50Millis);
+            checkMax(violations, c, "p99", c.percentileMillis(0.99), thresholds.maxP99Millis);
+
+            QueryStats b = baseline.isPresent() ? baseline.get().get(c.query) : null;
+            if (b == null || b.failure.isPresent()) {
+                continue;
+            }
+            checkSlowdown(violations, c, "p50", c.percentileMillis(0.5), b.percentileMillis(0.5), thresholds.maxSlowdown);
+            checkSlowdown(violations, c, "p99", c.percentileMillis(0.99), b.percentileMillis(0.99), thresholds.maxSlowdown);
+            if (Math.abs(c.rows - b.rows) > thresholds.maxRowDrift * Math.max(b.rows, 1)) {
+                violations.add(String.format("%s returned %d rows but the baseline %d, more than %.0f%% apart",
+                        c.query, c.rows, b.rows, thresholds.maxRowDrift * 100));
+            } else if (thresholds.maxRowDrift == 0 && c.checksum != b.checksum) {
+                violations.add(String.format("%s returned checksum %08x but the baseline %08x",
+                        c.query, c.checksum, b.checksum));
+            }
+        }
+        return violations;
+    }
+
+    static void checkMax(List<String> violations, QueryStats c, String name, double millis, Optional<Long> max) {
+        if (max.isPresent() && millis > max.get()) {
+            violations.add(String.format("%s %s %.1fms is over %dms", c.query, name, millis, max.get()));
+        }
+    }
+
+    static void checkSlowdown(List<String> violations, QueryStats c, String name, double millis, double baselineMillis,
+                              double maxSlowdown) {
+        if (millis > baselineMillis * maxSlowdown && millis - baselineMillis > SLOWDOWN_GRACE_MILLIS) {
+            violations.add(String.format("%s %s %.1fms is more than %.1f times the baseline's %.1fms",
+                    c.query, name, millis, maxSlowdown, baselineMillis));
+        }
+    }
+
+    public static String report(Map<String, QueryStats> candidate, Optional<Map<String, QueryStats>> baseline) {
+        StringWriter report = new StringWriter();
+        PrintWriter printer = new PrintWriter(report);
+        printer.format("  %-40s %6s %10s %8s %9s %9s %12s %12s %13s%n", "query", "runs", "rows", "checksum",
+                "p50 ms", "p99 ms", "base p50 ms", "base p99 ms", "base checksum");
+        for (QueryStats c : candidate.values()) {
+            QueryStats b = baseline.isPresent() ? baseline.get().get(c.query) : null;
+            printer.format("  %-40s %6d %10d %08x %9.1f %9.1f %12s %12s %13s%n", Warmer.abbreviate(c.query, 40),
+                    c.latenciesMillis.size(), c.rows, c.checksum, c.percentileMillis(0.5), c.percentileMillis(0.99),
+                    b == null ? "-" : String.format("%.1f", b.percentileMillis(0.5)),
+                    b == null ? "-" : String.format("%.1f", b.percentileMillis(0.99)),
+                    b == null ? "-" : String.format("%08x", b.checksum));
+        }
+        return report.toString();
+    }
+
+    /**
+     * What the measurements must stay within. The latencies are of each query, not of the workload as a whole.
+     */
+    public static class Thresholds {
+        final Optional<Long> maxP50Millis;
+        final Optional<Long> maxP99Millis;
+        final double maxSlowdown;
+        final double maxRowDrift;
+
+        /**
+         * @param maxSlowdown how many times the baseline's latency a query may take
+         * @param maxRowDrift fraction of the baseline's rows a query may return more or fewer of. At 0 the rows must also
+         *                    checksum the same, in the same order.
+         */
+        public Thresholds(Optional<Long> maxP50Millis, Optional<Long> maxP99Millis, double maxSlowdown,
+                          double maxRowDrift) {
+            this.maxP50Millis = maxP50Millis;
+            this.maxP99Millis = maxP99Millis;
+            this.maxSlowdown = maxSlowdown;
+            this.maxRowDrift = maxRowDrift;
+        }
+    }
+
+    public static class QueryStats {
+        final String query;
+        final List<Double> latenciesMillis = Lists.newArrayList();
+        long rows;
+        long checksum;
+        Optional<Throwable> failure = Optional.absent();
+
+        QueryStats(String query) {
+            this.query = query;
+        }
+
+        synchronized void ran(double millis, long rows, long checksum) {
+            latenciesMillis.add(millis);
+            this.rows = rows;
+            this.checksum = checksum;
+        }
+
+        synchronized void failed(Throwable t) {
+            failure = Optional.of(t);
+        }
+
+        public synchronized long getRows() {
+            return rows;
+        }
+
+        public synchronized Optional<Throwable> getFailure() {
+            return failure;
+        }
+
+        /**
+         * @return the nearest-rank percentile of the runs' latencies, 0 if none ran
+         */
+        public synchronized double percentileMillis(double percentile) {
+            if (latenciesMillis.isEmpty()) {
+                return 0;
+            }
+            List<Double> sorted = Lists.newArrayList(latenciesMillis);
+            Collections.sort(sorted);
+            int rank = (int) Math.ceil(percentile * sorted.size());
+            return sorted.get(Math.max(rank, 1) - 1);
+        }
+    }
+}
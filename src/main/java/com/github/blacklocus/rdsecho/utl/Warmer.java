@@ -0,0 +1,207 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads through a freshly restored database so that its blocks are loaded from S3 and into the buffer pool before it
+ * takes traffic. Each table is scanned in full and each query read to the end, several at once, each on its own
+ * connection. Progress is logged periodically, and throughput per table once all are done.
+ */
+public class Warmer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Warmer.class);
+
+    final JdbcConnector connector;
+    final int threads;
+    final int fetchSize;
+    long progressSeconds = 30;
+
+    public Warmer(JdbcConnector connector, int threads, int fetchSize) {
+        this.connector = connector;
+        this.threads = threads;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * @return each table scan then each query, with how far it got
+     */
+    public List<Scan> warm(List<String> tables, List<String> queries) throws InterruptedException {
+        final List<Scan> scans = Lists.newArrayList();
+        for (String table : tables) {
+            scans.add(new Scan(table, "SELECT * FROM " + table));
+        }
+        for (String query : queries) {
+            scans.add(new Scan(query, query));
+        }
+        if (scans.isEmpty()) {
+            return scans;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, scans.size()),
+                new ThreadFactoryBuilder().setNameFormat("rdsecho-warm-%d").build());
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("rdsecho-warm-progress").setDaemon(true).build());
+        try {
+            progress.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    for (Scan scan : scans) {
+                        if (scan.isRunning()) {
+                            LOG.info("Warming {}: {} rows in {}s ({} rows/s)",
+                                    scan.name, scan.rows.get(), scan.seconds(), scan.rowsPerSecond());
+                        }
+                    }
+                }
+            }, progressSeconds, progressSeconds, TimeUnit.SECONDS);
+
+            List<Future<?>> futures = Lists.newArrayList();
+            for (final Scan scan : scans) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws SQLException {
+                        scan(scan);
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    scans.get(i).failure = Optional.of(e.getCause());
+                    LOG.error("Failed to warm {}", scans.get(i).name, e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            progress.shutdownNow();
+        }
+        LOG.info(report(scans));
+        return scans;
+    }
+
+    void scan(Scan scan) throws SQLException {
+        scan.startMillis = System.currentTimeMillis();
+        try (Connection connection = connector.connect()) {
+            // Some drivers only stream result sets, rather than read them whole into memory, within a transaction
+            connection.setReadOnly(true);
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.setFetchSize(fetchSize);
+                try (ResultSet resultSet = statement.executeQuery(scan.sql)) {
+                    while (resultSet.next()) {
+                        scan.rows.incrementAndGet();
+                    }
+                }
+            }
+            connection.rollback();
+        } finally {
+            scan.endMillis = System.currentTimeMillis();
+        }
+    }
+
+    static String report(List<Scan> scans) {
+        StringWriter report = new StringWriter();
+        PrintWriter printer = new PrintWriter(report);
+        printer.format("Warmed %d tables and queries%n", scans.size());
+        printer.format("  %-40s %12s %8s %10s%n", "table or query", "rows", "seconds", "rows/s");
+        for (Scan scan : scans) {
+            printer.format("  %-40s %12d %8d %10d%s%n", abbreviate(scan.name, 40), scan.rows.get(), scan.seconds(),
+                    scan.rowsPerSecond(), scan.failure.isPresent() ? "  failed: " + scan.failure.get() : "");
+        }
+        return report.toString();
+    }
+
+    static String abbreviate(String s, int width) {
+        return s.length() <= width ? s : s.substring(0, width - 3) + "...";
+    }
+
+    public static class Scan {
+        final String name;
+        final String sql;
+        final AtomicLong rows = new AtomicLong();
+        volatile long startMillis = 0;
+        volatile long endMillis = 0;
+        volatile Optional<Throwable> failure = Optional.absent();
+
+        Scan(String name, String sql) {
+            this.name = name;
+            this.sql = sql;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getRows() {
+            return rows.get();
+        }
+
+        public Optional<Throwable> getFailure() {
+            return failure;
+        }
+
+        boolean isRunning() {
+            return startMillis != 0 && endMillis == 0;
+        }
+
+        long millis() {
+            if (startMillis == 0) {
+                return 0;
+            }
+            return (endMillis == 0 ? System.currentTimeMillis() : endMillis) - startMillis;
+        }
+
+        long seconds() {
+            return TimeUnit.MILLISECONDS.toSeconds(millis());
+        }
+
+        long rowsPerSecond() {
+            long millis = millis();
+            return millis == 0 ? 0 : rows.get() * 1000 / millis;
+        }
+    }
+}
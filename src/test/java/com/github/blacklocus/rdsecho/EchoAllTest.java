@@ -0,0 +1,92 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.github.blacklocus.rdsecho.utl.FakeRds;
+import com.github.blacklocus.rdsecho.utl.RdsInventory;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+public class EchoAllTest {
+
+    @Test
+    public void pipelineScansTheSharedInventoryOnce() throws Exception {
+        FakeRds rds = new FakeRds();
+        FakeEcho development = new FakeEcho(rds).set(EchoCfg.PROP_NAME, "development");
+        FakeEcho staging = new FakeEcho(rds).set(EchoCfg.PROP_NAME, "staging");
+        // Nothing advances a retired instance, so each environment steps once
+        development.addInstance("development-1", EchoConst.STAGE_RETIRED, 1);
+        staging.addInstance("staging-1", EchoConst.STAGE_RETIRED, 1);
+        RdsInventory inventory = development.inventory();
+
+        EchoAll all = new EchoAll();
+        all.command = EchoAll.PIPELINE;
+        Assert.assertEquals(all.environmentCommand(development.context(inventory)).call().advanced, 0);
+        Assert.assertEquals(all.environmentCommand(staging.context(inventory)).call().advanced, 0);
+
+        // One listing for both environments, then each step describes just its own instance
+        Assert.assertEquals(rds.describeCalls.get(), 3);
+        Assert.assertEquals(rds.tagCalls.get(), 2);
+    }
+
+    @Test
+    public void startsNoMoreRestoresThanTheCapAllows() throws Exception {
+        FakeRds rds = new FakeRds();
+        FakeEcho development = new FakeEcho(rds).set(EchoCfg.PROP_NAME, "development")
+                .set(EchoCfg.PROP_ALL_MAX_CONCURRENT_RESTORES, 3);
+        FakeEcho staging = new FakeEcho(rds).set(EchoCfg.PROP_NAME, "staging")
+                .set(EchoCfg.PROP_ALL_MAX_CONCURRENT_RESTORES, 2);
+        FakeEcho qa = new FakeEcho(rds).set(EchoCfg.PROP_NAME, "qa");
+        // One restore is already in progress, and the others are due a new instance
+        development.addInstance("development-1", EchoConst.STAGE_NEW, 1).withDBInstanceStatus("creating");
+        staging.addInstance("staging-1", EchoConst.STAGE_PROMOTED, 1);
+        qa.addInstance("qa-1", EchoConst.STAGE_PROMOTED, 1);
+        development.addSnapshot("production-1", 1);
+        RdsInventory inventory = development.inventory();
+        Map<String, RdsInventory> inventories = ImmutableMap.of(
+                development.cfg().region() + ':' + development.cfg().accountNumber(), inventory);
+
+        // No cap by default
+        Assert.assertFalse(EchoAll.restorePermits(Arrays.asList(qa.cfg()), inventories).isPresent());
+
+        // The lowest cap applies
+        Optional<Semaphore> restorePermits = EchoAll.restorePermits(
+                Arrays.asList(development.cfg(), staging.cfg(), qa.cfg()), inventories);
+        Assert.assertEquals(restorePermits.get().availablePermits(), 1);
+
+        EchoAll all = new EchoAll();
+        all.command = EchoConst.COMMAND_NEW;
+        int advanced = all.environmentCommand(staging.context(inventory, restorePermits)).call().advanced +
+                all.environmentCommand(qa.context(inventory, restorePermits)).call().advanced;
+
+        Assert.assertEquals(advanced, 1);
+        Assert.assertEquals(rds.restores.size(), 1);
+    }
+}
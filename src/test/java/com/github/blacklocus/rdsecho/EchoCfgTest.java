@@ -1,9 +1,15 @@
 package com.github.blacklocus.rdsecho;
 
+import com.github.blacklocus.rdsecho.utl.DiscoveryType;
+import com.github.blacklocus.rdsecho.utl.RestoreSourceType;
+import com.github.blacklocus.rdsecho.utl.SnapshotPolicy;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.util.Collections;
+
 public class EchoCfgTest {
 
     @Test
@@ -27,5 +33,46 @@ public class EchoCfgTest {
 
         Assert.assertEquals("development=yes", allPromoteTags[0]);
         Assert.assertEquals("banana=no", allPromoteTags[1]);
+
+        Assert.assertEquals(SnapshotPolicy.NEWEST, cfg.snapshotPolicy());
+        Assert.assertFalse(cfg.snapshotType().isPresent());
+        Assert.assertFalse(cfg.snapshotBefore().isPresent());
+        Assert.assertFalse(cfg.snapshotMaxAgeHours().isPresent());
+        Assert.assertFalse(cfg.copySourceRegion().isPresent());
+        Assert.assertEquals(cfg.newRestoreSource(), RestoreSourceType.SNAPSHOT);
+        Assert.assertEquals(cfg.newRestoreOffsetMinutes(), 0);
+
+        Assert.assertTrue(cfg.rateLimits().isEmpty());
+        Assert.assertFalse(cfg.rateLimitLockDir().isPresent());
+
+        Assert.assertEquals(cfg.findDiscovery(), DiscoveryType.SCAN);
+        Assert.assertEquals(cfg.allMaxConcurrentRestores(), 0);
+
+        Assert.assertEquals(cfg.promoteShiftSteps(), Collections.singletonList(100L));
+        Assert.assertFalse(cfg.warmEnabled());
+        Assert.assertFalse(cfg.verifyQueriesFile().isPresent());
+
+        Assert.assertEquals(cfg.planFile(), "rdsecho-plan.json");
+        Assert.assertEquals(cfg.planMaxAgeMinutes(), 60);
+        Assert.assertFalse(cfg.journalFile().isPresent());
+    }
+
+    @Test
+    public void warmEnabledOnlyByWarmKeys() {
+        EchoCfg jdbcOnly = new EchoCfg("rdsecho.properties.sample",
+                ImmutableMap.of(EchoCfg.PROP_JDBC_URL, "jdbc:mysql://{host}:{port}/mydb"));
+        Assert.assertFalse(jdbcOnly.warmEnabled());
+
+        EchoCfg tables = new EchoCfg("rdsecho.properties.sample",
+                ImmutableMap.of(EchoCfg.PROP_WARM_TABLES, "users"));
+        Assert.assertTrue(tables.warmEnabled());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class,
+            expectedExceptionsMessageRegExp = ".*requires rdsecho\\.jdbc\\.url")
+    public void warmRequiresJdbcUrl() {
+        new EchoCfg("rdsecho.properties.sample", ImmutableMap.of(
+                EchoCfg.PROP_WARM_TABLES, "users",
+                EchoCfg.PROP_JDBC_URL, "")).warmEnabled();
     }
 }
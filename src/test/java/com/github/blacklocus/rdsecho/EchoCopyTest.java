@@ -0,0 +1,103 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.DBSnapshot;
+import com.amazonaws.services.rds.model.RestoreDBInstanceFromDBSnapshotRequest;
+import com.google.common.collect.Lists;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class EchoCopyTest {
+
+    @Test
+    public void runCopiesThenRestoresOnceTheCopyIsAvailable() throws Exception {
+        FakeEcho env = new FakeEcho().set(EchoCfg.PROP_COPY_SOURCE_REGION, "us-west-2");
+        env.addSnapshot(env.sourceRds, "production-1", 1);
+        EchoContext ctx = env.context();
+        String copyIdentifier = ctx.echo.copyIdentifier("production-1");
+        EchoRun run = new EchoRun(ctx);
+
+        // Starts the copy, and does not restore from it yet
+        Assert.assertTrue(run.step());
+        Assert.assertEquals(env.rds.snapshots.size(), 1);
+        DBSnapshot copy = env.rds.snapshots.get(0);
+        Assert.assertEquals(copy.getDBSnapshotIdentifier(), copyIdentifier);
+        Assert.assertTrue(env.rds.restores.isEmpty());
+
+        // Looks at the copy again without waiting for it
+        long start = System.currentTimeMillis();
+        Assert.assertFalse(run.step());
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000, "the step did not block on the copy");
+        Assert.assertEquals(env.rds.snapshots.size(), 1);
+        Assert.assertTrue(env.rds.restores.isEmpty());
+
+        // Restores from the copy it already made
+        copy.withStatus("available").withPercentProgress(100);
+        Assert.assertTrue(run.step());
+        Assert.assertEquals(env.rds.snapshots.size(), 1);
+        Assert.assertEquals(env.rds.restores.size(), 1);
+        Assert.assertEquals(restoredFrom(env), copyIdentifier);
+        run.scheduler.shutdown();
+    }
+
+    @Test
+    public void waitsForTheCopyWhenAsked() throws Exception {
+        FakeEcho env = new FakeEcho().set(EchoCfg.PROP_COPY_SOURCE_REGION, "us-west-2");
+        env.addSnapshot(env.sourceRds, "production-1", 1);
+        EchoContext ctx = env.context();
+        String copyIdentifier = ctx.echo.copyIdentifier("production-1");
+        env.rds.upcomingStatuses.put(copyIdentifier, new ConcurrentLinkedQueue<String>(
+                Lists.newArrayList("creating", "creating", "available")));
+
+        EchoCopy copy = new EchoCopy(ctx);
+        copy.waitForAvailable = true;
+        copy.pollMillis = 10;
+        Assert.assertTrue(copy.call());
+
+        Assert.assertEquals(env.rds.snapshots.get(0).getStatus(), "available");
+        Assert.assertTrue(env.rds.upcomingStatuses.get(copyIdentifier).isEmpty());
+    }
+
+    @Test
+    public void reusesAnExistingCopy() throws Exception {
+        FakeEcho env = new FakeEcho().set(EchoCfg.PROP_COPY_SOURCE_REGION, "us-west-2");
+        env.addSnapshot(env.sourceRds, "production-1", 1);
+        EchoContext ctx = env.context();
+        String copyIdentifier = ctx.echo.copyIdentifier("production-1");
+        env.addSnapshot(copyIdentifier, 2);
+
+        Assert.assertFalse(new EchoCopy(ctx).call());
+        Assert.assertEquals(env.rds.snapshots.size(), 1);
+
+        Assert.assertTrue(new EchoNew(ctx).call());
+        Assert.assertEquals(restoredFrom(env), copyIdentifier);
+    }
+
+    static String restoredFrom(FakeEcho env) {
+        return ((RestoreDBInstanceFromDBSnapshotRequest) env.rds.restores.get(0)).getDBSnapshotIdentifier();
+    }
+}
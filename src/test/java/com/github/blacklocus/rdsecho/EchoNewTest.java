@@ -0,0 +1,148 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.rds.model.AddTagsToResourceRequest;
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.RestoreDBInstanceFromDBSnapshotRequest;
+import com.amazonaws.services.rds.model.Tag;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Lists;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class EchoNewTest {
+
+    @Test
+    public void numbersCohortIdentifiersFromTheBase() {
+        Assert.assertEquals(EchoNew.cohortIdentifiers("development-2015-01-01", 1),
+                Collections.singletonList("development-2015-01-01"));
+        Assert.assertEquals(EchoNew.cohortIdentifiers("development-2015-01-01", 3), Arrays.asList(
+                "development-2015-01-01-1", "development-2015-01-01-2", "development-2015-01-01-3"));
+    }
+
+    @Test
+    public void completesACohortThatFailedPartWay() throws Exception {
+        FakeEcho env = new FakeEcho().set(EchoCfg.PROP_NEW_COUNT, 3);
+        String base = failPartWay(env);
+
+        // The rest of the cohort is restored from the same snapshot, not the newest
+        env.addSnapshot("production-2", 2);
+        Assert.assertTrue(new EchoNew(env.context()).call());
+
+        Assert.assertEquals(env.rds.restores.size(), 4);
+        RestoreDBInstanceFromDBSnapshotRequest completed =
+                (RestoreDBInstanceFromDBSnapshotRequest) env.rds.restores.get(3);
+        Assert.assertEquals(completed.getDBInstanceIdentifier(), base + "-2");
+        Assert.assertEquals(completed.getDBSnapshotIdentifier(), "production-1");
+        Assert.assertEquals(env.stage(base + "-2"), EchoConst.STAGE_NEW);
+        Assert.assertEquals(env.rds.tag(env.arn(base + "-2"), env.tag(EchoConst.TAG_ECHO_COHORT_FMT)), base);
+
+        // The cohort is whole, and the last one was created within a day
+        EchoContext ctx = env.context();
+        Assert.assertEquals(identifiers(ctx.echo.lastEchoCohort()),
+                Arrays.asList(base + "-1", base + "-2", base + "-3"));
+        Assert.assertFalse(new EchoNew(ctx).call());
+        Assert.assertEquals(env.rds.restores.size(), 4);
+    }
+
+    @Test
+    public void runCompletesACohortBeforeAdvancingIt() throws Exception {
+        FakeEcho env = new FakeEcho().set(EchoCfg.PROP_NEW_COUNT, 3);
+        String base = failPartWay(env);
+
+        Assert.assertTrue(new EchoRun(env.context()).step());
+
+        Assert.assertEquals(env.rds.restores.size(), 4);
+        Assert.assertEquals(env.stage(base + "-1"), EchoConst.STAGE_NEW);
+        Assert.assertEquals(env.stage(base + "-2"), EchoConst.STAGE_NEW);
+        Assert.assertEquals(env.stage(base + "-3"), EchoConst.STAGE_NEW);
+    }
+
+    @Test
+    public void leavesACohortThatAdvancedAlone() throws Exception {
+        FakeEcho env = new FakeEcho().set(EchoCfg.PROP_NEW_COUNT, 3);
+        String base = failPartWay(env);
+        env.rds.client().addTagsToResource(new AddTagsToResourceRequest().withResourceName(env.arn(base + "-1"))
+                .withTags(new Tag().withKey(env.tag(EchoConst.TAG_ECHO_STAGE_FMT)).withValue(EchoConst.STAGE_MODIFIED)));
+
+        Assert.assertFalse(new EchoNew(env.context()).call());
+        Assert.assertEquals(env.rds.restores.size(), 3);
+    }
+
+    @Test
+    public void leavesAnInstanceAloneWhenTheCountIsRaised() throws Exception {
+        FakeEcho single = new FakeEcho();
+        single.addSnapshot("production-1", 1);
+        Assert.assertTrue(new EchoNew(single.context()).call());
+        String base = new EchoNew(single.context()).newDbInstanceIdentifier();
+        Assert.assertEquals(single.rds.tag(single.arn(base), single.tag(EchoConst.TAG_ECHO_COHORT_SIZE_FMT)), "1");
+
+        // The instance is a whole cohort of 1, not a partial one of 3, and was created within a day
+        FakeEcho raised = new FakeEcho(single.rds).set(EchoCfg.PROP_NEW_COUNT, 3);
+        EchoContext ctx = raised.context();
+        Assert.assertFalse(new EchoNew(ctx).isPartial(ctx.echo.lastEchoCohort()));
+        Assert.assertFalse(new EchoNew(raised.context()).call());
+        Assert.assertEquals(single.rds.restores.size(), 1);
+    }
+
+    /**
+     * Creates a cohort of 3 from snapshot production-1 whose second instance fails to restore
+     *
+     * @return the identifier the cohort is numbered from
+     */
+    static String failPartWay(FakeEcho env) throws Exception {
+        env.addSnapshot("production-1", 1);
+        String base = new EchoNew(env.context()).newDbInstanceIdentifier();
+        env.rds.failRestore = Predicates.equalTo(base + "-2");
+        try {
+            new EchoNew(env.context()).call();
+            Assert.fail("Restoring " + base + "-2 should have failed");
+        } catch (AmazonServiceException e) {
+            // the rest of the cohort is still restored
+        }
+        env.rds.failRestore = Predicates.alwaysFalse();
+
+        Assert.assertEquals(env.rds.restores.size(), 3);
+        Assert.assertEquals(env.stage(base + "-1"), EchoConst.STAGE_NEW);
+        Assert.assertNull(env.stage(base + "-2"));
+        Assert.assertEquals(env.stage(base + "-3"), EchoConst.STAGE_NEW);
+        Assert.assertEquals(env.rds.tag(env.arn(base + "-3"), env.tag(EchoConst.TAG_ECHO_SOURCE_FMT)),
+                "production-1");
+        return base;
+    }
+
+    static List<String> identifiers(List<DBInstance> instances) {
+        List<String> identifiers = Lists.newArrayList();
+        for (DBInstance instance : instances) {
+            identifiers.add(instance.getDBInstanceIdentifier());
+        }
+        return identifiers;
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.AddTagsToResourceRequest;
+import com.amazonaws.services.rds.model.Tag;
+import com.google.common.base.Predicate;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class EchoPromoteTest {
+
+    @Test
+    public void demotesThePreviouslyPromotedInstance() throws Exception {
+        FakeEcho env = new FakeEcho();
+        env.addInstance("development-old", EchoConst.STAGE_PROMOTED, 1);
+        env.addInstance("development-new", EchoConst.STAGE_REBOOTED, 2);
+        env.pointAt("development-old");
+
+        Assert.assertTrue(new EchoPromote(env.context()).call());
+
+        Assert.assertEquals(env.pointedAt(), FakeEcho.address("development-new"));
+        Assert.assertEquals(env.stage("development-new"), EchoConst.STAGE_PROMOTED);
+        Assert.assertEquals(env.stage("development-old"), EchoConst.STAGE_FORGOTTEN);
+        Assert.assertEquals(env.route53.changeBatches.size(), 1);
+    }
+
+    @Test
+    public void rollsBackWhenDemotionFails() throws Exception {
+        final FakeEcho env = new FakeEcho();
+        env.addInstance("development-old", EchoConst.STAGE_PROMOTED, 1);
+        env.addInstance("development-older", EchoConst.STAGE_PROMOTED, 0);
+        env.addInstance("development-new", EchoConst.STAGE_REBOOTED, 2);
+        env.pointAt("development-old");
+        env.rds.failTagging = tagging(env.arn("development-older"), EchoConst.STAGE_FORGOTTEN);
+
+        Assert.assertFalse(new EchoPromote(env.context()).call());
+
+        Assert.assertEquals(env.pointedAt(), FakeEcho.address("development-old"));
+        Assert.assertEquals(env.stage("development-old"), EchoConst.STAGE_PROMOTED);
+        Assert.assertEquals(env.stage("development-older"), EchoConst.STAGE_PROMOTED);
+        Assert.assertEquals(env.stage("development-new"), EchoConst.STAGE_REBOOTED);
+        Assert.assertEquals(env.route53.changeBatches.size(), 2);
+    }
+
+    @Test
+    public void leavesDnsAloneWhenDemotedInstancesCannotBeMovedBack() throws Exception {
+        final FakeEcho env = new FakeEcho();
+        env.addInstance("development-old", EchoConst.STAGE_PROMOTED, 1);
+        env.addInstance("development-older", EchoConst.STAGE_PROMOTED, 0);
+        env.addInstance("development-new", EchoConst.STAGE_REBOOTED, 2);
+        env.pointAt("development-old");
+        final Predicate<AddTagsToResourceRequest> failOlder = tagging(env.arn("development-older"), EchoConst.STAGE_FORGOTTEN);
+        final Predicate<AddTagsToResourceRequest> failOldBack = tagging(env.arn("development-old"), EchoConst.STAGE_PROMOTED);
+        env.rds.failTagging = new Predicate<AddTagsToResourceRequest>() {
+            @Override
+            public boolean apply(AddTagsToResourceRequest request) {
+                return failOlder.apply(request) || failOldBack.apply(request);
+            }
+        };
+
+        try {
+            new EchoPromote(env.context()).call();
+            Assert.fail("Expected promote to fail with development-old stranded in stage forgotten");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("development-old"), e.getMessage());
+        }
+
+        // The CNAME must not go back to an instance retire would delete
+        Assert.assertEquals(env.pointedAt(), FakeEcho.address("development-new"));
+        Assert.assertEquals(env.stage("development-old"), EchoConst.STAGE_FORGOTTEN);
+        Assert.assertEquals(env.stage("development-new"), EchoConst.STAGE_REBOOTED);
+        Assert.assertEquals(env.route53.changeBatches.size(), 1);
+    }
+
+    @Test
+    public void demotesOnlyOnceTheChangeIsInsync() throws Exception {
+        FakeEcho env = new FakeEcho().set(EchoCfg.PROP_PROMOTE_SYNC_TIMEOUT_MINUTES, "0");
+        env.addInstance("development-old", EchoConst.STAGE_PROMOTED, 1);
+        env.addInstance("development-new", EchoConst.STAGE_REBOOTED, 2);
+        env.pointAt("development-old");
+        env.route53.pendingPolls = 1;
+
+        Assert.assertFalse(new EchoPromote(env.context()).call());
+
+        Assert.assertEquals(env.pointedAt(), FakeEcho.address("development-new"));
+        Assert.assertEquals(env.stage("development-old"), EchoConst.STAGE_PROMOTED);
+        Assert.assertEquals(env.stage("development-new"), EchoConst.STAGE_REBOOTED);
+
+        // Run again, it finds the CNAME lined up and finishes without changing it again
+        Assert.assertTrue(new EchoPromote(env.context()).call());
+
+        Assert.assertEquals(env.stage("development-old"), EchoConst.STAGE_FORGOTTEN);
+        Assert.assertEquals(env.stage("development-new"), EchoConst.STAGE_PROMOTED);
+        Assert.assertEquals(env.route53.changeBatches.size(), 1);
+    }
+
+    @Test
+    public void movesWeightedRecordSetsInOneStep() throws Exception {
+        FakeEcho env = new FakeEcho()
+                .set(EchoCfg.PROP_PROMOTE_CNAME, "reader.dev.domain.com.@echo=100")
+                .set(EchoCfg.PROP_PROMOTE_SHIFT_STEPS, "25,50,100");
+        env.addInstance("development-new", EchoConst.STAGE_REBOOTED, 2);
+
+        Assert.assertTrue(new EchoPromote(env.context()).call());
+
+        Assert.assertEquals(env.pointedAt(), FakeEcho.address("development-new"));
+        Assert.assertEquals(env.route53.changeBatches.size(), 1);
+        Assert.assertEquals(env.route53.changeBatches.get(0).getChanges().size(), 1);
+    }
+
+    static Predicate<AddTagsToResourceRequest> tagging(final String arn, final String stage) {
+        return new Predicate<AddTagsToResourceRequest>() {
+            @Override
+            public boolean apply(AddTagsToResourceRequest request) {
+                if (!arn.equals(request.getResourceName())) {
+                    return false;
+                }
+                for (Tag tag : request.getTags()) {
+                    if (stage.equals(tag.getValue())) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+}
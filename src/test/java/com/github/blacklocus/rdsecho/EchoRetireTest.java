@@ -0,0 +1,62 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class EchoRetireTest {
+
+    @Test
+    public void retiresEveryForgottenInstanceOnly() throws Exception {
+        FakeEcho env = new FakeEcho();
+        env.addInstance("development-1", EchoConst.STAGE_FORGOTTEN, 1);
+        env.addInstance("development-2", EchoConst.STAGE_RETIRED, 2);
+        env.addInstance("development-3", EchoConst.STAGE_FORGOTTEN, 3);
+        env.addInstance("development-4", EchoConst.STAGE_PROMOTED, 4);
+        env.addInstance("development-5", EchoConst.STAGE_NEW, 5);
+
+        Assert.assertTrue(new EchoRetire(env.context()).call());
+
+        Collections.sort(env.rds.deleted);
+        Assert.assertEquals(env.rds.deleted, Arrays.asList("development-1", "development-3"));
+        Assert.assertEquals(env.stage("development-1"), EchoConst.STAGE_RETIRED);
+        Assert.assertEquals(env.stage("development-3"), EchoConst.STAGE_RETIRED);
+        Assert.assertEquals(env.stage("development-4"), EchoConst.STAGE_PROMOTED);
+    }
+
+    @Test
+    public void leavesThePromotedInstanceAlone() throws Exception {
+        FakeEcho env = new FakeEcho();
+        env.addInstance("development-1", EchoConst.STAGE_PROMOTED, 1);
+
+        Assert.assertFalse(new EchoRetire(env.context()).call());
+
+        Assert.assertTrue(env.rds.deleted.isEmpty());
+        Assert.assertEquals(env.stage("development-1"), EchoConst.STAGE_PROMOTED);
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.Endpoint;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+public class EchoRunTest {
+
+    @Test
+    public void walksAnInstanceThroughEveryStage() throws Exception {
+        FakeEcho env = new FakeEcho();
+        env.addInstance("development-1", EchoConst.STAGE_PROMOTED, 1);
+        env.pointAt("development-1");
+        env.addSnapshot("production-1", 2);
+        EchoRun run = new EchoRun(env.context());
+
+        // The promoted instance is followed by a new one
+        Assert.assertTrue(run.step());
+        String dbInstanceIdentifier = new EchoNew(env.context()).newDbInstanceIdentifier();
+        Assert.assertEquals(env.stage(dbInstanceIdentifier), EchoConst.STAGE_NEW);
+
+        // Warming is not configured
+        for (String stage : Arrays.asList(EchoConst.STAGE_MODIFIED, EchoConst.STAGE_REBOOTED, EchoConst.STAGE_PROMOTED)) {
+            available(env, dbInstanceIdentifier);
+            Assert.assertTrue(run.step());
+            Assert.assertEquals(env.stage(dbInstanceIdentifier), stage);
+        }
+        Assert.assertEquals(env.pointedAt(), FakeEcho.address(dbInstanceIdentifier));
+        Assert.assertEquals(env.stage("development-1"), EchoConst.STAGE_FORGOTTEN);
+
+        // The next new is more than a day away, and the forgotten instance is left for retire
+        Assert.assertFalse(run.step());
+        Assert.assertEquals(env.rds.restores.size(), 1);
+        Assert.assertTrue(env.rds.deleted.isEmpty());
+        run.scheduler.shutdown();
+    }
+
+    /**
+     * Completes whatever the instance was doing, as RDS would
+     */
+    static void available(FakeEcho env, String dbInstanceIdentifier) {
+        env.rds.instance(dbInstanceIdentifier)
+                .withDBInstanceStatus("available")
+                .withEndpoint(new Endpoint().withAddress(FakeEcho.address(dbInstanceIdentifier)).withPort(3306));
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.DBSnapshot;
+import com.amazonaws.services.rds.model.Endpoint;
+import com.amazonaws.services.rds.model.Tag;
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.github.blacklocus.rdsecho.utl.FakeRds;
+import com.github.blacklocus.rdsecho.utl.FakeRoute53;
+import com.github.blacklocus.rdsecho.utl.EchoUtil;
+import com.github.blacklocus.rdsecho.utl.RdsFind;
+import com.github.blacklocus.rdsecho.utl.RdsInventory;
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * An environment on {@link FakeRds} and {@link FakeRoute53}, configured from rdsecho.properties.sample without
+ * confirmations, with its CNAME in hosted zone Z1.
+ */
+class FakeEcho {
+
+    final FakeRds rds;
+    final FakeRoute53 route53 = new FakeRoute53();
+    /**
+     * The region snapshots are copied from, if rdsecho.copy.sourceRegion is set
+     */
+    final FakeRds sourceRds = new FakeRds();
+    final Map<String, Object> overrides = Maps.newHashMap();
+
+    private EchoCfg cfg;
+
+    FakeEcho() {
+        this(new FakeRds());
+    }
+
+    /**
+     * An environment whose instances are among those of the given account and region
+     */
+    FakeEcho(FakeRds rds) {
+        this.rds = rds;
+        overrides.put(EchoCfg.PROP_INTERACTIVE, "false");
+        overrides.put(EchoCfg.PROP_PROMOTE_HOSTED_ZONE_ID, "Z1");
+    }
+
+    FakeEcho set(String property, Object value) {
+        overrides.put(property, value);
+        return this;
+    }
+
+    EchoCfg cfg() {
+        if (cfg == null) {
+            cfg = new EchoCfg("rdsecho.properties.sample", overrides);
+            rds.region = cfg.region();
+            rds.accountNumber = cfg.accountNumber();
+        }
+        return cfg;
+    }
+
+    /**
+     * @return a new context, whose inventory discovers the instances afresh
+     */
+    EchoContext context() {
+        return new EchoContext(cfg(), rds.client(), route53.client(), Optional.<RdsInventory>absent(),
+                Optional.<Semaphore>absent(), Optional.of(sourceRds.client()));
+    }
+
+    /**
+     * @return a new context, whose lookups are answered from the given inventory as when run by {@link EchoAll}
+     */
+    EchoContext context(RdsInventory inventory) {
+        return context(inventory, Optional.<Semaphore>absent());
+    }
+
+    /**
+     * @return a new context as run by {@link EchoAll}, whose restores take the given permits
+     */
+    EchoContext context(RdsInventory inventory, Optional<Semaphore> restorePermits) {
+        return new EchoContext(cfg(), rds.client(), route53.client(), Optional.of(inventory), restorePermits,
+                Optional.of(sourceRds.client()));
+    }
+
+    /**
+     * @return a new inventory of the environment's account and region, such as environments may share
+     */
+    RdsInventory inventory() {
+        return new RdsInventory(EchoUtil.newRdsFind(cfg(), rds.client()), cfg().region(), cfg().accountNumber());
+    }
+
+    /**
+     * Adds an available echo instance of the environment in the stage, created in the given minute
+     */
+    DBInstance addInstance(String dbInstanceIdentifier, String stage, int createdMinute) {
+        DBInstance instance = rds.addInstance(dbInstanceIdentifier, arn(dbInstanceIdentifier),
+                new Tag().withKey(tag(EchoConst.TAG_ECHO_MANAGED_FMT)).withValue("true"),
+                new Tag().withKey(tag(EchoConst.TAG_ECHO_STAGE_FMT)).withValue(stage));
+        return instance.withDBInstanceStatus("available")
+                .withInstanceCreateTime(new Date(createdMinute * 60000L))
+                .withEndpoint(new Endpoint().withAddress(address(dbInstanceIdentifier)).withPort(3306));
+    }
+
+    /**
+     * Adds an available snapshot of the configured source instance, created in the given minute
+     */
+    DBSnapshot addSnapshot(String dbSnapshotIdentifier, int createdMinute) {
+        return addSnapshot(rds, dbSnapshotIdentifier, createdMinute);
+    }
+
+    /**
+     * Adds an available snapshot of the configured source instance in the given region, created in the given minute
+     */
+    DBSnapshot addSnapshot(FakeRds rds, String dbSnapshotIdentifier, int createdMinute) {
+        DBSnapshot snapshot = new DBSnapshot()
+                .withDBSnapshotIdentifier(dbSnapshotIdentifier)
+                .withDBInstanceIdentifier(cfg().snapshotDbInstanceIdentifier())
+                .withStatus("available")
+                .withSnapshotCreateTime(new Date(createdMinute * 60000L))
+                .withAllocatedStorage(5);
+        rds.snapshots.add(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * @return the instance's stage tag
+     */
+    String stage(String dbInstanceIdentifier) {
+        return rds.tag(arn(dbInstanceIdentifier), tag(EchoConst.TAG_ECHO_STAGE_FMT));
+    }
+
+    /**
+     * Points the configured CNAME at the instance
+     */
+    void pointAt(String dbInstanceIdentifier) {
+        route53.resourceRecordSets.clear();
+        route53.resourceRecordSets.add(new ResourceRecordSet()
+                .withName(cfg().promoteCnames().get(0).getName())
+                .withType(RRType.CNAME)
+                .withTTL(cfg().promoteTtl())
+                .withResourceRecords(new ResourceRecord(address(dbInstanceIdentifier))));
+    }
+
+    /**
+     * @return the addresses the configured CNAME points at, as one string
+     */
+    String pointedAt() {
+        StringBuilder addresses = new StringBuilder();
+        for (ResourceRecordSet recordSet : route53.resourceRecordSets) {
+            for (ResourceRecord record : recordSet.getResourceRecords()) {
+                addresses.append(addresses.length() == 0 ? "" : " ").append(record.getValue());
+            }
+        }
+        return addresses.toString();
+    }
+
+    String arn(String dbInstanceIdentifier) {
+        return RdsFind.instanceArn(cfg().region(), cfg().accountNumber(), dbInstanceIdentifier);
+    }
+
+    String tag(String format) {
+        return String.format(format, cfg().name());
+    }
+
+    static String address(String dbInstanceIdentifier) {
+        return dbInstanceIdentifier + ".rds.amazonaws.com";
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.DBSnapshot;
+import com.amazonaws.services.rds.model.DescribeDBSnapshotsRequest;
+import com.github.blacklocus.rdsecho.utl.SnapshotPolicy;
+import com.google.common.base.Optional;
+import org.joda.time.DateTime;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * How {@link com.github.blacklocus.rdsecho.utl.EchoUtil#latestSnapshot()} picks the snapshot to restore from
+ */
+public class LatestSnapshotTest {
+
+    @Test
+    public void passesTheTypeDownToRds() {
+        FakeEcho env = new FakeEcho().set(EchoCfg.PROP_SNAPSHOT_TYPE, "automated");
+        snapshot(env, "rds:production-1", "automated", 3);
+        snapshot(env, "before-upgrade", "manual", 1);
+
+        Assert.assertEquals(latest(env), Optional.of("rds:production-1"));
+        DescribeDBSnapshotsRequest request = env.rds.snapshotDescribes.get(0);
+        Assert.assertEquals(request.getSnapshotType(), "automated");
+        Assert.assertEquals(request.getDBInstanceIdentifier(), "production");
+
+        // newest-manual asks for manual snapshots whatever the configured type
+        env = new FakeEcho().set(EchoCfg.PROP_SNAPSHOT_POLICY, SnapshotPolicy.NEWEST_MANUAL.getValue());
+        snapshot(env, "rds:production-1", "automated", 1);
+        snapshot(env, "before-upgrade", "manual", 3);
+        Assert.assertEquals(latest(env), Optional.of("before-upgrade"));
+        Assert.assertEquals(env.rds.snapshotDescribes.get(0).getSnapshotType(), "manual");
+    }
+
+    @Test
+    public void picksTheNewestAvailableSnapshotOfTheSourceInstance() {
+        FakeEcho env = new FakeEcho();
+        snapshot(env, "rds:production-1", "automated", 5);
+        snapshot(env, "before-upgrade", "manual", 2);
+        snapshot(env, "rds:production-2", "automated", 1).withStatus("creating");
+        snapshot(env, "rds:staging-1", "automated", 1).withDBInstanceIdentifier("staging");
+
+        Assert.assertEquals(latest(env), Optional.of("before-upgrade"));
+        Assert.assertNull(env.rds.snapshotDescribes.get(0).getSnapshotType());
+    }
+
+    @Test
+    public void excludesSnapshotsOutsideTheWindow() {
+        FakeEcho env = new FakeEcho()
+                .set(EchoCfg.PROP_SNAPSHOT_POLICY, SnapshotPolicy.NEWEST_BEFORE.getValue())
+                .set(EchoCfg.PROP_SNAPSHOT_BEFORE, DateTime.now().minusHours(3).toString())
+                .set(EchoCfg.PROP_SNAPSHOT_MAX_AGE_HOURS, "24");
+        snapshot(env, "too-new", "automated", 1);
+        snapshot(env, "in-window", "automated", 5);
+        snapshot(env, "also-in-window", "manual", 20);
+        snapshot(env, "too-old", "automated", 30);
+
+        Assert.assertEquals(latest(env), Optional.of("in-window"));
+
+        // Without a policy that bounds it, only the maximum age applies
+        env = new FakeEcho().set(EchoCfg.PROP_SNAPSHOT_MAX_AGE_HOURS, "24");
+        snapshot(env, "recent", "automated", 1);
+        snapshot(env, "too-old", "automated", 30);
+        Assert.assertEquals(latest(env), Optional.of("recent"));
+    }
+
+    @Test
+    public void findsNothingWhenNoSnapshotMatches() {
+        FakeEcho env = new FakeEcho().set(EchoCfg.PROP_SNAPSHOT_MAX_AGE_HOURS, "24");
+        snapshot(env, "too-old", "automated", 30);
+        snapshot(env, "rds:production-2", "automated", 1).withStatus("creating");
+        Assert.assertEquals(latest(env), Optional.<String>absent());
+
+        env = new FakeEcho().set(EchoCfg.PROP_SNAPSHOT_TYPE, "manual");
+        snapshot(env, "rds:production-1", "automated", 1);
+        Assert.assertEquals(latest(env), Optional.<String>absent());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void newestBeforeRequiresATime() {
+        FakeEcho env = new FakeEcho().set(EchoCfg.PROP_SNAPSHOT_POLICY, SnapshotPolicy.NEWEST_BEFORE.getValue());
+        snapshot(env, "rds:production-1", "automated", 1);
+        latest(env);
+    }
+
+    /**
+     * Adds an available snapshot of the source instance, created the given hours ago
+     */
+    static DBSnapshot snapshot(FakeEcho env, String dbSnapshotIdentifier, String type, int hoursAgo) {
+        return env.addSnapshot(dbSnapshotIdentifier, 0)
+                .withSnapshotType(type)
+                .withSnapshotCreateTime(DateTime.now().minusHours(hoursAgo).toDate());
+    }
+
+    static Optional<String> latest(FakeEcho env) {
+        Optional<DBSnapshot> snapshot = env.context().echo.latestSnapshot();
+        return snapshot.isPresent() ? Optional.of(snapshot.get().getDBSnapshotIdentifier()) : Optional.<String>absent();
+    }
+}
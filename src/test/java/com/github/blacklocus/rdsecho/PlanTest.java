@@ -0,0 +1,105 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Endpoint;
+import com.amazonaws.services.rds.model.ModifyDBInstanceRequest;
+import com.amazonaws.services.rds.model.Tag;
+import com.github.blacklocus.rdsecho.utl.RunReport;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class PlanTest {
+
+    @Test
+    public void readsBackWhatItWrites() throws Exception {
+        DBInstance instance = new DBInstance().withDBInstanceIdentifier("dev-2015-01-31")
+                .withDBInstanceStatus("available").withAllocatedStorage(100)
+                .withEndpoint(new Endpoint().withAddress("dev-2015-01-31.rds.amazonaws.com").withPort(3306));
+        Map<DBInstance, List<Tag>> instances = ImmutableMap.<DBInstance, List<Tag>>of(instance,
+                Collections.singletonList(new Tag().withKey("rdsecho:dev:stage").withValue("modified")));
+        Plan plan = new Plan("dev", 1422662400000L, instances, Optional.<String>absent(), Optional.of("Z1"), 4, 1,
+                Collections.singletonList(step("dev-2015-01-31", 7)));
+
+        Plan read = Plan.fromJson(plan.toJson());
+
+        Assert.assertEquals(read.environment, "dev");
+        Assert.assertEquals(read.createdMillis, 1422662400000L);
+        Assert.assertEquals(read.hostedZoneId, Optional.of("Z1"));
+        Assert.assertFalse(read.source.isPresent());
+        Assert.assertEquals(read.separateCalls(), plan.separateCalls());
+        Assert.assertEquals(read.applyCalls(), plan.applyCalls());
+        Assert.assertFalse(read.difference(plan).isPresent());
+
+        // Primed instances must be looked up again before they are acted on
+        Map.Entry<DBInstance, List<Tag>> primed = read.primedInstances().entrySet().iterator().next();
+        Assert.assertEquals(primed.getKey().getDBInstanceStatus(), Plan.STATUS_PLANNED);
+        Assert.assertEquals(primed.getKey().getEndpoint().getAddress(), "dev-2015-01-31.rds.amazonaws.com");
+        Assert.assertEquals(primed.getValue().get(0).getValue(), "modified");
+    }
+
+    @Test
+    public void differsInRequests() throws Exception {
+        Map<DBInstance, List<Tag>> none = Collections.emptyMap();
+        Plan plan = new Plan("dev", 0, none, Optional.<String>absent(), Optional.<String>absent(), 0, 0,
+                Collections.singletonList(step("dev-2015-01-31", 7)));
+        Plan changed = new Plan("dev", 0, none, Optional.<String>absent(), Optional.<String>absent(), 0, 0,
+                Collections.singletonList(step("dev-2015-01-31", 14)));
+        Plan longer = new Plan("dev", 0, none, Optional.<String>absent(), Optional.<String>absent(), 0, 0,
+                Arrays.asList(step("dev-2015-01-31", 7), step("dev-2015-01-31", 7)));
+
+        Assert.assertFalse(Plan.fromJson(plan.toJson()).difference(plan).isPresent());
+        Assert.assertTrue(plan.difference(changed).get().startsWith("step 1"));
+        Assert.assertTrue(plan.difference(longer).get().startsWith("step 2"));
+    }
+
+    @Test
+    public void commandsFollowTheStage() {
+        Assert.assertEquals(EchoPlan.commands(null, false), Arrays.asList("new", "modify", "reboot", "promote"));
+        Assert.assertEquals(EchoPlan.commands("promoted", true),
+                Arrays.asList("new", "modify", "reboot", "warm", "promote"));
+        Assert.assertEquals(EchoPlan.commands("modified", false), Arrays.asList("reboot", "promote"));
+        Assert.assertEquals(EchoPlan.commands("rebooted", true), Arrays.asList("warm", "promote"));
+        Assert.assertEquals(EchoPlan.commands("rebooted", false), Collections.singletonList("promote"));
+    }
+
+    static Plan.Step step(String dbInstanceIdentifier, int backupRetentionPeriod) {
+        List<Map<String, Object>> requests = Lists.newArrayList();
+        requests.add(RunReport.describe(new ModifyDBInstanceRequest()
+                .withDBInstanceIdentifier(dbInstanceIdentifier)
+                .withDBSecurityGroups("development", "admin")
+                .withBackupRetentionPeriod(backupRetentionPeriod)
+                .withApplyImmediately(true)));
+        return new Plan.Step("modify", Collections.singletonList(dbInstanceIdentifier), requests, 2);
+    }
+}
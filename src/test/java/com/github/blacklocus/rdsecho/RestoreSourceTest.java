@@ -0,0 +1,104 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.services.rds.model.RestoreDBInstanceFromDBSnapshotRequest;
+import com.amazonaws.services.rds.model.RestoreDBInstanceToPointInTimeRequest;
+import com.github.blacklocus.rdsecho.utl.RestoreSourceType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Date;
+
+public class RestoreSourceTest {
+
+    @Test
+    public void restoresToTheLatestRestorableTimeLessTheOffset() throws Exception {
+        FakeEcho env = new FakeEcho()
+                .set(EchoCfg.PROP_NEW_SOURCE, RestoreSourceType.POINT_IN_TIME.getValue())
+                .set(EchoCfg.PROP_NEW_RESTORE_OFFSET_MINUTES, 15);
+        env.rds.addInstance("production", env.arn("production"))
+                .withDBInstanceStatus("available")
+                .withLatestRestorableTime(new Date(60 * 60000L))
+                .withAllocatedStorage(5);
+
+        EchoContext ctx = env.context();
+        RestoreSource source = RestoreSource.create(ctx);
+        Assert.assertTrue(source instanceof RestoreSource.PointInTime);
+        Assert.assertTrue(source.locate(ctx.reporter.begin(EchoConst.COMMAND_NEW)));
+        RestoreDBInstanceFromDBSnapshotRequest settings = settings(ctx, source);
+
+        AmazonWebServiceRequest request = source.request(settings, "development-1");
+        Assert.assertTrue(request instanceof RestoreDBInstanceToPointInTimeRequest);
+        RestoreDBInstanceToPointInTimeRequest toPointInTime = (RestoreDBInstanceToPointInTimeRequest) request;
+        Assert.assertEquals(toPointInTime.getSourceDBInstanceIdentifier(), "production");
+        Assert.assertEquals(toPointInTime.getTargetDBInstanceIdentifier(), "development-1");
+        Assert.assertEquals(toPointInTime.getRestoreTime(), new Date(45 * 60000L));
+        Assert.assertEquals(toPointInTime.getEngine(), "MySQL");
+        Assert.assertEquals(toPointInTime.getLicenseModel(), "general-public-license");
+        Assert.assertEquals(toPointInTime.getDBInstanceClass(), "db.t1.micro");
+        Assert.assertEquals(toPointInTime.getMultiAZ(), Boolean.FALSE);
+        Assert.assertEquals(toPointInTime.getStorageType(), "gp2");
+        Assert.assertEquals(toPointInTime.getIops(), Integer.valueOf(0));
+        Assert.assertEquals(toPointInTime.getPort(), Integer.valueOf(3306));
+        Assert.assertEquals(toPointInTime.getOptionGroupName(), "default:mysql-5-6");
+        Assert.assertEquals(toPointInTime.getAutoMinorVersionUpgrade(), Boolean.TRUE);
+        Assert.assertEquals(toPointInTime.getTags(), settings.getTags());
+
+        // What the rest of the cohort is restored from
+        Assert.assertEquals(source.located(), "1970-01-01T00:45:00.000Z");
+    }
+
+    @Test
+    public void restoresFromTheSnapshotWithTheSameSettings() throws Exception {
+        FakeEcho env = new FakeEcho();
+        env.addSnapshot("production-1", 1);
+
+        EchoContext ctx = env.context();
+        RestoreSource source = RestoreSource.create(ctx);
+        Assert.assertTrue(source instanceof RestoreSource.Snapshot);
+        Assert.assertTrue(source.locate(ctx.reporter.begin(EchoConst.COMMAND_NEW)));
+        RestoreDBInstanceFromDBSnapshotRequest settings = settings(ctx, source);
+
+        RestoreDBInstanceFromDBSnapshotRequest request =
+                (RestoreDBInstanceFromDBSnapshotRequest) source.request(settings, "development-1");
+        Assert.assertEquals(request.getDBSnapshotIdentifier(), "production-1");
+        Assert.assertEquals(request.getDBInstanceIdentifier(), "development-1");
+        Assert.assertEquals(request.withDBSnapshotIdentifier(null).withDBInstanceIdentifier(null), settings);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsAnUnknownSource() {
+        new FakeEcho().set(EchoCfg.PROP_NEW_SOURCE, "bogus").cfg().newRestoreSource();
+    }
+
+    static RestoreDBInstanceFromDBSnapshotRequest settings(EchoContext ctx, RestoreSource source) {
+        return new EchoNew(ctx, source).settings("development", 1, Collections.singletonList("development-1"),
+                new PrintWriter(new StringWriter()));
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.rds.model.AddTagsToResourceRequest;
+import com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
+import com.amazonaws.services.rds.model.DescribeEventsRequest;
+import com.amazonaws.services.rds.model.ListTagsForResourceRequest;
+import com.amazonaws.services.rds.model.ModifyDBInstanceRequest;
+import com.amazonaws.util.json.JSONObject;
+import com.github.rholder.retry.Retryer;
+import com.github.rholder.retry.RetryerBuilder;
+import com.github.rholder.retry.StopStrategies;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ApiMetricsTest {
+
+    @Test
+    public void recordsCallsErrorsThrottlingAndRetries() throws Exception {
+        ApiMetrics metrics = new ApiMetrics();
+        FakeRds fake = new FakeRds();
+        fake.addInstance("db-1", RdsFind.instanceArn("us-east-1", "123", "db-1"));
+        AmazonRDS rds = metrics.instrument(AmazonRDS.class, fake.client(), "rds");
+
+        rds.describeDBInstances(new DescribeDBInstancesRequest());
+        rds.describeDBInstances(new DescribeDBInstancesRequest());
+        try {
+            rds.describeEvents(new DescribeEventsRequest());
+            Assert.fail("fake does not describe events");
+        } catch (UnsupportedOperationException e) {
+            // the fake's own exception passes through
+        }
+
+        // Throttled on the first attempt only
+        final AtomicInteger attempts = new AtomicInteger();
+        final AmazonRDS throttling = metrics.instrument(AmazonRDS.class, (AmazonRDS) Proxy.newProxyInstance(
+                AmazonRDS.class.getClassLoader(), new Class<?>[]{AmazonRDS.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (attempts.incrementAndGet() == 1) {
+                            AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+                            e.setErrorCode("Throttling");
+                            throw e;
+                        }
+                        return null;
+                    }
+                }), "rds");
+        Retryer<Object> retryer = RetryerBuilder.newBuilder()
+                .retryIfRuntimeException()
+                .withStopStrategy(StopStrategies.stopAfterAttempt(3))
+                .withRetryListener(metrics.retryListener("rds.listTagsForResource"))
+                .build();
+        retryer.call(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return throttling.listTagsForResource(new ListTagsForResourceRequest());
+            }
+        });
+
+        Assert.assertEquals(metrics.operation("rds.describeDBInstances").getCalls(), 2);
+        Assert.assertEquals(metrics.operation("rds.describeDBInstances").getErrors(), 0);
+        Assert.assertEquals(metrics.operation("rds.describeEvents").getErrors(), 1);
+        Assert.assertEquals(metrics.operation("rds.describeEvents").getThrottled(), 0);
+        Assert.assertEquals(metrics.operation("rds.listTagsForResource").getCalls(), 2);
+        Assert.assertEquals(metrics.operation("rds.listTagsForResource").getThrottled(), 1);
+        Assert.assertEquals(metrics.operation("rds.listTagsForResource").getRetries(), 1);
+        Assert.assertTrue(metrics.summary().contains("rds.describeDBInstances"));
+
+        File file = File.createTempFile("metrics", ".json");
+        file.deleteOnExit();
+        metrics.write(file);
+        JSONObject written = new JSONObject(Files.toString(file, Charsets.UTF_8));
+        JSONObject listTags = written.getJSONObject("operations").getJSONObject("rds.listTagsForResource");
+        Assert.assertEquals(listTags.getLong("calls"), 2);
+        Assert.assertEquals(listTags.getLong("retries"), 1);
+        Assert.assertEquals(listTags.getJSONObject("latencyMillis").getLong("le10"), 2);
+    }
+
+    @Test
+    public void recordsCallsThatReturnNoResult() {
+        ApiMetrics metrics = new ApiMetrics();
+        AmazonRDS rds = metrics.instrument(AmazonRDS.class, (AmazonRDS) Proxy.newProxyInstance(
+                AmazonRDS.class.getClassLoader(), new Class<?>[]{AmazonRDS.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        return null;
+                    }
+                }), "rds");
+
+        // Return the model and nothing, respectively
+        rds.modifyDBInstance(new ModifyDBInstanceRequest());
+        rds.addTagsToResource(new AddTagsToResourceRequest());
+        // Client configuration
+        rds.setRegion(Region.getRegion(Regions.US_EAST_1));
+
+        Assert.assertEquals(metrics.operation("rds.modifyDBInstance").getCalls(), 1);
+        Assert.assertEquals(metrics.operation("rds.addTagsToResource").getCalls(), 1);
+        Assert.assertFalse(metrics.operations.containsKey("rds.setRegion"));
+    }
+}
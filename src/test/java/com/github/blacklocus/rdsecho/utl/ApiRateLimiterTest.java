@@ -0,0 +1,119 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.rds.model.AddTagsToResourceRequest;
+import com.amazonaws.services.rds.model.RebootDBInstanceRequest;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ApiRateLimiterTest {
+
+    @Test
+    public void pacesConfiguredOperations() {
+        ApiRateLimiter limiter = new ApiRateLimiter();
+        limiter.configure(ImmutableMap.of("rds.listTagsForResource", 20.0), Optional.<File>absent());
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 11; i++) {
+            limiter.acquire("rds.listTagsForResource");
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start >= 450, "10 intervals at 20/s");
+
+        start = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire("rds.describeDBInstances");
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 450, "unconfigured operations are not limited");
+    }
+
+    @Test
+    public void pacesCallsThatReturnNoResult() {
+        ApiRateLimiter limiter = new ApiRateLimiter();
+        limiter.configure(ImmutableMap.of(ApiRateLimiter.DEFAULT_OPERATION, 20.0), Optional.<File>absent());
+        AmazonRDS rds = limiter.limit(AmazonRDS.class, (AmazonRDS) Proxy.newProxyInstance(
+                AmazonRDS.class.getClassLoader(), new Class<?>[]{AmazonRDS.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        return null;
+                    }
+                }), "rds");
+
+        // Return the model and nothing, respectively
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 6; i++) {
+            rds.rebootDBInstance(new RebootDBInstanceRequest());
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start >= 200, "5 intervals at 20/s");
+        start = System.currentTimeMillis();
+        for (int i = 0; i < 6; i++) {
+            rds.addTagsToResource(new AddTagsToResourceRequest());
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start >= 200, "5 intervals at 20/s");
+    }
+
+    @Test
+    public void sharesPaceThroughLockDir() throws Exception {
+        File dir = Files.createTempDir();
+        // Two limiters on one directory stand in for two processes
+        final ApiRateLimiter one = new ApiRateLimiter();
+        final ApiRateLimiter two = new ApiRateLimiter();
+        one.configure(ImmutableMap.of(ApiRateLimiter.DEFAULT_OPERATION, 20.0), Optional.of(dir));
+        two.configure(ImmutableMap.of(ApiRateLimiter.DEFAULT_OPERATION, 20.0), Optional.of(dir));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        long start = System.currentTimeMillis();
+        Future<?> a = executor.submit(acquire(one, 5));
+        Future<?> b = executor.submit(acquire(two, 5));
+        a.get();
+        b.get();
+        executor.shutdown();
+
+        Assert.assertTrue(System.currentTimeMillis() - start >= 450, "10 calls together at 20/s");
+        Assert.assertTrue(new File(dir, "rds.listTagsForResource.rate").isFile());
+    }
+
+    static Runnable acquire(final ApiRateLimiter limiter, final int times) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < times; i++) {
+                    limiter.acquire("rds.listTagsForResource");
+                }
+            }
+        };
+    }
+}
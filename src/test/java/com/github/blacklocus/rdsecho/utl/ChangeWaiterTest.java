@@ -0,0 +1,75 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.route53.model.Change;
+import com.amazonaws.services.route53.model.ChangeAction;
+import com.amazonaws.services.route53.model.ChangeBatch;
+import com.amazonaws.services.route53.model.ChangeInfo;
+import com.amazonaws.services.route53.model.ChangeResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.google.common.base.Optional;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class ChangeWaiterTest {
+
+    @Test
+    public void waitsForInsync() throws InterruptedException {
+        FakeRoute53 fake = new FakeRoute53();
+        fake.pendingPolls = 3;
+        CnameTarget writer = CnameTarget.parse("db.example.com.");
+        CnameTarget reader = CnameTarget.parse("reader.example.com.@echo=100");
+        ChangeInfo change = fake.client().changeResourceRecordSets(new ChangeResourceRecordSetsRequest("Z", new ChangeBatch()
+                .withChanges(new Change(ChangeAction.UPSERT, writer.toResourceRecordSet("new.rds.amazonaws.com", 60)),
+                        new Change(ChangeAction.UPSERT, reader.toResourceRecordSet("new.rds.amazonaws.com", 60)))))
+                .getChangeInfo();
+
+        ChangeWaiter waiter = new ChangeWaiter(fake.client());
+        waiter.initialPollMillis = 10;
+        Optional<Long> millis = waiter.waitForInsync(change, 1, TimeUnit.MINUTES);
+
+        Assert.assertTrue(millis.isPresent());
+        Assert.assertTrue(millis.get() >= 10 + 20, "backed off between polls");
+        Assert.assertEquals(fake.getChangeCalls.get(), 3);
+
+        Assert.assertEquals(fake.changeBatches.size(), 1);
+        ResourceRecordSet weighted = fake.resourceRecordSets.get(1);
+        Assert.assertTrue(reader.matches(weighted));
+        Assert.assertFalse(writer.matches(weighted));
+        Assert.assertEquals(weighted.getWeight(), Long.valueOf(100));
+    }
+
+    @Test
+    public void givesUpAtTimeout() throws InterruptedException {
+        FakeRoute53 fake = new FakeRoute53();
+        fake.pendingPolls = Integer.MAX_VALUE;
+        ChangeWaiter waiter = new ChangeWaiter(fake.client());
+        waiter.initialPollMillis = 10;
+        Optional<Long> millis = waiter.waitForInsync(new ChangeInfo().withId("C").withStatus("PENDING"), 100, TimeUnit.MILLISECONDS);
+        Assert.assertFalse(millis.isPresent());
+    }
+}
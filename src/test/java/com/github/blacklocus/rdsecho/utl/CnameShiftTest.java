@@ -0,0 +1,155 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.route53.model.Change;
+import com.amazonaws.services.route53.model.ChangeBatch;
+import com.amazonaws.services.route53.model.ChangeResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+
+public class CnameShiftTest {
+
+    static final CnameTarget CNAME = CnameTarget.parse("db.example.com.");
+    static final String OLD = "old.rds.amazonaws.com";
+    static final String NEW = "new.rds.amazonaws.com";
+
+    @Test
+    public void shiftsThroughWeightedSets() {
+        FakeRoute53 fake = new FakeRoute53();
+        fake.resourceRecordSets.add(CNAME.toResourceRecordSet(OLD, 60));
+
+        CnameShift shift = new CnameShift(CNAME, fake.resourceRecordSets, NEW, 60);
+        Assert.assertEquals(shift.getOldAddress(), Optional.of(OLD));
+        Assert.assertEquals(shift.percent(), 0);
+
+        // The plain CNAME gives way to weighted record sets in the same batch
+        apply(fake, shift.shiftTo(5));
+        Assert.assertEquals(fake.resourceRecordSets.size(), 2);
+        assertWeight(fake, CnameShift.SET_OLD, OLD, 95);
+        assertWeight(fake, CnameShift.SET_NEW, NEW, 5);
+        Assert.assertEquals(shift.percent(), 5);
+
+        apply(fake, shift.shiftTo(50));
+        assertWeight(fake, CnameShift.SET_OLD, OLD, 50);
+        assertWeight(fake, CnameShift.SET_NEW, NEW, 50);
+
+        apply(fake, shift.shiftTo(100));
+        Assert.assertEquals(fake.resourceRecordSets.size(), 1);
+        ResourceRecordSet plain = fake.resourceRecordSets.get(0);
+        Assert.assertTrue(CNAME.matches(plain));
+        Assert.assertEquals(plain.getResourceRecords().get(0).getValue(), NEW);
+        Assert.assertTrue(shift.isDone());
+    }
+
+    @Test
+    public void resumesInterruptedShift() {
+        FakeRoute53 fake = new FakeRoute53();
+        fake.resourceRecordSets.add(CNAME.toResourceRecordSet(OLD, 60));
+        apply(fake, new CnameShift(CNAME, fake.resourceRecordSets, NEW, 60).shiftTo(25));
+
+        CnameShift resumed = new CnameShift(CNAME, fake.resourceRecordSets, NEW, 60);
+        Assert.assertEquals(resumed.getOldAddress(), Optional.of(OLD));
+        Assert.assertEquals(resumed.percent(), 25);
+        Assert.assertFalse(resumed.isDone());
+
+        apply(fake, resumed.shiftTo(100));
+        Assert.assertEquals(fake.resourceRecordSets.size(), 1);
+        Assert.assertTrue(new CnameShift(CNAME, fake.resourceRecordSets, NEW, 60).isDone());
+    }
+
+    @Test
+    public void newCnameIsCreatedAtOnce() {
+        FakeRoute53 fake = new FakeRoute53();
+        CnameShift shift = new CnameShift(CNAME, fake.resourceRecordSets, NEW, 60);
+        Assert.assertFalse(shift.getOldAddress().isPresent());
+
+        apply(fake, shift.shiftTo(5));
+        Assert.assertEquals(fake.resourceRecordSets.size(), 1);
+        Assert.assertTrue(shift.isDone());
+    }
+
+    @Test
+    public void promotesCohortThenSingleInstance() {
+        FakeRoute53 fake = new FakeRoute53();
+        fake.resourceRecordSets.add(CNAME.toResourceRecordSet(OLD, 60));
+        Map<String, String> cohort = ImmutableMap.of("dev-1", "dev-1.rds.amazonaws.com", "dev-2", "dev-2.rds.amazonaws.com");
+
+        CnameShift shift = new CnameShift(CNAME, fake.resourceRecordSets, NEW, 60);
+        apply(fake, shift.shiftToCohort(cohort));
+        Assert.assertEquals(fake.resourceRecordSets.size(), 2);
+        assertWeight(fake, CnameShift.SET_PREFIX + "dev-1", "dev-1.rds.amazonaws.com", 1);
+        assertWeight(fake, CnameShift.SET_PREFIX + "dev-2", "dev-2.rds.amazonaws.com", 1);
+        Assert.assertTrue(new CnameShift(CNAME, fake.resourceRecordSets, NEW, 60).shiftToCohort(cohort).isEmpty());
+
+        // No one address to shift from, so all at once
+        shift = new CnameShift(CNAME, fake.resourceRecordSets, NEW, 60);
+        Assert.assertFalse(shift.getOldAddress().isPresent());
+        apply(fake, shift.shiftTo(5));
+        Assert.assertEquals(fake.resourceRecordSets.size(), 1);
+        Assert.assertTrue(shift.isDone());
+    }
+
+    @Test
+    public void cohortLinesUpWhateverTheCaseOfTheName() {
+        CnameTarget configured = CnameTarget.parse("DB.Example.com");
+        Map<String, String> cohort = ImmutableMap.of("dev-1", "dev-1.rds.amazonaws.com", "dev-2", "dev-2.rds.amazonaws.com");
+        List<ResourceRecordSet> listed = Lists.newArrayList();
+        for (Map.Entry<String, String> e : cohort.entrySet()) {
+            // As Route53 lists them
+            listed.add(new ResourceRecordSet("db.example.com.", RRType.CNAME)
+                    .withSetIdentifier(CnameShift.SET_PREFIX + e.getKey())
+                    .withWeight(1L)
+                    .withTTL(60L)
+                    .withResourceRecords(new ResourceRecord(e.getValue())));
+        }
+
+        Assert.assertTrue(new CnameShift(configured, listed, NEW, 60).shiftToCohort(cohort).isEmpty());
+        Assert.assertEquals(new CnameShift(configured, listed, NEW, 120).shiftToCohort(cohort).size(), 2);
+    }
+
+    static void apply(FakeRoute53 fake, List<Change> changes) {
+        fake.client().changeResourceRecordSets(new ChangeResourceRecordSetsRequest("Z", new ChangeBatch().withChanges(changes)));
+    }
+
+    static void assertWeight(FakeRoute53 fake, String setIdentifier, String value, long weight) {
+        for (ResourceRecordSet rrs : fake.resourceRecordSets) {
+            if (setIdentifier.equals(rrs.getSetIdentifier())) {
+                Assert.assertEquals(rrs.getResourceRecords().get(0).getValue(), value);
+                Assert.assertEquals(rrs.getWeight(), Long.valueOf(weight));
+                return;
+            }
+        }
+        Assert.fail("No record set " + setIdentifier);
+    }
+}
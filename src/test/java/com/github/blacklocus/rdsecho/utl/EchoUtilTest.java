@@ -27,4 +27,11 @@ public class EchoUtilTest {
         Assert.assertEquals("pterodactyl", three.getKey());
         Assert.assertEquals("well=maybe", three.getValue());
     }
+
+    @Test
+    public void copyIdentifier() {
+        Assert.assertEquals(EchoUtil.copyIdentifier("development", "rds:production-2015-01-31-00-05"),
+                "development-copy-rds-production-2015-01-31-00-05");
+        Assert.assertEquals(EchoUtil.copyIdentifier("dr", "before--upgrade_"), "dr-copy-before-upgrade");
+    }
 }
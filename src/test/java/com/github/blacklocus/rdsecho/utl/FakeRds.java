@@ -0,0 +1,300 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.rds.model.AddTagsToResourceRequest;
+import com.amazonaws.services.rds.model.CopyDBSnapshotRequest;
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.DBInstanceNotFoundException;
+import com.amazonaws.services.rds.model.DBSnapshot;
+import com.amazonaws.services.rds.model.DBSnapshotNotFoundException;
+import com.amazonaws.services.rds.model.DeleteDBInstanceRequest;
+import com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
+import com.amazonaws.services.rds.model.DescribeDBInstancesResult;
+import com.amazonaws.services.rds.model.DescribeDBSnapshotsRequest;
+import com.amazonaws.services.rds.model.DescribeDBSnapshotsResult;
+import com.amazonaws.services.rds.model.ListTagsForResourceRequest;
+import com.amazonaws.services.rds.model.ListTagsForResourceResult;
+import com.amazonaws.services.rds.model.ModifyDBInstanceRequest;
+import com.amazonaws.services.rds.model.RebootDBInstanceRequest;
+import com.amazonaws.services.rds.model.RestoreDBInstanceFromDBSnapshotRequest;
+import com.amazonaws.services.rds.model.RestoreDBInstanceToPointInTimeRequest;
+import com.amazonaws.services.rds.model.Tag;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory stand-in for the handful of RDS APIs that rds-echo reads, and for tagging. Unsupported operations throw.
+ */
+public class FakeRds implements InvocationHandler {
+
+    public final List<DBInstance> instances = Lists.newArrayList();
+    public final Map<String, List<Tag>> tagsByArn = Maps.newConcurrentMap();
+    public final List<DBSnapshot> snapshots = Lists.newArrayList();
+
+    /**
+     * Statuses each instance or snapshot goes through, one per describe of just that one, as between polls
+     */
+    public final Map<String, Queue<String>> upcomingStatuses = Maps.newConcurrentMap();
+    public int pageSize = 100;
+
+    /**
+     * Where restored instances are, which their ARNs are in
+     */
+    public String region = "us-east-1";
+    public String accountNumber = "1234567890";
+
+    /**
+     * Restore requests made, in order
+     */
+    public final List<AmazonWebServiceRequest> restores = Collections.synchronizedList(
+            Lists.<AmazonWebServiceRequest>newArrayList());
+
+    /**
+     * DescribeDBSnapshots requests made, in order
+     */
+    public final List<DescribeDBSnapshotsRequest> snapshotDescribes = Collections.synchronizedList(
+            Lists.<DescribeDBSnapshotsRequest>newArrayList());
+
+    /**
+     * Identifiers of the instances deleted, in order
+     */
+    public final List<String> deleted = Collections.synchronizedList(Lists.<String>newArrayList());
+
+    public final AtomicInteger describeCalls = new AtomicInteger();
+    public final AtomicInteger tagCalls = new AtomicInteger();
+    public final AtomicInteger tagCallsInFlight = new AtomicInteger();
+    public final AtomicInteger maxTagCallsInFlight = new AtomicInteger();
+    public long tagCallMillis = 0;
+
+    /**
+     * Which AddTagsToResource calls fail, none by default
+     */
+    public Predicate<AddTagsToResourceRequest> failTagging = Predicates.alwaysFalse();
+
+    /**
+     * Identifiers of the instances whose restores fail, none by default
+     */
+    public Predicate<String> failRestore = Predicates.alwaysFalse();
+
+    public AmazonRDS client() {
+        return (AmazonRDS) Proxy.newProxyInstance(AmazonRDS.class.getClassLoader(), new Class<?>[]{AmazonRDS.class}, this);
+    }
+
+    public DBInstance addInstance(String dbInstanceIdentifier, String arn, Tag... tags) {
+        DBInstance instance = new DBInstance().withDBInstanceIdentifier(dbInstanceIdentifier);
+        instances.add(instance);
+        tagsByArn.put(arn, Lists.newArrayList(tags));
+        return instance;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "describeDBInstances":
+                return describeDBInstances((DescribeDBInstancesRequest) args[0]);
+            case "listTagsForResource":
+                return listTagsForResource((ListTagsForResourceRequest) args[0]);
+            case "deleteDBInstance":
+                return deleteDBInstance((DeleteDBInstanceRequest) args[0]);
+            case "modifyDBInstance":
+                return instance(((ModifyDBInstanceRequest) args[0]).getDBInstanceIdentifier())
+                        .withDBInstanceStatus("modifying");
+            case "rebootDBInstance":
+                return instance(((RebootDBInstanceRequest) args[0]).getDBInstanceIdentifier())
+                        .withDBInstanceStatus("rebooting");
+            case "describeDBSnapshots":
+                return describeDBSnapshots((DescribeDBSnapshotsRequest) args[0]);
+            case "restoreDBInstanceFromDBSnapshot":
+                RestoreDBInstanceFromDBSnapshotRequest fromSnapshot = (RestoreDBInstanceFromDBSnapshotRequest) args[0];
+                return restored(fromSnapshot, fromSnapshot.getDBInstanceIdentifier(), fromSnapshot.getTags());
+            case "restoreDBInstanceToPointInTime":
+                RestoreDBInstanceToPointInTimeRequest toPointInTime = (RestoreDBInstanceToPointInTimeRequest) args[0];
+                return restored(toPointInTime, toPointInTime.getTargetDBInstanceIdentifier(), toPointInTime.getTags());
+            case "copyDBSnapshot":
+                return copyDBSnapshot((CopyDBSnapshotRequest) args[0]);
+            case "addTagsToResource":
+                addTagsToResource((AddTagsToResourceRequest) args[0]);
+                return null;
+            default:
+                throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    DescribeDBInstancesResult describeDBInstances(DescribeDBInstancesRequest request) {
+        describeCalls.incrementAndGet();
+        if (request.getDBInstanceIdentifier() != null) {
+            DBInstance instance = instance(request.getDBInstanceIdentifier());
+            Queue<String> upcoming = upcomingStatuses.get(instance.getDBInstanceIdentifier());
+            String status = upcoming == null ? null : upcoming.poll();
+            if (status != null) {
+                instance.setDBInstanceStatus(status);
+            }
+            return new DescribeDBInstancesResult().withDBInstances(instance);
+        }
+        int from = request.getMarker() == null ? 0 : Integer.parseInt(request.getMarker());
+        int to = Math.min(from + pageSize, instances.size());
+        return new DescribeDBInstancesResult()
+                .withDBInstances(instances.subList(from, to))
+                .withMarker(to < instances.size() ? String.valueOf(to) : null);
+    }
+
+    ListTagsForResourceResult listTagsForResource(ListTagsForResourceRequest request) throws InterruptedException {
+        tagCalls.incrementAndGet();
+        int inFlight = tagCallsInFlight.incrementAndGet();
+        try {
+            int max;
+            do {
+                max = maxTagCallsInFlight.get();
+            } while (inFlight > max && !maxTagCallsInFlight.compareAndSet(max, inFlight));
+            if (tagCallMillis > 0) {
+                Thread.sleep(tagCallMillis);
+            }
+            List<Tag> tags = tagsByArn.get(request.getResourceName());
+            return new ListTagsForResourceResult().withTagList(tags == null ? Collections.<Tag>emptyList() : tags);
+        } finally {
+            tagCallsInFlight.decrementAndGet();
+        }
+    }
+
+    DescribeDBSnapshotsResult describeDBSnapshots(DescribeDBSnapshotsRequest request) {
+        snapshotDescribes.add(request);
+        List<DBSnapshot> found = Lists.newArrayList();
+        for (DBSnapshot snapshot : snapshots) {
+            if ((request.getDBSnapshotIdentifier() == null ||
+                    request.getDBSnapshotIdentifier().equals(snapshot.getDBSnapshotIdentifier())) &&
+                    (request.getDBInstanceIdentifier() == null ||
+                            request.getDBInstanceIdentifier().equals(snapshot.getDBInstanceIdentifier())) &&
+                    (request.getSnapshotType() == null ||
+                            request.getSnapshotType().equals(snapshot.getSnapshotType()))) {
+                found.add(snapshot);
+            }
+        }
+        if (request.getDBSnapshotIdentifier() != null) {
+            if (found.isEmpty()) {
+                throw new DBSnapshotNotFoundException(request.getDBSnapshotIdentifier());
+            }
+            Queue<String> upcoming = upcomingStatuses.get(request.getDBSnapshotIdentifier());
+            String status = upcoming == null ? null : upcoming.poll();
+            if (status != null) {
+                found.get(0).setStatus(status);
+            }
+        }
+        return new DescribeDBSnapshotsResult().withDBSnapshots(found);
+    }
+
+    /**
+     * @return the copy just started, still being created
+     */
+    DBSnapshot copyDBSnapshot(CopyDBSnapshotRequest request) {
+        DBSnapshot copy = new DBSnapshot()
+                .withDBSnapshotIdentifier(request.getTargetDBSnapshotIdentifier())
+                .withStatus("creating")
+                .withPercentProgress(0)
+                .withSnapshotCreateTime(new Date());
+        snapshots.add(copy);
+        tagsByArn.put(RdsFind.snapshotArn(region, accountNumber, copy.getDBSnapshotIdentifier()),
+                Lists.newArrayList(request.getTags()));
+        return copy;
+    }
+
+    /**
+     * @return the instance just restored, still being created
+     */
+    DBInstance restored(AmazonWebServiceRequest request, String dbInstanceIdentifier, List<Tag> tags) {
+        restores.add(request);
+        if (failRestore.apply(dbInstanceIdentifier)) {
+            throw new AmazonServiceException("Failed to restore " + dbInstanceIdentifier);
+        }
+        DBInstance instance = new DBInstance()
+                .withDBInstanceIdentifier(dbInstanceIdentifier)
+                .withDBInstanceStatus("creating");
+        synchronized (instances) {
+            instances.add(instance);
+        }
+        tagsByArn.put(RdsFind.instanceArn(region, accountNumber, dbInstanceIdentifier), Lists.newArrayList(tags));
+        return instance;
+    }
+
+    DBInstance deleteDBInstance(DeleteDBInstanceRequest request) {
+        DBInstance instance = instance(request.getDBInstanceIdentifier());
+        deleted.add(instance.getDBInstanceIdentifier());
+        return instance.withDBInstanceStatus("deleting");
+    }
+
+    /**
+     * @return the instance, whose status the test may change as RDS would
+     */
+    public DBInstance instance(String dbInstanceIdentifier) {
+        synchronized (instances) {
+            for (DBInstance instance : instances) {
+                if (instance.getDBInstanceIdentifier().equals(dbInstanceIdentifier)) {
+                    return instance;
+                }
+            }
+        }
+        throw new DBInstanceNotFoundException(dbInstanceIdentifier);
+    }
+
+    void addTagsToResource(AddTagsToResourceRequest request) {
+        if (failTagging.apply(request)) {
+            throw new AmazonServiceException("Failed to tag " + request.getResourceName());
+        }
+        // Replaces same-named tags, as RDS does
+        List<Tag> tags = Lists.newArrayList();
+        List<Tag> existing = tagsByArn.get(request.getResourceName());
+        for (Tag tag : existing == null ? Collections.<Tag>emptyList() : existing) {
+            if (!Iterables.any(request.getTags(), RdsFind.tagName(tag.getKey()))) {
+                tags.add(tag);
+            }
+        }
+        tags.addAll(request.getTags());
+        tagsByArn.put(request.getResourceName(), tags);
+    }
+
+    /**
+     * @return the instance's tag value, if it has the tag
+     */
+    public String tag(String arn, String key) {
+        List<Tag> tags = tagsByArn.get(arn);
+        Tag tag = tags == null ? null : Iterables.find(tags, RdsFind.tagName(key), null);
+        return tag == null ? null : tag.getValue();
+    }
+}
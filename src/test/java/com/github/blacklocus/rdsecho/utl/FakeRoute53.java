@@ -0,0 +1,176 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.route53.AmazonRoute53;
+import com.amazonaws.services.route53.model.Change;
+import com.amazonaws.services.route53.model.ChangeAction;
+import com.amazonaws.services.route53.model.ChangeBatch;
+import com.amazonaws.services.route53.model.ChangeInfo;
+import com.amazonaws.services.route53.model.ChangeResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.ChangeResourceRecordSetsResult;
+import com.amazonaws.services.route53.model.ChangeStatus;
+import com.amazonaws.services.route53.model.GetChangeRequest;
+import com.amazonaws.services.route53.model.GetChangeResult;
+import com.amazonaws.services.route53.model.HostedZone;
+import com.amazonaws.services.route53.model.ListHostedZonesRequest;
+import com.amazonaws.services.route53.model.ListHostedZonesResult;
+import com.amazonaws.services.route53.model.ListResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.ListResourceRecordSetsResult;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory stand-in for the Route53 listings that rds-echo reads, over a single zone's records. Unsupported operations
+ * throw.
+ */
+public class FakeRoute53 implements InvocationHandler {
+
+    public final List<HostedZone> hostedZones = Lists.newArrayList();
+    public final List<ResourceRecordSet> resourceRecordSets = Lists.newArrayList();
+    public int pageSize = 100;
+
+    public final AtomicInteger listHostedZonesCalls = new AtomicInteger();
+    public final AtomicInteger listResourceRecordSetsCalls = new AtomicInteger();
+    public final AtomicInteger getChangeCalls = new AtomicInteger();
+
+    /**
+     * Change batches applied, in order
+     */
+    public final List<ChangeBatch> changeBatches = Lists.newArrayList();
+
+    /**
+     * How many GetChange calls report a change PENDING before it is INSYNC
+     */
+    public int pendingPolls = 0;
+
+    public AmazonRoute53 client() {
+        return (AmazonRoute53) Proxy.newProxyInstance(AmazonRoute53.class.getClassLoader(), new Class<?>[]{AmazonRoute53.class}, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "listHostedZones":
+                return listHostedZones(args == null ? new ListHostedZonesRequest() : (ListHostedZonesRequest) args[0]);
+            case "listResourceRecordSets":
+                return listResourceRecordSets((ListResourceRecordSetsRequest) args[0]);
+            case "changeResourceRecordSets":
+                return changeResourceRecordSets((ChangeResourceRecordSetsRequest) args[0]);
+            case "getChange":
+                return getChange((GetChangeRequest) args[0]);
+            default:
+                throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    ListHostedZonesResult listHostedZones(ListHostedZonesRequest request) {
+        listHostedZonesCalls.incrementAndGet();
+        int from = request.getMarker() == null ? 0 : Integer.parseInt(request.getMarker());
+        int to = Math.min(from + pageSize, hostedZones.size());
+        boolean truncated = to < hostedZones.size();
+        return new ListHostedZonesResult()
+                .withHostedZones(hostedZones.subList(from, to))
+                .withIsTruncated(truncated)
+                .withNextMarker(truncated ? String.valueOf(to) : null);
+    }
+
+    ListResourceRecordSetsResult listResourceRecordSets(ListResourceRecordSetsRequest request) {
+        listResourceRecordSetsCalls.incrementAndGet();
+        List<ResourceRecordSet> sorted = Lists.newArrayList(resourceRecordSets);
+        Collections.sort(sorted, ORDER);
+
+        int from = 0;
+        if (request.getStartRecordName() != null) {
+            ResourceRecordSet start = new ResourceRecordSet()
+                    .withName(Route53Find.normalizeName(request.getStartRecordName()))
+                    .withType(Strings.nullToEmpty(request.getStartRecordType()))
+                    .withSetIdentifier(request.getStartRecordIdentifier());
+            while (from < sorted.size() && ORDER.compare(sorted.get(from), start) < 0) {
+                from++;
+            }
+        }
+        int to = Math.min(from + pageSize, sorted.size());
+        boolean truncated = to < sorted.size();
+        return new ListResourceRecordSetsResult()
+                .withResourceRecordSets(sorted.subList(from, to))
+                .withIsTruncated(truncated)
+                .withNextRecordName(truncated ? sorted.get(to).getName() : null)
+                .withNextRecordType(truncated ? sorted.get(to).getType() : null)
+                .withNextRecordIdentifier(truncated ? sorted.get(to).getSetIdentifier() : null);
+    }
+
+    synchronized ChangeResourceRecordSetsResult changeResourceRecordSets(ChangeResourceRecordSetsRequest request) {
+        changeBatches.add(request.getChangeBatch());
+        for (Change change : request.getChangeBatch().getChanges()) {
+            ResourceRecordSet changed = change.getResourceRecordSet();
+            for (Iterator<ResourceRecordSet> i = resourceRecordSets.iterator(); i.hasNext(); ) {
+                ResourceRecordSet existing = i.next();
+                if (ORDER.compare(existing, changed) == 0) {
+                    i.remove();
+                }
+            }
+            if (!ChangeAction.DELETE.toString().equals(change.getAction())) {
+                resourceRecordSets.add(changed);
+            }
+        }
+        return new ChangeResourceRecordSetsResult().withChangeInfo(new ChangeInfo()
+                .withId("/change/C" + changeBatches.size())
+                .withStatus(pendingPolls > 0 ? ChangeStatus.PENDING : ChangeStatus.INSYNC)
+                .withSubmittedAt(new Date()));
+    }
+
+    GetChangeResult getChange(GetChangeRequest request) {
+        int polls = getChangeCalls.incrementAndGet();
+        return new GetChangeResult().withChangeInfo(new ChangeInfo()
+                .withId(request.getId())
+                .withStatus(polls < pendingPolls ? ChangeStatus.PENDING : ChangeStatus.INSYNC)
+                .withSubmittedAt(new Date()));
+    }
+
+    static final Comparator<ResourceRecordSet> ORDER = new Comparator<ResourceRecordSet>() {
+        @Override
+        public int compare(ResourceRecordSet a, ResourceRecordSet b) {
+            int c = a.getName().compareTo(b.getName());
+            if (c == 0) {
+                c = a.getType().compareTo(b.getType());
+            }
+            if (c == 0) {
+                c = Strings.nullToEmpty(a.getSetIdentifier()).compareTo(Strings.nullToEmpty(b.getSetIdentifier()));
+            }
+            return c;
+        }
+    };
+}
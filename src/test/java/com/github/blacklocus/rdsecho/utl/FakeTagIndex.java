@@ -0,0 +1,58 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.Tag;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory {@link TagIndex} over the same tags as a {@link FakeRds}.
+ */
+public class FakeTagIndex implements TagIndex {
+
+    public final Map<String, List<Tag>> tagsByArn;
+
+    public final AtomicInteger calls = new AtomicInteger();
+
+    public FakeTagIndex(Map<String, List<Tag>> tagsByArn) {
+        this.tagsByArn = tagsByArn;
+    }
+
+    @Override
+    public Map<String, List<Tag>> resourcesWithTag(String tagKey, String tagValue) {
+        calls.incrementAndGet();
+        Map<String, List<Tag>> tagged = Maps.newTreeMap();
+        for (Map.Entry<String, List<Tag>> e : tagsByArn.entrySet()) {
+            if (Iterables.any(e.getValue(), RdsFind.tagEquals(tagKey, tagValue))) {
+                tagged.put(e.getKey(), e.getValue());
+            }
+        }
+        return tagged;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+public class InstanceWaiterTest {
+
+    @Test
+    public void pollsUntilAvailable() throws InterruptedException {
+        FakeRds fake = new FakeRds();
+        fake.addInstance("db-1", RdsFind.instanceArn("us-east-1", "123", "db-1")).withDBInstanceStatus("creating");
+        fake.upcomingStatuses.put("db-1", new ConcurrentLinkedQueue<String>(
+                Lists.newArrayList("creating", "backing-up", "available")));
+
+        Optional<DBInstance> instance = waiter(fake).waitForAvailable("db-1", 1, TimeUnit.MINUTES);
+
+        Assert.assertTrue(instance.isPresent());
+        Assert.assertEquals(instance.get().getDBInstanceStatus(), "available");
+        Assert.assertEquals(fake.describeCalls.get(), 3);
+    }
+
+    @Test
+    public void givesUpAtTheTimeout() throws InterruptedException {
+        FakeRds fake = new FakeRds();
+        fake.addInstance("db-1", RdsFind.instanceArn("us-east-1", "123", "db-1")).withDBInstanceStatus("modifying");
+
+        long start = System.currentTimeMillis();
+        Optional<DBInstance> instance = waiter(fake).waitForAvailable("db-1", 200, TimeUnit.MILLISECONDS);
+
+        Assert.assertFalse(instance.isPresent());
+        long millis = System.currentTimeMillis() - start;
+        Assert.assertTrue(millis >= 200 && millis < 2000, "waited " + millis + "ms for a 200ms timeout");
+        Assert.assertTrue(fake.describeCalls.get() > 1, "polled more than once");
+    }
+
+    @Test
+    public void stopsAtAStatusItCannotRecoverFrom() throws InterruptedException {
+        FakeRds fake = new FakeRds();
+        fake.addInstance("db-1", RdsFind.instanceArn("us-east-1", "123", "db-1")).withDBInstanceStatus("modifying");
+        fake.upcomingStatuses.put("db-1", new ConcurrentLinkedQueue<String>(
+                Lists.newArrayList("modifying", "incompatible-parameters")));
+
+        Optional<DBInstance> instance = waiter(fake).waitForAvailable("db-1", 1, TimeUnit.MINUTES);
+
+        Assert.assertFalse(instance.isPresent());
+        Assert.assertEquals(fake.describeCalls.get(), 2);
+    }
+
+    @Test
+    public void stopsWhenTheInstanceIsGone() throws InterruptedException {
+        FakeRds fake = new FakeRds();
+
+        Assert.assertFalse(waiter(fake).waitForAvailable("db-1", 1, TimeUnit.MINUTES).isPresent());
+        Assert.assertEquals(fake.describeCalls.get(), 1);
+    }
+
+    /**
+     * @return a waiter that polls every few milliseconds rather than seconds
+     */
+    static InstanceWaiter waiter(FakeRds fake) {
+        InstanceWaiter waiter = new InstanceWaiter(new RdsFind(fake.client(), 4));
+        waiter.pollUnit = TimeUnit.MILLISECONDS;
+        return waiter;
+    }
+}
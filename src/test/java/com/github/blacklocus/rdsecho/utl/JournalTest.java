@@ -0,0 +1,97 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.RebootDBInstanceRequest;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.List;
+
+public class JournalTest {
+
+    @Test
+    public void keepsEntriesOpenUntilDone() throws Exception {
+        File file = File.createTempFile("rdsecho-journal", ".ndjson");
+        file.deleteOnExit();
+        Journal journal = new Journal("dev", Optional.of(file));
+        Journal other = new Journal("staging", Optional.of(file));
+
+        journal.intent("dev-a", "reboot", "modified", "rebooted");
+        journal.sending("dev-a", "reboot", new RebootDBInstanceRequest().withDBInstanceIdentifier("dev-a"));
+        journal.intent("dev-b", "reboot", "modified", "rebooted");
+        journal.intent("dev-c", "reboot", "modified", "rebooted");
+        journal.sending("dev-c", "reboot", new RebootDBInstanceRequest().withDBInstanceIdentifier("dev-c"));
+        journal.sent("dev-c", "reboot");
+        journal.done("dev-c", "reboot");
+        other.intent("dev-a", "reboot", "modified", "rebooted");
+        // A line torn by a process that died writing it
+        Files.append("{\"at\":\"2015-", file, Charsets.UTF_8);
+
+        Journal.Entry a = journal.open("dev-a", "reboot").get();
+        Assert.assertEquals(a.getState(), Journal.State.SENDING);
+        Assert.assertTrue(a.getSendingMillis().isPresent());
+        Assert.assertEquals(a.getRequests().size(), 1);
+        Assert.assertEquals(journal.open("dev-b", "reboot").get().getState(), Journal.State.INTENT);
+        Assert.assertFalse(journal.open("dev-c", "reboot").isPresent());
+        Assert.assertFalse(journal.open("dev-a", "modify").isPresent());
+
+        List<Journal.Entry> open = journal.open("reboot");
+        Assert.assertEquals(open.size(), 2);
+        Assert.assertEquals(open.get(0).getInstance(), "dev-a");
+
+        journal.abandoned("dev-a", "reboot");
+        Assert.assertFalse(journal.open("dev-a", "reboot").isPresent());
+    }
+
+    @Test
+    public void compactsAwayClosedEntries() throws Exception {
+        File file = File.createTempFile("rdsecho-journal", ".ndjson");
+        file.deleteOnExit();
+        Journal journal = new Journal("dev", Optional.of(file));
+        journal.compactBytes = 2048;
+
+        journal.intent("dev-a", "reboot", "modified", "rebooted");
+        journal.sending("dev-a", "reboot", new RebootDBInstanceRequest().withDBInstanceIdentifier("dev-a"));
+        for (int i = 0; i < 50; i++) {
+            journal.intent("dev-b", "reboot", "modified", "rebooted");
+            journal.sent("dev-b", "reboot");
+            journal.done("dev-b", "reboot");
+        }
+        Assert.assertTrue(file.length() <= 2048 + 200, "journal of " + file.length() + " bytes was not compacted");
+
+        journal.compactBytes = 0;
+        journal.intent("dev-c", "modify", "new", "modified");
+        Assert.assertEquals(journal.read().size(), 3);
+        Journal.Entry a = journal.open("dev-a", "reboot").get();
+        Assert.assertEquals(a.getState(), Journal.State.SENDING);
+        Assert.assertEquals(a.getRequests().size(), 1);
+        Assert.assertFalse(journal.open("dev-b", "reboot").isPresent());
+        Assert.assertEquals(journal.open("dev-c", "modify").get().getState(), Journal.State.INTENT);
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PrefetchingPagingIterableTest {
+
+    /**
+     * Pages of two: [0, 1], [], [4, 5], ... up to the given number of pages. Every second page is empty.
+     */
+    static class CountingSupplier implements Supplier<Iterable<Integer>> {
+        final int pageCount;
+        final AtomicInteger fetched = new AtomicInteger();
+
+        CountingSupplier(int pageCount) {
+            this.pageCount = pageCount;
+        }
+
+        @Override
+        public Iterable<Integer> get() {
+            int page = fetched.getAndIncrement();
+            if (page >= pageCount) {
+                return null;
+            }
+            return page % 2 == 1 ? Collections.<Integer>emptyList() : ImmutableList.of(page * 2, page * 2 + 1);
+        }
+    }
+
+    @Test
+    public void iteratesAllPages() {
+        CountingSupplier supplier = new CountingSupplier(5);
+        List<Integer> all = Lists.newArrayList((Iterable<Integer>) new PrefetchingPagingIterable<Integer>(supplier, 2));
+        Assert.assertEquals(all, ImmutableList.of(0, 1, 4, 5, 8, 9));
+    }
+
+    @Test
+    public void boundedReadAheadAndClose() throws Exception {
+        CountingSupplier supplier = new CountingSupplier(100);
+        PrefetchingPagingIterable<Integer> iterable = new PrefetchingPagingIterable<Integer>(supplier, 2);
+        Assert.assertEquals(PagingIterable.first(iterable).get(), Integer.valueOf(0));
+
+        TimeUnit.MILLISECONDS.sleep(100);
+        // The page consumed, the pages queued, and the one the producer was holding when it was stopped.
+        Assert.assertTrue(supplier.fetched.get() <= 4, "fetched " + supplier.fetched.get());
+        Assert.assertTrue(iterable.producer.isDone());
+        Assert.assertFalse(iterable.hasNext());
+    }
+
+    @Test
+    public void startsFetchingWithTheIteration() throws Exception {
+        CountingSupplier supplier = new CountingSupplier(5);
+        PrefetchingPagingIterable<Integer> iterable = new PrefetchingPagingIterable<Integer>(supplier, 2);
+
+        TimeUnit.MILLISECONDS.sleep(100);
+        Assert.assertEquals(supplier.fetched.get(), 0);
+        Assert.assertNull(iterable.producer);
+    }
+
+    @Test
+    public void abandonedIterationReleasesItsThread() throws Exception {
+        CountingSupplier supplier = new CountingSupplier(100);
+        PrefetchingPagingIterable<Integer> iterable = new PrefetchingPagingIterable<Integer>(supplier, 1);
+        iterable.abandonMillis = 50;
+        // Neither iterated to the end nor closed
+        Assert.assertEquals(iterable.iterator().next(), Integer.valueOf(0));
+
+        TimeUnit.MILLISECONDS.sleep(500);
+        Assert.assertTrue(iterable.producer.isDone());
+        Assert.assertTrue(supplier.fetched.get() <= 3, "fetched " + supplier.fetched.get());
+    }
+
+    @Test
+    public void slowIterationResumesFetching() throws Exception {
+        CountingSupplier supplier = new CountingSupplier(5);
+        PrefetchingPagingIterable<Integer> iterable = new PrefetchingPagingIterable<Integer>(supplier, 1);
+        iterable.abandonMillis = 20;
+
+        List<Integer> all = Lists.newArrayList();
+        for (Integer i : iterable) {
+            TimeUnit.MILLISECONDS.sleep(60);
+            all.add(i);
+        }
+        Assert.assertEquals(all, ImmutableList.of(0, 1, 4, 5, 8, 9));
+        Assert.assertEquals(supplier.fetched.get(), 6);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void failureSurfacesOnConsumer() {
+        PrefetchingPagingIterable<Integer> iterable = new PrefetchingPagingIterable<Integer>(new Supplier<Iterable<Integer>>() {
+            @Override
+            public Iterable<Integer> get() {
+                throw new IllegalStateException("throttled");
+            }
+        }, 1);
+        iterable.hasNext();
+    }
+}
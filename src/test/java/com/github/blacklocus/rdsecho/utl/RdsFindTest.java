@@ -0,0 +1,57 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Tag;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+public class RdsFindTest {
+
+    @Test
+    public void instancesWithTagAcrossPages() {
+        FakeRds fake = new FakeRds();
+        fake.pageSize = 10;
+        fake.tagCallMillis = 5;
+        for (int i = 0; i < 35; i++) {
+            String id = "db-" + i;
+            // Only the last page holds matches, so the earlier pages filter down to nothing.
+            Tag tag = new Tag().withKey("rdsecho:test:managed").withValue(i >= 30 && i % 2 == 0 ? "true" : "false");
+            fake.addInstance(id, RdsFind.instanceArn("us-east-1", "123", id), tag);
+        }
+
+        RdsFind find = new RdsFind(fake.client(), 4);
+        List<DBInstance> found = new RdsInventory(find, "us-east-1", "123").instancesWithTag("rdsecho:test:managed", "true");
+
+        Assert.assertEquals(found.size(), 3);
+        Assert.assertEquals(found.get(0).getDBInstanceIdentifier(), "db-30");
+        Assert.assertEquals(found.get(2).getDBInstanceIdentifier(), "db-34");
+        Assert.assertEquals(fake.tagCalls.get(), 35);
+        Assert.assertTrue(fake.maxTagCallsInFlight.get() <= 4, "tag lookups exceeded concurrency limit");
+        Assert.assertTrue(fake.maxTagCallsInFlight.get() > 1, "tag lookups were not concurrent");
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.Tag;
+import com.google.common.collect.Iterables;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+
+public class RdsInventoryTest {
+
+    @Test
+    public void lookupsShareOneScan() {
+        FakeRds fake = new FakeRds();
+        for (int i = 0; i < 20; i++) {
+            String id = "db-" + i;
+            fake.addInstance(id, RdsFind.instanceArn("us-east-1", "123", id),
+                    new Tag().withKey("rdsecho:a:stage").withValue(i == 7 ? "promoted" : "forgotten"));
+        }
+
+        RdsInventory inventory = new RdsInventory(new RdsFind(fake.client(), 4), "us-east-1", "123");
+        Assert.assertEquals(inventory.instancesWithTag("rdsecho:a:stage", "promoted").get(0).getDBInstanceIdentifier(), "db-7");
+        Assert.assertEquals(inventory.instancesWithTag("rdsecho:a:stage", "forgotten").size(), 19);
+        Assert.assertEquals(inventory.instancesWithTag("rdsecho:b:stage", "promoted").size(), 0);
+        Assert.assertEquals(inventory.tags("db-3").size(), 1);
+        Assert.assertEquals(fake.tagCalls.get(), 20);
+
+        inventory.tagged("db-3", Collections.singletonList(new Tag().withKey("rdsecho:a:stage").withValue("promoted")));
+        Assert.assertEquals(inventory.instancesWithTag("rdsecho:a:stage", "promoted").size(), 2);
+        Assert.assertEquals(inventory.instancesWithTag("rdsecho:a:stage", "forgotten").size(), 18);
+        Assert.assertEquals(Iterables.getOnlyElement(inventory.tags("db-3")).getValue(), "promoted");
+        Assert.assertEquals(fake.tagCalls.get(), 20);
+
+        inventory.invalidate();
+        Assert.assertEquals(inventory.instancesWithTag("rdsecho:a:stage", "promoted").size(), 1);
+        Assert.assertEquals(fake.tagCalls.get(), 40);
+    }
+}
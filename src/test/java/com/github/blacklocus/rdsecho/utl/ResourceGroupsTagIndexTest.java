@@ -0,0 +1,110 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.internal.StaticCredentialsProvider;
+import com.amazonaws.services.rds.model.Tag;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+public class ResourceGroupsTagIndexTest {
+
+    static final String ARN = "arn:aws:rds:us-east-1:123:db:";
+
+    static class CannedTagIndex extends ResourceGroupsTagIndex {
+        final Iterator<String> responses;
+        final List<JsonNode> requests = Lists.newArrayList();
+
+        CannedTagIndex(String... responses) {
+            super("us-east-1", new StaticCredentialsProvider(new BasicAWSCredentials("AKID", "secret")));
+            this.responses = Arrays.asList(responses).iterator();
+        }
+
+        @Override
+        String post(String body) throws IOException {
+            requests.add(ResourceGroupsTagIndex.MAPPER.readTree(body));
+            return responses.next();
+        }
+    }
+
+    @Test
+    public void pagesThroughTaggedInstances() throws Exception {
+        CannedTagIndex index = new CannedTagIndex(
+                "{\"PaginationToken\":\"p2\",\"ResourceTagMappingList\":[{\"ResourceARN\":\"" + ARN + "a\"," +
+                        "\"Tags\":[{\"Key\":\"rdsecho:dev:managed\",\"Value\":\"true\"}," +
+                        "{\"Key\":\"rdsecho:dev:stage\",\"Value\":\"new\"}]}]}",
+                "{\"PaginationToken\":\"\",\"ResourceTagMappingList\":[{\"ResourceARN\":\"" + ARN + "b\"," +
+                        "\"Tags\":[{\"Key\":\"rdsecho:dev:managed\",\"Value\":\"true\"}]}]}");
+
+        ApiMetrics.OperationMetrics metrics = ApiMetrics.getInstance().operation(ResourceGroupsTagIndex.OPERATION);
+        long calls = metrics.calls.get();
+        Map<String, List<Tag>> resources = index.resourcesWithTag("rdsecho:dev:managed", "true");
+
+        Assert.assertEquals(resources.keySet(), Arrays.asList(ARN + "a", ARN + "b"));
+        Assert.assertEquals(resources.get(ARN + "a").get(1), new Tag().withKey("rdsecho:dev:stage").withValue("new"));
+        Assert.assertEquals(metrics.calls.get() - calls, 2);
+
+        Assert.assertEquals(index.requests.size(), 2);
+        JsonNode first = index.requests.get(0);
+        Assert.assertEquals(first.get("ResourceTypeFilters").get(0).asText(), "rds:db");
+        Assert.assertEquals(first.get("TagFilters").get(0).get("Key").asText(), "rdsecho:dev:managed");
+        Assert.assertEquals(first.get("TagFilters").get(0).get("Values").get(0).asText(), "true");
+        Assert.assertFalse(first.has("PaginationToken"));
+        Assert.assertEquals(index.requests.get(1).get("PaginationToken").asText(), "p2");
+    }
+
+    @Test
+    public void signsRequests() {
+        CannedTagIndex index = new CannedTagIndex();
+        DefaultRequest<Void> request = index.signed("{}".getBytes(Charsets.UTF_8));
+
+        Assert.assertEquals(request.getEndpoint().toString(), "https://tagging.us-east-1.amazonaws.com");
+        Assert.assertEquals(request.getHeaders().get("X-Amz-Target"), ResourceGroupsTagIndex.TARGET);
+        Assert.assertTrue(request.getHeaders().get("Authorization")
+                .startsWith("AWS4-HMAC-SHA256 Credential=AKID/"), request.getHeaders().get("Authorization"));
+        Assert.assertTrue(request.getHeaders().get("Authorization").contains("/us-east-1/tagging/aws4_request"));
+    }
+
+    @Test
+    public void readsServiceErrors() {
+        AmazonServiceException e = ResourceGroupsTagIndex.serviceException(400,
+                "{\"__type\":\"com.amazonaws.resourcegroupstaggingapi#ThrottledException\",\"Message\":\"Slow down\"}");
+
+        Assert.assertEquals(e.getErrorCode(), "ThrottledException");
+        Assert.assertEquals(e.getStatusCode(), 400);
+        Assert.assertTrue(e.getMessage().startsWith("Slow down"), e.getMessage());
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.route53.model.HostedZone;
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.google.common.collect.Lists;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+public class Route53FindTest {
+
+    @Test
+    public void hostedZonesFollowMarker() {
+        FakeRoute53 fake = new FakeRoute53();
+        fake.pageSize = 10;
+        for (int i = 0; i < 25; i++) {
+            fake.hostedZones.add(new HostedZone().withId("Z" + i).withName("zone" + i + ".marker.test."));
+        }
+        Route53Find find = new Route53Find(fake.client(), 0);
+
+        Assert.assertEquals(Lists.newArrayList(find.hostedZones()).size(), 25);
+        Assert.assertEquals(find.hostedZoneByName("zone24.marker.test.").get().getId(), "Z24");
+        Assert.assertEquals(fake.listHostedZonesCalls.get(), 6);
+
+        // Served from the cache from now on
+        Assert.assertEquals(find.hostedZoneByName("zone24.marker.test.").get().getId(), "Z24");
+        Assert.assertEquals(new Route53Find(fake.client(), 0).hostedZoneByName("zone24.marker.test.").get().getId(), "Z24");
+        Assert.assertEquals(fake.listHostedZonesCalls.get(), 6);
+    }
+
+    @Test
+    public void recordLookupReadsOnlyItsPage() {
+        FakeRoute53 fake = new FakeRoute53();
+        for (int i = 0; i < 1000; i++) {
+            fake.resourceRecordSets.add(cname(String.format("host%04d.example.com.", i), null));
+        }
+        Route53Find find = new Route53Find(fake.client(), 1);
+
+        ResourceRecordSet found = find.resourceRecordSet("Z", "HOST0500.example.com", RRType.CNAME).get();
+        Assert.assertEquals(found.getName(), "host0500.example.com.");
+        Assert.assertFalse(find.resourceRecordSet("Z", "host0500x.example.com.", RRType.CNAME).isPresent());
+        Assert.assertEquals(fake.listResourceRecordSetsCalls.get(), 2);
+    }
+
+    @Test
+    public void recordLookupFollowsSetsAcrossPages() {
+        FakeRoute53 fake = new FakeRoute53();
+        fake.pageSize = 2;
+        fake.resourceRecordSets.add(cname("a.example.com.", null));
+        for (int i = 0; i < 3; i++) {
+            fake.resourceRecordSets.add(cname("db.example.com.", "set" + i));
+        }
+        fake.resourceRecordSets.add(cname("z.example.com.", null));
+        Route53Find find = new Route53Find(fake.client(), 0);
+
+        List<ResourceRecordSet> found = Lists.newArrayList(find.resourceRecordSets("Z", "db.example.com.", RRType.CNAME));
+        Assert.assertEquals(found.size(), 3);
+        Assert.assertEquals(found.get(2).getSetIdentifier(), "set2");
+        Assert.assertEquals(fake.listResourceRecordSetsCalls.get(), 2);
+        Assert.assertEquals(Lists.newArrayList(find.resourceRecordSets("Z")).size(), 5);
+    }
+
+    static ResourceRecordSet cname(String name, String setIdentifier) {
+        return new ResourceRecordSet(name, RRType.CNAME)
+                .withSetIdentifier(setIdentifier)
+                .withTTL(60L)
+                .withResourceRecords(new ResourceRecord(name + "rds.amazonaws.com"));
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.AmazonRDS;
+import com.amazonaws.services.rds.model.DBInstanceNotFoundException;
+import com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
+import com.amazonaws.services.rds.model.ModifyDBInstanceRequest;
+import com.amazonaws.util.json.JSONArray;
+import com.amazonaws.util.json.JSONObject;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.List;
+
+public class RunReporterTest {
+
+    @Test
+    public void appendsOneLinePerCommand() throws Exception {
+        File file = File.createTempFile("rdsecho-report", ".ndjson");
+        file.deleteOnExit();
+        FakeRds fake = new FakeRds();
+        fake.addInstance("dev-2015-01-31", "arn");
+        RunReporter reporter = new RunReporter("development", Optional.of(file));
+        AmazonRDS rds = reporter.instrument(AmazonRDS.class, fake.client(), "rds");
+
+        RunReport report = reporter.begin("modify");
+        rds.describeDBInstances(new DescribeDBInstancesRequest().withDBInstanceIdentifier("dev-2015-01-31"));
+        try {
+            rds.describeDBInstances(new DescribeDBInstancesRequest().withDBInstanceIdentifier("missing"));
+            Assert.fail();
+        } catch (DBInstanceNotFoundException expected) {
+            // recorded as an error
+        }
+        report.request(new ModifyDBInstanceRequest().withDBInstanceIdentifier("dev-2015-01-31")
+                .withDBSecurityGroups("development", "admin").withApplyImmediately(true));
+        report.phase("waitForAvailable dev-2015-01-31", System.currentTimeMillis() - 1000);
+        report.transition("dev-2015-01-31", "new", "modified");
+        report.advanced(true);
+        reporter.end(report);
+
+        // Outside any command, calls are not recorded
+        rds.describeDBInstances(new DescribeDBInstancesRequest());
+        reporter.end(reporter.begin("reboot"));
+
+        List<String> lines = Files.readLines(file, Charsets.UTF_8);
+        Assert.assertEquals(lines.size(), 2);
+
+        JSONObject json = new JSONObject(lines.get(0));
+        Assert.assertEquals(json.getString("environment"), "development");
+        Assert.assertEquals(json.getString("command"), "modify");
+        Assert.assertEquals(json.getString("outcome"), "advanced");
+
+        JSONArray apiCalls = json.getJSONArray("apiCalls");
+        Assert.assertEquals(apiCalls.length(), 2);
+        Assert.assertEquals(apiCalls.getJSONObject(0).getString("operation"), "rds.describeDBInstances");
+        Assert.assertFalse(apiCalls.getJSONObject(0).has("error"));
+        Assert.assertTrue(apiCalls.getJSONObject(1).has("error"));
+
+        JSONObject parameters = json.getJSONArray("requests").getJSONObject(0).getJSONObject("parameters");
+        Assert.assertEquals(parameters.getString("dBInstanceIdentifier"), "dev-2015-01-31");
+        Assert.assertEquals(parameters.getJSONArray("dBSecurityGroups").length(), 2);
+        Assert.assertTrue(parameters.getBoolean("applyImmediately"));
+
+        Assert.assertTrue(json.getJSONArray("phases").getJSONObject(0).getLong("millis") >= 1000);
+        Assert.assertEquals(json.getJSONArray("transitions").getJSONObject(0).getString("to"), "modified");
+
+        Assert.assertEquals(new JSONObject(lines.get(1)).getJSONArray("apiCalls").length(), 0);
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+public class StageHistoryTest {
+
+    @Test
+    public void measuresFromStageStartToFirstAvailable() throws Exception {
+        File file = File.createTempFile("rdsecho-history", ".ndjson");
+        file.deleteOnExit();
+        StageHistory history = new StageHistory(Optional.of(file));
+        DBInstance instance = new DBInstance().withDBInstanceIdentifier("dev-2015-01-31")
+                .withAllocatedStorage(100).withStorageType("gp2").withDBInstanceClass("db.m3.large");
+
+        history.available(instance, "new", Optional.of(0L), 3600 * 1000);
+        history.started("dev-2015-01-31", "modified", 4000 * 1000);
+        history.available(instance, "modified", Optional.<Long>absent(), 4600 * 1000);
+        // Seen available again later, e.g. after a declined prompt
+        history.available(instance, "modified", Optional.<Long>absent(), 9000 * 1000);
+        // Never started, so not measured
+        history.available(instance, "rebooted", Optional.<Long>absent(), 9000 * 1000);
+
+        List<StageHistory.Sample> samples = history.samples();
+        Assert.assertEquals(samples.size(), 2);
+        Assert.assertEquals(samples.get(0).stage, "new");
+        Assert.assertEquals(samples.get(0).seconds, 3600);
+        Assert.assertEquals(samples.get(0).instanceClass, "db.m3.large");
+        Assert.assertEquals(samples.get(1).stage, "modified");
+        Assert.assertEquals(samples.get(1).seconds, 600);
+    }
+
+    @Test
+    public void estimatesFromMostAlikeSamples() {
+        List<StageHistory.Sample> samples = Lists.newArrayList(
+                new StageHistory.Sample("a", "new", 100, "gp2", "db.m3.large", 1000),
+                new StageHistory.Sample("b", "new", 200, "gp2", "db.m3.large", 2000),
+                new StageHistory.Sample("c", "new", 300, "gp2", "db.m3.large", 3000),
+                new StageHistory.Sample("d", "new", 100, "io1", "db.r3.xlarge", 500),
+                new StageHistory.Sample("e", "modified", 100, "gp2", "db.m3.large", 60));
+
+        // A line through the samples of the same storage type and class
+        Optional<StageHistory.Estimate> estimate = StageHistory.estimate(samples, "new", 400, "gp2", "db.m3.large");
+        Assert.assertEquals(estimate.get().getSeconds(), 4000);
+        Assert.assertEquals(estimate.get().getSamples(), 3);
+
+        // Just the storage type in common
+        Assert.assertEquals(StageHistory.estimate(samples, "new", 100, "io1", "db.m3.large").get().getSeconds(), 500);
+
+        // One size only: the median
+        Assert.assertEquals(StageHistory.estimate(samples, "modified", 500, "gp2", "db.m3.large").get().getSeconds(), 60);
+
+        Assert.assertFalse(StageHistory.estimate(samples, "rebooted", 100, "gp2", "db.m3.large").isPresent());
+    }
+
+    @Test
+    public void readsTheFileAgainOnlyOnceItChanges() throws Exception {
+        File file = File.createTempFile("rdsecho-history", ".ndjson");
+        file.deleteOnExit();
+        StageHistory history = new StageHistory(Optional.of(file));
+        DBInstance instance = new DBInstance().withDBInstanceIdentifier("dev-2015-01-31")
+                .withAllocatedStorage(100).withStorageType("gp2").withDBInstanceClass("db.m3.large");
+        history.record(instance, "new", 3600);
+
+        List<Map<String, Object>> records = history.read();
+        Assert.assertEquals(records.size(), 1);
+        Assert.assertSame(history.read(), records);
+
+        // Another process records warming
+        new StageHistory(Optional.of(file)).record(instance, StageHistory.WARMING, 900);
+        Assert.assertEquals(history.read().size(), 2);
+        Assert.assertEquals(history.estimate(StageHistory.WARMING, 100, "gp2", "db.m3.large").get().getSeconds(), 900);
+    }
+}
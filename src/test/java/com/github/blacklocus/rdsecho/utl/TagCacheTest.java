@@ -0,0 +1,83 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.Tag;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class TagCacheTest {
+
+    static final String ARN_PREFIX = "arn:aws:rds:us-east-1:123:db:";
+
+    @Test
+    public void roundTrip() {
+        File dir = Files.createTempDir();
+        Date created = new Date(1420070400000L);
+
+        TagCache cache = TagCache.load(dir, 10, TimeUnit.MINUTES);
+        cache.put(ARN_PREFIX + "plain", created, Lists.newArrayList(new Tag().withKey("team").withValue("data")));
+        cache.put(ARN_PREFIX + "gone", created, Lists.<Tag>newArrayList());
+        cache.put(ARN_PREFIX + "echo", created, Lists.newArrayList(new Tag().withKey("rdsecho:dev:stage").withValue("new")));
+        cache.retain(ARN_PREFIX, ImmutableSet.of(ARN_PREFIX + "plain", ARN_PREFIX + "echo"));
+        cache.save();
+
+        TagCache reloaded = TagCache.load(dir, 10, TimeUnit.MINUTES);
+        List<Tag> tags = reloaded.get(ARN_PREFIX + "plain", created).get();
+        Assert.assertEquals(tags.size(), 1);
+        Assert.assertEquals(tags.get(0).getKey(), "team");
+        Assert.assertEquals(tags.get(0).getValue(), "data");
+
+        Assert.assertFalse(reloaded.get(ARN_PREFIX + "gone", created).isPresent(), "evicted");
+        Assert.assertFalse(reloaded.get(ARN_PREFIX + "echo", created).isPresent(), "echo tags are always read live");
+        Assert.assertFalse(reloaded.get(ARN_PREFIX + "plain", new Date()).isPresent(), "instance was re-created");
+    }
+
+    @Test
+    public void expires() {
+        TagCache cache = TagCache.load(Files.createTempDir(), -1, TimeUnit.MINUTES);
+        cache.put(ARN_PREFIX + "plain", null, Lists.<Tag>newArrayList());
+        Assert.assertFalse(cache.get(ARN_PREFIX + "plain", null).isPresent());
+    }
+
+    @Test
+    public void readsEnvironmentInstancesLive() {
+        TagCache cache = TagCache.load(Files.createTempDir(), 10, TimeUnit.MINUTES);
+        cache.readLive("dev-");
+        cache.put(ARN_PREFIX + "dev-2015-01-01", null, Lists.<Tag>newArrayList());
+        cache.put(ARN_PREFIX + "devops", null, Lists.<Tag>newArrayList());
+
+        // Tagged by hand since, which the next lookup must see
+        Assert.assertFalse(cache.get(ARN_PREFIX + "dev-2015-01-01", null).isPresent());
+        Assert.assertTrue(cache.get(ARN_PREFIX + "devops", null).isPresent());
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.Tag;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+public class TagIndexInstanceDiscoveryTest {
+
+    @Test
+    public void describesOnlyTaggedInstances() {
+        FakeRds fake = new FakeRds();
+        for (int i = 0; i < 500; i++) {
+            String id = "db-" + i;
+            fake.addInstance(id, RdsFind.instanceArn("us-east-1", "123", id),
+                    new Tag().withKey("rdsecho:a:managed").withValue(i % 100 == 0 ? "true" : "false"));
+        }
+        // Gone from RDS but still in the index
+        fake.tagsByArn.put(RdsFind.instanceArn("us-east-1", "123", "db-deleted"),
+                Lists.newArrayList(new Tag().withKey("rdsecho:a:managed").withValue("true")));
+        // Another account
+        fake.tagsByArn.put(RdsFind.instanceArn("us-east-1", "456", "db-0"),
+                Lists.newArrayList(new Tag().withKey("rdsecho:a:managed").withValue("true")));
+        FakeTagIndex tagIndex = new FakeTagIndex(fake.tagsByArn);
+
+        RdsFind find = new RdsFind(fake.client(), 4);
+        find.withDiscovery(new TagIndexInstanceDiscovery(find, tagIndex));
+        RdsInventory inventory = new RdsInventory(find, "us-east-1", "123");
+
+        List<DBInstance> managed = inventory.instancesWithTag("rdsecho:a:managed", "true");
+        Assert.assertEquals(managed.size(), 5);
+        Assert.assertEquals(Iterables.getOnlyElement(inventory.tags("db-200")).getValue(), "true");
+        Assert.assertEquals(inventory.instancesWithTag("rdsecho:a:managed", "true").size(), 5);
+
+        Assert.assertEquals(tagIndex.calls.get(), 1);
+        Assert.assertEquals(fake.describeCalls.get(), 6);
+        Assert.assertEquals(fake.tagCalls.get(), 0);
+    }
+}
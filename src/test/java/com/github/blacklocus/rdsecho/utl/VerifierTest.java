@@ -0,0 +1,137 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+public class VerifierTest {
+
+    static final String URL = "jdbc:h2:mem:verify;DB_CLOSE_DELAY=-1";
+    static final String COUNT = "SELECT COUNT(*) FROM orders";
+    static final String RECENT = "SELECT * FROM orders WHERE id > 90";
+
+    static final Verifier.Thresholds LENIENT = new Verifier.Thresholds(
+            Optional.<Long>absent(), Optional.<Long>absent(), 1.5, 0.1);
+
+    Connection keepAlive;
+
+    @BeforeClass
+    public void createTables() throws SQLException {
+        keepAlive = DriverManager.getConnection(URL);
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("CREATE TABLE orders (id INT PRIMARY KEY, total DECIMAL(10, 2))");
+            statement.execute("INSERT INTO orders SELECT x, x * 1.5 FROM SYSTEM_RANGE(1, 100)");
+        }
+    }
+
+    @AfterClass
+    public void dropTables() throws SQLException {
+        keepAlive.close();
+    }
+
+    @Test
+    public void measuresEachQuery() throws InterruptedException {
+        Verifier verifier = new Verifier(new JdbcConnector(URL, new Properties(), Optional.<Driver>absent()), 3, 10);
+        Map<String, Verifier.QueryStats> stats = verifier.run(Arrays.asList(COUNT, RECENT, "SELECT * FROM missing"));
+
+        Verifier.QueryStats count = stats.get(COUNT);
+        Assert.assertEquals(count.latenciesMillis.size(), 10);
+        Assert.assertEquals(count.getRows(), 1);
+        Assert.assertEquals(stats.get(RECENT).getRows(), 10);
+        Assert.assertTrue(stats.get(RECENT).percentileMillis(0.99) >= stats.get(RECENT).percentileMillis(0.5));
+
+        List<String> violations = Verifier.violations(stats, Optional.<Map<String, Verifier.QueryStats>>absent(), LENIENT);
+        Assert.assertEquals(violations.size(), 1);
+        Assert.assertTrue(violations.get(0).startsWith("SELECT * FROM missing failed"));
+    }
+
+    @Test
+    public void comparesToBaseline() {
+        Map<String, Verifier.QueryStats> baseline = ImmutableMap.of(
+                COUNT, stats(COUNT, 1, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10),
+                RECENT, stats(RECENT, 1000, 20));
+        Optional<Map<String, Verifier.QueryStats>> compared = Optional.of(baseline);
+
+        // Slower, but within grace of a fast baseline
+        Map<String, Verifier.QueryStats> candidate = ImmutableMap.of(
+                COUNT, stats(COUNT, 1, 1, 2, 3, 4, 5, 6, 7, 8, 9, 14),
+                RECENT, stats(RECENT, 1050, 25));
+        Assert.assertEquals(Verifier.violations(candidate, compared, LENIENT).size(), 0);
+
+        candidate = ImmutableMap.of(
+                COUNT, stats(COUNT, 1, 1, 2, 3, 4, 5, 6, 7, 8, 9, 40),
+                RECENT, stats(RECENT, 500, 20));
+        List<String> violations = Verifier.violations(candidate, compared, LENIENT);
+        Assert.assertEquals(violations.size(), 2, violations.toString());
+        Assert.assertTrue(violations.get(0).contains("p99 40.0ms"), violations.get(0));
+        Assert.assertTrue(violations.get(1).contains("500 rows"), violations.get(1));
+
+        Verifier.Thresholds strict = new Verifier.Thresholds(Optional.of(3L), Optional.of(9L), 1.5, 0.1);
+        Assert.assertEquals(Verifier.violations(baseline, Optional.<Map<String, Verifier.QueryStats>>absent(), strict),
+                Arrays.asList(COUNT + " p50 5.0ms is over 3ms", COUNT + " p99 10.0ms is over 9ms",
+                        RECENT + " p50 20.0ms is over 3ms", RECENT + " p99 20.0ms is over 9ms"));
+    }
+
+    @Test
+    public void comparesChecksumsWithoutRowDrift() throws InterruptedException {
+        Verifier verifier = new Verifier(new JdbcConnector(URL, new Properties(), Optional.<Driver>absent()), 2, 2);
+        Map<String, Verifier.QueryStats> stats = verifier.run(Arrays.asList(RECENT));
+        Assert.assertNotEquals(stats.get(RECENT).checksum, 0L);
+
+        Map<String, Verifier.QueryStats> baseline = ImmutableMap.of(RECENT, stats(RECENT, 10, 1, 1));
+        Verifier.Thresholds drifting = new Verifier.Thresholds(
+                Optional.<Long>absent(), Optional.<Long>absent(), Double.MAX_VALUE, 0.1);
+        Verifier.Thresholds exact = new Verifier.Thresholds(
+                Optional.<Long>absent(), Optional.<Long>absent(), Double.MAX_VALUE, 0);
+        Assert.assertTrue(Verifier.violations(stats, Optional.of(baseline), drifting).isEmpty());
+        List<String> violations = Verifier.violations(stats, Optional.of(baseline), exact);
+        Assert.assertEquals(violations.size(), 1, violations.toString());
+        Assert.assertTrue(violations.get(0).contains("but the baseline 00000000"), violations.get(0));
+
+        Assert.assertTrue(Verifier.violations(stats, Optional.of(stats), exact).isEmpty());
+    }
+
+    static Verifier.QueryStats stats(String query, long rows, double... millis) {
+        Verifier.QueryStats stats = new Verifier.QueryStats(query);
+        for (double m : millis) {
+            stats.ran(m, rows, 0);
+        }
+        return stats;
+    }
+}
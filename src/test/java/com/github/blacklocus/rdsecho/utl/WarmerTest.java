@@ -0,0 +1,91 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 BlackLocus
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.blacklocus.rdsecho.utl;
+
+import com.google.common.base.Optional;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+public class WarmerTest {
+
+    static final String URL = "jdbc:h2:mem:warm;DB_CLOSE_DELAY=-1";
+    static final JdbcConnector CONNECTOR = new JdbcConnector(URL, new Properties(), Optional.<Driver>absent());
+
+    Connection keepAlive;
+
+    @BeforeClass
+    public void createTables() throws SQLException {
+        keepAlive = DriverManager.getConnection(URL);
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("CREATE TABLE orders (id INT PRIMARY KEY, total DECIMAL(10, 2))");
+            statement.execute("INSERT INTO orders SELECT x, x * 1.5 FROM SYSTEM_RANGE(1, 2500)");
+            statement.execute("CREATE TABLE customers (id INT PRIMARY KEY, name VARCHAR(100))");
+            statement.execute("INSERT INTO customers SELECT x, 'customer ' || x FROM SYSTEM_RANGE(1, 300)");
+        }
+    }
+
+    @AfterClass
+    public void dropTables() throws SQLException {
+        keepAlive.close();
+    }
+
+    @Test
+    public void scansTablesAndQueriesInParallel() throws InterruptedException {
+        Warmer warmer = new Warmer(CONNECTOR, 2, 100);
+        List<Warmer.Scan> scans = warmer.warm(Arrays.asList("orders", "customers"),
+                Collections.singletonList("SELECT * FROM orders WHERE id <= 10"));
+
+        Assert.assertEquals(scans.size(), 3);
+        Assert.assertEquals(scans.get(0).getName(), "orders");
+        Assert.assertEquals(scans.get(0).getRows(), 2500);
+        Assert.assertEquals(scans.get(1).getRows(), 300);
+        Assert.assertEquals(scans.get(2).getRows(), 10);
+        for (Warmer.Scan scan : scans) {
+            Assert.assertFalse(scan.getFailure().isPresent());
+            Assert.assertFalse(scan.isRunning());
+        }
+    }
+
+    @Test
+    public void reportsFailedScans() throws InterruptedException {
+        Warmer warmer = new Warmer(CONNECTOR, 4, 100);
+        List<Warmer.Scan> scans = warmer.warm(Arrays.asList("customers", "missing"), Collections.<String>emptyList());
+
+        Assert.assertFalse(scans.get(0).getFailure().isPresent());
+        Assert.assertTrue(scans.get(1).getFailure().isPresent());
+        Assert.assertTrue(Warmer.report(scans).contains("failed"));
+    }
+}